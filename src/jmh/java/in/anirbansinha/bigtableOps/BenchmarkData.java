@@ -0,0 +1,167 @@
+package in.anirbansinha.bigtableOps;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import io.github.cdimascio.dotenv.DotenvEntry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The bundled station files and synthetic copies of them, shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+    private static final String CHECKPOINT_FILE = "LOAD_CHECKPOINT_FILE";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return The contents of the bundled station files, in {@link Bigtable#STATION_IDS} order
+     */
+    static List<byte[]> stationFiles() throws IOException {
+        List<byte[]> files = new ArrayList<>();
+        for (StationFile file : Bigtable.stationFiles()) {
+            files.add(Files.readAllBytes(Paths.get(file.path)));
+        }
+        return files;
+    }
+
+    /**
+     * @return The data lines of the bundled files that hold a complete reading
+     */
+    static List<byte[]> acceptedLines() throws IOException {
+        List<byte[]> lines = new ArrayList<>();
+        ReadingParser parser = new ReadingParser();
+        quietly(() -> {
+            for (byte[] data : stationFiles()) {
+                int pos = 0;
+                long lineNumber = 0;
+                while (pos < data.length) {
+                    int end = ReadingParser.lineEnd(data, pos, data.length);
+                    if (++lineNumber > IngestPipeline.HEADER_LINES && parser.parse(data, pos, end, lineNumber)) {
+                        byte[] line = new byte[end - pos];
+                        System.arraycopy(data, pos, line, 0, line.length);
+                        lines.add(line);
+                    }
+                    pos = ReadingParser.nextLine(data, end, data.length);
+                }
+            }
+            return null;
+        });
+        return lines;
+    }
+
+    /**
+     * Write {@code scale} copies of every bundled file, each under its own station ID
+     * (SEA, SEA2, SEA3, ...), so a load writes {@code scale} times the bundled rows.
+     * @param dir Directory for the copies
+     * @return The synthetic station files
+     */
+    static List<StationFile> scaledFiles(Path dir, int scale) throws IOException {
+        List<StationFile> files = new ArrayList<>();
+        for (StationFile file : Bigtable.stationFiles()) {
+            for (int copy = 1; copy <= scale; copy++) {
+                String stationId = copy == 1 ? file.stationId : file.stationId + copy;
+                Path path = dir.resolve(stationId.toLowerCase() + ".csv");
+                Files.copy(Paths.get(file.path), path);
+                files.add(new StationFile(stationId, path.toString()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return A Bigtable configured from the .env file, except that its load checkpoints are
+     *         kept in memory, so the benchmark loads leave no checkpoint file behind
+     */
+    static Bigtable newBigtable() {
+        Dotenv dotenv = Dotenv.load();
+        return new Bigtable(new Dotenv() {
+            @Override
+            public Set<DotenvEntry> entries() {
+                return dotenv.entries();
+            }
+
+            @Override
+            public Set<DotenvEntry> entries(Filter filter) {
+                return dotenv.entries(filter);
+            }
+
+            @Override
+            public String get(String key) {
+                return CHECKPOINT_FILE.equals(key) ? "" : dotenv.get(key);
+            }
+
+            @Override
+            public String get(String key, String defaultValue) {
+                return CHECKPOINT_FILE.equals(key) ? "" : dotenv.get(key, defaultValue);
+            }
+        });
+    }
+
+    /**
+     * The load and query benchmarks replace the configured table, so they only run
+     * against the emulator or the in-memory store.
+     */
+    static void requireEmulator(Bigtable bigtable) {
+        if (!TableStore.MEMORY.equals(bigtable.storageBackend) && System.getenv("BIGTABLE_EMULATOR_HOST") == null) {
+            throw new IllegalStateException("Set BIGTABLE_EMULATOR_HOST, or STORAGE_BACKEND=memory, to run the "
+                    + "Bigtable benchmarks; they delete and reload the configured table");
+        }
+    }
+
+    interface Action<T> {
+        T run() throws Exception;
+    }
+
+    private static PrintStream stdout;
+    private static PrintStream stderr;
+
+    /**
+     * Discard stdout and stderr until {@link #restoreOutput()}, e.g. during a load that reports
+     * every skipped line, so the benchmark does not measure the terminal.
+     */
+    static synchronized void silenceOutput() {
+        if (stdout == null) {
+            stdout = System.out;
+            stderr = System.err;
+            PrintStream sink = new PrintStream(OutputStream.nullOutputStream(), false, StandardCharsets.UTF_8);
+            System.setOut(sink);
+            System.setErr(sink);
+        }
+    }
+
+    static synchronized void restoreOutput() {
+        if (stdout != null) {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            stdout = null;
+            stderr = null;
+        }
+    }
+
+    /**
+     * Run an action with stdout and stderr discarded.
+     */
+    static <T> T quietly(Action<T> action) throws IOException {
+        silenceOutput();
+        try {
+            return action.run();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            restoreOutput();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.bigtable.v2.MutateRowsRequest;
+import com.google.bigtable.v2.Mutation;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building the row mutations of a load and decoding the rows of a query, per cell encoding.
+ * Every invocation covers all complete readings of the bundled files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+
+    private static final String FAMILY = "sensor";
+    private static final byte[] STATION = "SEA#".getBytes(StandardCharsets.UTF_8);
+
+    @Param({ ReadingCodecs.STRING, ReadingCodecs.INT, ReadingCodecs.PACKED })
+    public String encoding;
+
+    private ReadingCodec codec;
+    private ByteString[] keys;
+    private int[][] values;
+    private Row[] rows;
+    private final int[] decoded = new int[Metric.COUNT];
+
+    @Setup
+    public void setup() throws Exception {
+        codec = ReadingCodecs.forName(encoding);
+        ReadingParser parser = new ReadingParser();
+        List<ByteString> keyList = new ArrayList<>();
+        List<int[]> valueList = new ArrayList<>();
+        for (byte[] line : BenchmarkData.acceptedLines()) {
+            parser.parse(line, 0, line.length, 3);
+            keyList.add(parser.rowKey(STATION));
+            valueList.add(parser.values().clone());
+        }
+        keys = keyList.toArray(new ByteString[0]);
+        values = valueList.toArray(new int[0][]);
+
+        rows = new Row[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            rows[i] = asRow(buildMutation(i));
+        }
+    }
+
+    private RowMutationEntry buildMutation(int i) {
+        RowMutationEntry entry = RowMutationEntry.create(keys[i]);
+        codec.encode(entry, FAMILY, values[i]);
+        return entry;
+    }
+
+    /**
+     * Build the mutation of every reading, as the loaders do for each accepted line.
+     */
+    @Benchmark
+    public void buildMutations(Blackhole blackhole) {
+        for (int i = 0; i < keys.length; i++) {
+            blackhole.consume(buildMutation(i));
+        }
+    }
+
+    /**
+     * Build and serialize the mutation of every reading, which the client does before sending a batch.
+     */
+    @Benchmark
+    public void buildAndSerializeMutations(Blackhole blackhole) {
+        for (int i = 0; i < keys.length; i++) {
+            blackhole.consume(buildMutation(i).toProto().getSerializedSize());
+        }
+    }
+
+    /**
+     * Decode every metric of every row, as queries and the stream do.
+     */
+    @Benchmark
+    public void decodeRows(Blackhole blackhole) {
+        for (Row row : rows) {
+            blackhole.consume(codec.decode(row, FAMILY, decoded));
+        }
+    }
+
+    /**
+     * @return The row a mutation writes, as it would be read back
+     */
+    private static Row asRow(RowMutationEntry entry) {
+        MutateRowsRequest.Entry proto = entry.toProto();
+        List<RowCell> cells = new ArrayList<>();
+        for (Mutation mutation : proto.getMutationsList()) {
+            Mutation.SetCell cell = mutation.getSetCell();
+            cells.add(RowCell.create(cell.getFamilyName(), cell.getColumnQualifier(), cell.getTimestampMicros(),
+                    Collections.<String>emptyList(), cell.getValue()));
+        }
+        cells.sort(RowCell.compareByNative());
+        return Row.create(proto.getRowKey(), cells);
+    }
+}
@@ -0,0 +1,74 @@
+package in.anirbansinha.bigtableOps;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full {@link Bigtable#loadData} into the emulator (or the in-memory store with
+ * STORAGE_BACKEND=memory): parsing, mutation building, batched writes and rollups. The table is recreated before every iteration. With scale above 1,
+ * every station file is loaded that many times under different station IDs.
+ * The load path (LOAD_MODE), encoding and batching come from the .env file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({ "1" })
+    public int scale;
+
+    private Bigtable bigtable;
+    private Path dir;
+    private List<StationFile> files;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        bigtable = BenchmarkData.newBigtable();
+        BenchmarkData.requireEmulator(bigtable);
+        dir = Files.createTempDirectory("load-benchmark");
+        files = BenchmarkData.scaledFiles(dir, scale);
+        bigtable.connect();
+        BenchmarkData.silenceOutput();
+    }
+
+    @Setup(Level.Iteration)
+    public void recreateTable() {
+        bigtable.deleteTable();
+        bigtable.createTable();
+    }
+
+    @Benchmark
+    public void loadData() throws Exception {
+        bigtable.loadData(files);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        BenchmarkData.restoreOutput();
+        bigtable.close();
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package in.anirbansinha.bigtableOps;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The ingest hot path without Bigtable: splitting station files into lines, tokenizing and
+ * parsing a line into a reading, and parsing the individual field formats.
+ * Only lines that hold a complete reading are parsed, so the benchmark measures the accepted
+ * path rather than the rate-limited diagnostics of rejected lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final byte[] STATION = "SEA#".getBytes(StandardCharsets.UTF_8);
+
+    /** Values in the formats the station files use for each field. */
+    private static final String[][] FIELD_VARIANTS = {
+        { "60", "49", "66.9", "6", "1013.6" },
+        { "72F", "49", "66.9", "6", "1013.6" },
+        { "20°C", "-3", "100", "12", "999.9" },
+        { "-4.5", "-10.25", "7.0", "0", "1100" },
+        { " 15 ", " 8 ", " 55.5 ", " 3 ", " 1020.1 " },
+        { "12.000000000000000000000001", "0000012", "99.4", "199", "800.4" },
+    };
+
+    private List<byte[]> files;
+    private byte[][] lines;
+    private byte[][] fieldLines;
+    private final ReadingParser parser = new ReadingParser();
+
+    @Setup
+    public void setup() throws Exception {
+        files = BenchmarkData.stationFiles();
+        lines = BenchmarkData.acceptedLines().toArray(new byte[0][]);
+        List<byte[]> variants = new ArrayList<>();
+        for (String[] fields : FIELD_VARIANTS) {
+            String line = "2459492.87,2021-10-04,20:53," + fields[0] + "," + fields[1] + "," + fields[2] + ","
+                    + fields[3] + ",M," + fields[4];
+            variants.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        fieldLines = variants.toArray(new byte[0][]);
+    }
+
+    /**
+     * Split every bundled file into lines, as the loaders do before parsing.
+     * @return Number of lines
+     */
+    @Benchmark
+    public long splitLines() {
+        long count = 0;
+        for (byte[] data : files) {
+            int pos = 0;
+            while (pos < data.length) {
+                pos = ReadingParser.nextLine(data, ReadingParser.lineEnd(data, pos, data.length), data.length);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Tokenize and parse every complete bundled line, and build its hour key and row key.
+     */
+    @Benchmark
+    public void parseLines(Blackhole blackhole) {
+        for (byte[] line : lines) {
+            if (parser.parse(line, 0, line.length, 3)) {
+                blackhole.consume(parser.hourKey());
+                blackhole.consume(parser.rowKey(STATION));
+            }
+        }
+    }
+
+    /**
+     * Parse lines whose fields use the different formats the parser accepts: units,
+     * decimals, surrounding blanks and long fractions.
+     */
+    @Benchmark
+    public void parseFields(Blackhole blackhole) {
+        for (byte[] line : fieldLines) {
+            blackhole.consume(parser.parse(line, 0, line.length, 3));
+            blackhole.consume(parser.values());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package in.anirbansinha.bigtableOps;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The four queries end to end against the emulator (or the in-memory store with
+ * STORAGE_BACKEND=memory), loaded once per trial from the bundled
+ * files (scaled up synthetically with scale above 1; the queries still read the original
+ * stations). Caching, rollups and the encoding come from the .env file, so a run with
+ * CACHE_ENABLED=false measures query1 against the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({ "1" })
+    public int scale;
+
+    /** Whether to reload the table; false reuses what an earlier run loaded. */
+    @Param({ "true" })
+    public boolean load;
+
+    private Bigtable bigtable;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        bigtable = BenchmarkData.newBigtable();
+        BenchmarkData.requireEmulator(bigtable);
+        bigtable.connect();
+        BenchmarkData.silenceOutput();
+        if (load) {
+            Path dir = Files.createTempDirectory("query-benchmark");
+            List<StationFile> files = BenchmarkData.scaledFiles(dir, scale);
+            bigtable.deleteTable();
+            bigtable.createTable();
+            bigtable.loadData(files);
+            for (StationFile file : files) {
+                Files.delete(Paths.get(file.path));
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.restoreOutput();
+        bigtable.close();
+    }
+
+    @Benchmark
+    public int query1() throws Exception {
+        return bigtable.query1();
+    }
+
+    @Benchmark
+    public int query2() throws Exception {
+        return bigtable.query2();
+    }
+
+    @Benchmark
+    public List<Object[]> query3() throws Exception {
+        return bigtable.query3();
+    }
+
+    @Benchmark
+    public int query4() throws Exception {
+        return bigtable.query4();
+    }
+}
@@ -0,0 +1,97 @@
+package in.anirbansinha.bigtableOps;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Aggregates over a {@link ColumnarSnapshot} of ten years of hourly readings at three
+ * stations, without Bigtable: the vectorizable summary loop against every value going
+ * through the percentile histogram.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2013, 1, 1);
+    private static final LocalDate LAST_DAY = LocalDate.of(2022, 12, 31);
+    private static final List<String> STATIONS = Arrays.asList(Bigtable.STATION_IDS);
+
+    private Path path;
+    private ColumnarSnapshot snapshot;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+        SnapshotWriter writer = new SnapshotWriter();
+        int[] values = new int[Metric.COUNT];
+        for (String station : STATIONS) {
+            for (LocalDate day = FIRST_DAY; !day.isAfter(LAST_DAY); day = day.plusDays(1)) {
+                for (int hour = 0; hour < 24; hour++) {
+                    values[0] = random.nextInt(100) - 20;
+                    values[1] = random.nextInt(60) - 10;
+                    values[2] = 30 + random.nextInt(70);
+                    values[3] = random.nextInt(30);
+                    values[4] = 980 + random.nextInt(60);
+                    writer.add(new HourlyReading(new ReadingKey(station, day, hour), values));
+                }
+            }
+        }
+        path = Files.createTempFile("readings", ".snapshot");
+        writer.write(path);
+        snapshot = ColumnarSnapshot.open(path);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * The highest temperature of every station over ten years.
+     */
+    @Benchmark
+    public double maxOverTenYears() {
+        return snapshot.aggregate(Collections.emptyList(), HourRange.days(FIRST_DAY, LAST_DAY),
+                Metric.TEMPERATURE, Aggregate.MAX);
+    }
+
+    /**
+     * The 95th percentile temperature of every station over ten years.
+     */
+    @Benchmark
+    public double p95OverTenYears() {
+        return snapshot.aggregate(Collections.emptyList(), HourRange.days(FIRST_DAY, LAST_DAY),
+                Metric.TEMPERATURE, Aggregate.P95);
+    }
+
+    /**
+     * The highest wind speed at one station in one month, as query2 asks.
+     */
+    @Benchmark
+    public double maxOverOneMonth() {
+        return snapshot.aggregate(Collections.singletonList("PDX"),
+                HourRange.days(LocalDate.of(2022, 9, 1), LocalDate.of(2022, 9, 30)), Metric.WIND_SPEED, Aggregate.MAX);
+    }
+}
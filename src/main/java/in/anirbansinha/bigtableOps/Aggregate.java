@@ -0,0 +1,97 @@
+package in.anirbansinha.bigtableOps;
+
+/**
+ * An aggregate function over the values of a metric: min, max, sum, avg, count or a percentile.
+ */
+public final class Aggregate {
+
+    private enum Kind { MIN, MAX, SUM, AVG, COUNT, PERCENTILE }
+
+    public static final Aggregate MIN = new Aggregate(Kind.MIN, 0);
+    public static final Aggregate MAX = new Aggregate(Kind.MAX, 0);
+    public static final Aggregate SUM = new Aggregate(Kind.SUM, 0);
+    public static final Aggregate AVG = new Aggregate(Kind.AVG, 0);
+    public static final Aggregate COUNT = new Aggregate(Kind.COUNT, 0);
+    public static final Aggregate P50 = percentile(0.5);
+    public static final Aggregate P95 = percentile(0.95);
+    public static final Aggregate P99 = percentile(0.99);
+
+    private final Kind kind;
+    private final double fraction;
+
+    private Aggregate(Kind kind, double fraction) {
+        this.kind = kind;
+        this.fraction = fraction;
+    }
+
+    /**
+     * @param fraction Between 0 and 1, e.g. 0.95 for the 95th percentile
+     * @return The nearest-rank percentile
+     */
+    public static Aggregate percentile(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1: " + fraction);
+        }
+        return new Aggregate(Kind.PERCENTILE, fraction);
+    }
+
+    /**
+     * @param name min, max, sum, avg, count or pNN (e.g. p95)
+     * @return The aggregate
+     */
+    public static Aggregate forName(String name) {
+        String lower = name.trim().toLowerCase();
+        if (lower.startsWith("p") && lower.length() > 1) {
+            return percentile(Double.parseDouble(lower.substring(1)) / 100);
+        }
+        switch (lower) {
+            case "min":
+                return MIN;
+            case "max":
+                return MAX;
+            case "sum":
+                return SUM;
+            case "avg":
+                return AVG;
+            case "count":
+                return COUNT;
+            default:
+                throw new IllegalArgumentException("Unknown aggregate: " + name);
+        }
+    }
+
+    /**
+     * @return Whether the aggregate needs every value rather than their count, min, max and sum
+     */
+    public boolean needsEveryValue() {
+        return kind == Kind.PERCENTILE;
+    }
+
+    /**
+     * @return The aggregate of the accumulated values; NaN for min, max, avg and percentiles without values
+     */
+    public double apply(MetricAccumulator values) {
+        if (values.count() == 0 && kind != Kind.SUM && kind != Kind.COUNT) {
+            return Double.NaN;
+        }
+        switch (kind) {
+            case MIN:
+                return values.min();
+            case MAX:
+                return values.max();
+            case SUM:
+                return values.sum();
+            case AVG:
+                return values.average();
+            case COUNT:
+                return values.count();
+            default:
+                return values.percentile(fraction);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.PERCENTILE ? "p" + fraction * 100 : kind.name().toLowerCase();
+    }
+}
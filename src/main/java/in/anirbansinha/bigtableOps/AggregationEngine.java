@@ -0,0 +1,331 @@
+package in.anirbansinha.bigtableOps;
+
+import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
+
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.cloud.bigtable.data.v2.models.Filters;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Range.ByteStringRange;
+import com.google.cloud.bigtable.data.v2.models.Row;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Aggregates one metric over some stations and an hour range. Rows are streamed from one
+ * concurrent scan per station (see {@link ParallelScanner}) that reads only the metric's
+ * column, and decoded straight into a {@link MetricAccumulator} per scan.
+ * When rollups are enabled and the aggregate does not need every value (anything but a
+ * percentile), whole months and days are read from the {@link Rollups} tables instead
+ * (see {@link RollupPlan}), so a month costs one row per station instead of about 720.
+ * Days and months without a rollup row, e.g. of a table loaded before rollups were written,
+ * are read from the hourly rows instead, as is everything if the rollup tables do not exist;
+ * {@code Bigtable rebuild-rollups} writes the rollups of such a table.
+ */
+public class AggregationEngine {
+
+    private static final RateLimitedLogger LOG = new RateLimitedLogger(AggregationEngine.class);
+
+    private final TableStore store;
+    private final String tableId;
+    private final String family;
+    private final ReadingCodec codec;
+    private final KeyLayout layout;
+    private final boolean useRollups;
+
+    /**
+     * @param layout The layout of the readings table's row keys; the rollup tables are always plain
+     * @param useRollups Whether the rollup tables exist and may be used to answer queries
+     */
+    public AggregationEngine(TableStore store, String tableId, String family, ReadingCodec codec,
+                             KeyLayout layout, boolean useRollups) {
+        this.store = store;
+        this.tableId = tableId;
+        this.family = family;
+        this.codec = codec;
+        this.layout = layout;
+        this.useRollups = useRollups;
+    }
+
+    /**
+     * @param stations The stations to read; empty for every station in the table
+     * @param range The hours to read
+     * @param metric The metric to aggregate
+     * @param aggregate The aggregate function
+     * @param trace Counts the rows read
+     * @return The aggregate, NaN if there are no values (except for sum and count)
+     * @throws Exception if a scan fails
+     */
+    public double aggregate(Collection<String> stations, HourRange range, Metric metric, Aggregate aggregate,
+                            QueryTrace trace) throws Exception {
+        MetricAccumulator values = aggregate.needsEveryValue()
+                ? accumulate(stations, range, metric, trace)
+                : summarize(stations, range, metric, trace);
+        return aggregate.apply(values);
+    }
+
+    /**
+     * {@link #aggregate} without waiting for the scans.
+     * @return The aggregate, NaN if there are no values (except for sum and count)
+     */
+    public CompletableFuture<Double> aggregateAsync(Collection<String> stations, HourRange range, Metric metric,
+                                                    Aggregate aggregate, QueryTrace trace) {
+        CompletableFuture<MetricAccumulator> values = aggregate.needsEveryValue()
+                ? accumulateAsync(stations, range, metric, trace)
+                : summarizeAsync(stations, range, metric, trace);
+        return values.thenApply(aggregate::apply);
+    }
+
+    /**
+     * Collect every value of a metric from the hourly rows, to compute several aggregates,
+     * including percentiles, from one scan.
+     * @param stations The stations to read; empty for every station in the table
+     * @param range The hours to read
+     * @param metric The metric to collect
+     * @param trace Counts the rows read
+     * @return The accumulated values
+     * @throws Exception if a scan fails
+     */
+    public MetricAccumulator accumulate(Collection<String> stations, HourRange range, Metric metric,
+                                        QueryTrace trace) throws Exception {
+        return await(accumulateAsync(stations, range, metric, trace));
+    }
+
+    /**
+     * {@link #accumulate} without waiting for the scans.
+     */
+    public CompletableFuture<MetricAccumulator> accumulateAsync(Collection<String> stations, HourRange range,
+                                                                Metric metric, QueryTrace trace) {
+        return hourly(stations, range, metric, trace);
+    }
+
+    /**
+     * Collect the count, min, max and sum of a metric, from the rollups where possible.
+     * Percentiles are only available if no rollups were used, see {@link MetricAccumulator#hasPercentiles()}.
+     * @param stations The stations to read; empty for every station in the table
+     * @param range The hours to read
+     * @param metric The metric to collect
+     * @param trace Counts the rows read
+     * @return The accumulated values
+     * @throws Exception if a scan fails
+     */
+    public MetricAccumulator summarize(Collection<String> stations, HourRange range, Metric metric,
+                                       QueryTrace trace) throws Exception {
+        return await(summarizeAsync(stations, range, metric, trace));
+    }
+
+    /**
+     * {@link #summarize} without waiting for the scans.
+     */
+    public CompletableFuture<MetricAccumulator> summarizeAsync(Collection<String> stations, HourRange range,
+                                                               Metric metric, QueryTrace trace) {
+        if (!useRollups || stations.isEmpty()) {
+            // Rollups are keyed by station; without stations the hourly scan is as good
+            return hourly(stations, range, metric, trace);
+        }
+
+        RollupPlan plan = RollupPlan.of(range);
+        List<CompletableFuture<MetricAccumulator>> parts = new ArrayList<>();
+        for (HourRange hours : plan.hours) {
+            parts.add(hourly(stations, hours, metric, trace));
+        }
+
+        List<Query> rollups = new ArrayList<>();
+        for (String station : stations) {
+            for (HourRange days : plan.days) {
+                rollups.add(rollupQuery(Rollups.dailyTable(tableId),
+                        RowKeys.stationPrefix(station) + days.firstDay,
+                        RowKeys.stationPrefix(station) + days.lastDay.plusDays(1), metric));
+            }
+            if (plan.firstMonth != null) {
+                rollups.add(rollupQuery(Rollups.monthlyTable(tableId),
+                        RowKeys.stationPrefix(station) + plan.firstMonth,
+                        RowKeys.stationPrefix(station) + plan.lastMonth.plusMonths(1), metric));
+            }
+        }
+        if (!rollups.isEmpty()) {
+            // The keys of the rollup rows found; scans add to it concurrently
+            Set<String> found = ConcurrentHashMap.newKeySet();
+            parts.add(new ParallelScanner(store).scanAsync(rollups, trace.counting(new Summarize(metric, found)))
+                    .handle((values, error) -> {
+                        if (error == null) {
+                            return values;
+                        }
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        if (!(cause instanceof NotFoundException)) {
+                            throw error instanceof CompletionException
+                                    ? (CompletionException) error : new CompletionException(error);
+                        }
+                        LOG.warn("missing rollups", "Reading hourly rows instead of rollups: {}", cause.getMessage());
+                        return null;
+                    })
+                    .thenCompose(values -> values != null
+                            ? withGaps(stations, plan, metric, values, found, trace)
+                            : withGaps(stations, plan, metric, new MetricAccumulator(), Collections.emptySet(), trace)));
+        }
+
+        return merge(parts);
+    }
+
+    /**
+     * Add the hourly rows of the planned days and months that have no rollup row to the
+     * rollups found. Adjacent gaps of a station are read with one scan.
+     */
+    private CompletableFuture<MetricAccumulator> withGaps(Collection<String> stations, RollupPlan plan,
+                                                          Metric metric, MetricAccumulator rolledUp,
+                                                          Set<String> found, QueryTrace trace) {
+        // The planned rollup rows, in time order
+        TreeMap<LocalDate, PlannedRow> planned = new TreeMap<>();
+        for (HourRange days : plan.days) {
+            for (LocalDate day = days.firstDay; !day.isAfter(days.lastDay); day = day.plusDays(1)) {
+                planned.put(day, new PlannedRow(day.toString(), day, day));
+            }
+        }
+        if (plan.firstMonth != null) {
+            for (YearMonth month = plan.firstMonth; !month.isAfter(plan.lastMonth); month = month.plusMonths(1)) {
+                planned.put(month.atDay(1), new PlannedRow(month.toString(), month.atDay(1), month.atEndOfMonth()));
+            }
+        }
+
+        List<CompletableFuture<MetricAccumulator>> parts = new ArrayList<>();
+        parts.add(CompletableFuture.completedFuture(rolledUp));
+        for (String station : stations) {
+            String prefix = RowKeys.stationPrefix(station);
+            List<HourRange> gaps = new ArrayList<>();
+            LocalDate gapFrom = null;
+            LocalDate gapTo = null;
+            for (PlannedRow row : planned.values()) {
+                if (found.contains(prefix + row.key)) {
+                    continue;
+                }
+                if (gapTo == null || !gapTo.plusDays(1).equals(row.firstDay)) {
+                    if (gapFrom != null) {
+                        gaps.add(HourRange.days(gapFrom, gapTo));
+                    }
+                    gapFrom = row.firstDay;
+                }
+                gapTo = row.lastDay;
+            }
+            if (gapFrom != null) {
+                gaps.add(HourRange.days(gapFrom, gapTo));
+            }
+            for (HourRange gap : gaps) {
+                parts.add(hourly(Collections.singletonList(station), gap, metric, trace));
+            }
+        }
+        return merge(parts);
+    }
+
+    private static CompletableFuture<MetricAccumulator> merge(List<CompletableFuture<MetricAccumulator>> parts) {
+        return FanOutExecutor.allOf(parts).thenApply(values -> {
+            MetricAccumulator merged = new MetricAccumulator();
+            for (MetricAccumulator part : values) {
+                merged.merge(part);
+            }
+            return merged;
+        });
+    }
+
+    private CompletableFuture<MetricAccumulator> hourly(Collection<String> stations, HourRange range, Metric metric,
+                                                        QueryTrace trace) {
+        ReadingQuery readings = new ReadingQuery(tableId, family, codec, layout)
+                .stations(stations.toArray(new String[0]))
+                .hours(range)
+                .metrics(metric);
+        List<Query> queries = stations.isEmpty()
+                ? Collections.singletonList(readings.build())
+                : readings.buildPerStation();
+        return new ParallelScanner(store).scanAsync(queries, trace.counting(new Accumulate(metric)));
+    }
+
+    /**
+     * @return A query for the rollup rows in [startKey, endKey), reading only the metric's cell
+     */
+    private Query rollupQuery(String table, String startKey, String endKey, Metric metric) {
+        Filters.Filter filter = FILTERS.chain()
+                .filter(FILTERS.family().exactMatch(family))
+                .filter(FILTERS.qualifier().exactMatch(metric.qualifierBytes))
+                .filter(FILTERS.limit().cellsPerColumn(1));
+        return Query.create(table)
+                .range(ByteStringRange.unbounded().startClosed(startKey).endOpen(endKey))
+                .filter(filter);
+    }
+
+    private static MetricAccumulator await(CompletableFuture<MetricAccumulator> values) throws Exception {
+        try {
+            return values.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new Exception("Range scan failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private class Accumulate implements ParallelScanner.RowAggregator<MetricAccumulator> {
+        final Metric metric;
+
+        Accumulate(Metric metric) {
+            this.metric = metric;
+        }
+
+        @Override
+        public MetricAccumulator create() {
+            return new MetricAccumulator();
+        }
+
+        @Override
+        public void accept(MetricAccumulator values, Row row) {
+            values.add(codec.decode(row, family, metric));
+        }
+
+        @Override
+        public MetricAccumulator merge(MetricAccumulator left, MetricAccumulator right) {
+            return left.merge(right);
+        }
+    }
+
+    /** A daily or monthly rollup row a plan reads: its key after the station prefix and its days. */
+    private static final class PlannedRow {
+        final String key;
+        final LocalDate firstDay;
+        final LocalDate lastDay;
+
+        PlannedRow(String key, LocalDate firstDay, LocalDate lastDay) {
+            this.key = key;
+            this.firstDay = firstDay;
+            this.lastDay = lastDay;
+        }
+    }
+
+    private class Summarize extends Accumulate {
+        private final Set<String> found;
+
+        /**
+         * @param found Receives the key of every valid rollup row
+         */
+        Summarize(Metric metric, Set<String> found) {
+            super(metric);
+            this.found = found;
+        }
+
+        @Override
+        public void accept(MetricAccumulator values, Row row) {
+            if (Rollups.addTo(row, family, metric, values)) {
+                found.add(row.getKey().toStringUtf8());
+            } else {
+                // Read from the hourly rows instead
+                LOG.warn("invalid rollup", "Invalid {} rollup in row: {}", metric.qualifier, row.getKey().toStringUtf8());
+            }
+        }
+    }
+}
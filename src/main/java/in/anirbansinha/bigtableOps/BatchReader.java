@@ -0,0 +1,109 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.Filters;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads many hourly readings by key with few requests: the keys are sorted, merged into
+ * queries of up to batchKeys row keys each, and the queries are read concurrently.
+ */
+public class BatchReader {
+
+    private final TableStore store;
+    private final String tableId;
+    private final String family;
+    private final ReadingCodec codec;
+    private final KeyLayout layout;
+    private final int batchKeys;
+
+    public BatchReader(TableStore store, String tableId, String family, ReadingCodec codec,
+                       KeyLayout layout, int batchKeys) {
+        this.store = store;
+        this.tableId = tableId;
+        this.family = family;
+        this.codec = codec;
+        this.layout = layout;
+        this.batchKeys = Math.max(1, batchKeys);
+    }
+
+    /**
+     * @param keys The readings to read; duplicates are read once
+     * @param trace Counts the rows read
+     * @return The readings found, by key; keys without a row are left out
+     * @throws Exception if a request fails
+     */
+    public Map<ReadingKey, HourlyReading> read(Collection<ReadingKey> keys, QueryTrace trace) throws Exception {
+        if (keys.isEmpty()) {
+            return new HashMap<>();
+        }
+        return new ParallelScanner(store).lookup(queries(keys), trace.counting(new Collect()));
+    }
+
+    /**
+     * Read without waiting for the requests.
+     * @param keys The readings to read; duplicates are read once
+     * @param trace Counts the rows read
+     * @return The readings found, by key; keys without a row are left out
+     */
+    public CompletableFuture<Map<ReadingKey, HourlyReading>> readAsync(Collection<ReadingKey> keys,
+                                                                       QueryTrace trace) {
+        if (keys.isEmpty()) {
+            return CompletableFuture.completedFuture(new HashMap<>());
+        }
+        return new ParallelScanner(store).lookupAsync(queries(keys), trace.counting(new Collect()));
+    }
+
+    private List<Query> queries(Collection<ReadingKey> keys) {
+        // Sort by row key, so every request covers a narrow part of the table
+        TreeMap<String, ReadingKey> sorted = new TreeMap<>();
+        for (ReadingKey key : keys) {
+            sorted.put(layout.rowKey(key), key);
+        }
+
+        Filters.Filter filter = new ReadingQuery(tableId, family, codec, layout).cellFilter();
+        List<Query> queries = new ArrayList<>();
+        Query query = null;
+        int inQuery = 0;
+        for (String rowKey : sorted.keySet()) {
+            if (query == null || inQuery == batchKeys) {
+                query = Query.create(tableId).filter(filter);
+                queries.add(query);
+                inQuery = 0;
+            }
+            query.rowKey(rowKey);
+            inQuery++;
+        }
+        return queries;
+    }
+
+    private class Collect implements ParallelScanner.RowAggregator<Map<ReadingKey, HourlyReading>> {
+        @Override
+        public Map<ReadingKey, HourlyReading> create() {
+            return new HashMap<>();
+        }
+
+        @Override
+        public void accept(Map<ReadingKey, HourlyReading> readings, Row row) {
+            HourlyReading reading = HourlyReading.fromRow(row, family, codec);
+            if (reading != null) {
+                readings.put(reading.key(), reading);
+            }
+        }
+
+        @Override
+        public Map<ReadingKey, HourlyReading> merge(Map<ReadingKey, HourlyReading> left,
+                                                    Map<ReadingKey, HourlyReading> right) {
+            left.putAll(right);
+            return left;
+        }
+    }
+}
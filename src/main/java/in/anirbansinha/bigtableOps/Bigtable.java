@@ -1,61 +1,256 @@
 package in.anirbansinha.bigtableOps;
 
-import com.google.api.gax.rpc.NotFoundException;
-import com.google.api.gax.rpc.ServerStream;
+import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
 import com.google.cloud.bigtable.admin.v2.BigtableTableAdminClient;
 import com.google.cloud.bigtable.admin.v2.BigtableTableAdminSettings;
-import com.google.cloud.bigtable.admin.v2.models.CreateTableRequest;
 import com.google.cloud.bigtable.data.v2.BigtableDataClient;
 import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
-import com.google.cloud.bigtable.data.v2.models.BulkMutation;
-import com.google.cloud.bigtable.data.v2.models.Mutation;
 import com.google.cloud.bigtable.data.v2.models.Query;
 import com.google.cloud.bigtable.data.v2.models.Row;
-import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import javax.management.JMException;
+
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Use Google Bigtable to store and analyze sensor data.
  */
 public class Bigtable {
 
-    Dotenv dotenv = Dotenv.load();
+    final Dotenv dotenv;
+
+    public final String projectId;
+    public final String instanceId;
+    public final String COLUMN_FAMILY;
+    public final String tableId;
+    public final BulkLoadSettings loadSettings;
+    public final PipelineSettings pipelineSettings;
+    public final ReadingCodec codec;
+    // Maintain daily/monthly rollup tables and answer aggregates from them, reading the hourly
+    // rows of days and months without a rollup (see rebuildRollups for older tables)
+    public final boolean useRollups;
+    public final CacheSettings cacheSettings;
+    public final ReadSettings readSettings;
+    public final MetricsSettings metricsSettings;
+    public final TableSettings tableSettings;
+    public final ClientSettings clientSettings;
+    public final ServiceSettings serviceSettings;
+    public final KeyLayout keyLayout;
+    // Where the tables live, see TableStore: bigtable or memory
+    public final String storageBackend;
 
-    public final String projectId = dotenv.get("PROJECT_ID");
-    public final String instanceId = dotenv.get("INSTANCE_ID");
-    public final String COLUMN_FAMILY = dotenv.get("COLUMN_FAMILY");
-    public final String tableId = dotenv.get("TABLE_ID"); 
+    private static final RateLimitedLogger LOG = new RateLimitedLogger(Bigtable.class);
 
-    private BigtableDataClient dataClient;
-    private BigtableTableAdminClient adminClient;
+    /** Row key read to prime the channels; no row has it. */
+    private static final ByteString PRIME_KEY = ByteString.copyFromUtf8("#prime");
 
+    /** Station IDs for SeaTac, Vancouver, Portland */
+    public static final String[] STATION_IDS = { "SEA", "YVR", "PDX" };
+    /** CSV filenames of the stations, in the same order */
+    private static final String[] FILE_NAMES = { "seatac.csv", "vancouver.csv", "portland.csv" };
+
+    private TableStore store;
+    private AggregationEngine aggregations;
+    private ReadingCache cache;
+    private BatchReader batchReader;
+    private FanOutExecutor fanOut;
+    private final Metrics metrics = new Metrics();
+    // Startup timings, in milliseconds
+    private long connectStarted;
+    private long connectTime;
+    private long primeTime;
+
+    /**
+     * Configured from the .env file.
+     */
+    public Bigtable() {
+        this(Dotenv.load());
+    }
+
+    /**
+     * @param dotenv The configuration, e.g. a test's
+     */
+    Bigtable(Dotenv dotenv) {
+        this.dotenv = dotenv;
+        projectId = dotenv.get("PROJECT_ID");
+        instanceId = dotenv.get("INSTANCE_ID");
+        COLUMN_FAMILY = dotenv.get("COLUMN_FAMILY");
+        tableId = dotenv.get("TABLE_ID");
+        loadSettings = BulkLoadSettings.fromEnv(dotenv);
+        pipelineSettings = PipelineSettings.fromEnv(dotenv);
+        codec = ReadingCodecs.fromEnv(dotenv);
+        useRollups = Boolean.parseBoolean(dotenv.get("ROLLUPS", "true"));
+        cacheSettings = CacheSettings.fromEnv(dotenv);
+        readSettings = ReadSettings.fromEnv(dotenv);
+        metricsSettings = MetricsSettings.fromEnv(dotenv);
+        tableSettings = TableSettings.fromEnv(dotenv);
+        clientSettings = ClientSettings.fromEnv(dotenv);
+        serviceSettings = ServiceSettings.fromEnv(dotenv);
+        keyLayout = tableSettings.layout;
+        storageBackend = dotenv.get("STORAGE_BACKEND", TableStore.BIGTABLE);
+    }
+
+    /**
+     * Run the sample query. With the argument {@code serve}, start the {@link QueryService}
+     * and serve queries until the process is stopped; with {@code rebuild-rollups}, write
+     * the rollups of the whole readings table (see {@link #rebuildRollups()}).
+     */
     public static void main(String[] args) throws Exception {
         Bigtable testbt = new Bigtable();
-        testbt.run();
+        String command = args.length > 0 ? args[0] : "";
+        switch (command) {
+            case "serve":
+                testbt.serve();
+                break;
+            case "rebuild-rollups":
+                testbt.connect();
+                try {
+                    testbt.rebuildRollups();
+                } finally {
+                    testbt.close();
+                }
+                break;
+            default:
+                testbt.run();
+        }
     }
 
     public void connect() throws IOException {
+        connectStarted = System.currentTimeMillis();
+        store = openStore();
+        aggregations = new AggregationEngine(store, tableId, COLUMN_FAMILY, codec, keyLayout, useRollups);
+        batchReader = new BatchReader(store, tableId, COLUMN_FAMILY, codec, keyLayout, readSettings.batchKeys);
+        fanOut = new FanOutExecutor(readSettings);
+        if (cacheSettings.enabled) {
+            cache = new ReadingCache(cacheSettings);
+            metrics.gauge("cache.hits", cache::getHits);
+            metrics.gauge("cache.misses", cache::getMisses);
+            metrics.gauge("cache.collapsed", cache::getCollapsed);
+            metrics.gauge("cache.evictions", cache::getEvictions);
+            metrics.gauge("cache.size", cache::size);
+            metrics.gauge("cache.bytes", cache::getBytes);
+        }
+        metrics.gauge("fanOut.active", fanOut::getActive);
+        metrics.gauge("startup.connectMs", () -> connectTime);
+        metrics.gauge("startup.primeMs", () -> primeTime);
+        metrics.gauge("startup.firstQueryMs", this::timeToFirstQuery);
+        if (store instanceof HedgingTableStore) {
+            HedgingTableStore hedging = (HedgingTableStore) store;
+            metrics.gauge("hedge.reads", hedging::getReads);
+            metrics.gauge("hedge.sent", hedging::getHedges);
+            metrics.gauge("hedge.wins", hedging::getHedgeWins);
+            metrics.gauge("hedge.throttled", hedging::getThrottled);
+            metrics.gauge("hedge.delayMs", () -> hedging.delayMicros() / 1000.0);
+        }
+        if (metricsSettings.jmx) {
+            try {
+                metrics.registerMBean("in.anirbansinha.bigtableOps:type=Metrics,table=" + tableId);
+            } catch (JMException e) {
+                LOG.warn("jmx", "Cannot register the metrics MBean: {}", e.getMessage());
+            }
+        }
+        if (metricsSettings.reportIntervalMs > 0) {
+            metrics.startReporting(metricsSettings.newReporter(), metricsSettings.reportIntervalMs);
+        }
+
+        connectTime = System.currentTimeMillis() - connectStarted;
+        System.out.println(TableStore.MEMORY.equals(storageBackend)
+                ? "Using the in-memory table store."
+                : "Connected to Bigtable successfully in " + connectTime + " ms"
+                        + (clientSettings.primeChannels ? ", channels primed in " + primeTime + " ms." : "."));
+    }
+
+    private TableStore openStore() throws IOException {
+        switch (storageBackend) {
+            case TableStore.MEMORY:
+                return new MemoryTableStore();
+            case TableStore.BIGTABLE:
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown STORAGE_BACKEND: " + storageBackend);
+        }
         // Initialize the data client for Bigtable
-        BigtableDataSettings dataSettings = BigtableDataSettings.newBuilder()
+        BigtableDataSettings.Builder dataSettings = BigtableDataSettings.newBuilder()
                 .setProjectId(projectId)
-                .setInstanceId(instanceId)
-                .build();
-        dataClient = BigtableDataClient.create(dataSettings);
+                .setInstanceId(instanceId);
+        // Batch size and flow control for the bulk loader
+        loadSettings.apply(dataSettings);
+        // Timeouts and retries of reads
+        readSettings.apply(dataSettings);
+        int channels = clientSettings.apply(dataSettings);
+        BigtableDataClient dataClient = BigtableDataClient.create(dataSettings.build());
 
-        // Initialize the admin client for Bigtable
+        // The admin client for Bigtable, created when first needed unless configured otherwise
         BigtableTableAdminSettings adminSettings = BigtableTableAdminSettings.newBuilder()
                 .setProjectId(projectId)
                 .setInstanceId(instanceId)
                 .build();
-        adminClient = BigtableTableAdminClient.create(adminSettings);
+        try {
+            BigtableTableStore bigtable = clientSettings.lazyAdmin
+                    ? new BigtableTableStore(dataClient, adminSettings)
+                    : new BigtableTableStore(dataClient, BigtableTableAdminClient.create(adminSettings));
+            // Batches of point lookups get the deadline of point reads, not of scans
+            bigtable.setLookupRetrySettings(readSettings.lookupRetrySettings(
+                    dataSettings.stubSettings().readRowsSettings().getRetrySettings()));
+            if (clientSettings.primeChannels) {
+                prime(bigtable, channels);
+            }
+            return readSettings.hedge ? new HedgingTableStore(bigtable, readSettings) : bigtable;
+        } catch (IOException | RuntimeException e) {
+            dataClient.close();
+            throw e;
+        }
+    }
 
-        System.out.println("Connected to Bigtable successfully.");
+    /**
+     * Send a read that returns no cells on every channel, for every table the queries read,
+     * so the first query finds its connections open. Failures, e.g. of a table that does
+     * not exist yet, are only logged.
+     */
+    private void prime(TableStore bigtable, int channels) {
+        long started = System.currentTimeMillis();
+        List<String> tables = useRollups
+                ? Arrays.asList(tableId, Rollups.dailyTable(tableId), Rollups.monthlyTable(tableId))
+                : Collections.singletonList(tableId);
+        // The client's channel pool hands out its channels in turn
+        List<ApiFuture<Row>> reads = new ArrayList<>();
+        for (int i = 0; i < channels; i++) {
+            for (String table : tables) {
+                reads.add(bigtable.readRowAsync(table, PRIME_KEY, FILTERS.block()));
+            }
+        }
+        try {
+            ApiFutures.successfulAsList(reads).get(readSettings.deadlineMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            LOG.warn("prime", "Priming the channels did not finish: {}", e.getMessage());
+        }
+        primeTime = System.currentTimeMillis() - started;
     }
 
     public void run() throws Exception {
@@ -88,252 +283,618 @@ public class Bigtable {
     }
 
     /**
-     * Close data and admin clients.
+     * Connect and serve queries over HTTP (see {@link QueryService}) until the JVM shuts down;
+     * the service and the clients are closed then.
+     * @return The running service
+     * @throws IOException if the clients cannot be created or the address cannot be bound
+     */
+    public QueryService serve() throws IOException {
+        connect();
+        QueryService service = new QueryService(new QueryService.Queries() {
+            @Override
+            public CompletableFuture<Map<ReadingKey, HourlyReading>> readReadings(Collection<ReadingKey> keys) {
+                return readReadingsAsync(keys);
+            }
+
+            @Override
+            public CompletableFuture<List<HourlyReading>> readAll(Collection<String> stations, HourRange range) {
+                return readAllAsync(readings().stations(stations.toArray(new String[0])).hours(range));
+            }
+
+            @Override
+            public CompletableFuture<Double> aggregate(Collection<String> stations, HourRange range, Metric metric,
+                                                       Aggregate aggregate) {
+                return aggregateAsync(stations, range, metric, aggregate);
+            }
+        }, serviceSettings, metrics);
+        metrics.gauge("service.requests", service::getRequests);
+        metrics.gauge("service.rejected", service::getRejected);
+        metrics.gauge("service.coalesced", service::getCoalesced);
+        metrics.gauge("service.inFlight", service::getInFlight);
+        metrics.gauge("service.pointLookups", service.getPoints()::getLookups);
+        metrics.gauge("service.pointBatches", service.getPoints()::getBatches);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            service.close();
+            close();
+        }, "query-service-shutdown"));
+        service.start();
+        System.out.println("Serving queries on http://" + serviceSettings.host + ":" + service.getPort() + "/");
+        return service;
+    }
+
+    /**
+     * Close the table store, and with it the data and admin clients.
      */
     public void close() {
-        if (dataClient != null) {
-            dataClient.close();
+        long firstQuery = timeToFirstQuery();
+        if (firstQuery > 0) {
+            long sinceJvmStart = metrics.getFirstQueryMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+            System.out.println("Time to first query: " + firstQuery + " ms after connecting, "
+                    + sinceJvmStart + " ms after the JVM started.");
+        }
+        metrics.close();
+        if (fanOut != null) {
+            fanOut.close();
         }
-        if (adminClient != null) {
-            adminClient.close();
+        if (store != null) {
+            store.close();
         }
     }
 
+    /**
+     * Create the readings table, pre-split as configured in {@link TableSettings} so a load
+     * writes to many tablets from the start, and the rollup tables.
+     */
     public void createTable() {
+        createTable(tableId, tableSettings.splits(Arrays.asList(STATION_IDS)));
+        if (useRollups) {
+            createTable(Rollups.dailyTable(tableId), Collections.emptyList());
+            createTable(Rollups.monthlyTable(tableId), Collections.emptyList());
+        }
+    }
+
+    private void createTable(String tableId, List<ByteString> splits) {
         try {
             // Check if the table already exists
-            if (adminClient.exists(tableId)) {
+            if (store.exists(tableId)) {
                 System.out.println("Table " + tableId + " already exists.");
                 return;
             }
 
-            // Define the table structure with a column family
-            CreateTableRequest createTableRequest = CreateTableRequest.of(tableId)
-                    .addFamily(COLUMN_FAMILY);
-
-            // Create the table
-            adminClient.createTable(createTableRequest);
-            System.out.println("Table " + tableId + " created successfully with column family: " + COLUMN_FAMILY);
+            // Create the table with a column family
+            store.createTable(tableId, COLUMN_FAMILY, splits);
+            System.out.println("Table " + tableId + " created successfully with column family: " + COLUMN_FAMILY
+                    + (splits.isEmpty() ? "" : ", " + (splits.size() + 1) + " tablets, " + keyLayout + " row keys"));
         } catch (Exception e) {
             System.err.println("Error creating table: " + e.getMessage());
             e.printStackTrace();
         }
     }
 
+    /**
+     * @return The data file of every known station
+     */
+    public static List<StationFile> stationFiles() {
+        String path = "data/";
+        List<StationFile> files = new ArrayList<>();
+        for (int i = 0; i < STATION_IDS.length; i++) {
+            files.add(new StationFile(STATION_IDS[i], path + FILE_NAMES[i]));
+        }
+        return files;
+    }
+
     /**
      * Loads data into the database.
      * Data is in CSV files. Note that it must be converted to hourly data.
      * Take the first reading in an hour and ignore any others.
+     * The station files are read, parsed and written concurrently (see {@link IngestPipeline}),
+     * or memory-mapped and parsed in parallel chunks when LOAD_MODE=mmap
+     * (see {@link MappedFileLoader}). Rows are streamed to Bigtable in batches while the
+     * files are being parsed. The daily and monthly {@link Rollups} of the stored readings
+     * are written once all files are loaded. Every file is loaded from its first line; how far
+     * it got is recorded in the {@link LoadCheckpoints}, which are only saved for
+     * {@link #tailData()} when LOAD_CHECKPOINT_FILE is set.
      */
     public void loadData() throws Exception {
-        String path = "data/";
-        String[] stationIds = { "SEA", "YVR", "PDX" }; // Station IDs for SeaTac, Vancouver, Portland
-        String[] fileNames = { "seatac.csv", "vancouver.csv", "portland.csv" }; // CSV filenames
+        loadData(stationFiles());
+    }
 
-        try {
-            for (int i = 0; i < stationIds.length; i++) {
-                String stationId = stationIds[i];
-                String fileName = fileNames[i];
-                System.out.println("Loading data for " + stationId);
-
-                // Read the data from the CSV file
-                BufferedReader reader = new BufferedReader(new FileReader(path + fileName));
-                String line;
-                int lineNumber = 0;
-
-                BulkMutation bulkMutation = BulkMutation.create(tableId);
-
-                while ((line = reader.readLine()) != null) {
-                    lineNumber++;
-
-                    // Skip header rows (both the first and second line)
-                    if (lineNumber <= 2) {
-                        if (lineNumber == 1) {
-                            System.out.println("Skipping first header row: " + line);
-                        } else {
-                            System.out.println("Skipping second header row: " + line);
-                        }
-                        continue;
-                    }
-
-                    // Parse the CSV data
-                    String[] fields = line.split(",");
-                    if (fields.length < 9) {  
-                        System.err.println("Skipping malformed line " + lineNumber + ": " + line);
-                        continue;
-                    }
-
-                    try {
-                        // Skip Julian Date (fields[0])
-                        String date = fields[1].trim();
-                        String timeStr = fields[2].trim();
-                        String hour = timeStr.split(":")[0];  
-                        
-                        // Parse numeric fields, handling 'M' for missing data
-                        int temperature = parseFieldWithMissing(fields[3].trim(), "temperature", lineNumber);
-                        int dewPoint = parseFieldWithMissing(fields[4].trim(), "dewpoint", lineNumber);
-                        int humidity = parseFieldWithMissing(fields[5].trim(), "humidity", lineNumber);
-                        int windSpeed = parseFieldWithMissing(fields[6].trim(), "wind speed", lineNumber);
-                        int pressure = parseFieldWithMissing(fields[8].trim(), "pressure", lineNumber);
-
-                        // Skip if any essential data is missing
-                        if (temperature == Integer.MIN_VALUE || dewPoint == Integer.MIN_VALUE || 
-                            humidity == Integer.MIN_VALUE || windSpeed == Integer.MIN_VALUE || 
-                            pressure == Integer.MIN_VALUE) {
-                            System.out.println("Skipping line " + lineNumber + " due to missing data");
-                            continue;
-                        }
-
-                        // Use the station ID, date, and hour to create a unique row key
-                        String rowKey = stationId + "#" + date + "#" + hour;
-
-                        // Add the mutation for the row
-                        bulkMutation.add(
-                                rowKey,
-                                Mutation.create()
-                                        .setCell(COLUMN_FAMILY, "temperature", String.valueOf(temperature))
-                                        .setCell(COLUMN_FAMILY, "dew_point", String.valueOf(dewPoint))
-                                        .setCell(COLUMN_FAMILY, "humidity", String.valueOf(humidity))
-                                        .setCell(COLUMN_FAMILY, "wind_speed", String.valueOf(windSpeed))
-                                        .setCell(COLUMN_FAMILY, "pressure", String.valueOf(pressure)));
-                    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
-                        System.err.println("Skipping line " + lineNumber + " due to parsing error: " + line);
-                        continue;
-                    }
+    /**
+     * Load the given station files, as {@link #loadData()} loads the bundled ones.
+     * @param files The station files, e.g. synthetic ones for benchmarks
+     */
+    public void loadData(List<StationFile> files) throws Exception {
+        load(files, false);
+    }
+
+    /**
+     * Load the lines appended to the station files since their last load, as recorded in
+     * LOAD_CHECKPOINT_FILE, or {@value PipelineSettings#DEFAULT_TAIL_CHECKPOINT_FILE} if it is
+     * not set; a file without a checkpoint is loaded whole. This also resumes a
+     * load that was interrupted. Readings of hours up to the last one loaded are suppressed,
+     * so files must be appended to in time order. The rollups of every month with new
+     * readings are rebuilt from the readings table, and the new readings are put in the
+     * point lookup cache.
+     */
+    public void tailData() throws Exception {
+        tailData(stationFiles());
+    }
+
+    /**
+     * Load the lines appended to the given station files, as {@link #tailData()}.
+     * @param files The station files
+     */
+    public void tailData(List<StationFile> files) throws Exception {
+        load(files, true);
+    }
+
+    private void load(List<StationFile> files, boolean tail) throws Exception {
+        // Tailing only sees part of a month, so its rollups are rebuilt from the table instead
+        Rollups rollups = useRollups && !tail ? new Rollups() : null;
+        BulkLoader loader = new BulkLoader(store, tableId, loadSettings.maxRecordedFailures, metrics);
+        if (cache != null && (tail || cacheSettings.warmOnLoad)) {
+            // Point lookups of freshly loaded hours are served without a round trip. A tailing
+            // load writes the few newest hours, the ones dashboards ask for next
+            loader.setWriteListener(this::cacheWritten);
+        }
+        try (LoadCheckpoints checkpoints = LoadCheckpoints.open(pipelineSettings.checkpointFile(tail))) {
+            List<LoadCheckpoints.FileProgress> progress = new ArrayList<>();
+            for (StationFile file : files) {
+                progress.add(checkpoints.start(file, tail));
+            }
+            checkpoints.startSaving(pipelineSettings.checkpointIntervalMs);
+
+            long suppressed;
+            try {
+                if (PipelineSettings.MODE_MMAP.equals(pipelineSettings.mode)) {
+                    MappedFileLoader mapped = new MappedFileLoader(pipelineSettings, keyLayout, this::buildMutation,
+                            loader, rollups, metrics);
+                    mapped.run(progress);
+                    suppressed = mapped.getSuppressed();
+                } else {
+                    IngestPipeline pipeline = new IngestPipeline(pipelineSettings, keyLayout, this::buildMutation,
+                            loader, rollups, metrics);
+                    pipeline.run(progress);
+                    suppressed = pipeline.getSuppressed();
                 }
 
-                // Apply the bulk mutation to Bigtable
-                dataClient.bulkMutateRows(bulkMutation);
-                System.out.println("Data for " + stationId + " loaded successfully.");
-                reader.close();
+                // Wait for the outstanding batches of all stations
+                loader.flush();
+            } finally {
+                loader.close();
+            }
+
+            System.out.println("Rows submitted: " + loader.getSubmitted() + ", written: " + loader.getSucceeded()
+                    + ", failed: " + loader.getFailed() + ", later readings in the same hour suppressed: "
+                    + suppressed);
+            for (BulkLoader.RowFailure failure : loader.getFailures()) {
+                System.err.println("Failed to write row " + failure);
+            }
+            long failed = loader.getFailed();
+            if (useRollups) {
+                long rollupsFailed = writeRollups(tail ? rebuildRollups(progress) : rollups);
+                if (rollupsFailed == 0) {
+                    checkpoints.rollupsWritten();
+                }
+                failed += rollupsFailed;
+            }
+            if (failed == 0) {
+                System.out.println("Data loaded successfully.");
             }
-        } catch (IOException e) {
-            throw new Exception("Error reading or loading data: " + e.getMessage(), e);
         }
     }
 
     /**
-     * Parse a field that might contain 'M' for missing data.
-     * @param value The string value to parse
-     * @param fieldName The name of the field (for logging)
-     * @param lineNumber The current line number (for logging)
-     * @return The parsed integer value, or Integer.MIN_VALUE if the value is missing
+     * Rebuild the rollups of the months a tailing load added readings to, or whose rollups
+     * an earlier load did not get to write, from the readings stored in the table.
      */
-    private int parseFieldWithMissing(String value, String fieldName, int lineNumber) {
-        if (value == null) {
-            System.err.println("Invalid " + fieldName + " value: null at line " + lineNumber);
-            return Integer.MIN_VALUE;
+    private Rollups rebuildRollups(List<LoadCheckpoints.FileProgress> files) {
+        // Range of days to rebuild by station, whole months from the first pending day
+        Map<String, LocalDate[]> stations = new TreeMap<>();
+        for (LoadCheckpoints.FileProgress file : files) {
+            if (file.pendingDay() < 0 || file.lastLoadedHour() < 0) {
+                continue;
+            }
+            LocalDate from = day(file.pendingDay()).withDayOfMonth(1);
+            LocalDate to = day((int) (file.lastLoadedHour() / 100));
+            stations.merge(file.file.stationId, new LocalDate[] { from, to }, (a, b) -> new LocalDate[] {
+                    a[0].isBefore(b[0]) ? a[0] : b[0], a[1].isAfter(b[1]) ? a[1] : b[1] });
         }
 
-        // First clean the value by removing any leading/trailing whitespace
-        value = value.trim();
-        
-        // Handle special cases for missing data
-        if (value.isEmpty() || value.equals("M") || value.matches("[;=?@B]")) {
-            if (value.matches("[;=?@B]")) {
-                System.err.println("Special character found in " + fieldName + " value: '" + value + "' at line " + lineNumber);
-            } else {
-                System.err.println("Missing " + fieldName + " value: " + (value.isEmpty() ? "empty" : value) + " at line " + lineNumber);
-            }
-            return Integer.MIN_VALUE;
+        Rollups rollups = new Rollups();
+        for (Map.Entry<String, LocalDate[]> station : stations.entrySet()) {
+            LocalDate[] days = station.getValue();
+            addToRollups(rollups, readings().stations(station.getKey()).days(days[0], days[1]).build());
         }
+        return rollups;
+    }
 
-        // Special handling for temperature values
-        if (fieldName.equals("temperature")) {
-            // Remove any non-numeric characters except decimal point, minus sign, and common temperature indicators
-            String cleanedValue = value.replaceAll("[^0-9.\\-°CFcf]", "").trim().toLowerCase();
-            
-            // Handle Fahrenheit values (if present)
-            if (cleanedValue.contains("f")) {
-                cleanedValue = cleanedValue.replace("f", "");
-                try {
-                    double fahrenheit = Double.parseDouble(cleanedValue);
-                    // Convert Fahrenheit to Celsius
-                    double celsius = (fahrenheit - 32) * 5 / 9;
-                    System.out.println("Converted temperature from " + fahrenheit + "°F to " + celsius + "°C at line " + lineNumber);
-                    return (int) Math.round(celsius);
-                } catch (NumberFormatException e) {
-                    System.err.println("Failed to parse Fahrenheit temperature: '" + value + "' at line " + lineNumber);
-                    return Integer.MIN_VALUE;
+    /**
+     * Rebuild the daily and monthly rollups of the whole readings table, creating the rollup
+     * tables if needed; e.g. for a table loaded before rollups were written. Until then,
+     * aggregates read the hourly rows of days and months without a rollup row.
+     */
+    public void rebuildRollups() throws Exception {
+        createTable(Rollups.dailyTable(tableId), Collections.emptyList());
+        createTable(Rollups.monthlyTable(tableId), Collections.emptyList());
+        Rollups rollups = new Rollups();
+        addToRollups(rollups, Query.create(tableId));
+        if (writeRollups(rollups) == 0) {
+            System.out.println("Rollups rebuilt successfully.");
+        }
+    }
+
+    /**
+     * Add the readings of a query to the rollups, by station.
+     */
+    private void addToRollups(Rollups rollups, Query query) {
+        Map<String, Rollups.StationRollup> stations = new HashMap<>();
+        int[] values = new int[Metric.COUNT];
+        try (ReadingStream readings = new ReadingStream(store.readRows(query), COLUMN_FAMILY, codec,
+                metrics.query("rebuildRollups").start())) {
+            for (Reading reading : readings) {
+                ReadingKey key = reading.key();
+                if (key == null) {
+                    continue;
                 }
-            }
-            
-            // Remove Celsius indicator if present
-            cleanedValue = cleanedValue.replace("c", "").replace("°", "");
-            
-            // Handle multiple decimal points or minus signs
-            if (cleanedValue.indexOf('.') != cleanedValue.lastIndexOf('.') ||
-                cleanedValue.indexOf('-') != cleanedValue.lastIndexOf('-') ||
-                (cleanedValue.contains("-") && cleanedValue.indexOf("-") > 0)) {
-                System.err.println("Multiple decimal points or misplaced minus in temperature: '" + value + "' at line " + lineNumber);
-                return Integer.MIN_VALUE;
-            }
-            
-            try {
-                double temperature = cleanedValue.contains(".") ? 
-                    Double.parseDouble(cleanedValue) : Integer.parseInt(cleanedValue);
-                
-                // Validate temperature range (-100°C to 60°C for more realistic range)
-                if (temperature < -100 || temperature > 60) {
-                    System.err.println("Temperature out of realistic range [-100°C,60°C]: " + temperature + "°C at line " + lineNumber);
-                    return Integer.MIN_VALUE;
+                for (Metric metric : Metric.values()) {
+                    values[metric.ordinal()] = reading.value(metric);
                 }
-                
-                return (int) Math.round(temperature);
-            } catch (NumberFormatException e) {
-                System.err.println("Failed to parse temperature: original='" + value + "', cleaned='" + cleanedValue + "' at line " + lineNumber);
-                return Integer.MIN_VALUE;
+                stations.computeIfAbsent(key.stationId, rollups::newStation)
+                        .add(KeyLayout.dayKey(key.day) * 100L + key.hour, values);
             }
         }
-        
-        // Handle other non-temperature fields
-        String cleanedValue = value.replaceAll("[^0-9.\\-]", "").trim();
-        
-        if (cleanedValue.isEmpty()) {
-            System.err.println("Value became empty after cleaning: original='" + value + "' for " + fieldName + " at line " + lineNumber);
-            return Integer.MIN_VALUE;
+    }
+
+    /**
+     * @param day A day packed as yyyymmdd
+     */
+    private static LocalDate day(int day) {
+        return LocalDate.of(day / 10_000, day / 100 % 100, day % 100);
+    }
+
+    /**
+     * Write the daily and monthly rollups of a load.
+     * @return Number of rollup rows that failed
+     */
+    private long writeRollups(Rollups rollups) throws Exception {
+        BulkLoader daily = new BulkLoader(store, Rollups.dailyTable(tableId), loadSettings.maxRecordedFailures,
+                metrics);
+        BulkLoader monthly = new BulkLoader(store, Rollups.monthlyTable(tableId), loadSettings.maxRecordedFailures,
+                metrics);
+        try {
+            rollups.write(daily, monthly, COLUMN_FAMILY);
+            daily.flush();
+            monthly.flush();
+        } finally {
+            daily.close();
+            monthly.close();
+        }
+
+        System.out.println("Rollup rows written: " + daily.getSucceeded() + " daily, " + monthly.getSucceeded()
+                + " monthly, failed: " + (daily.getFailed() + monthly.getFailed()));
+        for (BulkLoader.RowFailure failure : daily.getFailures()) {
+            System.err.println("Failed to write daily rollup " + failure);
+        }
+        for (BulkLoader.RowFailure failure : monthly.getFailures()) {
+            System.err.println("Failed to write monthly rollup " + failure);
+        }
+        return daily.getFailed() + monthly.getFailed();
+    }
+
+    /**
+     * Build the mutation for one hourly reading.
+     * @param entry The mutation of the reading's row (station#date#hour, see {@link KeyLayout})
+     * @param reading The parser holding the reading's values
+     * @return The bytes of the cells added
+     */
+    private int buildMutation(RowMutationEntry entry, ReadingParser reading) {
+        return codec.encode(entry, COLUMN_FAMILY, reading.values());
+    }
+
+    private void cacheWritten(RowMutationEntry entry) {
+        HourlyReading reading = HourlyReading.fromMutation(entry, COLUMN_FAMILY, codec);
+        if (reading != null) {
+            cache.put(reading.key(), reading);
         }
+    }
 
-        if (cleanedValue.indexOf('.') != cleanedValue.lastIndexOf('.') ||
-            cleanedValue.indexOf('-') != cleanedValue.lastIndexOf('-') ||
-            (cleanedValue.contains("-") && cleanedValue.indexOf("-") > 0)) {
-            System.err.println("Multiple decimal points or misplaced minus in " + fieldName + ": '" + value + "' at line " + lineNumber);
-            return Integer.MIN_VALUE;
+    /**
+     * Read one hourly reading, from the cache if it holds it (see {@link ReadingCache}).
+     * @param key The station, day and hour
+     * @return The reading, or null if there is none
+     * @throws Exception if the row cannot be read
+     */
+    public HourlyReading readReading(ReadingKey key) throws Exception {
+        QueryTrace trace = metrics.query("readReading").start();
+        try {
+            HourlyReading reading = readReading(key, trace);
+            trace.finish(null);
+            return reading;
+        } catch (Exception e) {
+            trace.finish(e);
+            throw e;
         }
-        
+    }
+
+    /**
+     * Read many hourly readings at once, e.g. 10 a.m. on every day of a month at three stations.
+     * Cached readings are served from the cache; the others are read with a few multi-key
+     * requests (READ_BATCH_KEYS keys each) issued concurrently, see {@link BatchReader}.
+     * @param keys The readings to read
+     * @return The readings found, by key; keys without a row are left out
+     * @throws Exception if a request fails
+     */
+    public Map<ReadingKey, HourlyReading> readReadings(Collection<ReadingKey> keys) throws Exception {
+        QueryTrace trace = metrics.query("readReadings").start();
         try {
-            double numericValue;
-            if (cleanedValue.contains(".")) {
-                numericValue = Double.parseDouble(cleanedValue);
-            } else {
-                numericValue = Integer.parseInt(cleanedValue);
+            Map<ReadingKey, HourlyReading> readings = readReadings(keys, trace);
+            trace.finish(null);
+            return readings;
+        } catch (Exception e) {
+            trace.finish(e);
+            throw e;
+        }
+    }
+
+    private Map<ReadingKey, HourlyReading> readReadings(Collection<ReadingKey> keys, QueryTrace trace)
+            throws Exception {
+        if (cache == null) {
+            return batchReader.read(keys, trace);
+        }
+
+        Map<ReadingKey, HourlyReading> readings = new HashMap<>();
+        List<ReadingKey> misses = cache.getAllPresent(keys, readings);
+        Map<ReadingKey, HourlyReading> fetched = batchReader.read(misses, trace);
+        for (ReadingKey key : misses) {
+            // Cache the keys without a row too, like single lookups do
+            cache.put(key, fetched.get(key));
+        }
+        readings.putAll(fetched);
+        return readings;
+    }
+
+    /**
+     * {@link #readReading} without blocking; the read counts against FAN_OUT_CONCURRENCY.
+     * @param key The station, day and hour
+     * @return The reading, or null if there is none
+     */
+    public CompletableFuture<HourlyReading> readReadingAsync(ReadingKey key) {
+        QueryTrace trace = metrics.query("readReading").start();
+        return trace.track(readReadingAsync(key, trace));
+    }
+
+    private HourlyReading readReading(ReadingKey key, QueryTrace trace) throws Exception {
+        return cache == null ? fetchReading(key, trace) : cache.get(key, k -> fetchReading(k, trace));
+    }
+
+    private CompletableFuture<HourlyReading> readReadingAsync(ReadingKey key, QueryTrace trace) {
+        return cache == null ? fetchReadingAsync(key, trace) : cache.getAsync(key, k -> fetchReadingAsync(k, trace));
+    }
+
+    /**
+     * {@link #readReadings} without blocking; the reads count against FAN_OUT_CONCURRENCY.
+     * @param keys The readings to read
+     * @return The readings found, by key; keys without a row are left out
+     */
+    public CompletableFuture<Map<ReadingKey, HourlyReading>> readReadingsAsync(Collection<ReadingKey> keys) {
+        QueryTrace trace = metrics.query("readReadings").start();
+        return trace.track(readReadingsAsync(keys, trace));
+    }
+
+    private CompletableFuture<Map<ReadingKey, HourlyReading>> readReadingsAsync(Collection<ReadingKey> keys,
+                                                                                QueryTrace trace) {
+        if (cache == null) {
+            return fanOut.submitAsync(() -> batchReader.readAsync(keys, trace));
+        }
+
+        Map<ReadingKey, HourlyReading> readings = new HashMap<>();
+        List<ReadingKey> misses = cache.getAllPresent(keys, readings);
+        return fanOut.submitAsync(() -> batchReader.readAsync(misses, trace)).thenApply(fetched -> {
+            for (ReadingKey key : misses) {
+                cache.put(key, fetched.get(key));
             }
+            readings.putAll(fetched);
+            return readings;
+        });
+    }
 
-            // Check for reasonable value ranges for other fields
-            if (fieldName.equals("wind_speed")) {
-                if (numericValue < 0 || numericValue > 200) {
-                    System.err.println("Wind speed out of range [0,200]: " + numericValue + " at line " + lineNumber);
-                    return Integer.MIN_VALUE;
-                }
-            } else if (fieldName.equals("humidity")) {
-                if (numericValue < 0 || numericValue > 100) {
-                    System.err.println("Humidity out of range [0,100]: " + numericValue + " at line " + lineNumber);
-                    return Integer.MIN_VALUE;
+    private CompletableFuture<HourlyReading> fetchReadingAsync(ReadingKey key, QueryTrace trace) {
+        return fanOut.submitAsync(() -> FanOutExecutor.toCompletable(
+                store.readRowAsync(tableId, ByteString.copyFromUtf8(keyLayout.rowKey(key)), readings().cellFilter())))
+                .thenApply(row -> toReading(row, trace));
+    }
+
+    private HourlyReading fetchReading(ReadingKey key, QueryTrace trace) {
+        // Read only the latest cell of each reading column
+        ByteString rowKey = ByteString.copyFromUtf8(keyLayout.rowKey(key));
+        return toReading(store.readRow(tableId, rowKey, readings().cellFilter()), trace);
+    }
+
+    private HourlyReading toReading(Row row, QueryTrace trace) {
+        if (row == null) {
+            return null;
+        }
+        trace.row(row);
+        return HourlyReading.fromRow(row, COLUMN_FAMILY, codec);
+    }
+
+    /**
+     * @return The point lookup cache, or null if CACHE_ENABLED is false
+     */
+    public ReadingCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return The load and query metrics, also exported through JMX and METRICS_REPORTER
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Where the tables live, once connected
+     */
+    TableStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return Milliseconds from the start of {@code connect()} until the first query
+     * succeeded, or 0 if none has
+     */
+    public long timeToFirstQuery() {
+        long firstQuery = metrics.getFirstQueryMillis();
+        return firstQuery == 0 ? 0 : firstQuery - connectStarted;
+    }
+
+    /**
+     * Rewrite every row of the table in the configured cell encoding (CELL_ENCODING).
+     * Rows are decoded from whichever encoding they were written in, and columns of the
+     * other encodings are deleted, so a string-encoded table can be converted in place
+     * while queries keep running in compat mode.
+     * @throws Exception if the table cannot be read or written
+     */
+    public void migrateEncoding() throws Exception {
+        ReadingCodec reader = ReadingCodecs.compat(codec);
+        int[] values = new int[Metric.COUNT];
+        int all = (1 << Metric.COUNT) - 1;
+        long migrated = 0;
+        long skipped = 0;
+
+        System.out.println("Migrating " + tableId + " to the " + codec.name() + " cell encoding");
+        BulkLoader loader = new BulkLoader(store, tableId, loadSettings.maxRecordedFailures, metrics);
+        try {
+            for (Row row : store.readRows(Query.create(tableId))) {
+                if (reader.decode(row, COLUMN_FAMILY, values) != all) {
+                    LOG.warn("incomplete row", "Skipping row with incomplete readings: {}",
+                            row.getKey().toStringUtf8());
+                    skipped++;
+                    continue;
                 }
-            } else if (fieldName.equals("pressure")) {
-                if (numericValue < 800 || numericValue > 1100) {
-                    System.err.println("Pressure out of range [800,1100]: " + numericValue + " at line " + lineNumber);
-                    return Integer.MIN_VALUE;
+
+                // Drop the columns of every encoding; the mutation then writes the new cells
+                RowMutationEntry entry = RowMutationEntry.create(row.getKey());
+                entry.deleteCells(COLUMN_FAMILY, ReadingCodecs.PACKED_QUALIFIER_BYTES);
+                for (Metric metric : Metric.values()) {
+                    entry.deleteCells(COLUMN_FAMILY, metric.qualifierBytes);
                 }
+                loader.add(entry, row.getKey().size() + codec.encode(entry, COLUMN_FAMILY, values));
+                migrated++;
+            }
+            loader.flush();
+        } finally {
+            loader.close();
+        }
+        System.out.println("Rows migrated: " + migrated + ", skipped: " + skipped + ", failed: " + loader.getFailed());
+    }
+
+    /**
+     * @return A query builder for the readings table, decoding with the configured codec
+     */
+    public ReadingQuery readings() {
+        return new ReadingQuery(tableId, COLUMN_FAMILY, codec, keyLayout);
+    }
+
+    /**
+     * Stream the readings of a query as they arrive, see {@link ReadingStream}.
+     * @param query The readings to read, from {@link #readings()}
+     * @return The stream; close it to stop reading early
+     */
+    public ReadingStream streamReadings(ReadingQuery query) {
+        return streamReadings(query, "streamReadings");
+    }
+
+    private ReadingStream streamReadings(ReadingQuery query, String name) {
+        return new ReadingStream(store.readRows(query.build()), COLUMN_FAMILY, codec,
+                metrics.query(name).start());
+    }
+
+    /**
+     * Export the readings of some stations and days to a {@link ColumnarSnapshot} file, to
+     * aggregate them in process with {@link ColumnarSnapshot#open} instead of scanning the table.
+     * @param stations The stations to export; empty for every station in the table
+     * @param firstDay The first day to export
+     * @param lastDay The last day to export, inclusive
+     * @param path The snapshot file; replaced if it exists
+     * @return Number of readings exported
+     * @throws IOException if the file cannot be written
+     */
+    public int exportSnapshot(Collection<String> stations, LocalDate firstDay, LocalDate lastDay, Path path)
+            throws IOException {
+        SnapshotWriter snapshot = new SnapshotWriter();
+        ReadingQuery query = readings().stations(stations.toArray(new String[0])).days(firstDay, lastDay);
+        try (ReadingStream readings = streamReadings(query, "exportSnapshot")) {
+            for (Reading reading : readings) {
+                snapshot.add(reading);
             }
+        }
+        if (snapshot.getSkipped() > 0) {
+            System.err.println("Skipped " + snapshot.getSkipped() + " rows with a malformed row key");
+        }
+        int rows = snapshot.write(path);
+        System.out.println("Readings exported to " + path + ": " + rows);
+        return rows;
+    }
 
-            return (int) Math.round(numericValue);
-        } catch (NumberFormatException e) {
-            System.err.println("Failed to parse " + fieldName + ": original='" + value + "', cleaned='" + cleanedValue + "' at line " + lineNumber);
-            return Integer.MIN_VALUE;
+    /**
+     * Read every reading of a query without blocking; the scan counts against FAN_OUT_CONCURRENCY.
+     * @param query The readings to read, from {@link #readings()}
+     * @return The readings, in row key order
+     */
+    public CompletableFuture<List<HourlyReading>> readAllAsync(ReadingQuery query) {
+        return readAllAsync(query, "readAll");
+    }
+
+    private CompletableFuture<List<HourlyReading>> readAllAsync(ReadingQuery query, String name) {
+        QueryTrace trace = metrics.query(name).start();
+        return trace.track(fanOut.submitAsync(() -> new ParallelScanner(store)
+                .scanAsync(Collections.singletonList(query.build()), trace.counting(new CollectReadings()))));
+    }
+
+    /**
+     * Aggregate a metric over some stations and hours, e.g. the 95th percentile of the
+     * temperature at SeaTac in July.
+     * @param stations The stations; empty for every station in the table
+     * @param range The hours
+     * @param metric The metric
+     * @param aggregate The aggregate function
+     * @return The aggregate, NaN without values (except for sum and count)
+     * @throws Exception if an error occurs
+     */
+    public double aggregate(Collection<String> stations, HourRange range, Metric metric, Aggregate aggregate)
+            throws Exception {
+        QueryTrace trace = metrics.query("aggregate").start();
+        try {
+            double value = aggregations.aggregate(stations, range, metric, aggregate, trace);
+            trace.finish(null);
+            return value;
+        } catch (Exception e) {
+            trace.finish(e);
+            throw e;
         }
     }
 
+    /**
+     * {@link #aggregate} without blocking; the scans count against FAN_OUT_CONCURRENCY.
+     * Many aggregates can be issued at once, e.g. one per station and month.
+     * @return The aggregate, NaN without values (except for sum and count)
+     */
+    public CompletableFuture<Double> aggregateAsync(Collection<String> stations, HourRange range, Metric metric,
+                                                    Aggregate aggregate) {
+        QueryTrace trace = metrics.query("aggregate").start();
+        return trace.track(fanOut.submitAsync(
+                () -> aggregations.aggregateAsync(stations, range, metric, aggregate, trace)));
+    }
+
+    /**
+     * @return The executor of the asynchronous queries, to fan out further work with the same limit
+     */
+    public FanOutExecutor getFanOut() {
+        return fanOut;
+    }
+
     /**
      * Query returns the temperature at Vancouver on 2022-10-01 at 10 a.m.
      *
@@ -342,37 +903,49 @@ public class Bigtable {
      */
     public int query1() throws Exception {
         String stationId = "YVR"; // Vancouver station ID
-        String date = "2022-10-01";
-        String hour = "10";
-
-        // Construct the row key for Vancouver on the given date and hour
-        String rowKey = stationId + "#" + date + "#" + hour;
+        LocalDate date = LocalDate.of(2022, 10, 1);
+        int hour = 10;
 
+        QueryTrace trace = metrics.query("query1").start();
         try {
-            // Read the row with the constructed row key
-            Row row = dataClient.readRow(tableId, rowKey);
+            // Look up the reading of Vancouver on the given date and hour
+            HourlyReading reading = readReading(new ReadingKey(stationId, date, hour), trace);
+            trace.finish(null);
+            return query1Temperature(reading, date, hour);
+        } catch (Exception e) {
+            trace.finish(e);
+            System.err.println("Error executing query1: " + e.getMessage());
+            throw new Exception("Failed to execute query1", e);
+        }
+    }
 
-            if (row == null) {
-                System.out.println("No data found for Vancouver on " + date + " at " + hour + " a.m.");
-                return -1; // Return -1 to indicate no data found
-            }
+    /**
+     * {@link #query1()} without blocking.
+     *
+     * @return Temperature value
+     */
+    public CompletableFuture<Integer> query1Async() {
+        String stationId = "YVR"; // Vancouver station ID
+        LocalDate date = LocalDate.of(2022, 10, 1);
+        int hour = 10;
 
-            // Extract the "temperature" cell value from the row
-            for (RowCell cell : row.getCells(COLUMN_FAMILY, "temperature")) {
-                try {
-                    return Integer.parseInt(cell.getValue().toStringUtf8().trim());
-                } catch (NumberFormatException e) {
-                    System.err.println("Invalid temperature value: " + cell.getValue().toStringUtf8().trim() + " in row: " + row.getKey().toStringUtf8());
-                    return -1;
-                }
-            }
+        QueryTrace trace = metrics.query("query1").start();
+        return failWith("query1", trace.track(readReadingAsync(new ReadingKey(stationId, date, hour), trace))
+                .thenApply(reading -> query1Temperature(reading, date, hour)));
+    }
+
+    private static int query1Temperature(HourlyReading reading, LocalDate date, int hour) {
+        if (reading == null) {
+            System.out.println("No data found for Vancouver on " + date + " at " + hour + " a.m.");
+            return -1; // Return -1 to indicate no data found
+        }
 
+        int temperature = reading.temperature();
+        if (temperature == ReadingCodec.MISSING) {
             System.out.println("Temperature cell not found in the row.");
-            return -1; // Return -1 if the temperature column is not present
-        } catch (Exception e) {
-            System.err.println("Error executing query1: " + e.getMessage());
-            throw new Exception("Failed to execute query1", e);
+            return -1; // Return -1 if the temperature is not present or invalid
         }
+        return temperature;
     }
 
     /**
@@ -384,41 +957,49 @@ public class Bigtable {
      */
     public int query2() throws Exception {
         String stationId = "PDX"; // Portland station ID
-        String startRowKey = stationId + "#2022-09-01#00"; // Start of September
-        String endRowKey = stationId + "#2022-09-30#23"; // End of September
-        int maxWindSpeed = 0;
+        LocalDate start = LocalDate.of(2022, 9, 1); // Start of September
+        LocalDate end = LocalDate.of(2022, 9, 30); // End of September
 
+        QueryTrace trace = metrics.query("query2").start();
         try {
-            // Create a query to read rows within the specified range
-            Query query = Query.create(tableId)
-                    .range(startRowKey, endRowKey);
-
-            // Execute the query and iterate over the rows
-            ServerStream<Row> rows = dataClient.readRows(query);
-            for (Row row : rows) {
-                // Get the wind speed value from the row
-                for (RowCell cell : row.getCells(COLUMN_FAMILY, "wind_speed")) {
-                    try {
-                        int windSpeed = Integer.parseInt(cell.getValue().toStringUtf8().trim());
-                        // Update the maximum wind speed
-                        if (windSpeed > maxWindSpeed) {
-                            maxWindSpeed = windSpeed;
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid wind speed value: " + cell.getValue().toStringUtf8().trim() + " in row: " + row.getKey().toStringUtf8());
-                        continue;  // Skip this invalid value and continue with next
-                    }
-                }
-            }
-
-            System.out.println("Highest wind speed in Portland during September 2022: " + maxWindSpeed);
-            return maxWindSpeed;
+            // Aggregate the wind speed of every hour in September, from the rollups if available
+            MetricAccumulator windSpeeds = aggregations.summarize(Collections.singletonList(stationId),
+                    HourRange.days(start, end), Metric.WIND_SPEED, trace);
+            trace.finish(null);
+            return query2MaxWindSpeed(windSpeeds);
         } catch (Exception e) {
+            trace.finish(e);
             System.err.println("Error executing query2: " + e.getMessage());
             throw new Exception("Failed to execute query2", e);
         }
     }
 
+    /**
+     * {@link #query2()} without blocking.
+     *
+     * @return Maximum wind speed
+     */
+    public CompletableFuture<Integer> query2Async() {
+        String stationId = "PDX"; // Portland station ID
+        LocalDate start = LocalDate.of(2022, 9, 1); // Start of September
+        LocalDate end = LocalDate.of(2022, 9, 30); // End of September
+
+        QueryTrace trace = metrics.query("query2").start();
+        return failWith("query2", trace.track(fanOut.submitAsync(() -> aggregations.summarizeAsync(
+                        Collections.singletonList(stationId), HourRange.days(start, end), Metric.WIND_SPEED, trace)))
+                .thenApply(Bigtable::query2MaxWindSpeed));
+    }
+
+    private static int query2MaxWindSpeed(MetricAccumulator windSpeeds) {
+        if (windSpeeds.missing() > 0) {
+            System.err.println("Skipped " + windSpeeds.missing() + " rows with a missing or invalid wind speed");
+        }
+        int maxWindSpeed = windSpeeds.count() == 0 ? 0 : Math.max(0, windSpeeds.max());
+
+        System.out.println("Highest wind speed in Portland during September 2022: " + maxWindSpeed);
+        return maxWindSpeed;
+    }
+
     /**
      * Query returns all the readings for SeaTac for October 2, 2022. Return as an
      * ArrayList of object arrays.
@@ -431,83 +1012,79 @@ public class Bigtable {
      */
     public ArrayList<Object[]> query3() throws Exception {
         String stationId = "SEA"; // SeaTac station ID
-        String date = "2022-10-02"; // Specific date
-        String startRowKey = stationId + "#" + date + "#00"; // Start of the day
-        String endRowKey = stationId + "#" + date + "#23";   // End of the day
+        LocalDate day = LocalDate.of(2022, 10, 2); // Specific date
+        String date = day.toString();
     
         ArrayList<Object[]> data = new ArrayList<>();
     
-        try {
-            // Create a query to fetch rows for SeaTac on the given date
-            Query query = Query.create(tableId)
-                    .range(startRowKey, endRowKey);
-    
-            // Execute the query and process the results
-            ServerStream<Row> rows = dataClient.readRows(query);
-            for (Row row : rows) {
-                String rowKey = row.getKey().toStringUtf8();
-                String[] keyParts = rowKey.split("#");
-    
-                if (keyParts.length != 3) {
-                    System.err.println("Skipping malformed row key: " + rowKey);
-                    continue;
-                }
-    
-                String hour = keyParts[2]; // Extract the hour from the row key
-                int temperature = 0, dewPoint = 0, humidity = 0, windSpeed = 0, pressure = 0;
-    
-                // Retrieve sensor readings from the row
-                for (RowCell cell : row.getCells(COLUMN_FAMILY)) {
-                    String qualifier = cell.getQualifier().toStringUtf8();
-                    String valueStr = cell.getValue().toStringUtf8().trim();
-                    
-                    try {
-                        int value = Integer.parseInt(valueStr);
-                        switch (qualifier) {
-                            case "temperature":
-                                temperature = value;
-                                break;
-                            case "dew_point":
-                                dewPoint = value;
-                                break;
-                            case "humidity":
-                                humidity = value;
-                                break;
-                            case "wind_speed":
-                                windSpeed = value;
-                                break;
-                            case "pressure":
-                                pressure = value;
-                                break;
-                            default:
-                                System.err.println("Unexpected column qualifier: " + qualifier);
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid value for " + qualifier + ": " + valueStr + " in row: " + row.getKey().toStringUtf8());
-                        // Skip this invalid value but continue processing other fields
-                        continue;
-                    }
-                }
-    
-                // Only add the row's data if we have valid values for all fields
-                if (temperature != 0 || dewPoint != 0 || humidity != 0 || windSpeed != 0 || pressure != 0) {
-                    data.add(new Object[] { date, hour, temperature, dewPoint, 
-                                          String.valueOf(humidity), String.valueOf(windSpeed), 
-                                          String.valueOf(pressure) });
-                } else {
-                    System.out.println("Skipping row with no valid data for key: " + row.getKey().toStringUtf8());
-                }
+        // Stream every hour of SeaTac on the given date
+        try (ReadingStream readings = streamReadings(readings().stations(stationId).days(day, day), "query3")) {
+            for (Reading reading : readings) {
+                addQuery3Row(data, date, reading);
             }
-    
-            System.out.println("Readings for SeaTac on " + date + " retrieved successfully.");
-            return data;
+            return query3Result(data, date);
         } catch (Exception e) {
             System.err.println("Error executing query3: " + e.getMessage());
             throw new Exception("Failed to execute query3", e);
         }
     }
+
+    /**
+     * {@link #query3()} without blocking.
+     *
+     * @return ArrayList of readings
+     */
+    public CompletableFuture<ArrayList<Object[]>> query3Async() {
+        String stationId = "SEA"; // SeaTac station ID
+        LocalDate day = LocalDate.of(2022, 10, 2); // Specific date
+        String date = day.toString();
+
+        ReadingQuery query = readings().stations(stationId).days(day, day);
+        return failWith("query3", readAllAsync(query, "query3").thenApply(readings -> {
+            ArrayList<Object[]> data = new ArrayList<>();
+            for (Reading reading : readings) {
+                addQuery3Row(data, date, reading);
+            }
+            return query3Result(data, date);
+        }));
+    }
+
+    private static void addQuery3Row(ArrayList<Object[]> data, String date, Reading reading) {
+        int hour = reading.hour();
+        if (hour < 0) {
+            LOG.warn("malformed key", "Skipping malformed row key: {}", reading.rowKey().toStringUtf8());
+            return;
+        }
+
+        // Retrieve sensor readings from the row; missing values count as 0
+        int temperature = valueOrZero(reading.temperature());
+        int dewPoint = valueOrZero(reading.dewPoint());
+        int humidity = valueOrZero(reading.humidity());
+        int windSpeed = valueOrZero(reading.windSpeed());
+        int pressure = valueOrZero(reading.pressure());
+
+        // Only add the row's data if we have valid values for all fields
+        if (temperature != 0 || dewPoint != 0 || humidity != 0 || windSpeed != 0 || pressure != 0) {
+            data.add(new Object[] { date, String.valueOf(hour), temperature, dewPoint,
+                                  String.valueOf(humidity), String.valueOf(windSpeed), 
+                                  String.valueOf(pressure) });
+        } else {
+            LOG.info("empty row", "Skipping row with no valid data for key: {}", reading.rowKey().toStringUtf8());
+        }
+    }
+
+    private static ArrayList<Object[]> query3Result(ArrayList<Object[]> data, String date) {
+        // Rows arrive in key order (0, 1, 10, 11, ...); return them by hour
+        data.sort(Comparator.comparingInt(reading -> Integer.parseInt((String) reading[1])));
+        System.out.println("Readings for SeaTac on " + date + " retrieved successfully.");
+        return data;
+    }
     
 
+    private static int valueOrZero(int value) {
+        return value == ReadingCodec.MISSING ? 0 : value;
+    }
+
     /**
      * Query returns the highest temperature at any station in the summer months of
      * 2022 (July (7), August (8)).
@@ -516,45 +1093,91 @@ public class Bigtable {
      * @throws Exception if an error occurs
      */
     public int query4() throws Exception {
-        String startRowKey = "AAA#2022-07-01#00"; // Start of summer (station-independent prefix)
-        String endRowKey = "ZZZ#2022-08-31#23";  // End of summer (station-independent prefix)
-        int maxTemperature = Integer.MIN_VALUE;
+        LocalDate start = LocalDate.of(2022, 7, 1); // Start of summer
+        LocalDate end = LocalDate.of(2022, 8, 31);  // End of summer
     
+        QueryTrace trace = metrics.query("query4").start();
         try {
-            // Create a query to read rows within the summer months range
-            Query query = Query.create(tableId)
-                    .range(startRowKey, endRowKey);
-    
-            // Execute the query and process the results
-            ServerStream<Row> rows = dataClient.readRows(query);
-            for (Row row : rows) {
-                // Extract the temperature from each row
-                for (RowCell cell : row.getCells(COLUMN_FAMILY, "temperature")) {
-                    try {
-                        int temperature = Integer.parseInt(cell.getValue().toStringUtf8().trim());
-                        // Update the maximum temperature
-                        if (temperature > maxTemperature) {
-                            maxTemperature = temperature;
-                        }
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid temperature value: " + cell.getValue().toStringUtf8().trim() + " in row: " + row.getKey().toStringUtf8());
-                        continue;  // Skip this invalid value and continue with next
-                    }
-                }
-            }
-    
-            if (maxTemperature == Integer.MIN_VALUE) {
-                System.out.println("No valid temperature readings found in summer 2022");
-                return -1;
-            }
-    
-            System.out.println("Highest temperature in summer 2022: " + maxTemperature);
-            return maxTemperature;
+            // One range per station over the summer months, scanned concurrently
+            MetricAccumulator temperatures = aggregations.summarize(Arrays.asList(STATION_IDS),
+                    HourRange.days(start, end), Metric.TEMPERATURE, trace);
+            trace.finish(null);
+            return query4MaxTemperature(temperatures);
         } catch (Exception e) {
+            trace.finish(e);
             System.err.println("Error executing query4: " + e.getMessage());
             throw new Exception("Failed to execute query4", e);
         }
     }
+
+    /**
+     * {@link #query4()} without blocking.
+     *
+     * @return Highest temperature
+     */
+    public CompletableFuture<Integer> query4Async() {
+        LocalDate start = LocalDate.of(2022, 7, 1); // Start of summer
+        LocalDate end = LocalDate.of(2022, 8, 31);  // End of summer
+
+        QueryTrace trace = metrics.query("query4").start();
+        return failWith("query4", trace.track(fanOut.submitAsync(() -> aggregations.summarizeAsync(
+                        Arrays.asList(STATION_IDS), HourRange.days(start, end), Metric.TEMPERATURE, trace)))
+                .thenApply(Bigtable::query4MaxTemperature));
+    }
+
+    private static int query4MaxTemperature(MetricAccumulator temperatures) {
+        if (temperatures.missing() > 0) {
+            System.err.println("Skipped " + temperatures.missing() + " rows with a missing or invalid temperature");
+        }
+        int maxTemperature = temperatures.count() == 0 ? Integer.MIN_VALUE : temperatures.max();
+
+        if (maxTemperature == Integer.MIN_VALUE) {
+            System.out.println("No valid temperature readings found in summer 2022");
+            return -1;
+        }
+
+        System.out.println("Highest temperature in summer 2022: " + maxTemperature);
+        return maxTemperature;
+    }
+
+    /**
+     * Report and wrap a failure of an asynchronous query like the blocking queries do.
+     */
+    private static <T> CompletableFuture<T> failWith(String query, CompletableFuture<T> result) {
+        CompletableFuture<T> wrapped = new CompletableFuture<>();
+        result.whenComplete((value, error) -> {
+            if (error == null) {
+                wrapped.complete(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            System.err.println("Error executing " + query + ": " + cause.getMessage());
+            wrapped.completeExceptionally(new Exception("Failed to execute " + query, cause));
+        });
+        return wrapped;
+    }
+
+    private class CollectReadings implements ParallelScanner.RowAggregator<List<HourlyReading>> {
+        @Override
+        public List<HourlyReading> create() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void accept(List<HourlyReading> readings, Row row) {
+            HourlyReading reading = HourlyReading.fromRow(row, COLUMN_FAMILY, codec);
+            if (reading != null) {
+                readings.add(reading);
+            }
+        }
+
+        @Override
+        public List<HourlyReading> merge(List<HourlyReading> left, List<HourlyReading> right) {
+            left.addAll(right);
+            return left;
+        }
+    }
     
 
 
@@ -562,12 +1185,19 @@ public class Bigtable {
      * Delete the table from Bigtable.
      */
     public void deleteTable() {
+        deleteTable(tableId);
+        if (useRollups) {
+            deleteTable(Rollups.dailyTable(tableId));
+            deleteTable(Rollups.monthlyTable(tableId));
+        }
+    }
+
+    private void deleteTable(String tableId) {
         System.out.println("\nDeleting table: " + tableId);
-        try {
-            adminClient.deleteTable(tableId);
+        if (store.deleteTable(tableId)) {
             System.out.printf("Table %s deleted successfully%n", tableId);
-        } catch (NotFoundException e) {
-            System.err.println("Failed to delete a non-existent table: " + e.getMessage());
+        } else {
+            System.err.println("Failed to delete a non-existent table: " + tableId);
         }
     }
 }
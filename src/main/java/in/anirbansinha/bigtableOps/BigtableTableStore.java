@@ -0,0 +1,185 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.batching.Batcher;
+import com.google.api.gax.batching.BatchingException;
+import com.google.api.gax.grpc.GrpcCallContext;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.api.gax.rpc.ApiCallContext;
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.ServerStream;
+import com.google.cloud.bigtable.admin.v2.BigtableTableAdminClient;
+import com.google.cloud.bigtable.admin.v2.BigtableTableAdminSettings;
+import com.google.cloud.bigtable.admin.v2.models.CreateTableRequest;
+import com.google.cloud.bigtable.data.v2.BigtableDataClient;
+import com.google.cloud.bigtable.data.v2.models.Filters;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A {@link TableStore} on a Bigtable instance, or the emulator.
+ */
+public class BigtableTableStore implements TableStore {
+
+    private final BigtableDataClient dataClient;
+    private final BigtableTableAdminSettings adminSettings;
+    private BigtableTableAdminClient adminClient;
+    // Call context of key lookups, or null to read them as scans
+    private volatile ApiCallContext lookupContext;
+
+    /**
+     * @param dataClient The data client; batch size and flow control of the bulk writers come
+     *                   from its settings (see {@link BulkLoadSettings#apply})
+     * @param adminClient The admin client of the same instance
+     */
+    public BigtableTableStore(BigtableDataClient dataClient, BigtableTableAdminClient adminClient) {
+        this.dataClient = dataClient;
+        this.adminSettings = null;
+        this.adminClient = adminClient;
+    }
+
+    /**
+     * Create the admin client only once a table is checked, created or deleted.
+     * @param dataClient The data client, see {@link #BigtableTableStore(BigtableDataClient, BigtableTableAdminClient)}
+     * @param adminSettings The settings of the admin client of the same instance
+     */
+    public BigtableTableStore(BigtableDataClient dataClient, BigtableTableAdminSettings adminSettings) {
+        this.dataClient = dataClient;
+        this.adminSettings = adminSettings;
+    }
+
+    @Override
+    public Row readRow(String tableId, ByteString rowKey, Filters.Filter filter) {
+        return dataClient.readRow(tableId, rowKey, filter);
+    }
+
+    @Override
+    public ApiFuture<Row> readRowAsync(String tableId, ByteString rowKey, Filters.Filter filter) {
+        return dataClient.readRowAsync(tableId, rowKey, filter);
+    }
+
+    @Override
+    public Rows readRows(Query query) {
+        ServerStream<Row> rows = dataClient.readRows(query);
+        return new Rows() {
+            @Override
+            public Iterator<Row> iterator() {
+                return rows.iterator();
+            }
+
+            @Override
+            public void cancel() {
+                rows.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void readRowsAsync(Query query, ResponseObserver<Row> observer) {
+        dataClient.readRowsAsync(query, observer);
+    }
+
+    @Override
+    public void lookupRowsAsync(Query query, ResponseObserver<Row> observer) {
+        ApiCallContext context = lookupContext;
+        if (context == null) {
+            readRowsAsync(query, observer);
+        } else {
+            dataClient.readRowsCallable().call(query, observer, context);
+        }
+    }
+
+    /**
+     * Give key lookups their own timeouts and retries. The data client has one set for all
+     * queries, the scans', so they are set on every lookup call instead.
+     * @param settings The retry settings of lookups, see {@link ReadSettings#lookupRetrySettings}
+     */
+    public void setLookupRetrySettings(RetrySettings settings) {
+        this.lookupContext = GrpcCallContext.createDefault().withRetrySettings(settings);
+    }
+
+    @Override
+    public RowWriter newBulkWriter(String tableId) {
+        Batcher<RowMutationEntry, Void> batcher = dataClient.newBulkMutationBatcher(tableId);
+        return new RowWriter() {
+            @Override
+            public ApiFuture<Void> add(RowMutationEntry entry) {
+                return batcher.add(entry);
+            }
+
+            @Override
+            public void flush() throws InterruptedException {
+                batcher.flush();
+            }
+
+            @Override
+            public void close() throws InterruptedException {
+                try {
+                    batcher.close();
+                } catch (BatchingException e) {
+                    // Already reported per row by the futures
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean exists(String tableId) {
+        return admin().exists(tableId);
+    }
+
+    @Override
+    public void createTable(String tableId, String family, List<ByteString> splits) {
+        CreateTableRequest request = CreateTableRequest.of(tableId).addFamily(family);
+        for (ByteString split : splits) {
+            request.addSplit(split);
+        }
+        admin().createTable(request);
+    }
+
+    @Override
+    public boolean deleteTable(String tableId) {
+        try {
+            admin().deleteTable(tableId);
+            return true;
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        dataClient.close();
+        synchronized (this) {
+            if (adminClient != null) {
+                adminClient.close();
+            }
+        }
+    }
+
+    /**
+     * @return Whether the admin client has been created
+     */
+    public synchronized boolean hasAdminClient() {
+        return adminClient != null;
+    }
+
+    private synchronized BigtableTableAdminClient admin() {
+        if (adminClient == null) {
+            try {
+                adminClient = BigtableTableAdminClient.create(adminSettings);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create the admin client", e);
+            }
+        }
+        return adminClient;
+    }
+}
@@ -0,0 +1,86 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.gax.batching.BatchingSettings;
+import com.google.api.gax.batching.FlowControlSettings;
+import com.google.api.gax.batching.FlowController.LimitExceededBehavior;
+import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import org.threeten.bp.Duration;
+
+/**
+ * Batching and flow control settings for the bulk mutation batcher used by the loader.
+ * Values are read from the .env file, falling back to the defaults below.
+ */
+public class BulkLoadSettings {
+
+    public static final long DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_BATCH_BYTES = 4L * 1024 * 1024;
+    public static final long DEFAULT_BATCH_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_OUTSTANDING_ROWS = 10_000;
+    public static final long DEFAULT_MAX_OUTSTANDING_BYTES = 32L * 1024 * 1024;
+    public static final int DEFAULT_MAX_RECORDED_FAILURES = 1000;
+
+    /** Rows per bulk mutate RPC. */
+    public final long batchSize;
+    /** Request size (bytes) that triggers a bulk mutate RPC before batchSize is reached. */
+    public final long batchBytes;
+    /** Maximum time a partially filled batch waits before it is sent. */
+    public final long batchDelayMs;
+    /** Rows that may be in flight before the loader blocks. */
+    public final long maxOutstandingRows;
+    /** Mutation bytes that may be in flight before the loader blocks. */
+    public final long maxOutstandingBytes;
+    /** Failed rows kept for reporting; further failures are only counted. */
+    public final int maxRecordedFailures;
+
+    public BulkLoadSettings(long batchSize, long batchBytes, long batchDelayMs,
+                            long maxOutstandingRows, long maxOutstandingBytes, int maxRecordedFailures) {
+        this.batchSize = batchSize;
+        this.batchBytes = batchBytes;
+        this.batchDelayMs = batchDelayMs;
+        this.maxOutstandingRows = maxOutstandingRows;
+        this.maxOutstandingBytes = maxOutstandingBytes;
+        this.maxRecordedFailures = maxRecordedFailures;
+    }
+
+    /**
+     * Read the loader settings from the .env file.
+     * @param dotenv The loaded .env configuration
+     * @return The settings, with defaults for any key that is not set
+     */
+    public static BulkLoadSettings fromEnv(Dotenv dotenv) {
+        return new BulkLoadSettings(
+                Long.parseLong(dotenv.get("LOAD_BATCH_SIZE", String.valueOf(DEFAULT_BATCH_SIZE))),
+                Long.parseLong(dotenv.get("LOAD_BATCH_BYTES", String.valueOf(DEFAULT_BATCH_BYTES))),
+                Long.parseLong(dotenv.get("LOAD_BATCH_DELAY_MS", String.valueOf(DEFAULT_BATCH_DELAY_MS))),
+                Long.parseLong(dotenv.get("LOAD_MAX_OUTSTANDING_ROWS", String.valueOf(DEFAULT_MAX_OUTSTANDING_ROWS))),
+                Long.parseLong(dotenv.get("LOAD_MAX_OUTSTANDING_BYTES", String.valueOf(DEFAULT_MAX_OUTSTANDING_BYTES))),
+                Integer.parseInt(dotenv.get("LOAD_MAX_RECORDED_FAILURES", String.valueOf(DEFAULT_MAX_RECORDED_FAILURES))));
+    }
+
+    /**
+     * Configure the bulk mutation batcher of a data client. Flow control blocks the caller
+     * of {@code Batcher.add} once the outstanding limits are reached, which keeps the
+     * loader's heap use bounded regardless of the input size.
+     * @param builder The data settings builder used to create the client
+     */
+    public void apply(BigtableDataSettings.Builder builder) {
+        FlowControlSettings flowControl = FlowControlSettings.newBuilder()
+                .setMaxOutstandingElementCount(maxOutstandingRows)
+                .setMaxOutstandingRequestBytes(maxOutstandingBytes)
+                .setLimitExceededBehavior(LimitExceededBehavior.Block)
+                .build();
+
+        BatchingSettings batching = builder.stubSettings().bulkMutateRowsSettings().getBatchingSettings()
+                .toBuilder()
+                .setElementCountThreshold(batchSize)
+                .setRequestByteThreshold(batchBytes)
+                .setDelayThreshold(Duration.ofMillis(batchDelayMs))
+                .setFlowControlSettings(flowControl)
+                .build();
+
+        builder.stubSettings().bulkMutateRowsSettings().setBatchingSettings(batching);
+    }
+}
@@ -0,0 +1,190 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams row mutations to a table through the store's bulk writer (on Bigtable, the
+ * client's bulk mutation batcher). Rows are sent in batches while the caller keeps producing
+ * them, and the batcher's flow control blocks {@link #add} when too many rows are in flight. Failures are
+ * collected per row instead of failing the whole load. Every mutation's size, as counted
+ * when it was built, and the time until its batch completed are recorded in {@link Metrics}.
+ */
+public class BulkLoader implements AutoCloseable {
+
+    /**
+     * A row that could not be written.
+     */
+    public static class RowFailure {
+        private final RowMutationEntry entry;
+        public final Throwable error;
+
+        RowFailure(RowMutationEntry entry, Throwable error) {
+            this.entry = entry;
+            this.error = error;
+        }
+
+        /**
+         * @return The key of the row; the entry only exposes it through its proto, so it is
+         * built when reported rather than when the write fails
+         */
+        public String getRowKey() {
+            return entry.toProto().getRowKey().toStringUtf8();
+        }
+
+        @Override
+        public String toString() {
+            return getRowKey() + ": " + error.getMessage();
+        }
+    }
+
+    /**
+     * Notified of every row that was written successfully.
+     */
+    public interface WriteListener {
+        /**
+         * Called on the client's callback thread; must not block.
+         */
+        void onWritten(RowMutationEntry entry);
+    }
+
+    /**
+     * Notified when one row has completed, written or not.
+     */
+    public interface Completion {
+        /**
+         * Called on the client's callback thread; must not block.
+         * @param written Whether the row was written
+         */
+        void done(boolean written);
+    }
+
+    private final TableStore.RowWriter writer;
+    private volatile WriteListener listener;
+    private final int maxRecordedFailures;
+    private final Metrics metrics;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger recordedFailures = new AtomicInteger();
+    private final ConcurrentLinkedQueue<RowFailure> failures = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create a loader for a table. On Bigtable, batch size and flow control come from the
+     * settings the data client was created with (see {@link BulkLoadSettings#apply}).
+     * @param store The store to write to
+     * @param tableId The table to write to
+     * @param maxRecordedFailures Number of failed rows to keep for reporting
+     * @param metrics Records the mutations sent and their latency
+     */
+    public BulkLoader(TableStore store, String tableId, int maxRecordedFailures, Metrics metrics) {
+        this.writer = store.newBulkWriter(tableId);
+        this.maxRecordedFailures = maxRecordedFailures;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param listener Notified of every row written from now on, or null
+     */
+    public void setWriteListener(WriteListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queue a row mutation. Blocks while the outstanding row or byte limit is reached.
+     * @param entry The mutation for one row
+     * @param bytes The size of the row as it was built: its key, and the qualifiers and
+     *              values of its cells
+     */
+    public void add(RowMutationEntry entry, long bytes) {
+        add(entry, bytes, null);
+    }
+
+    /**
+     * Queue a row mutation, as {@link #add(RowMutationEntry, long)}.
+     * @param entry The mutation for one row
+     * @param bytes The size of the row as it was built
+     * @param completion Notified once the row has completed, or null
+     */
+    public void add(final RowMutationEntry entry, long bytes, final Completion completion) {
+        submitted.incrementAndGet();
+        metrics.mutationSent(bytes);
+        final long start = System.nanoTime();
+        ApiFuture<Void> result = writer.add(entry);
+        ApiFutures.addCallback(result, new ApiFutureCallback<Void>() {
+            @Override
+            public void onSuccess(Void ignored) {
+                succeeded.incrementAndGet();
+                metrics.mutationDone(true, System.nanoTime() - start);
+                WriteListener current = listener;
+                if (current != null) {
+                    current.onWritten(entry);
+                }
+                if (completion != null) {
+                    completion.done(true);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                failed.incrementAndGet();
+                metrics.mutationDone(false, System.nanoTime() - start);
+                // Only keep the first failures; the rest are counted
+                if (recordedFailures.incrementAndGet() <= maxRecordedFailures) {
+                    failures.add(new RowFailure(entry, t));
+                }
+                if (completion != null) {
+                    completion.done(false);
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Send all queued rows and wait until every outstanding row has completed.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        writer.flush();
+    }
+
+    /**
+     * Flush the remaining rows and release the writer. Failed rows do not throw here;
+     * they are available from {@link #getFailures()}.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Override
+    public void close() throws InterruptedException {
+        // Failed rows are already collected per row by the callbacks
+        writer.close();
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return The first failed rows, up to the configured maximum
+     */
+    public List<RowFailure> getFailures() {
+        return new ArrayList<>(failures);
+    }
+}
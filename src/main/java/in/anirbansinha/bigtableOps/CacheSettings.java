@@ -0,0 +1,53 @@
+package in.anirbansinha.bigtableOps;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Settings of the {@link ReadingCache} for point lookups.
+ * Values are read from the .env file, falling back to the defaults below.
+ */
+public class CacheSettings {
+
+    public static final boolean DEFAULT_ENABLED = true;
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    public static final long DEFAULT_TTL_MS = 60_000;
+    public static final boolean DEFAULT_WARM_ON_LOAD = false;
+
+    /** Whether point lookups go through the cache. */
+    public final boolean enabled;
+    /** Readings kept before the least recently used are evicted. */
+    public final int maxEntries;
+    /** Estimated heap bytes kept before the least recently used are evicted. */
+    public final long maxBytes;
+    /** Time after which a cached reading is read again; 0 keeps readings until evicted. */
+    public final long ttlMs;
+    /**
+     * Whether rows written by a full load are put in the cache. Off by default: a bulk load
+     * would decode every row and mostly evict itself. Tailing loads, which only write the
+     * appended hours, always warm the cache.
+     */
+    public final boolean warmOnLoad;
+
+    public CacheSettings(boolean enabled, int maxEntries, long maxBytes, long ttlMs, boolean warmOnLoad) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        this.warmOnLoad = warmOnLoad;
+    }
+
+    /**
+     * Read the cache settings from the .env file.
+     * @param dotenv The loaded .env configuration
+     * @return The settings, with defaults for any key that is not set
+     */
+    public static CacheSettings fromEnv(Dotenv dotenv) {
+        return new CacheSettings(
+                Boolean.parseBoolean(dotenv.get("CACHE_ENABLED", String.valueOf(DEFAULT_ENABLED))),
+                Integer.parseInt(dotenv.get("CACHE_MAX_ENTRIES", String.valueOf(DEFAULT_MAX_ENTRIES))),
+                Long.parseLong(dotenv.get("CACHE_MAX_BYTES", String.valueOf(DEFAULT_MAX_BYTES))),
+                Long.parseLong(dotenv.get("CACHE_TTL_MS", String.valueOf(DEFAULT_TTL_MS))),
+                Boolean.parseBoolean(dotenv.get("CACHE_WARM_ON_LOAD", String.valueOf(DEFAULT_WARM_ON_LOAD))));
+    }
+}
@@ -0,0 +1,68 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * How {@code connect()} sets up the Bigtable clients, for short-lived runs that should get
+ * to their first query quickly.
+ * Values are read from the .env file, falling back to the defaults below.
+ */
+public class ClientSettings {
+
+    public static final boolean DEFAULT_LAZY_ADMIN = true;
+    public static final int DEFAULT_CHANNEL_POOL_SIZE = 0;
+    public static final boolean DEFAULT_PRIME_CHANNELS = true;
+
+    /**
+     * Whether the admin client is only created when a table is created, deleted or checked,
+     * so query-only runs never pay for it.
+     */
+    public final boolean lazyAdmin;
+    /** gRPC channels of the data client, or 0 for the client's default. */
+    public final int channelPoolSize;
+    /**
+     * Whether {@code connect()} sends a read on every channel, so the connections and TLS
+     * sessions are set up before the first query instead of during it.
+     */
+    public final boolean primeChannels;
+
+    public ClientSettings(boolean lazyAdmin, int channelPoolSize, boolean primeChannels) {
+        this.lazyAdmin = lazyAdmin;
+        this.channelPoolSize = channelPoolSize;
+        this.primeChannels = primeChannels;
+    }
+
+    /**
+     * Read the client settings from the .env file.
+     * @param dotenv The loaded .env configuration
+     * @return The settings, with defaults for any key that is not set
+     */
+    public static ClientSettings fromEnv(Dotenv dotenv) {
+        return new ClientSettings(
+                Boolean.parseBoolean(dotenv.get("CLIENT_LAZY_ADMIN", String.valueOf(DEFAULT_LAZY_ADMIN))),
+                Integer.parseInt(dotenv.get("CLIENT_CHANNEL_POOL_SIZE", String.valueOf(DEFAULT_CHANNEL_POOL_SIZE))),
+                Boolean.parseBoolean(dotenv.get("CLIENT_PRIME_CHANNELS", String.valueOf(DEFAULT_PRIME_CHANNELS))));
+    }
+
+    /**
+     * Apply the channel pool size to the settings of a data client.
+     * @param builder The data client settings to modify
+     * @return Number of channels the client will open
+     */
+    public int apply(BigtableDataSettings.Builder builder) {
+        TransportChannelProvider provider = builder.stubSettings().getTransportChannelProvider();
+        if (!(provider instanceof InstantiatingGrpcChannelProvider)) {
+            return Math.max(1, channelPoolSize);
+        }
+        InstantiatingGrpcChannelProvider.Builder channels = ((InstantiatingGrpcChannelProvider) provider).toBuilder();
+        if (channelPoolSize > 0) {
+            channels.setPoolSize(channelPoolSize);
+            builder.stubSettings().setTransportChannelProvider(channels.build());
+        }
+        return channels.getPoolSize();
+    }
+}
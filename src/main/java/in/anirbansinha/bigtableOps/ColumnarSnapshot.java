@@ -0,0 +1,379 @@
+package in.anirbansinha.bigtableOps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only, memory-mapped columnar copy of the readings of some stations and days,
+ * written by {@link SnapshotWriter} (see {@code Bigtable.exportSnapshot}), that answers the
+ * same aggregates as the {@link AggregationEngine} in process, without a cluster.
+ * <p>
+ * Rows are sorted by station and hour. The station of a row is a byte indexing the station
+ * dictionary, its day a short indexing the sorted dictionary of days, and its hour a byte;
+ * every metric is one column of ints, {@link ReadingCodec#MISSING} where the reading had no
+ * value. The header holds the dictionaries, each station's first row and row count, and
+ * the number of missing values of every metric. All values are little-endian.
+ * <p>
+ * A query binary searches the hour range within each station's rows and scans the matching
+ * rows of the metric's column in chunks on the common ForkJoinPool. Each chunk is copied out
+ * of the mapping into an int array and reduced by a branch-free loop the JIT can vectorize;
+ * only metrics with missing values take the loop that skips them. The snapshot is safe to
+ * query from many threads.
+ */
+public final class ColumnarSnapshot {
+
+    static final byte[] MAGIC = "BTCOLSNP".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    /** Stations are stored in one byte. */
+    static final int MAX_STATIONS = 256;
+    /** Days are stored in a short: about 179 years. */
+    static final int MAX_DAYS = 65_536;
+
+    /** Rows scanned per task; also the length of the per-thread copy buffer. */
+    static final int CHUNK_ROWS = 16 * 1024;
+
+    private static final ThreadLocal<int[]> BUFFER = ThreadLocal.withInitial(() -> new int[CHUNK_ROWS]);
+
+    /**
+     * Where the sections of a snapshot file start. Each column starts on an 8-byte boundary.
+     */
+    static final class Layout {
+        final int stationColumn;
+        final int dayColumn;
+        final int hourColumn;
+        final int firstMetricColumn;
+        final int rows;
+        final long size;
+
+        Layout(Collection<String> stations, int days, int rows) {
+            long header = MAGIC.length + 5 * 4;
+            for (Metric metric : Metric.values()) {
+                header += 2 + metric.qualifier.getBytes(StandardCharsets.UTF_8).length;
+            }
+            for (String station : stations) {
+                header += 2 + station.getBytes(StandardCharsets.UTF_8).length + 8;
+            }
+            header += 8L * Metric.COUNT + 4L * days;
+
+            long stationColumn = align(header);
+            long dayColumn = align(stationColumn + rows);
+            long hourColumn = align(dayColumn + 2L * rows);
+            long firstMetricColumn = align(hourColumn + rows);
+            long size = firstMetricColumn + (long) Metric.COUNT * align(4L * rows);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("A snapshot file is limited to 2 GB: " + rows + " rows");
+            }
+            this.stationColumn = (int) stationColumn;
+            this.dayColumn = (int) dayColumn;
+            this.hourColumn = (int) hourColumn;
+            this.firstMetricColumn = (int) firstMetricColumn;
+            this.rows = rows;
+            this.size = size;
+        }
+
+        int metricColumn(int metric) {
+            return (int) (firstMetricColumn + metric * align(4L * rows));
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & ~7L;
+        }
+    }
+
+    /**
+     * A run of rows to scan, within one station.
+     */
+    private static final class Chunk {
+        final int from;
+        final int to;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final Path path;
+    private final int rows;
+    /** Station ID to {first row, row count}, in dictionary order. */
+    private final Map<String, int[]> stations = new LinkedHashMap<>();
+    private final int[] days;
+    private final long[] missing = new long[Metric.COUNT];
+    private final ByteBuffer hourColumn;
+    private final ShortBuffer dayColumn;
+    private final IntBuffer[] metricColumns = new IntBuffer[Metric.COUNT];
+
+    private ColumnarSnapshot(Path path, ByteBuffer data) throws IOException {
+        this.path = path;
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[MAGIC.length];
+        data.get(magic);
+        if (!Arrays.equals(magic, MAGIC) || data.getInt() != VERSION) {
+            throw new IOException("Not a version " + VERSION + " readings snapshot: " + path);
+        }
+        rows = data.getInt();
+        int stationCount = data.getInt();
+        days = new int[data.getInt()];
+        if (data.getInt() != Metric.COUNT) {
+            throw new IOException("Snapshot has other metrics than " + Arrays.toString(Metric.values()) + ": " + path);
+        }
+        for (Metric metric : Metric.values()) {
+            if (!metric.qualifier.equals(getString(data))) {
+                throw new IOException("Snapshot has other metrics than " + Arrays.toString(Metric.values())
+                        + ": " + path);
+            }
+        }
+        List<String> names = new ArrayList<>();
+        for (int s = 0; s < stationCount; s++) {
+            String name = getString(data);
+            names.add(name);
+            stations.put(name, new int[] { data.getInt(), data.getInt() });
+        }
+        for (int m = 0; m < Metric.COUNT; m++) {
+            missing[m] = data.getLong();
+        }
+        for (int d = 0; d < days.length; d++) {
+            days[d] = data.getInt();
+        }
+
+        Layout layout = new Layout(names, days.length, rows);
+        if (data.capacity() < layout.size) {
+            throw new IOException("Snapshot is truncated: " + path);
+        }
+        dayColumn = slice(data, layout.dayColumn, 2 * rows).asShortBuffer();
+        hourColumn = slice(data, layout.hourColumn, rows);
+        for (int m = 0; m < Metric.COUNT; m++) {
+            metricColumns[m] = slice(data, layout.metricColumn(m), 4 * rows).asIntBuffer();
+        }
+    }
+
+    /**
+     * Map a snapshot file. The mapping stays valid after the channel is closed and is
+     * released when the snapshot is no longer referenced.
+     * @param path The snapshot file, from {@link SnapshotWriter#write}
+     * @return The snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static ColumnarSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is larger than 2 GB: " + path);
+            }
+            return new ColumnarSnapshot(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return Number of readings in the snapshot
+     */
+    public int rows() {
+        return rows;
+    }
+
+    /**
+     * @return The stations in the snapshot
+     */
+    public Set<String> stations() {
+        return Collections.unmodifiableSet(stations.keySet());
+    }
+
+    /**
+     * @return The first day with a reading, or null if the snapshot is empty
+     */
+    public LocalDate firstDay() {
+        return days.length == 0 ? null : LocalDate.ofEpochDay(days[0]);
+    }
+
+    /**
+     * @return The last day with a reading, or null if the snapshot is empty
+     */
+    public LocalDate lastDay() {
+        return days.length == 0 ? null : LocalDate.ofEpochDay(days[days.length - 1]);
+    }
+
+    /**
+     * Aggregate a metric, as {@link AggregationEngine#aggregate}.
+     * @param stations The stations to read; empty for every station in the snapshot
+     * @param range The hours to read
+     * @param metric The metric to aggregate
+     * @param aggregate The aggregate function
+     * @return The aggregate, NaN if there are no values (except for sum and count)
+     */
+    public double aggregate(Collection<String> stations, HourRange range, Metric metric, Aggregate aggregate) {
+        MetricAccumulator values = aggregate.needsEveryValue()
+                ? accumulate(stations, range, metric)
+                : summarize(stations, range, metric);
+        return aggregate.apply(values);
+    }
+
+    /**
+     * Collect every value of a metric, to compute several aggregates, including percentiles.
+     * @param stations The stations to read; empty for every station in the snapshot
+     * @param range The hours to read
+     * @param metric The metric to collect
+     * @return The accumulated values
+     */
+    public MetricAccumulator accumulate(Collection<String> stations, HourRange range, Metric metric) {
+        return scan(stations, range, metric, true);
+    }
+
+    /**
+     * Collect the count, min, max and sum of a metric; percentiles are not available.
+     * @param stations The stations to read; empty for every station in the snapshot
+     * @param range The hours to read
+     * @param metric The metric to collect
+     * @return The accumulated values
+     */
+    public MetricAccumulator summarize(Collection<String> stations, HourRange range, Metric metric) {
+        return scan(stations, range, metric, false);
+    }
+
+    private MetricAccumulator scan(Collection<String> stationIds, HourRange range, Metric metric,
+                                   boolean everyValue) {
+        List<Chunk> chunks = chunks(stationIds.isEmpty() ? stations.keySet() : stationIds, range);
+        IntBuffer column = metricColumns[metric.ordinal()];
+        boolean hasMissing = missing[metric.ordinal()] > 0;
+        return chunks.parallelStream().collect(MetricAccumulator::new,
+                (values, chunk) -> scanChunk(column, chunk, everyValue, hasMissing, values),
+                MetricAccumulator::merge);
+    }
+
+    /**
+     * Split the rows of the stations within the range into chunks of at most {@link #CHUNK_ROWS}.
+     */
+    private List<Chunk> chunks(Collection<String> stationIds, HourRange range) {
+        List<Chunk> chunks = new ArrayList<>();
+        long first = firstTime(range);
+        long last = lastTime(range);
+        if (first > last) {
+            return chunks;
+        }
+        for (String stationId : stationIds) {
+            int[] rowRange = stations.get(stationId);
+            if (rowRange == null) {
+                continue;
+            }
+            int end = rowRange[0] + rowRange[1];
+            int from = lowerBound(rowRange[0], end, first);
+            int to = lowerBound(from, end, last + 1);
+            for (int start = from; start < to; start += CHUNK_ROWS) {
+                chunks.add(new Chunk(start, Math.min(to, start + CHUNK_ROWS)));
+            }
+        }
+        return chunks;
+    }
+
+    private static void scanChunk(IntBuffer column, Chunk chunk, boolean everyValue, boolean hasMissing,
+                                  MetricAccumulator values) {
+        int length = chunk.to - chunk.from;
+        int[] buffer = BUFFER.get();
+        column.get(chunk.from, buffer, 0, length);
+
+        if (everyValue) {
+            for (int i = 0; i < length; i++) {
+                values.add(buffer[i]);
+            }
+        } else if (!hasMissing) {
+            // No branches, so the loop is vectorized
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            long sum = 0;
+            for (int i = 0; i < length; i++) {
+                int value = buffer[i];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+            }
+            values.addSummary(min, max, sum, length);
+        } else {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            long sum = 0;
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                int value = buffer[i];
+                if (value == ReadingCodec.MISSING) {
+                    values.add(value);
+                } else {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    sum += value;
+                    count++;
+                }
+            }
+            if (count > 0) {
+                values.addSummary(min, max, sum, count);
+            }
+        }
+    }
+
+    /**
+     * @return The time of the first hour of the range, as day index * 24 + hour
+     */
+    private long firstTime(HourRange range) {
+        int day = Arrays.binarySearch(days, (int) range.firstDay.toEpochDay());
+        // A day without readings: start at the next day that has some
+        return day >= 0 ? day * 24L + range.firstHour : (-day - 1) * 24L;
+    }
+
+    /**
+     * @return The time of the last hour of the range, as day index * 24 + hour
+     */
+    private long lastTime(HourRange range) {
+        int day = Arrays.binarySearch(days, (int) range.lastDay.toEpochDay());
+        // A day without readings: end with the last hour of the previous day that has some
+        return day >= 0 ? day * 24L + range.lastHour : (-day - 1) * 24L - 1;
+    }
+
+    /**
+     * @return The first row in [from, to) at or after the time, or to
+     */
+    private int lowerBound(int from, int to, long time) {
+        int low = from;
+        int high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (time(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long time(int row) {
+        return (dayColumn.get(row) & 0xffff) * 24L + hourColumn.get(row);
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+        return data.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String getString(ByteBuffer data) {
+        byte[] bytes = new byte[data.getShort() & 0xffff];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return path + ": " + rows + " readings of " + stations.keySet() + " from " + firstDay() + " to " + lastDay();
+    }
+}
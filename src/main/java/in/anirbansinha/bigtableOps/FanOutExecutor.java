@@ -0,0 +1,229 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many queries at once with a bound on how many are in flight.
+ * Tasks run on virtual threads when the JVM has them (Java 21+), so a caller can fan out
+ * dozens of station or range queries without a platform thread per query; on older JVMs a
+ * fixed pool of maxConcurrency daemon threads is used instead.
+ * Asynchronous tasks hold their permit until their future completes, not just while they
+ * are being started, so the limit bounds the outstanding requests either way.
+ */
+public class FanOutExecutor implements AutoCloseable {
+
+    /**
+     * Starts an asynchronous task.
+     * @param <T> The result type
+     */
+    public interface AsyncTask<T> {
+        /**
+         * @return The future of the started task
+         * @throws Exception if the task cannot be started
+         */
+        CompletableFuture<T> start() throws Exception;
+    }
+
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    /**
+     * @param maxConcurrency Tasks in flight at once
+     * @param useVirtualThreads Whether to run tasks on virtual threads if the JVM has them
+     */
+    public FanOutExecutor(int maxConcurrency, boolean useVirtualThreads) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.permits = new Semaphore(this.maxConcurrency);
+        ExecutorService virtualThreads = useVirtualThreads ? newVirtualThreadExecutor() : null;
+        this.virtual = virtualThreads != null;
+        this.executor = virtual ? virtualThreads : newPlatformExecutor(this.maxConcurrency);
+    }
+
+    public FanOutExecutor(ReadSettings settings) {
+        this(settings.fanOutConcurrency, settings.virtualThreads);
+    }
+
+    /**
+     * Run a blocking task, e.g. a synchronous query, once a permit is free.
+     * @return The task's result
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (!acquire(result)) {
+                return;
+            }
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            } finally {
+                permits.release();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Start an asynchronous task, e.g. a {@code readRowsAsync} scan, once a permit is free.
+     * The permit is released when the task's future completes.
+     * @return The task's result
+     */
+    public <T> CompletableFuture<T> submitAsync(AsyncTask<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (!acquire(result)) {
+                return;
+            }
+            CompletableFuture<T> started;
+            try {
+                started = task.start();
+            } catch (Throwable t) {
+                permits.release();
+                result.completeExceptionally(t);
+                return;
+            }
+            started.whenComplete((value, error) -> {
+                permits.release();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * Start every task, at most maxConcurrency at a time.
+     * @return The results, in task order; completes exceptionally if any task fails
+     */
+    public <T> CompletableFuture<List<T>> submitAllAsync(List<? extends AsyncTask<T>> tasks) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(tasks.size());
+        for (AsyncTask<T> task : tasks) {
+            futures.add(submitAsync(task));
+        }
+        return allOf(futures);
+    }
+
+    /**
+     * @return The results of the futures, in order; completes exceptionally as soon as any fails
+     */
+    public static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        for (CompletableFuture<T> future : futures) {
+            future.whenComplete((value, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            List<T> values = new ArrayList<>(futures.size());
+            for (CompletableFuture<T> future : futures) {
+                values.add(future.join());
+            }
+            result.complete(values);
+        });
+        return result;
+    }
+
+    /**
+     * Adapt a future of the Bigtable client.
+     */
+    public static <T> CompletableFuture<T> toCompletable(ApiFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                future.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        ApiFutures.addCallback(future, new ApiFutureCallback<T>() {
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(t);
+            }
+
+            @Override
+            public void onSuccess(T value) {
+                result.complete(value);
+            }
+        }, Runnable::run);
+        return result;
+    }
+
+    private boolean acquire(CompletableFuture<?> result) {
+        try {
+            permits.acquire();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return Tasks in flight right now
+     */
+    public int getActive() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * @return Whether tasks run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Stop accepting tasks; tasks already submitted still run.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * @return {@code Executors.newVirtualThreadPerTaskExecutor()}, or null before Java 21.
+     *         Looked up reflectively so the build does not need Java 21.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformExecutor(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "fan-out-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(threads, factory);
+    }
+}
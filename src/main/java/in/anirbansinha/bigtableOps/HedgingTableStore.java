@@ -0,0 +1,406 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.bigtable.data.v2.models.Filters;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A {@link TableStore} that hedges the reads of another: if a point read, or a
+ * {@link #lookupRowsAsync lookup of row keys}, has not answered after the hedge delay, the
+ * same request is sent again and the first response wins; the other is cancelled. One slow
+ * tablet server then costs a read the hedge delay instead of its own latency. Other scans
+ * are passed through, since they may be long and are streamed to the caller as they arrive.
+ * <p>
+ * The hedge delay is a percentile of the latencies of recent reads, kept within the
+ * configured bounds, so only about the slowest reads are hedged. Hedges are also limited
+ * to a percentage of the reads, with a small burst, so a cluster that is slow everywhere
+ * does not get twice the load. Reads are idempotent, so a duplicate is harmless.
+ */
+public class HedgingTableStore implements TableStore {
+
+    /** Reads timed before the delay follows their latencies. */
+    static final int MIN_SAMPLES = 50;
+    /** Reads per latency window; the delay comes from the last full window. */
+    static final int WINDOW = 1000;
+    /** Hedges that can be sent at once after a quiet period, in thousandths. */
+    private static final long BURST = 10_000;
+    private static final long HEDGE_COST = 1_000;
+
+    private final TableStore store;
+    private final double quantile;
+    private final long minDelayMicros;
+    private final long maxDelayMicros;
+    private final long creditPerRead;
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicLong credit = new AtomicLong(BURST);
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile LatencyHistogram previous;
+
+    /**
+     * @param store The store to read from
+     * @param settings The hedge percentile, delay bounds and budget
+     */
+    public HedgingTableStore(TableStore store, ReadSettings settings) {
+        this.store = store;
+        this.quantile = settings.hedgePercentile / 100.0;
+        this.minDelayMicros = TimeUnit.MILLISECONDS.toMicros(settings.hedgeMinDelayMs);
+        this.maxDelayMicros = Math.max(minDelayMicros, TimeUnit.MILLISECONDS.toMicros(settings.hedgeMaxDelayMs));
+        this.creditPerRead = Math.round(settings.hedgeBudgetPercent * HEDGE_COST / 100.0);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "read-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Row readRow(String tableId, ByteString rowKey, Filters.Filter filter) {
+        try {
+            return readRowAsync(tableId, rowKey, filter).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading " + rowKey.toStringUtf8(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public ApiFuture<Row> readRowAsync(String tableId, ByteString rowKey, Filters.Filter filter) {
+        return hedge(() -> store.readRowAsync(tableId, rowKey, filter));
+    }
+
+    @Override
+    public Rows readRows(Query query) {
+        return store.readRows(query);
+    }
+
+    @Override
+    public void readRowsAsync(Query query, ResponseObserver<Row> observer) {
+        store.readRowsAsync(query, observer);
+    }
+
+    /**
+     * Hedge a query of row keys only: every attempt is collected, and the rows of the first
+     * to complete are passed to the observer.
+     */
+    @Override
+    public void lookupRowsAsync(Query query, ResponseObserver<Row> observer) {
+        ApiFuture<List<Row>> result = hedge(() -> collect(query));
+        observer.onStart(new StreamController() {
+            @Override
+            public void cancel() {
+                result.cancel(false);
+            }
+
+            @Override
+            public void disableAutoInboundFlowControl() {
+            }
+
+            @Override
+            public void request(int count) {
+            }
+        });
+        ApiFutures.addCallback(result, new ApiFutureCallback<List<Row>>() {
+            @Override
+            public void onSuccess(List<Row> found) {
+                for (Row row : found) {
+                    observer.onResponse(row);
+                }
+                observer.onComplete();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                observer.onError(t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    @Override
+    public RowWriter newBulkWriter(String tableId) {
+        return store.newBulkWriter(tableId);
+    }
+
+    @Override
+    public boolean exists(String tableId) {
+        return store.exists(tableId);
+    }
+
+    @Override
+    public void createTable(String tableId, String family, List<ByteString> splits) {
+        store.createTable(tableId, family, splits);
+    }
+
+    @Override
+    public boolean deleteTable(String tableId) {
+        return store.deleteTable(tableId);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        store.close();
+    }
+
+    /**
+     * @return Reads sent, not counting hedges
+     */
+    public long getReads() {
+        return reads.sum();
+    }
+
+    /**
+     * @return Hedges sent
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * @return Reads answered by their hedge
+     */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * @return Hedges not sent because the budget was used up
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * @return The current hedge delay in microseconds
+     */
+    public long delayMicros() {
+        LatencyHistogram window = previous;
+        if (window == null) {
+            window = current;
+            if (window.count() < MIN_SAMPLES) {
+                return maxDelayMicros;
+            }
+        }
+        return Math.max(minDelayMicros, Math.min(maxDelayMicros, window.percentileMicros(quantile)));
+    }
+
+    private <T> ApiFuture<T> hedge(Supplier<ApiFuture<T>> read) {
+        reads.increment();
+        addCredit();
+        Hedge<T> hedge = new Hedge<>(read);
+        hedge.send(false);
+        if (!hedge.result.isDone()) {
+            hedge.schedule(delayMicros());
+        }
+        return hedge.result;
+    }
+
+    /**
+     * One read and its hedge. The result fails once every attempt sent has failed; the
+     * client has retried each of them already, so a pending hedge is not sent then.
+     */
+    private final class Hedge<T> {
+        final SettableApiFuture<T> result = SettableApiFuture.create();
+        private final Supplier<ApiFuture<T>> read;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean answered = new AtomicBoolean();
+        private final List<ApiFuture<T>> attempts = new ArrayList<>(2);
+        private ScheduledFuture<?> timer;
+        private int sent;
+        private int failed;
+        private boolean closed;
+
+        Hedge(Supplier<ApiFuture<T>> read) {
+            this.read = read;
+            // Every attempt if the caller cancelled
+            result.addListener(this::stop, MoreExecutors.directExecutor());
+        }
+
+        /**
+         * Send no hedge and cancel the attempts that have not completed.
+         */
+        void stop() {
+            List<ApiFuture<T>> others;
+            synchronized (this) {
+                closed = true;
+                others = new ArrayList<>(attempts);
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+            for (ApiFuture<T> attempt : others) {
+                if (!attempt.isDone()) {
+                    attempt.cancel(true);
+                }
+            }
+        }
+
+        void schedule(long delayMicros) {
+            ScheduledFuture<?> scheduled = scheduler.schedule(() -> send(true), delayMicros, TimeUnit.MICROSECONDS);
+            synchronized (this) {
+                if (closed) {
+                    scheduled.cancel(false);
+                } else {
+                    timer = scheduled;
+                }
+            }
+        }
+
+        void send(boolean isHedge) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (isHedge && !takeCredit()) {
+                    throttled.increment();
+                    return;
+                }
+                sent++;
+            }
+            if (isHedge) {
+                hedges.increment();
+            }
+            ApiFuture<T> future;
+            try {
+                future = read.get();
+            } catch (RuntimeException e) {
+                future = ApiFutures.immediateFailedFuture(e);
+            }
+            synchronized (this) {
+                attempts.add(future);
+            }
+            if (result.isDone()) {
+                future.cancel(true);
+                return;
+            }
+            ApiFutures.addCallback(future, new ApiFutureCallback<T>() {
+                @Override
+                public void onSuccess(T value) {
+                    // Accounted for before the caller sees the result
+                    if (answered.compareAndSet(false, true)) {
+                        record(System.nanoTime() - start);
+                        if (isHedge) {
+                            hedgeWins.increment();
+                        }
+                        // Cancel the loser first
+                        stop();
+                        result.set(value);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    synchronized (Hedge.this) {
+                        if (++failed < sent) {
+                            return;
+                        }
+                        closed = true;
+                    }
+                    result.setException(t);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+
+    private void record(long nanos) {
+        LatencyHistogram window = current;
+        window.record(nanos);
+        if (window.count() >= WINDOW) {
+            synchronized (this) {
+                if (current == window) {
+                    previous = window;
+                    current = new LatencyHistogram();
+                }
+            }
+        }
+    }
+
+    private void addCredit() {
+        long value;
+        do {
+            value = credit.get();
+            if (value >= BURST) {
+                return;
+            }
+        } while (!credit.compareAndSet(value, Math.min(BURST, value + creditPerRead)));
+    }
+
+    private boolean takeCredit() {
+        long value;
+        do {
+            value = credit.get();
+            if (value < HEDGE_COST) {
+                return false;
+            }
+        } while (!credit.compareAndSet(value, value - HEDGE_COST));
+        return true;
+    }
+
+    /**
+     * @return The rows of a query once it has completed; cancelling it cancels the scan
+     */
+    private ApiFuture<List<Row>> collect(Query query) {
+        SettableApiFuture<List<Row>> rows = SettableApiFuture.create();
+        store.lookupRowsAsync(query, new ResponseObserver<Row>() {
+            private final List<Row> found = new ArrayList<>();
+
+            @Override
+            public void onStart(StreamController controller) {
+                rows.addListener(() -> {
+                    if (rows.isCancelled()) {
+                        controller.cancel();
+                    }
+                }, MoreExecutors.directExecutor());
+            }
+
+            @Override
+            public void onResponse(Row row) {
+                found.add(row);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                if (!(t instanceof CancellationException) || !rows.isCancelled()) {
+                    rows.setException(t);
+                }
+            }
+
+            @Override
+            public void onComplete() {
+                rows.set(found);
+            }
+        });
+        return rows;
+    }
+}
@@ -0,0 +1,88 @@
+package in.anirbansinha.bigtableOps;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * An inclusive range of hours, from firstHour on firstDay to lastHour on lastDay.
+ */
+public final class HourRange {
+
+    public final LocalDate firstDay;
+    public final int firstHour;
+    public final LocalDate lastDay;
+    public final int lastHour;
+
+    private HourRange(LocalDate firstDay, int firstHour, LocalDate lastDay, int lastHour) {
+        this.firstDay = firstDay;
+        this.firstHour = firstHour;
+        this.lastDay = lastDay;
+        this.lastHour = lastHour;
+    }
+
+    /**
+     * @return The hours from firstDay firstHour to lastDay lastHour, both inclusive
+     * @throws IllegalArgumentException if an hour is not between 0 and 23 or the range is empty
+     */
+    public static HourRange of(LocalDate firstDay, int firstHour, LocalDate lastDay, int lastHour) {
+        if (firstHour < 0 || firstHour > 23 || lastHour < 0 || lastHour > 23) {
+            throw new IllegalArgumentException("Hours must be between 0 and 23: " + firstHour + ", " + lastHour);
+        }
+        if (lastDay.isBefore(firstDay) || (lastDay.equals(firstDay) && lastHour < firstHour)) {
+            throw new IllegalArgumentException("Empty hour range: " + firstDay + " " + firstHour
+                    + " to " + lastDay + " " + lastHour);
+        }
+        return new HourRange(firstDay, firstHour, lastDay, lastHour);
+    }
+
+    /**
+     * @return Every hour from firstDay to lastDay, both inclusive
+     */
+    public static HourRange days(LocalDate firstDay, LocalDate lastDay) {
+        return of(firstDay, 0, lastDay, 23);
+    }
+
+    /**
+     * @return Number of hours in the range
+     */
+    public long hours() {
+        return ChronoUnit.DAYS.between(firstDay, lastDay) * 24 + lastHour - firstHour + 1;
+    }
+
+    /**
+     * @return Whether the range starts at midnight and ends at 23:00
+     */
+    public boolean isWholeDays() {
+        return firstHour == 0 && lastHour == 23;
+    }
+
+    /**
+     * @return Whether the hour of a day is inside the range
+     */
+    public boolean contains(LocalDate day, int hour) {
+        if (day.isBefore(firstDay) || day.isAfter(lastDay)) {
+            return false;
+        }
+        return (!day.equals(firstDay) || hour >= firstHour) && (!day.equals(lastDay) || hour <= lastHour);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof HourRange)) {
+            return false;
+        }
+        HourRange other = (HourRange) o;
+        return firstDay.equals(other.firstDay) && firstHour == other.firstHour
+                && lastDay.equals(other.lastDay) && lastHour == other.lastHour;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((firstDay.hashCode() * 31 + firstHour) * 31 + lastDay.hashCode()) * 31 + lastHour;
+    }
+
+    @Override
+    public String toString() {
+        return firstDay + " " + firstHour + ":00 to " + lastDay + " " + lastHour + ":00";
+    }
+}
@@ -0,0 +1,62 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.protobuf.ByteString;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps the first reading of every hour of a station and suppresses the later ones.
+ * Hours are tracked as packed {@code yyyymmddhh} longs (see {@link ReadingParser#hourKey()});
+ * rows whose date or time does not have that shape fall back to a set of row keys.
+ * One instance covers one station file and is used by a single thread, in file order.
+ * A load resumed from a {@link LoadCheckpoints checkpoint} also suppresses every hour up to
+ * the last one already written, which assumes the file is appended to in time order.
+ */
+public class HourlyDeduplicator {
+
+    private final LongHashSet hours = new LongHashSet(16 * 1024);
+    private Set<ByteString> otherKeys;
+    private final long afterHourKey;
+    private long suppressed;
+
+    public HourlyDeduplicator() {
+        this(-1);
+    }
+
+    /**
+     * @param afterHourKey The last {@code yyyymmddhh} already loaded; readings of this and
+     *                     earlier hours are suppressed. -1 suppresses none.
+     */
+    public HourlyDeduplicator(long afterHourKey) {
+        this.afterHourKey = afterHourKey;
+    }
+
+    /**
+     * @param hourKey The packed hour of the reading, or -1 if it could not be packed
+     * @param rowKey The row key of the reading, used when the hour could not be packed
+     * @return true if this is the first reading of its hour, false if it is suppressed
+     */
+    public boolean isFirst(long hourKey, ByteString rowKey) {
+        boolean first;
+        if (hourKey >= 0) {
+            first = hourKey > afterHourKey && hours.add(hourKey);
+        } else {
+            if (otherKeys == null) {
+                otherKeys = new HashSet<>();
+            }
+            first = otherKeys.add(rowKey);
+        }
+        if (!first) {
+            suppressed++;
+        }
+        return first;
+    }
+
+    /**
+     * @return Number of readings suppressed because their hour was already seen
+     */
+    public long getSuppressed() {
+        return suppressed;
+    }
+}
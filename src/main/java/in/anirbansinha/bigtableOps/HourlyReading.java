@@ -0,0 +1,106 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.bigtable.v2.MutateRowsRequest;
+import com.google.bigtable.v2.Mutation;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The stored values of one hourly reading. Immutable; metrics that were missing or could not
+ * be decoded are {@link ReadingCodec#MISSING}.
+ */
+public final class HourlyReading implements Reading {
+
+    private final ReadingKey key;
+    private final int[] values;
+
+    /**
+     * @param values The values, indexed by {@link Metric#ordinal()}; copied
+     */
+    public HourlyReading(ReadingKey key, int[] values) {
+        this.key = key;
+        this.values = Arrays.copyOf(values, Metric.COUNT);
+    }
+
+    /**
+     * Decode a readings row.
+     * @return The reading, or null if the row key is not a reading's key
+     */
+    public static HourlyReading fromRow(Row row, String family, ReadingCodec codec) {
+        ReadingKey key = ReadingKey.fromRowKey(row.getKey());
+        if (key == null) {
+            return null;
+        }
+        int[] values = new int[Metric.COUNT];
+        Arrays.fill(values, ReadingCodec.MISSING);
+        codec.decode(row, family, values);
+        return new HourlyReading(key, values);
+    }
+
+    /**
+     * Decode the reading a mutation writes, as it will be read back.
+     * @return The reading, or null if the mutation does not write a reading's row
+     */
+    public static HourlyReading fromMutation(RowMutationEntry entry, String family, ReadingCodec codec) {
+        MutateRowsRequest.Entry proto = entry.toProto();
+        List<RowCell> cells = new ArrayList<>(proto.getMutationsCount());
+        for (Mutation mutation : proto.getMutationsList()) {
+            if (mutation.hasSetCell()) {
+                Mutation.SetCell cell = mutation.getSetCell();
+                cells.add(RowCell.create(cell.getFamilyName(), cell.getColumnQualifier(), cell.getTimestampMicros(),
+                        Collections.<String>emptyList(), cell.getValue()));
+            }
+        }
+        // Rows are read back with their cells sorted by column
+        cells.sort(RowCell.compareByNative());
+        return fromRow(Row.create(proto.getRowKey(), cells), family, codec);
+    }
+
+    @Override
+    public ReadingKey key() {
+        return key;
+    }
+
+    @Override
+    public ByteString rowKey() {
+        return ByteString.copyFromUtf8(key.rowKey());
+    }
+
+    @Override
+    public int hour() {
+        return key.hour;
+    }
+
+    @Override
+    public int value(Metric metric) {
+        return values[metric.ordinal()];
+    }
+
+    @Override
+    public HourlyReading copy() {
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof HourlyReading && key.equals(((HourlyReading) o).key)
+                && Arrays.equals(values, ((HourlyReading) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode() * 31 + Arrays.hashCode(values);
+    }
+
+    @Override
+    public String toString() {
+        return key + " " + Arrays.toString(values);
+    }
+}
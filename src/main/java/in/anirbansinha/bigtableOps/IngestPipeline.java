@@ -0,0 +1,388 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads several station files concurrently as a three stage pipeline:
+ * readers turn each file into blocks of whole lines, one parser per file turns those into
+ * row mutations with a {@link ReadingParser}, keeping only the first reading of every hour
+ * and adding it to the file's {@link Rollups}, and writers hand the mutations to a shared {@link BulkLoader}.
+ * Parsed and rejected lines are counted in {@link Metrics} once per block.
+ * Stages are joined by bounded queues, so a slow stage blocks the ones feeding it
+ * instead of buffering the whole file.
+ */
+public class IngestPipeline {
+
+    /**
+     * Builds the row mutation for a parsed reading.
+     */
+    public interface RowBuilder {
+        /**
+         * @param entry The mutation for the reading's row, to add the cells to
+         * @param reading The parser holding the values of the accepted line
+         * @return The bytes of the cells added: their qualifiers and values
+         */
+        int build(RowMutationEntry entry, ReadingParser reading);
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestPipeline.class);
+
+    /** Number of header rows at the top of every station file. */
+    static final int HEADER_LINES = 2;
+
+    /**
+     * Whole lines of a file, handed from a reader to the file's parser.
+     * Blocks are recycled between the two, so a file is read into a fixed set of buffers.
+     */
+    private static class ByteBlock {
+        byte[] data;
+        int length;
+
+        ByteBlock(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    /**
+     * Mutations handed from a parser to the writers, with the checkpoint block their rows complete.
+     */
+    private static class MutationBlock {
+        final List<RowMutationEntry> entries;
+        // The bytes of every entry's row, in the same order
+        final int[] bytes;
+        final LoadCheckpoints.Block done;
+
+        MutationBlock(List<RowMutationEntry> entries, int[] bytes, LoadCheckpoints.Block done) {
+            this.entries = entries;
+            this.bytes = bytes;
+            this.done = done;
+        }
+    }
+
+    private static final ByteBlock END_OF_FILE = new ByteBlock(0);
+    private static final MutationBlock END_OF_STREAM = new MutationBlock(Collections.emptyList(), new int[0], null);
+
+    private final PipelineSettings settings;
+    private final KeyLayout layout;
+    private final RowBuilder builder;
+    private final BulkLoader loader;
+    private final Rollups rollups;
+    private final Metrics metrics;
+
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<ExecutorService> stages = new ArrayList<>();
+
+    /**
+     * @param layout The layout of the row keys
+     * @param rollups Receives every stored reading, or null to build no rollups
+     * @param metrics Counts the parsed and rejected lines
+     */
+    public IngestPipeline(PipelineSettings settings, KeyLayout layout, RowBuilder builder, BulkLoader loader,
+                          Rollups rollups, Metrics metrics) {
+        this.settings = settings;
+        this.layout = layout;
+        this.builder = builder;
+        this.loader = loader;
+        this.rollups = rollups;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Load the files and wait until every mutation has been handed to the loader.
+     * The caller still has to flush the loader to wait for the writes themselves.
+     * Each file is read from its starting checkpoint, and the rows of every block are
+     * reported to the file's progress as they are written.
+     * @param files The station files to load
+     * @throws Exception if any stage fails; the remaining stages are cancelled
+     */
+    public void run(List<LoadCheckpoints.FileProgress> files) throws Exception {
+        if (files.isEmpty()) {
+            return;
+        }
+        int fileCount = files.size();
+        ExecutorService readers = newStage("reader", PipelineSettings.perFileWorkers(settings.readerThreads, fileCount));
+        ExecutorService parsers = newStage("parser", PipelineSettings.perFileWorkers(settings.parserThreads, fileCount));
+        int writerCount = Math.max(1, settings.writerThreads);
+        ExecutorService writers = newStage("writer", writerCount);
+
+        BlockingQueue<MutationBlock> mutations = new ArrayBlockingQueue<>(settings.queueCapacity);
+
+        try {
+            // Readers and parsers take files in the same order, so a parser never waits
+            // on a file whose reader cannot start
+            for (LoadCheckpoints.FileProgress file : files) {
+                BlockingQueue<ByteBlock> blocks = new ArrayBlockingQueue<>(settings.queueCapacity);
+                BlockingQueue<ByteBlock> free = new ArrayBlockingQueue<>(settings.queueCapacity + 2);
+                for (int i = 0; i < settings.queueCapacity + 2; i++) {
+                    free.add(new ByteBlock(settings.blockBytes));
+                }
+                readers.execute(guard(() -> read(file, blocks, free)));
+                parsers.execute(guard(() -> parse(file, blocks, free, mutations)));
+            }
+            for (int i = 0; i < writerCount; i++) {
+                writers.execute(guard(() -> write(mutations)));
+            }
+
+            readers.shutdown();
+            parsers.shutdown();
+            awaitStage(parsers);
+
+            if (failure.get() == null) {
+                // All mutations are queued; tell every writer to stop
+                for (int i = 0; i < writerCount; i++) {
+                    mutations.put(END_OF_STREAM);
+                }
+                writers.shutdown();
+                awaitStage(writers);
+                awaitStage(readers);
+            }
+        } finally {
+            abort();
+        }
+
+        Throwable error = failure.get();
+        if (error != null) {
+            throw new Exception("Ingestion pipeline failed: " + error.getMessage(), error);
+        }
+    }
+
+    /**
+     * Reader stage: read a file from its starting offset into blocks that end on a line
+     * boundary. The partial line at the end of a read is carried over to the next block.
+     */
+    private void read(LoadCheckpoints.FileProgress file, BlockingQueue<ByteBlock> out, BlockingQueue<ByteBlock> free)
+            throws IOException, InterruptedException {
+        try (FileInputStream in = new FileInputStream(file.file.path)) {
+            in.getChannel().position(file.start.offset);
+            ByteBlock block = free.take();
+            int length = 0;
+            while (true) {
+                if (length == block.data.length) {
+                    // A single line longer than the block; grow it
+                    block.data = Arrays.copyOf(block.data, block.data.length * 2);
+                }
+                int n = in.read(block.data, length, block.data.length - length);
+                if (n < 0) {
+                    break;
+                }
+                length += n;
+
+                int cut = lastLineEnd(block.data, length);
+                if (cut > 0) {
+                    ByteBlock next = free.take();
+                    int carry = length - cut;
+                    if (next.data.length < carry) {
+                        next.data = new byte[Math.max(carry * 2, settings.blockBytes)];
+                    }
+                    System.arraycopy(block.data, cut, next.data, 0, carry);
+                    block.length = cut;
+                    out.put(block);
+                    block = next;
+                    length = carry;
+                }
+            }
+            block.length = length;
+            out.put(block);
+        } finally {
+            // Always release the parser, even if reading failed
+            out.put(END_OF_FILE);
+        }
+    }
+
+    /**
+     * @return The offset just past the last complete line, or 0 if there is none.
+     *         A '\r' at the very end may be the first half of "\r\n" and is not a line end yet.
+     */
+    private static int lastLineEnd(byte[] data, int length) {
+        int i = length - 1;
+        if (i >= 0 && data[i] == '\r') {
+            i--;
+        }
+        for (; i >= 0; i--) {
+            if (data[i] == '\n' || data[i] == '\r') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Parser stage: turn a file's lines into row mutations. A file is parsed by one
+     * worker in line order. Lines end with "\n", "\r\n" or "\r". A last line without a
+     * line end is loaded, but left out of the checkpoint, as it may still be being written.
+     */
+    private void parse(LoadCheckpoints.FileProgress progress, BlockingQueue<ByteBlock> in,
+                       BlockingQueue<ByteBlock> free, BlockingQueue<MutationBlock> out) throws InterruptedException {
+        StationFile file = progress.file;
+        LOG.info("Loading data for {} from line {}", file.stationId, progress.start.line + 1);
+        ReadingParser parser = new ReadingParser();
+        Metrics.ParseCounts counts = new Metrics.ParseCounts();
+        HourlyDeduplicator hours = new HourlyDeduplicator(progress.start.lastHour);
+        Rollups.StationRollup rollup = rollups == null ? null : rollups.newStation(file.stationId);
+        KeyLayout.StationKeys keys = layout.station(file.stationId);
+        List<RowMutationEntry> block = new ArrayList<>(settings.blockRows);
+        int[] bytes = new int[settings.blockRows];
+        long lineNumber = progress.start.line;
+        long rows = 0;
+        // Offset of the current block of lines, and the checkpoint after the last whole line
+        long blockOffset = progress.start.offset;
+        long doneOffset = blockOffset;
+        long doneLine = lineNumber;
+        long doneHour = -1;
+
+        // Blocks end on a line boundary, so a "\r\n" is never split between two blocks
+        ByteBlock lines;
+        while ((lines = in.take()) != END_OF_FILE) {
+            byte[] data = lines.data;
+            int pos = 0;
+            while (pos < lines.length) {
+                int end = ReadingParser.lineEnd(data, pos, lines.length);
+                lineNumber++;
+                long lineHour = -1;
+
+                // Skip header rows (both the first and second line)
+                if (lineNumber <= HEADER_LINES) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Skipping header row {}: {}", lineNumber,
+                                new String(data, pos, end - pos, StandardCharsets.UTF_8));
+                    }
+                } else if (parser.parse(data, pos, end, lineNumber)) {
+                    counts.parsed(true, null);
+                    lineHour = parser.hourKey();
+                    // Take the first reading in an hour and ignore any others
+                    ByteString rowKey = keys.rowKey(parser);
+                    if (hours.isFirst(lineHour, rowKey)) {
+                        RowMutationEntry entry = RowMutationEntry.create(rowKey);
+                        bytes[block.size()] = rowKey.size() + builder.build(entry, parser);
+                        block.add(entry);
+                        if (rollup != null) {
+                            rollup.add(parser.hourKey(), parser.values());
+                        }
+                        progress.loaded(lineHour);
+                        rows++;
+                    }
+                } else {
+                    counts.parsed(false, parser.rejectReason());
+                }
+                int next = ReadingParser.nextLine(data, end, lines.length);
+                if (next > end) {
+                    doneOffset = blockOffset + next;
+                    doneLine = lineNumber;
+                    doneHour = Math.max(doneHour, lineHour);
+                }
+                if (block.size() == settings.blockRows) {
+                    out.put(new MutationBlock(block, bytes,
+                            progress.block(doneOffset, doneLine, doneHour, block.size())));
+                    block = new ArrayList<>(settings.blockRows);
+                    bytes = new int[settings.blockRows];
+                }
+                pos = next;
+            }
+            blockOffset += lines.length;
+            free.put(lines);
+            metrics.add(counts);
+        }
+        LoadCheckpoints.Block last = progress.block(doneOffset, doneLine, doneHour, block.size());
+        if (!block.isEmpty()) {
+            out.put(new MutationBlock(block, bytes, last));
+        }
+        suppressed.addAndGet(hours.getSuppressed());
+        counts.rejected(RejectReason.DUPLICATE_HOUR, hours.getSuppressed());
+        metrics.add(counts);
+        LOG.info("Data for {} parsed: {} rows queued, {} later readings in the same hour suppressed.",
+                file.stationId, rows, hours.getSuppressed());
+    }
+
+    /**
+     * @return Number of readings suppressed because an earlier reading of the same hour was loaded
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    /**
+     * Writer stage: submit mutations to the shared loader until the end of the stream.
+     */
+    private void write(BlockingQueue<MutationBlock> in) throws InterruptedException {
+        MutationBlock block;
+        while ((block = in.take()) != END_OF_STREAM) {
+            for (int i = 0; i < block.entries.size(); i++) {
+                loader.add(block.entries.get(i), block.bytes[i], block.done);
+            }
+        }
+    }
+
+    /**
+     * A pipeline task whose failure cancels the whole pipeline.
+     */
+    private interface StageTask {
+        void run() throws Exception;
+    }
+
+    private Runnable guard(StageTask task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (InterruptedException e) {
+                // Cancelled because another stage failed
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                if (failure.compareAndSet(null, t)) {
+                    LOG.error("Ingestion pipeline stage failed: {}", t.getMessage(), t);
+                }
+                abort();
+            }
+        };
+    }
+
+    /**
+     * Interrupt every stage, unblocking any worker waiting on a queue.
+     */
+    private synchronized void abort() {
+        for (ExecutorService stage : stages) {
+            stage.shutdownNow();
+        }
+    }
+
+    private void awaitStage(ExecutorService stage) throws InterruptedException {
+        while (!stage.awaitTermination(1, TimeUnit.SECONDS)) {
+            if (failure.get() != null) {
+                return;
+            }
+        }
+    }
+
+    private synchronized ExecutorService newStage(String name, int threads) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "ingest-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ExecutorService stage = Executors.newFixedThreadPool(threads, factory);
+        stages.add(stage);
+        return stage;
+    }
+}
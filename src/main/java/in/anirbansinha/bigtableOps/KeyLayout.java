@@ -0,0 +1,244 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.Range.ByteStringRange;
+import com.google.protobuf.ByteString;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * How readings are laid out in the row keys of the readings table:
+ * <ul>
+ * <li>{@code plain}: {@code station#yyyy-MM-dd#hour} (see {@link RowKeys}). A load writes each
+ * station's rows in time order, so all writes of a station go to the tablet holding its
+ * latest days.</li>
+ * <li>{@code bucketed}: {@code NN#station#yyyy-MM-dd#hour}, where NN is the two digit bucket
+ * of the station's day. Consecutive days of a station fall into consecutive buckets, so a
+ * load spreads its writes over the buckets' tablets, while a day stays one key range.
+ * A range of days is read as one key range per bucket, or one per day if there are fewer
+ * days than buckets, so rows come back grouped by bucket rather than in time order.</li>
+ * </ul>
+ * The rollup tables keep plain keys: they are small and written once at the end of a load.
+ * Changing the layout of a loaded table needs a reload.
+ */
+public final class KeyLayout {
+
+    public static final String PLAIN = "plain";
+    public static final String BUCKETED = "bucketed";
+    public static final int DEFAULT_BUCKETS = 8;
+    /** Buckets are written with two digits. */
+    public static final int MAX_BUCKETS = 100;
+
+    private static final KeyLayout PLAIN_LAYOUT = new KeyLayout(1);
+
+    /**
+     * Builds the row keys of one station's readings while loading.
+     */
+    public final class StationKeys {
+        private final String stationId;
+        /** The key prefix up to the date, by bucket. */
+        private final byte[][] prefixes;
+
+        private StationKeys(String stationId) {
+            this.stationId = stationId;
+            this.prefixes = new byte[buckets][];
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                prefixes[bucket] = (bucketPrefix(bucket) + RowKeys.stationPrefix(stationId))
+                        .getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * @return The row key of the last line accepted by the parser
+         */
+        public ByteString rowKey(ReadingParser parser) {
+            if (buckets == 1) {
+                return parser.rowKey(prefixes[0]);
+            }
+            // A date that is not yyyy-mm-dd cannot be queried anyway; keep it in bucket 0
+            int day = parser.dayKey();
+            return parser.rowKey(prefixes[day < 0 ? 0 : bucket(stationId, day)]);
+        }
+    }
+
+    private final int buckets;
+
+    private KeyLayout(int buckets) {
+        this.buckets = buckets;
+    }
+
+    /**
+     * @return The {@code station#yyyy-MM-dd#hour} layout
+     */
+    public static KeyLayout plain() {
+        return PLAIN_LAYOUT;
+    }
+
+    /**
+     * @param buckets Number of buckets, 2 to {@value #MAX_BUCKETS}
+     * @return The {@code NN#station#yyyy-MM-dd#hour} layout
+     */
+    public static KeyLayout bucketed(int buckets) {
+        if (buckets < 2 || buckets > MAX_BUCKETS) {
+            throw new IllegalArgumentException("Key buckets must be between 2 and " + MAX_BUCKETS + ": " + buckets);
+        }
+        return new KeyLayout(buckets);
+    }
+
+    /**
+     * @param name plain or bucketed
+     * @param buckets Number of buckets of the bucketed layout
+     * @return The layout
+     */
+    public static KeyLayout forName(String name, int buckets) {
+        switch (name.trim().toLowerCase()) {
+            case PLAIN:
+                return plain();
+            case BUCKETED:
+                return bucketed(buckets);
+            default:
+                throw new IllegalArgumentException("Unknown key layout: " + name);
+        }
+    }
+
+    public String name() {
+        return isBucketed() ? BUCKETED : PLAIN;
+    }
+
+    /**
+     * @return Number of buckets; 1 for the plain layout
+     */
+    public int buckets() {
+        return buckets;
+    }
+
+    public boolean isBucketed() {
+        return buckets > 1;
+    }
+
+    /**
+     * @return The key builder for a station's readings
+     */
+    public StationKeys station(String stationId) {
+        return new StationKeys(stationId);
+    }
+
+    /**
+     * @return The row key of a station's reading for one hour
+     */
+    public String rowKey(String stationId, LocalDate day, int hour) {
+        return prefix(stationId, day) + RowKeys.rowKey(stationId, day, hour);
+    }
+
+    /**
+     * @return The row key of a reading
+     */
+    public String rowKey(ReadingKey key) {
+        return rowKey(key.stationId, key.day, key.hour);
+    }
+
+    /**
+     * @return The key ranges holding every row of a station from firstDay to lastDay, both inclusive
+     */
+    public List<ByteStringRange> dayRanges(String stationId, LocalDate firstDay, LocalDate lastDay) {
+        List<ByteStringRange> ranges = new ArrayList<>();
+        String from = RowKeys.dayPrefix(stationId, firstDay);
+        String to = RowKeys.dayPrefix(stationId, lastDay.plusDays(1));
+        if (!isBucketed()) {
+            ranges.add(ByteStringRange.unbounded().startClosed(from).endOpen(to));
+        } else if (firstDay.plusDays(buckets).isAfter(lastDay)) {
+            // Fewer days than buckets: one range per day
+            for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+                String prefix = prefix(stationId, day);
+                ranges.add(ByteStringRange.unbounded()
+                        .startClosed(prefix + RowKeys.dayPrefix(stationId, day))
+                        .endOpen(prefix + RowKeys.dayPrefix(stationId, day.plusDays(1))));
+            }
+        } else {
+            // Each bucket's part of the range holds only the days of that bucket
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                String prefix = bucketPrefix(bucket);
+                ranges.add(ByteStringRange.unbounded().startClosed(prefix + from).endOpen(prefix + to));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * @return A regex matching the part of a row key before the station
+     */
+    public String regexPrefix() {
+        return isBucketed() ? "[0-9][0-9]#" : "";
+    }
+
+    /**
+     * The keys to pre-split the readings table at, so a load writes to many tablets from the start.
+     * The plain layout is split at every station and, if months are given, at every month of
+     * every station; the bucketed layout is split at every station of every bucket, which
+     * already splits each station's days.
+     * @param stations The stations
+     * @param firstMonth The first month to split at, or null to split at stations only
+     * @param lastMonth The last month to split at
+     * @return The split keys, sorted
+     */
+    public List<ByteString> splits(Collection<String> stations, YearMonth firstMonth, YearMonth lastMonth) {
+        TreeSet<String> splits = new TreeSet<>();
+        for (String station : stations) {
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                splits.add(bucketPrefix(bucket) + RowKeys.stationPrefix(station));
+            }
+            if (!isBucketed() && firstMonth != null) {
+                for (YearMonth month = firstMonth; !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+                    splits.add(RowKeys.stationPrefix(station) + month);
+                }
+            }
+        }
+        List<ByteString> keys = new ArrayList<>(splits.size());
+        for (String split : splits) {
+            keys.add(ByteString.copyFromUtf8(split));
+        }
+        return keys;
+    }
+
+    /**
+     * @return The prefix in front of the logical row keys of a station's day
+     */
+    String prefix(String stationId, LocalDate day) {
+        if (!isBucketed()) {
+            return "";
+        }
+        return bucketPrefix(bucket(stationId, dayKey(day)));
+    }
+
+    /**
+     * @return The day packed as yyyymmdd, like {@link ReadingParser#dayKey()}
+     */
+    static int dayKey(LocalDate day) {
+        return day.getYear() * 10_000 + day.getMonthValue() * 100 + day.getDayOfMonth();
+    }
+
+    /**
+     * @param day The day packed as yyyymmdd
+     * @return The bucket of a station's day
+     */
+    int bucket(String stationId, int day) {
+        return Math.floorMod(stationId.hashCode() + day, buckets);
+    }
+
+    private String bucketPrefix(int bucket) {
+        if (!isBucketed()) {
+            return "";
+        }
+        return (bucket < 10 ? "0" : "") + bucket + RowKeys.SEPARATOR;
+    }
+
+    @Override
+    public String toString() {
+        return isBucketed() ? BUCKETED + "(" + buckets + ")" : PLAIN;
+    }
+}
@@ -0,0 +1,341 @@
+package in.anirbansinha.bigtableOps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * How far every station file has been loaded, persisted in a properties file so a load can
+ * resume after a crash and a later load only reads the lines appended since
+ * (see {@code Bigtable.tailData()}).
+ * <p>
+ * A file's checkpoint only moves past a line once every row parsed up to that line has been
+ * written: the loaders report the rows of each block they hand to the {@link BulkLoader},
+ * and a block counts once all of its rows are acknowledged and all earlier blocks have.
+ * A block with a failed row stops the checkpoint, so its lines are read again next time.
+ * Rewriting a row is harmless, so a checkpoint that lags behind only costs time.
+ * <p>
+ * Files are assumed to grow by appending readings in time order: a resumed load skips
+ * readings of hours up to the last one written, which also keeps the first reading of the
+ * hour the previous load ended in.
+ */
+public class LoadCheckpoints implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LoadCheckpoints.class);
+
+    /**
+     * Where the load of a file got to.
+     */
+    public static final class Checkpoint {
+        /** A file that has not been loaded. */
+        public static final Checkpoint START = new Checkpoint(0, 0, -1, -1);
+
+        /** Bytes of the file whose rows are all written; the next line starts here. */
+        public final long offset;
+        /** Lines before the offset, including the header rows. */
+        public final long line;
+        /** Highest {@code yyyymmddhh} written, or -1 if none. */
+        public final long lastHour;
+        /** First {@code yyyymmdd} whose rollups may be out of date, or -1 if they are all written. */
+        public final int pendingDay;
+
+        public Checkpoint(long offset, long line, long lastHour, int pendingDay) {
+            this.offset = offset;
+            this.line = line;
+            this.lastHour = lastHour;
+            this.pendingDay = pendingDay;
+        }
+
+        static Checkpoint parse(String value) {
+            String[] parts = value.split(",");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Malformed checkpoint: " + value);
+            }
+            return new Checkpoint(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()),
+                    Long.parseLong(parts[2].trim()), Integer.parseInt(parts[3].trim()));
+        }
+
+        @Override
+        public String toString() {
+            return offset + "," + line + "," + lastHour + "," + pendingDay;
+        }
+    }
+
+    /**
+     * The rows of a file handed to the loader between two line boundaries.
+     */
+    public static final class Block implements BulkLoader.Completion {
+        private final Checkpoint end;
+        private final AtomicInteger pending;
+        private volatile boolean failed;
+
+        Block(Checkpoint end, int rows) {
+            this.end = end;
+            this.pending = new AtomicInteger(rows);
+        }
+
+        @Override
+        public void done(boolean written) {
+            if (!written) {
+                failed = true;
+            }
+            pending.decrementAndGet();
+        }
+
+        boolean isDone() {
+            return pending.get() <= 0;
+        }
+    }
+
+    /**
+     * The progress of one file in a running load. Blocks are added by the file's parser,
+     * in file order; their rows complete on the loader's callback threads.
+     */
+    public final class FileProgress {
+        public final StationFile file;
+        /** Where the load of the file starts. */
+        public final Checkpoint start;
+
+        private final ConcurrentLinkedQueue<Block> blocks = new ConcurrentLinkedQueue<>();
+        private volatile Checkpoint durable;
+        private volatile boolean stopped;
+        // Written by the file's parser only
+        private long lastHour;
+        private long lastLoadedHour;
+        private int pendingDay;
+
+        FileProgress(StationFile file, Checkpoint start) {
+            this.file = file;
+            this.start = start;
+            this.durable = start;
+            this.lastHour = start.lastHour;
+            this.lastLoadedHour = start.lastHour;
+            this.pendingDay = start.pendingDay;
+        }
+
+        /**
+         * Record a row handed to the loader.
+         * @param hourKey The row's {@code yyyymmddhh}, or -1 if it has none
+         */
+        public void loaded(long hourKey) {
+            if (hourKey < 0) {
+                return;
+            }
+            int day = (int) (hourKey / 100);
+            if (pendingDay < 0 || day < pendingDay) {
+                pendingDay = day;
+            }
+            lastLoadedHour = Math.max(lastLoadedHour, hourKey);
+        }
+
+        /**
+         * Record the rows handed to the loader since the last block.
+         * @param offset Offset of the line after the block's last line
+         * @param line Lines up to the offset, including the header rows
+         * @param lastHour Highest {@code yyyymmddhh} of the lines up to the offset, or -1
+         * @param rows Number of rows in the block
+         * @return The block, to complete once per row
+         */
+        public Block block(long offset, long line, long lastHour, int rows) {
+            this.lastHour = Math.max(this.lastHour, lastHour);
+            Block block = new Block(new Checkpoint(offset, line, this.lastHour, pendingDay), rows);
+            blocks.add(block);
+            return block;
+        }
+
+        /**
+         * @return The checkpoint of the last block that completed along with every earlier one
+         */
+        public synchronized Checkpoint durable() {
+            Block head;
+            while (!stopped && (head = blocks.peek()) != null && head.isDone()) {
+                if (head.failed) {
+                    // Later blocks may complete, but the file is read again from here
+                    stopped = true;
+                    break;
+                }
+                durable = head.end;
+                blocks.poll();
+            }
+            return durable;
+        }
+
+        /**
+         * @return Highest {@code yyyymmddhh} handed to the loader, or -1
+         */
+        public long lastLoadedHour() {
+            return lastLoadedHour;
+        }
+
+        /**
+         * @return First {@code yyyymmdd} whose rollups may be out of date, or -1
+         */
+        public int pendingDay() {
+            return pendingDay;
+        }
+
+        /**
+         * Mark the rollups of every day loaded so far as written. Only called once the
+         * loader is flushed.
+         */
+        synchronized void rollupsWritten() {
+            Checkpoint current = durable();
+            durable = new Checkpoint(current.offset, current.line, current.lastHour, -1);
+            pendingDay = -1;
+        }
+    }
+
+    private final Path path;
+    private final Map<String, Checkpoint> saved = new TreeMap<>();
+    private final List<FileProgress> running = new ArrayList<>();
+    private ScheduledExecutorService saver;
+
+    private LoadCheckpoints(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Read the checkpoints of a properties file; a missing file has none.
+     * @param path The checkpoint file, or null to keep checkpoints in memory only
+     * @return The checkpoints
+     * @throws IOException if the file cannot be read
+     */
+    public static LoadCheckpoints open(String path) throws IOException {
+        LoadCheckpoints checkpoints = new LoadCheckpoints(path == null || path.isEmpty() ? null : Paths.get(path));
+        if (checkpoints.path != null && Files.exists(checkpoints.path)) {
+            Properties properties = new Properties();
+            try (Reader in = Files.newBufferedReader(checkpoints.path, StandardCharsets.UTF_8)) {
+                properties.load(in);
+            }
+            for (String file : properties.stringPropertyNames()) {
+                checkpoints.saved.put(file, Checkpoint.parse(properties.getProperty(file)));
+            }
+        }
+        return checkpoints;
+    }
+
+    /**
+     * @return The saved checkpoint of a file, or {@link Checkpoint#START}
+     */
+    public synchronized Checkpoint get(StationFile file) {
+        return saved.getOrDefault(file.path, Checkpoint.START);
+    }
+
+    /**
+     * Start loading a file.
+     * @param resume Whether to continue from the saved checkpoint; otherwise the file is loaded
+     *               from the first line. A file shorter than its checkpoint was replaced and is
+     *               loaded from the first line too.
+     * @return The progress of the file
+     */
+    public synchronized FileProgress start(StationFile file, boolean resume) throws IOException {
+        Checkpoint from = resume ? get(file) : Checkpoint.START;
+        if (from.offset > 0 && Files.size(Paths.get(file.path)) < from.offset) {
+            LOG.warn("{} is shorter than its checkpoint at byte {}; loading it from the start", file, from.offset);
+            from = new Checkpoint(0, 0, -1, from.pendingDay);
+        }
+        FileProgress progress = new FileProgress(file, from);
+        running.add(progress);
+        return progress;
+    }
+
+    /**
+     * Save the durable checkpoint of every file being loaded.
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void save() throws IOException {
+        for (FileProgress progress : running) {
+            saved.put(progress.file.path, progress.durable());
+        }
+        if (path == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, Checkpoint> entry : saved.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        // Replace the file in one step, so a crash leaves either the old or the new checkpoints
+        Path parent = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(out, "offset,line,lastHour,pendingDay of every station file");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Mark the rollups of every file being loaded as written and save.
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void rollupsWritten() throws IOException {
+        for (FileProgress progress : running) {
+            progress.rollupsWritten();
+        }
+        save();
+    }
+
+    /**
+     * Save the checkpoints every interval until closed, so a crash loses at most an
+     * interval of progress.
+     * @param intervalMs Milliseconds between saves; 0 saves only when closed
+     */
+    public synchronized void startSaving(long intervalMs) {
+        if (intervalMs <= 0 || saver != null) {
+            return;
+        }
+        saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "load-checkpoints");
+            thread.setDaemon(true);
+            return thread;
+        });
+        saver.scheduleWithFixedDelay(() -> {
+            try {
+                save();
+            } catch (IOException e) {
+                LOG.warn("Cannot save the load checkpoints to {}: {}", path, e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop saving periodically and save the final checkpoints.
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        ScheduledExecutorService current;
+        synchronized (this) {
+            current = saver;
+            saver = null;
+        }
+        if (current != null) {
+            current.shutdownNow();
+        }
+        save();
+    }
+
+    /**
+     * @return The files being loaded
+     */
+    public synchronized List<FileProgress> running() {
+        return new ArrayList<>(running);
+    }
+}
@@ -0,0 +1,344 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads station files by memory-mapping them and parsing line-aligned chunks in parallel
+ * on a ForkJoinPool. Parsed chunks are handed to the {@link BulkLoader} in file order
+ * through a {@link HourlyDeduplicator} and into the file's {@link Rollups}, so the header rows are only skipped at the start
+ * of the file and the first reading of an hour wins even when the hour straddles two chunks.
+ * Every chunk is a block of the file's {@link LoadCheckpoints checkpoint}, so a file can be
+ * loaded from the line its last load got to.
+ * Parsed and rejected lines are counted in {@link Metrics} once per chunk.
+ */
+public class MappedFileLoader {
+
+    /**
+     * The rows parsed from one chunk, in file order.
+     */
+    private static class Chunk {
+        final List<ByteString> keys = new ArrayList<>();
+        final List<RowMutationEntry> entries = new ArrayList<>();
+        long[] hourKeys = new long[256];
+        int[] bytes = new int[256];
+        int[] values = new int[256 * Metric.COUNT];
+        // The checkpoint after the chunk's last whole line: its end, and the number of
+        // lines of the chunk up to it
+        long doneOffset;
+        long doneLines;
+        long doneHour = -1;
+
+        void add(long hourKey, ByteString key, RowMutationEntry entry, int rowBytes, int[] reading) {
+            int i = keys.size();
+            if (i == hourKeys.length) {
+                hourKeys = Arrays.copyOf(hourKeys, i * 2);
+                bytes = Arrays.copyOf(bytes, i * 2);
+                values = Arrays.copyOf(values, i * 2 * Metric.COUNT);
+            }
+            hourKeys[i] = hourKey;
+            bytes[i] = rowBytes;
+            System.arraycopy(reading, 0, values, i * Metric.COUNT, Metric.COUNT);
+            keys.add(key);
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * A parser thread, with a copy buffer for the chunk it is reading that lives as long as
+     * the pool of one {@link #run}.
+     */
+    private static class Worker extends ForkJoinWorkerThread {
+        byte[] buffer;
+
+        Worker(ForkJoinPool pool) {
+            super(pool);
+        }
+    }
+
+    /**
+     * Where the checkpoint of a file has got to, as its chunks are emitted in order.
+     */
+    private static class Position {
+        long offset;
+        long line;
+
+        Position(long offset, long line) {
+            this.offset = offset;
+            this.line = line;
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedFileLoader.class);
+
+    // Bytes of the next chunk mapped to finish the last line of a chunk, doubled for longer lines
+    private static final int LINE_SLACK = 4096;
+
+    private final PipelineSettings settings;
+    private final KeyLayout layout;
+    private final IngestPipeline.RowBuilder builder;
+    private final BulkLoader loader;
+    private final Rollups rollups;
+    private final Metrics metrics;
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @param layout The layout of the row keys
+     * @param rollups Receives every stored reading, or null to build no rollups
+     * @param metrics Counts the parsed and rejected lines
+     */
+    public MappedFileLoader(PipelineSettings settings, KeyLayout layout, IngestPipeline.RowBuilder builder,
+                            BulkLoader loader, Rollups rollups, Metrics metrics) {
+        this.settings = settings;
+        this.layout = layout;
+        this.builder = builder;
+        this.loader = loader;
+        this.rollups = rollups;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Load the files one after another, each using all parser threads, from their
+     * starting checkpoints.
+     * @param files The station files to load
+     * @throws Exception if a file cannot be read or parsed
+     */
+    public void run(List<LoadCheckpoints.FileProgress> files) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(settings.chunkParallelism, Worker::new, null, false);
+        try {
+            for (LoadCheckpoints.FileProgress file : files) {
+                loadFile(pool, file);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void loadFile(ForkJoinPool pool, LoadCheckpoints.FileProgress progress) throws IOException {
+        StationFile file = progress.file;
+        LOG.info("Loading data for {} from line {}", file.stationId, progress.start.line + 1);
+        KeyLayout.StationKeys keys = layout.station(file.stationId);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(file.path), StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            // Skip header rows (both the first and second line)
+            Position position = new Position(progress.start.offset, progress.start.line);
+            if (position.line < IngestPipeline.HEADER_LINES && position.offset < size) {
+                skipHeader(channel, size, position);
+            }
+            long dataStart = position.offset;
+
+            // Parse a window of chunks ahead and emit them in order, keeping memory bounded
+            Deque<ForkJoinTask<Chunk>> window = new ArrayDeque<>();
+            HourlyDeduplicator hours = new HourlyDeduplicator(progress.start.lastHour);
+            Rollups.StationRollup rollup = rollups == null ? null : rollups.newStation(file.stationId);
+            long rows = 0;
+            for (long start = dataStart; start < size; start += settings.chunkBytes) {
+                long chunkStart = start;
+                long chunkEnd = Math.min(size, start + settings.chunkBytes);
+                boolean atLineStart = start == dataStart;
+                window.add(pool.submit(() -> parseChunk(channel, size, chunkStart, chunkEnd, atLineStart, keys)));
+                if (window.size() >= 2 * settings.chunkParallelism) {
+                    rows += emit(window.poll().join(), hours, rollup, progress, position);
+                }
+            }
+            while (!window.isEmpty()) {
+                rows += emit(window.poll().join(), hours, rollup, progress, position);
+            }
+            if (dataStart >= size) {
+                // Only header rows, or nothing appended since the checkpoint
+                progress.block(dataStart, position.line, -1, 0);
+            }
+            suppressed.addAndGet(hours.getSuppressed());
+            Metrics.ParseCounts duplicates = new Metrics.ParseCounts();
+            duplicates.rejected(RejectReason.DUPLICATE_HOUR, hours.getSuppressed());
+            metrics.add(duplicates);
+            LOG.info("Data for {} parsed: {} rows queued, {} later readings in the same hour suppressed.",
+                    file.stationId, rows, hours.getSuppressed());
+        }
+    }
+
+    /**
+     * @return Number of readings suppressed because an earlier reading of the same hour was loaded
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    /**
+     * Hand a chunk's rows to the loader, keeping only the first reading of every hour.
+     */
+    private long emit(Chunk chunk, HourlyDeduplicator hours, Rollups.StationRollup rollup,
+                      LoadCheckpoints.FileProgress progress, Position position) {
+        int size = chunk.entries.size();
+        boolean[] first = new boolean[size];
+        int rows = 0;
+        for (int i = 0; i < size; i++) {
+            if (hours.isFirst(chunk.hourKeys[i], chunk.keys.get(i))) {
+                first[i] = true;
+                progress.loaded(chunk.hourKeys[i]);
+                rows++;
+            }
+        }
+        if (chunk.doneLines > 0) {
+            position.offset = chunk.doneOffset;
+            position.line += chunk.doneLines;
+        }
+        LoadCheckpoints.Block done = progress.block(position.offset, position.line, chunk.doneHour, rows);
+        for (int i = 0; i < size; i++) {
+            if (first[i]) {
+                loader.add(chunk.entries.get(i), chunk.bytes[i], done);
+                if (rollup != null) {
+                    rollup.add(chunk.hourKeys[i], chunk.values, i * Metric.COUNT);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Parse the lines of one chunk. Runs on a pool thread with its own parser.
+     * The chunk owns the lines that start in [start, end); the region is mapped once, with
+     * enough of the next chunk to finish its last line. Lines are numbered from the start of
+     * the chunk, so the line numbers of skipped-line messages are relative to it.
+     * A last line without a line end is parsed, but left out of the chunk's checkpoint.
+     * @param atLineStart Whether a line starts at {@code start}, as it does for the first chunk
+     */
+    private Chunk parseChunk(FileChannel channel, long size, long start, long end, boolean atLineStart,
+                             KeyLayout.StationKeys keys) throws IOException {
+        // Map from the byte before the chunk, so a line starting right at it is recognized
+        long mapStart = atLineStart ? start : start - 1;
+        long slack = LINE_SLACK;
+        byte[] data;
+        int length;
+        int first;
+        int last;
+        while (true) {
+            long mapEnd = Math.min(size, end + slack);
+            length = (int) (mapEnd - mapStart);
+            data = read(channel, mapStart, length);
+            first = mapStart == start ? 0 : lineStart(data, 0, length);
+            last = end == size ? length : lineStart(data, (int) (end - 1 - mapStart), length);
+            if (mapEnd == size || (first < length && last < length) || first >= end - mapStart) {
+                break;
+            }
+            // A line longer than the slack runs past the mapped region
+            slack *= 2;
+        }
+        if (first >= end - mapStart) {
+            // No line starts in the chunk
+            return new Chunk();
+        }
+
+        ReadingParser parser = new ReadingParser();
+        Metrics.ParseCounts counts = new Metrics.ParseCounts();
+        Chunk chunk = new Chunk();
+        long lineNumber = 1;
+        int pos = first;
+        while (pos < last) {
+            int lineEnd = ReadingParser.lineEnd(data, pos, last);
+            boolean accepted = parser.parse(data, pos, lineEnd, lineNumber);
+            if (accepted) {
+                ByteString key = keys.rowKey(parser);
+                RowMutationEntry entry = RowMutationEntry.create(key);
+                int bytes = key.size() + builder.build(entry, parser);
+                chunk.add(parser.hourKey(), key, entry, bytes, parser.values());
+            }
+            counts.parsed(accepted, parser.rejectReason());
+            pos = ReadingParser.nextLine(data, lineEnd, last);
+            if (pos > lineEnd) {
+                chunk.doneOffset = mapStart + pos;
+                chunk.doneLines = lineNumber;
+                if (accepted) {
+                    chunk.doneHour = Math.max(chunk.doneHour, parser.hourKey());
+                }
+            }
+            lineNumber++;
+        }
+        metrics.add(counts);
+        return chunk;
+    }
+
+    /**
+     * Skip the header rows left at the start of a file, mapping just enough of it to find
+     * where they end.
+     * @param position Where the load starts, moved past the header
+     */
+    private static void skipHeader(FileChannel channel, long size, Position position) throws IOException {
+        long start = position.offset;
+        long window = LINE_SLACK;
+        while (true) {
+            int length = (int) Math.min(size - start, window);
+            byte[] data = new byte[length];
+            channel.map(FileChannel.MapMode.READ_ONLY, start, length).get(data);
+            int pos = 0;
+            long number = position.line;
+            // A line end at the last byte may be the "\r" of "\r\n", so the region must go past it
+            while (number < IngestPipeline.HEADER_LINES && pos < length) {
+                int lineEnd = ReadingParser.lineEnd(data, pos, length);
+                if (lineEnd + 1 >= length && start + length < size) {
+                    break;
+                }
+                number++;
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Skipping header row {}: {}", number,
+                            new String(data, pos, lineEnd - pos, StandardCharsets.UTF_8));
+                }
+                pos = ReadingParser.nextLine(data, lineEnd, length);
+            }
+            if (number == IngestPipeline.HEADER_LINES || start + length == size) {
+                position.offset = start + pos;
+                position.line = number;
+                return;
+            }
+            window *= 2;
+        }
+    }
+
+    /**
+     * @param pos Offset of any byte of a line
+     * @return Offset of the start of the line after it, or limit
+     */
+    private static int lineStart(byte[] data, int pos, int limit) {
+        return ReadingParser.nextLine(data, ReadingParser.lineEnd(data, pos, limit), limit);
+    }
+
+    /**
+     * Map a region of the file and copy it into the worker's buffer, or into a new array when
+     * the task runs on another thread, such as one joining it.
+     */
+    private static byte[] read(FileChannel channel, long start, int length) throws IOException {
+        byte[] data;
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            Worker worker = (Worker) thread;
+            if (worker.buffer == null || worker.buffer.length < length) {
+                worker.buffer = new byte[length];
+            }
+            data = worker.buffer;
+        } else {
+            data = new byte[length];
+        }
+        channel.map(FileChannel.MapMode.READ_ONLY, start, length).get(data, 0, length);
+        return data;
+    }
+}
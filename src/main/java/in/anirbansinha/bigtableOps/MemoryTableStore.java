@@ -0,0 +1,854 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.NotFoundException;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.bigtable.v2.MutateRowsRequest;
+import com.google.bigtable.v2.Mutation;
+import com.google.bigtable.v2.ReadRowsRequest;
+import com.google.bigtable.v2.RowFilter;
+import com.google.bigtable.v2.RowRange;
+import com.google.bigtable.v2.RowSet;
+import com.google.cloud.bigtable.data.v2.internal.RequestContext;
+import com.google.cloud.bigtable.data.v2.models.Filters;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import io.grpc.Status;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link TableStore} in this process's memory: every table is a concurrent skip list of
+ * row keys in Bigtable's unsigned byte order, so scans see rows in the same order as on
+ * Bigtable and readers never block writers.
+ * <p>
+ * A row is held as one immutable byte array, its cells packed one after the other in
+ * qualifier order:
+ * <pre>
+ * [qualifier length: short][qualifier][timestamp micros: long][value length: int][value]
+ * </pre>
+ * A mutation builds a new array and swaps it in atomically, and rows read from the store
+ * wrap slices of the array without copying. Like a table with a max-versions-1 GC rule,
+ * only the latest cell of a column is kept; the queries only read the latest cell anyway.
+ * A table has the one column family it was created with.
+ * <p>
+ * Filters are evaluated from their protobuf form. The filters the queries build are
+ * supported: chains, interleaves, family, qualifier, row key and value regexes, timestamp
+ * ranges, and cell limits. Regexes match whole values, as on Bigtable, and use
+ * {@link Pattern} syntax, which agrees with Bigtable's for the regexes built here; the
+ * literal regexes of {@code exactMatch} are compared as bytes. Split points are ignored.
+ */
+public class MemoryTableStore implements TableStore {
+
+    private static final Comparator<ByteString> KEY_ORDER = ByteString.unsignedLexicographicalComparator();
+    /** Only used to turn queries into requests; the names are not checked. */
+    private static final RequestContext CONTEXT = RequestContext.create("memory", "memory", "");
+    private static final String TABLES = "/tables/";
+    private static final int MAX_CACHED_FILTERS = 1024;
+
+    /**
+     * The rows of one table.
+     */
+    private static final class Table {
+        final String family;
+        final ConcurrentSkipListMap<ByteString, byte[]> rows = new ConcurrentSkipListMap<>(KEY_ORDER);
+
+        Table(String family) {
+            this.family = family;
+        }
+    }
+
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final Map<RowFilter, CellFilter> filters = new ConcurrentHashMap<>();
+    private final ExecutorService scans;
+
+    public MemoryTableStore() {
+        AtomicInteger threads = new AtomicInteger();
+        scans = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "memory-scan-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Row readRow(String tableId, ByteString rowKey, Filters.Filter filter) {
+        Table table = table(tableId);
+        byte[] packed = table.rows.get(rowKey);
+        return packed == null ? null : toRow(table.family, rowKey, packed, filter(filter));
+    }
+
+    @Override
+    public ApiFuture<Row> readRowAsync(String tableId, ByteString rowKey, Filters.Filter filter) {
+        try {
+            return ApiFutures.immediateFuture(readRow(tableId, rowKey, filter));
+        } catch (RuntimeException e) {
+            return ApiFutures.immediateFailedFuture(e);
+        }
+    }
+
+    @Override
+    public Rows readRows(Query query) {
+        Scan scan = new Scan(query.toProto(CONTEXT));
+        return new Rows() {
+            @Override
+            public Iterator<Row> iterator() {
+                return scan;
+            }
+
+            @Override
+            public void cancel() {
+                scan.cancelled = true;
+            }
+        };
+    }
+
+    @Override
+    public void readRowsAsync(Query query, ResponseObserver<Row> observer) {
+        ReadRowsRequest request = query.toProto(CONTEXT);
+        scans.execute(() -> {
+            Scan scan;
+            try {
+                scan = new Scan(request);
+            } catch (RuntimeException e) {
+                observer.onError(e);
+                return;
+            }
+            observer.onStart(scan);
+            try {
+                while (scan.hasNext()) {
+                    observer.onResponse(scan.next());
+                }
+            } catch (RuntimeException e) {
+                observer.onError(e);
+                return;
+            }
+            if (scan.cancelled) {
+                observer.onError(new CancellationException("Scan cancelled"));
+            } else {
+                observer.onComplete();
+            }
+        });
+    }
+
+    @Override
+    public RowWriter newBulkWriter(String tableId) {
+        return new RowWriter() {
+            @Override
+            public ApiFuture<Void> add(RowMutationEntry entry) {
+                try {
+                    mutate(tableId, entry.toProto());
+                    return ApiFutures.immediateFuture(null);
+                } catch (RuntimeException e) {
+                    return ApiFutures.immediateFailedFuture(e);
+                }
+            }
+
+            @Override
+            public void flush() {
+                // Rows are written when added
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public boolean exists(String tableId) {
+        return tables.containsKey(tableId);
+    }
+
+    @Override
+    public void createTable(String tableId, String family, List<ByteString> splits) {
+        if (tables.putIfAbsent(tableId, new Table(family)) != null) {
+            throw new IllegalStateException("Table already exists: " + tableId);
+        }
+    }
+
+    @Override
+    public boolean deleteTable(String tableId) {
+        return tables.remove(tableId) != null;
+    }
+
+    /**
+     * Drop all tables and stop the scan threads.
+     */
+    @Override
+    public void close() {
+        scans.shutdownNow();
+        tables.clear();
+    }
+
+    /**
+     * @return Number of rows in a table
+     */
+    public int rowCount(String tableId) {
+        return table(tableId).rows.size();
+    }
+
+    private Table table(String tableId) {
+        Table table = tables.get(tableId);
+        if (table == null) {
+            // As Bigtable fails, so callers can handle a missing table the same way
+            throw new NotFoundException("Table not found: " + tableId, null,
+                    GrpcStatusCode.of(Status.Code.NOT_FOUND), false);
+        }
+        return table;
+    }
+
+    private CellFilter filter(Filters.Filter filter) {
+        return filter == null ? CellFilter.PASS : filter(filter.toProto());
+    }
+
+    private CellFilter filter(RowFilter proto) {
+        CellFilter filter = filters.get(proto);
+        if (filter == null) {
+            if (filters.size() >= MAX_CACHED_FILTERS) {
+                filters.clear();
+            }
+            filter = CellFilter.compile(proto);
+            filters.put(proto, filter);
+        }
+        return filter;
+    }
+
+    // ---- Writes ----
+
+    private void mutate(String tableId, MutateRowsRequest.Entry entry) {
+        Table table = table(tableId);
+        long now = System.currentTimeMillis() * 1000;
+        // A mutation that throws leaves the row as it was
+        table.rows.compute(entry.getRowKey(),
+                (key, packed) -> apply(table.family, packed, entry.getMutationsList(), now));
+    }
+
+    /**
+     * @return The packed row after the mutations, or null if it has no cells left
+     */
+    static byte[] apply(String family, byte[] packed, List<Mutation> mutations, long now) {
+        Cells cells = packed == null ? new Cells() : Cells.unpack(packed);
+        for (Mutation mutation : mutations) {
+            switch (mutation.getMutationCase()) {
+                case SET_CELL:
+                    Mutation.SetCell set = mutation.getSetCell();
+                    checkFamily(family, set.getFamilyName());
+                    long timestamp = set.getTimestampMicros() == -1 ? now : set.getTimestampMicros();
+                    cells.set(set.getColumnQualifier(), timestamp, set.getValue());
+                    break;
+                case DELETE_FROM_COLUMN:
+                    Mutation.DeleteFromColumn column = mutation.getDeleteFromColumn();
+                    checkFamily(family, column.getFamilyName());
+                    long end = column.getTimeRange().getEndTimestampMicros();
+                    cells.delete(column.getColumnQualifier(), column.getTimeRange().getStartTimestampMicros(),
+                            end == 0 ? Long.MAX_VALUE : end);
+                    break;
+                case DELETE_FROM_FAMILY:
+                    checkFamily(family, mutation.getDeleteFromFamily().getFamilyName());
+                    cells.clear();
+                    break;
+                case DELETE_FROM_ROW:
+                    cells.clear();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported mutation: " + mutation.getMutationCase());
+            }
+        }
+        return cells.size == 0 ? null : cells.pack();
+    }
+
+    private static void checkFamily(String family, String name) {
+        if (!family.equals(name)) {
+            throw new IllegalArgumentException("Unknown column family: " + name);
+        }
+    }
+
+    // ---- Reads ----
+
+    /**
+     * @return The row's cells that pass the filter, or null if none does
+     */
+    private static Row toRow(String family, ByteString key, byte[] packed, CellFilter filter) {
+        Cells cells = Cells.view(packed);
+        boolean[] keep = new boolean[cells.size];
+        Arrays.fill(keep, true);
+        filter.apply(family, key, cells, keep);
+        List<RowCell> result = new ArrayList<>(cells.size);
+        for (int i = 0; i < cells.size; i++) {
+            if (keep[i]) {
+                result.add(RowCell.create(family, cells.qualifier(i), cells.timestamps[i],
+                        Collections.<String>emptyList(), cells.value(i)));
+            }
+        }
+        return result.isEmpty() ? null : Row.create(key, result);
+    }
+
+    /**
+     * The rows of a request in key order: each range and key of the row set in turn, starting
+     * after the last row returned, so overlapping ranges return a row once. Rows are looked up
+     * as the iterator is advanced.
+     */
+    private final class Scan implements Iterator<Row>, StreamController {
+        private final Table table;
+        private final CellFilter filter;
+        private final long limit;
+        private final List<Segment> segments;
+        private int segment;
+        private Iterator<Map.Entry<ByteString, byte[]>> rows = Collections.emptyIterator();
+        private ByteString lastKey;
+        private long returned;
+        private Row next;
+        volatile boolean cancelled;
+
+        Scan(ReadRowsRequest request) {
+            String name = request.getTableName();
+            this.table = table(name.substring(name.lastIndexOf(TABLES) + TABLES.length()));
+            this.filter = request.hasFilter() ? filter(request.getFilter()) : CellFilter.PASS;
+            this.limit = request.getRowsLimit();
+            this.segments = Segment.of(request.getRows());
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (cancelled || (limit > 0 && returned >= limit)) {
+                    return false;
+                }
+                if (!rows.hasNext()) {
+                    if (segment == segments.size()) {
+                        return false;
+                    }
+                    rows = segments.get(segment++).rows(table.rows, lastKey).entrySet().iterator();
+                    continue;
+                }
+                Map.Entry<ByteString, byte[]> row = rows.next();
+                lastKey = row.getKey();
+                next = toRow(table.family, row.getKey(), row.getValue(), filter);
+            }
+            return true;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Row row = next;
+            next = null;
+            returned++;
+            return row;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+            // Rows are pushed as fast as the observer takes them
+        }
+
+        @Override
+        public void request(int count) {
+        }
+    }
+
+    /**
+     * A range of row keys; a null bound is unbounded.
+     */
+    private static final class Segment {
+        final ByteString start;
+        final boolean startClosed;
+        final ByteString end;
+        final boolean endClosed;
+
+        Segment(ByteString start, boolean startClosed, ByteString end, boolean endClosed) {
+            this.start = start;
+            this.startClosed = startClosed;
+            this.end = end;
+            this.endClosed = endClosed;
+        }
+
+        /**
+         * @return The ranges and keys of a row set, by start key; a whole table if it is empty
+         */
+        static List<Segment> of(RowSet rowSet) {
+            List<Segment> segments = new ArrayList<>();
+            for (ByteString key : rowSet.getRowKeysList()) {
+                segments.add(new Segment(key, true, key, true));
+            }
+            for (RowRange range : rowSet.getRowRangesList()) {
+                ByteString start = null;
+                boolean startClosed = true;
+                switch (range.getStartKeyCase()) {
+                    case START_KEY_CLOSED:
+                        start = range.getStartKeyClosed();
+                        break;
+                    case START_KEY_OPEN:
+                        start = range.getStartKeyOpen();
+                        startClosed = false;
+                        break;
+                    default:
+                        break;
+                }
+                ByteString end = null;
+                boolean endClosed = true;
+                switch (range.getEndKeyCase()) {
+                    case END_KEY_CLOSED:
+                        end = range.getEndKeyClosed();
+                        break;
+                    case END_KEY_OPEN:
+                        end = range.getEndKeyOpen();
+                        endClosed = false;
+                        break;
+                    default:
+                        break;
+                }
+                // An empty key is unbounded, as on Bigtable
+                segments.add(new Segment(start == null || start.isEmpty() ? null : start, startClosed,
+                        end == null || end.isEmpty() ? null : end, endClosed));
+            }
+            if (segments.isEmpty()) {
+                segments.add(new Segment(null, true, null, true));
+            }
+            segments.sort((a, b) -> a.start == null ? (b.start == null ? 0 : -1)
+                    : b.start == null ? 1 : KEY_ORDER.compare(a.start, b.start));
+            return segments;
+        }
+
+        /**
+         * @param after The last key returned, or null; only later keys are returned
+         * @return The rows of the segment after a key
+         */
+        NavigableMap<ByteString, byte[]> rows(ConcurrentSkipListMap<ByteString, byte[]> rows, ByteString after) {
+            ByteString from = start;
+            boolean fromClosed = startClosed;
+            if (after != null && (from == null || KEY_ORDER.compare(after, from) >= 0)) {
+                from = after;
+                fromClosed = false;
+            }
+            if (from != null && end != null) {
+                int order = KEY_ORDER.compare(from, end);
+                if (order > 0 || (order == 0 && !(fromClosed && endClosed))) {
+                    return Collections.emptyNavigableMap();
+                }
+                return rows.subMap(from, fromClosed, end, endClosed);
+            }
+            if (from != null) {
+                return rows.tailMap(from, fromClosed);
+            }
+            return end != null ? rows.headMap(end, endClosed) : rows;
+        }
+    }
+
+    /**
+     * The cells of a row: qualifiers and values as offsets into the packed array.
+     */
+    static final class Cells {
+        byte[] data;
+        int size;
+        int[] qualifierOffsets = new int[8];
+        int[] qualifierLengths = new int[8];
+        long[] timestamps = new long[8];
+        int[] valueOffsets = new int[8];
+        int[] valueLengths = new int[8];
+        // Values set by mutations, before packing
+        ByteString[] qualifiers;
+        ByteString[] values;
+
+        /**
+         * @return The cells of a packed row, sharing its array
+         */
+        static Cells view(byte[] packed) {
+            Cells cells = new Cells();
+            cells.data = packed;
+            ByteBuffer in = ByteBuffer.wrap(packed);
+            while (in.hasRemaining()) {
+                cells.grow();
+                int i = cells.size++;
+                cells.qualifierLengths[i] = in.getShort() & 0xFFFF;
+                cells.qualifierOffsets[i] = in.position();
+                in.position(in.position() + cells.qualifierLengths[i]);
+                cells.timestamps[i] = in.getLong();
+                cells.valueLengths[i] = in.getInt();
+                cells.valueOffsets[i] = in.position();
+                in.position(in.position() + cells.valueLengths[i]);
+            }
+            return cells;
+        }
+
+        /**
+         * @return The cells of a packed row, to be changed by mutations
+         */
+        static Cells unpack(byte[] packed) {
+            Cells cells = view(packed);
+            cells.qualifiers = new ByteString[cells.qualifierOffsets.length];
+            cells.values = new ByteString[cells.qualifierOffsets.length];
+            for (int i = 0; i < cells.size; i++) {
+                cells.qualifiers[i] = cells.qualifier(i);
+                cells.values[i] = cells.value(i);
+            }
+            return cells;
+        }
+
+        ByteString qualifier(int i) {
+            if (qualifiers != null && qualifiers[i] != null) {
+                return qualifiers[i];
+            }
+            return UnsafeByteOperations.unsafeWrap(data, qualifierOffsets[i], qualifierLengths[i]);
+        }
+
+        ByteString value(int i) {
+            if (values != null && values[i] != null) {
+                return values[i];
+            }
+            return UnsafeByteOperations.unsafeWrap(data, valueOffsets[i], valueLengths[i]);
+        }
+
+        /**
+         * Write a cell, unless the column holds a later one.
+         */
+        void set(ByteString qualifier, long timestamp, ByteString value) {
+            if (qualifiers == null) {
+                qualifiers = new ByteString[qualifierOffsets.length];
+                values = new ByteString[qualifierOffsets.length];
+            }
+            int i = find(qualifier);
+            if (i >= 0) {
+                if (timestamp >= timestamps[i]) {
+                    timestamps[i] = timestamp;
+                    values[i] = value;
+                }
+                return;
+            }
+            // Insert in qualifier order; rows have a few cells, so shifting is cheap
+            int at = -i - 1;
+            grow();
+            int move = size - at;
+            System.arraycopy(qualifiers, at, qualifiers, at + 1, move);
+            System.arraycopy(values, at, values, at + 1, move);
+            System.arraycopy(timestamps, at, timestamps, at + 1, move);
+            qualifiers[at] = qualifier;
+            values[at] = value;
+            timestamps[at] = timestamp;
+            size++;
+        }
+
+        /**
+         * Delete a column's cell if its timestamp is in {@code [start, end)}.
+         */
+        void delete(ByteString qualifier, long start, long end) {
+            int i = find(qualifier);
+            if (i < 0 || timestamps[i] < start || timestamps[i] >= end) {
+                return;
+            }
+            int move = size - i - 1;
+            if (qualifiers != null) {
+                System.arraycopy(qualifiers, i + 1, qualifiers, i, move);
+                System.arraycopy(values, i + 1, values, i, move);
+            } else {
+                System.arraycopy(qualifierOffsets, i + 1, qualifierOffsets, i, move);
+                System.arraycopy(qualifierLengths, i + 1, qualifierLengths, i, move);
+                System.arraycopy(valueOffsets, i + 1, valueOffsets, i, move);
+                System.arraycopy(valueLengths, i + 1, valueLengths, i, move);
+            }
+            System.arraycopy(timestamps, i + 1, timestamps, i, move);
+            size--;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        byte[] pack() {
+            int length = 0;
+            for (int i = 0; i < size; i++) {
+                length += 2 + qualifier(i).size() + 8 + 4 + value(i).size();
+            }
+            ByteBuffer out = ByteBuffer.allocate(length);
+            for (int i = 0; i < size; i++) {
+                ByteString qualifier = qualifier(i);
+                ByteString value = value(i);
+                out.putShort((short) qualifier.size());
+                qualifier.copyTo(out);
+                out.putLong(timestamps[i]);
+                out.putInt(value.size());
+                value.copyTo(out);
+            }
+            return out.array();
+        }
+
+        /**
+         * @return The index of the qualifier, or {@code -(insertion point) - 1}
+         */
+        private int find(ByteString qualifier) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int order = KEY_ORDER.compare(qualifier(mid), qualifier);
+                if (order < 0) {
+                    low = mid + 1;
+                } else if (order > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -low - 1;
+        }
+
+        private void grow() {
+            if (size < qualifierOffsets.length) {
+                return;
+            }
+            int capacity = size * 2;
+            qualifierOffsets = Arrays.copyOf(qualifierOffsets, capacity);
+            qualifierLengths = Arrays.copyOf(qualifierLengths, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            valueOffsets = Arrays.copyOf(valueOffsets, capacity);
+            valueLengths = Arrays.copyOf(valueLengths, capacity);
+            if (qualifiers != null) {
+                qualifiers = Arrays.copyOf(qualifiers, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+        }
+    }
+
+    // ---- Filters ----
+
+    /**
+     * A compiled {@link RowFilter}: clears the cells of a row it drops.
+     */
+    abstract static class CellFilter {
+        static final CellFilter PASS = new CellFilter() {
+            @Override
+            void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+            }
+        };
+
+        /**
+         * @param keep Which cells are still kept; cleared for the cells the filter drops
+         */
+        abstract void apply(String family, ByteString key, Cells cells, boolean[] keep);
+
+        static CellFilter compile(RowFilter filter) {
+            switch (filter.getFilterCase()) {
+                case FILTER_NOT_SET:
+                case PASS_ALL_FILTER:
+                    return PASS;
+                case BLOCK_ALL_FILTER:
+                    return new CellFilter() {
+                        @Override
+                        void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+                            Arrays.fill(keep, false);
+                        }
+                    };
+                case CHAIN:
+                    return chain(filter.getChain().getFiltersList());
+                case INTERLEAVE:
+                    return interleave(filter.getInterleave().getFiltersList());
+                case ROW_KEY_REGEX_FILTER:
+                    ByteRegex keys = new ByteRegex(filter.getRowKeyRegexFilter());
+                    return new CellFilter() {
+                        @Override
+                        void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+                            if (!keys.matches(key)) {
+                                Arrays.fill(keep, false);
+                            }
+                        }
+                    };
+                case FAMILY_NAME_REGEX_FILTER:
+                    ByteRegex families = new ByteRegex(ByteString.copyFromUtf8(filter.getFamilyNameRegexFilter()));
+                    return new CellFilter() {
+                        @Override
+                        void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+                            if (!families.matches(ByteString.copyFromUtf8(family))) {
+                                Arrays.fill(keep, false);
+                            }
+                        }
+                    };
+                case COLUMN_QUALIFIER_REGEX_FILTER:
+                    ByteRegex qualifiers = new ByteRegex(filter.getColumnQualifierRegexFilter());
+                    return new CellFilter() {
+                        @Override
+                        void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+                            for (int i = 0; i < cells.size; i++) {
+                                keep[i] &= qualifiers.matches(cells.data, cells.qualifierOffsets[i],
+                                        cells.qualifierLengths[i]);
+                            }
+                        }
+                    };
+                case VALUE_REGEX_FILTER:
+                    ByteRegex values = new ByteRegex(filter.getValueRegexFilter());
+                    return new CellFilter() {
+                        @Override
+                        void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+                            for (int i = 0; i < cells.size; i++) {
+                                keep[i] &= values.matches(cells.data, cells.valueOffsets[i], cells.valueLengths[i]);
+                            }
+                        }
+                    };
+                case TIMESTAMP_RANGE_FILTER:
+                    long start = filter.getTimestampRangeFilter().getStartTimestampMicros();
+                    long end = filter.getTimestampRangeFilter().getEndTimestampMicros();
+                    return new CellFilter() {
+                        @Override
+                        void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+                            for (int i = 0; i < cells.size; i++) {
+                                keep[i] &= cells.timestamps[i] >= start && (end == 0 || cells.timestamps[i] < end);
+                            }
+                        }
+                    };
+                case CELLS_PER_COLUMN_LIMIT_FILTER:
+                    // Only the latest cell of a column is kept
+                    return PASS;
+                case CELLS_PER_ROW_LIMIT_FILTER:
+                    return cellsPerRow(0, filter.getCellsPerRowLimitFilter());
+                case CELLS_PER_ROW_OFFSET_FILTER:
+                    return cellsPerRow(filter.getCellsPerRowOffsetFilter(), Integer.MAX_VALUE);
+                default:
+                    throw new UnsupportedOperationException("Filter not supported in memory: "
+                            + filter.getFilterCase());
+            }
+        }
+
+        private static CellFilter chain(List<RowFilter> filters) {
+            CellFilter[] parts = filters.stream().map(CellFilter::compile).toArray(CellFilter[]::new);
+            return new CellFilter() {
+                @Override
+                void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+                    for (CellFilter part : parts) {
+                        part.apply(family, key, cells, keep);
+                    }
+                }
+            };
+        }
+
+        /**
+         * The union of the filters' cells; Bigtable would return a cell passing several of
+         * them more than once, which the filters built here never do.
+         */
+        private static CellFilter interleave(List<RowFilter> filters) {
+            CellFilter[] parts = filters.stream().map(CellFilter::compile).toArray(CellFilter[]::new);
+            return new CellFilter() {
+                @Override
+                void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+                    boolean[] any = new boolean[keep.length];
+                    for (CellFilter part : parts) {
+                        boolean[] branch = keep.clone();
+                        part.apply(family, key, cells, branch);
+                        for (int i = 0; i < any.length; i++) {
+                            any[i] |= branch[i];
+                        }
+                    }
+                    System.arraycopy(any, 0, keep, 0, keep.length);
+                }
+            };
+        }
+
+        private static CellFilter cellsPerRow(int skip, int limit) {
+            return new CellFilter() {
+                @Override
+                void apply(String family, ByteString key, Cells cells, boolean[] keep) {
+                    int seen = 0;
+                    for (int i = 0; i < cells.size; i++) {
+                        if (keep[i]) {
+                            keep[i] = seen >= skip && seen - skip < limit;
+                            seen++;
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * A regex matched against whole byte strings. The escaped literals built by the client's
+     * {@code exactMatch} filters are compared byte by byte instead.
+     */
+    static final class ByteRegex {
+        private final byte[] literal;
+        private final Pattern pattern;
+
+        ByteRegex(ByteString regex) {
+            this.literal = literal(regex.toByteArray());
+            this.pattern = literal == null ? Pattern.compile(regex.toString(StandardCharsets.ISO_8859_1)) : null;
+        }
+
+        boolean matches(ByteString value) {
+            if (literal != null) {
+                return value.size() == literal.length && value.equals(UnsafeByteOperations.unsafeWrap(literal));
+            }
+            return pattern.matcher(value.toString(StandardCharsets.ISO_8859_1)).matches();
+        }
+
+        boolean matches(byte[] data, int offset, int length) {
+            if (literal != null) {
+                return Arrays.equals(data, offset, offset + length, literal, 0, literal.length);
+            }
+            return pattern.matcher(new String(data, offset, length, StandardCharsets.ISO_8859_1)).matches();
+        }
+
+        /**
+         * @return The bytes a regex matches if it only has word characters and escaped
+         *         characters, or null
+         */
+        static byte[] literal(byte[] regex) {
+            ByteBuffer out = ByteBuffer.allocate(regex.length);
+            for (int i = 0; i < regex.length; i++) {
+                byte b = regex[i];
+                if (b != '\\') {
+                    if (!isWord(b)) {
+                        return null;
+                    }
+                    out.put(b);
+                } else if (i + 3 < regex.length && regex[i + 1] == 'x' && hex(regex[i + 2]) >= 0
+                        && hex(regex[i + 3]) >= 0) {
+                    out.put((byte) (hex(regex[i + 2]) << 4 | hex(regex[i + 3])));
+                    i += 3;
+                } else if (i + 1 < regex.length && !isWord(regex[i + 1])) {
+                    out.put(regex[++i]);
+                } else {
+                    return null;
+                }
+            }
+            return Arrays.copyOf(out.array(), out.position());
+        }
+
+        private static boolean isWord(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '_';
+        }
+
+        private static int hex(byte b) {
+            return Character.digit((char) b, 16);
+        }
+    }
+}
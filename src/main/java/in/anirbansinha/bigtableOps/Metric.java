@@ -0,0 +1,26 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * The sensor values stored for every hourly reading, in storage order.
+ */
+public enum Metric {
+    TEMPERATURE("temperature"),
+    DEW_POINT("dew_point"),
+    HUMIDITY("humidity"),
+    WIND_SPEED("wind_speed"),
+    PRESSURE("pressure");
+
+    /** Number of metrics in a reading. */
+    public static final int COUNT = values().length;
+
+    /** Column qualifier of the metric when stored one metric per column. */
+    public final String qualifier;
+    public final ByteString qualifierBytes;
+
+    Metric(String qualifier) {
+        this.qualifier = qualifier;
+        this.qualifierBytes = ByteString.copyFromUtf8(qualifier);
+    }
+}
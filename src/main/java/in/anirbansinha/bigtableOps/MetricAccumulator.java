@@ -0,0 +1,211 @@
+package in.anirbansinha.bigtableOps;
+
+/**
+ * Streaming statistics of one metric: count, min, max and sum, plus a histogram for percentiles.
+ * Values are kept as primitives, so adding a value never allocates. The histogram has one bucket
+ * per value while the values span at most {@value #MAX_BUCKETS} integers, which covers every
+ * sensor metric, and doubles its bucket width when they span more; percentiles are exact in the
+ * first case and approximate to a bucket width in the second.
+ * Rolled up values can be added as a summary ({@link #addSummary}); they count towards
+ * every aggregate but percentiles, which are then unavailable.
+ * Not thread safe: give every scan its own accumulator and {@link #merge} them.
+ */
+public final class MetricAccumulator {
+
+    static final int MAX_BUCKETS = 4096;
+
+    private long count;
+    private long missing;
+    private long summarized;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+    private long sum;
+
+    // Bucket i counts the values in [base + (i << shift), base + ((i + 1) << shift))
+    private long[] buckets;
+    private long base;
+    private int shift;
+
+    /**
+     * Add a value. {@link ReadingCodec#MISSING} is counted as missing instead.
+     */
+    public void add(int value) {
+        if (value == ReadingCodec.MISSING) {
+            missing++;
+            return;
+        }
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        ensureRange(value, value);
+        buckets[(int) ((value - base) >> shift)]++;
+    }
+
+    /**
+     * Add values known only by their summary, such as a rollup row.
+     * @param count Number of values, at least 1
+     */
+    public void addSummary(int min, int max, long sum, long count) {
+        this.count += count;
+        this.summarized += count;
+        this.sum += sum;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+    }
+
+    /**
+     * @return Whether percentiles can be computed, i.e. no summaries were added
+     */
+    public boolean hasPercentiles() {
+        return summarized == 0;
+    }
+
+    /**
+     * Add the values of another accumulator to this one.
+     * @return This accumulator
+     */
+    public MetricAccumulator merge(MetricAccumulator other) {
+        summarized += other.summarized;
+        if (other.buckets != null) {
+            ensureRange(other.min, other.max);
+            while (shift < other.shift) {
+                widen();
+            }
+            for (int i = 0; i < other.buckets.length; i++) {
+                if (other.buckets[i] != 0) {
+                    long low = other.base + ((long) i << other.shift);
+                    buckets[(int) ((low - base) >> shift)] += other.buckets[i];
+                }
+            }
+        }
+        if (other.count > 0) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+            count += other.count;
+        }
+        missing += other.missing;
+        return this;
+    }
+
+    /**
+     * @return Number of values added
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return Number of readings that had no value
+     */
+    public long missing() {
+        return missing;
+    }
+
+    /**
+     * @return The smallest value; only meaningful when {@link #count()} is not 0
+     */
+    public int min() {
+        return min;
+    }
+
+    /**
+     * @return The largest value; only meaningful when {@link #count()} is not 0
+     */
+    public int max() {
+        return max;
+    }
+
+    public long sum() {
+        return sum;
+    }
+
+    /**
+     * @return The mean, or NaN without values
+     */
+    public double average() {
+        return count == 0 ? Double.NaN : (double) sum / count;
+    }
+
+    /**
+     * The nearest-rank percentile: the smallest value with at least {@code q} of the values at or below it.
+     * @param q The fraction, between 0 and 1
+     * @return The percentile, or NaN without values
+     */
+    public double percentile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 1: " + q);
+        }
+        if (summarized > 0) {
+            throw new IllegalStateException("Percentiles are not available for rolled up values");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                // The bucket's lowest value, kept within the observed range
+                long low = base + ((long) i << shift);
+                return Math.max(min, Math.min(max, low));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Grow the histogram to cover [low, high] and the values already added, widening the
+     * buckets while that would take more than {@value #MAX_BUCKETS} of them.
+     */
+    private void ensureRange(int low, int high) {
+        if (buckets != null && low >= base && ((high - base) >> shift) < buckets.length) {
+            return;
+        }
+        long from = count > 0 ? Math.min(low, min) : low;
+        long to = count > 0 ? Math.max(high, max) : high;
+        int newShift = shift;
+        while (((to - align(from, newShift)) >> newShift) + 1 > MAX_BUCKETS) {
+            newShift++;
+        }
+        rebucket(newShift, from, to);
+    }
+
+    /**
+     * Double the bucket width, merging neighbouring buckets.
+     */
+    private void widen() {
+        rebucket(shift + 1, min, max);
+    }
+
+    /**
+     * Move the counts into buckets of width {@code 1 << newShift} covering [from, to], with
+     * room to grow upwards. The new width must not be smaller than the current one.
+     */
+    private void rebucket(int newShift, long from, long to) {
+        long newBase = align(from, newShift);
+        long needed = ((to - newBase) >> newShift) + 1;
+        long[] grown = new long[(int) Math.min(MAX_BUCKETS, Math.max(16, needed * 2))];
+        if (buckets != null) {
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] != 0) {
+                    long low = base + ((long) i << shift);
+                    grown[(int) ((low - newBase) >> newShift)] += buckets[i];
+                }
+            }
+        }
+        buckets = grown;
+        base = newBase;
+        shift = newShift;
+    }
+
+    private static long align(long value, int shift) {
+        return Math.floorDiv(value, 1L << shift) << shift;
+    }
+}
@@ -0,0 +1,339 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of loads and queries:
+ * <ul>
+ * <li>load: data lines parsed, lines rejected by {@link RejectReason}, mutations sent,
+ * written and failed, bytes sent, and the latency of every mutation from being queued
+ * until its batch was acknowledged</li>
+ * <li>queries, by name: calls, errors, latency, rows scanned and bytes returned
+ * (see {@link QueryTrace})</li>
+ * <li>gauges registered by other components, e.g. the cache counters</li>
+ * </ul>
+ * Everything is available as a flat {@link #snapshot()}, through JMX and through a
+ * periodic {@link MetricsReporter}. Counters are {@link LongAdder}s, so recording from
+ * many loader and callback threads does not contend.
+ */
+public class Metrics implements AutoCloseable {
+
+    /**
+     * Calls of one kind of query.
+     */
+    public static class QueryStats {
+        final AtomicLong firstQueryMillis;
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        QueryStats(AtomicLong firstQueryMillis) {
+            this.firstQueryMillis = firstQueryMillis;
+        }
+
+        /**
+         * @return A trace of one call, to {@link QueryTrace#finish} when it is done
+         */
+        public QueryTrace start() {
+            return new QueryTrace(this);
+        }
+    }
+
+    /**
+     * Lines parsed and rejected by one parser, added to the metrics in blocks rather than per line.
+     */
+    public static class ParseCounts {
+        long lines;
+        final long[] rejected = new long[RejectReason.COUNT];
+
+        public void parsed(boolean accepted, RejectReason reason) {
+            lines++;
+            if (!accepted) {
+                rejected[reason.ordinal()]++;
+            }
+        }
+
+        public void rejected(RejectReason reason, long count) {
+            rejected[reason.ordinal()] += count;
+        }
+    }
+
+    private final LongAdder linesParsed = new LongAdder();
+    private final LongAdder[] linesRejected = new LongAdder[RejectReason.COUNT];
+    private final LongAdder mutationsSent = new LongAdder();
+    private final LongAdder mutationsWritten = new LongAdder();
+    private final LongAdder mutationsFailed = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LatencyHistogram mutationLatency = new LatencyHistogram();
+    private final ConcurrentHashMap<String, QueryStats> queries = new ConcurrentHashMap<>();
+    private final AtomicLong firstQueryMillis = new AtomicLong();
+    private final ConcurrentHashMap<String, Supplier<Number>> gauges = new ConcurrentHashMap<>();
+
+    private ObjectName mbeanName;
+    private ScheduledExecutorService reporting;
+    private MetricsReporter reporter;
+
+    public Metrics() {
+        for (int i = 0; i < linesRejected.length; i++) {
+            linesRejected[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Add the counts of a parser and reset them.
+     */
+    public void add(ParseCounts counts) {
+        linesParsed.add(counts.lines);
+        counts.lines = 0;
+        for (int i = 0; i < RejectReason.COUNT; i++) {
+            if (counts.rejected[i] != 0) {
+                linesRejected[i].add(counts.rejected[i]);
+                counts.rejected[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * @param bytes Size of the mutation's row as it was built: its key, and the qualifiers
+     *              and values of its cells (see {@link #rowBytes})
+     */
+    public void mutationSent(long bytes) {
+        mutationsSent.increment();
+        bytesSent.add(bytes);
+    }
+
+    /**
+     * @param nanos Time from queuing the mutation until its batch completed
+     */
+    public void mutationDone(boolean written, long nanos) {
+        (written ? mutationsWritten : mutationsFailed).increment();
+        mutationLatency.record(nanos);
+    }
+
+    /**
+     * @return The stats of a kind of query, created on first use
+     */
+    public QueryStats query(String name) {
+        return queries.computeIfAbsent(name, n -> new QueryStats(firstQueryMillis));
+    }
+
+    /**
+     * @return When the first query succeeded, in epoch milliseconds, or 0 if none has
+     */
+    public long getFirstQueryMillis() {
+        return firstQueryMillis.get();
+    }
+
+    /**
+     * Report a value owned by another component, read on every snapshot.
+     */
+    public void gauge(String name, Supplier<Number> value) {
+        gauges.put(name, value);
+    }
+
+    public long getLinesParsed() {
+        return linesParsed.sum();
+    }
+
+    public long getLinesRejected(RejectReason reason) {
+        return linesRejected[reason.ordinal()].sum();
+    }
+
+    public long getMutationsSent() {
+        return mutationsSent.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * @return Every metric by name, e.g. {@code load.rejected.INVALID_TEMPERATURE} or
+     *         {@code query.query2.latency.p99Ms}, sorted by name
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        values.put("load.linesParsed", linesParsed.sum());
+        long rejected = 0;
+        for (RejectReason reason : RejectReason.values()) {
+            long count = linesRejected[reason.ordinal()].sum();
+            values.put("load.rejected." + reason, count);
+            rejected += count;
+        }
+        values.put("load.rejected", rejected);
+        values.put("load.mutationsSent", mutationsSent.sum());
+        values.put("load.mutationsWritten", mutationsWritten.sum());
+        values.put("load.mutationsFailed", mutationsFailed.sum());
+        values.put("load.bytesSent", bytesSent.sum());
+        mutationLatency.snapshot("load.mutationLatency", values);
+
+        for (Map.Entry<String, QueryStats> entry : queries.entrySet()) {
+            String prefix = "query." + entry.getKey();
+            QueryStats stats = entry.getValue();
+            values.put(prefix + ".calls", stats.calls.sum());
+            values.put(prefix + ".errors", stats.errors.sum());
+            values.put(prefix + ".rowsScanned", stats.rows.sum());
+            values.put(prefix + ".bytesReturned", stats.bytes.sum());
+            stats.latency.snapshot(prefix + ".latency", values);
+        }
+        for (Map.Entry<String, Supplier<Number>> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().get());
+        }
+        return values;
+    }
+
+    /**
+     * @return The bytes of a row as returned by Bigtable: its key, qualifiers and values
+     */
+    static long rowBytes(Row row) {
+        long bytes = row.getKey().size();
+        for (RowCell cell : row.getCells()) {
+            bytes += cell.getQualifier().size() + cell.getValue().size();
+        }
+        return bytes;
+    }
+
+    /**
+     * Expose every metric of the {@link #snapshot()} as a read-only JMX attribute.
+     * @param name The MBean's object name, e.g. {@code in.anirbansinha.bigtableOps:type=Metrics,table=weather}
+     * @throws JMException if the MBean cannot be registered
+     */
+    public synchronized void registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(name);
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(new MetricsMBean(), objectName);
+        mbeanName = objectName;
+    }
+
+    /**
+     * Pass a snapshot to the reporter at a fixed interval, and once more on {@link #close()}.
+     */
+    public synchronized void startReporting(MetricsReporter reporter, long intervalMs) {
+        stopReporting();
+        this.reporter = reporter;
+        reporting = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporting.scheduleAtFixedRate(this::report, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void report() {
+        try {
+            reporter.report(snapshot());
+        } catch (RuntimeException e) {
+            // Keep reporting; a failing reporter must not stop the schedule
+            LoggerFactory.getLogger(Metrics.class).warn("Metrics reporter failed", e);
+        }
+    }
+
+    private void stopReporting() {
+        if (reporting != null) {
+            reporting.shutdownNow();
+            reporting = null;
+        }
+    }
+
+    /**
+     * Send a last report and unregister the MBean.
+     */
+    @Override
+    public synchronized void close() {
+        if (reporting != null) {
+            stopReporting();
+            report();
+        }
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                // Already gone
+            }
+            mbeanName = null;
+        }
+    }
+
+    /**
+     * Attributes are the names of the snapshot at registration time plus any added later.
+     */
+    private class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Number value = values.get(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Number> values = snapshot();
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+            int i = 0;
+            for (Map.Entry<String, Number> value : values.entrySet()) {
+                attributes[i++] = new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        value.getKey(), true, false, false);
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Load and query metrics", attributes, null, null, null);
+        }
+    }
+}
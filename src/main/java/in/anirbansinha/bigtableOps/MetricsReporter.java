@@ -0,0 +1,37 @@
+package in.anirbansinha.bigtableOps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Receives periodic {@link Metrics} snapshots, e.g. to push them to a monitoring system.
+ * Implementations named in METRICS_REPORTER need a public no-argument constructor.
+ */
+public interface MetricsReporter {
+
+    /**
+     * Called on the reporting thread; should not block for long.
+     * @param snapshot Every metric by name, see {@link Metrics#snapshot()}
+     */
+    void report(Map<String, Number> snapshot);
+
+    /**
+     * Logs every non-zero metric on one line through SLF4J.
+     */
+    class Slf4jReporter implements MetricsReporter {
+        private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+        @Override
+        public void report(Map<String, Number> snapshot) {
+            StringBuilder line = new StringBuilder("Metrics:");
+            for (Map.Entry<String, Number> metric : snapshot.entrySet()) {
+                if (metric.getValue().doubleValue() != 0) {
+                    line.append(' ').append(metric.getKey()).append('=').append(metric.getValue());
+                }
+            }
+            LOG.info(line.toString());
+        }
+    }
+}
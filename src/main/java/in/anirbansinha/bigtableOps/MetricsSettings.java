@@ -0,0 +1,51 @@
+package in.anirbansinha.bigtableOps;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Settings of how {@link Metrics} are exported.
+ * Values are read from the .env file, falling back to the defaults below.
+ */
+public class MetricsSettings {
+
+    public static final boolean DEFAULT_JMX = true;
+    public static final long DEFAULT_REPORT_INTERVAL_MS = 0;
+    public static final String DEFAULT_REPORTER = MetricsReporter.Slf4jReporter.class.getName();
+
+    /** Whether the metrics are registered as a JMX MBean. */
+    public final boolean jmx;
+    /** Interval of the periodic reports; 0 disables reporting. */
+    public final long reportIntervalMs;
+    /** Class name of the {@link MetricsReporter}. */
+    public final String reporter;
+
+    public MetricsSettings(boolean jmx, long reportIntervalMs, String reporter) {
+        this.jmx = jmx;
+        this.reportIntervalMs = reportIntervalMs;
+        this.reporter = reporter;
+    }
+
+    /**
+     * Read the metrics settings from the .env file.
+     * @param dotenv The loaded .env configuration
+     * @return The settings, with defaults for any key that is not set
+     */
+    public static MetricsSettings fromEnv(Dotenv dotenv) {
+        return new MetricsSettings(
+                Boolean.parseBoolean(dotenv.get("METRICS_JMX", String.valueOf(DEFAULT_JMX))),
+                Long.parseLong(dotenv.get("METRICS_REPORT_INTERVAL_MS", String.valueOf(DEFAULT_REPORT_INTERVAL_MS))),
+                dotenv.get("METRICS_REPORTER", DEFAULT_REPORTER));
+    }
+
+    /**
+     * @return A new instance of the configured reporter
+     * @throws IllegalArgumentException if the class cannot be instantiated as a reporter
+     */
+    public MetricsReporter newReporter() {
+        try {
+            return (MetricsReporter) Class.forName(reporter).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Cannot create metrics reporter " + reporter, e);
+        }
+    }
+}
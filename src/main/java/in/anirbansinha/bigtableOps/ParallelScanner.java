@@ -0,0 +1,187 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs several row range scans at once and merges their results. Every query is streamed
+ * with {@code readRowsAsync} into its own accumulator, so rows are aggregated as they arrive
+ * without locking, and the accumulators are merged once all scans are done.
+ * Used for cross-station queries: one key range per station instead of one scan over the table.
+ */
+public class ParallelScanner {
+
+    /**
+     * Folds rows into an accumulator.
+     * @param <A> The accumulator type
+     */
+    public interface RowAggregator<A> {
+        /**
+         * @return A new, empty accumulator
+         */
+        A create();
+
+        /**
+         * Add a row to an accumulator. Calls for one accumulator never overlap.
+         */
+        void accept(A accumulator, Row row);
+
+        /**
+         * @return The combination of two accumulators; may reuse either of them
+         */
+        A merge(A left, A right);
+    }
+
+    private final TableStore store;
+
+    public ParallelScanner(TableStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Issue all queries concurrently and wait for them.
+     * @param queries The queries, typically one per station
+     * @param aggregator How rows are aggregated
+     * @return The merged accumulator of all queries
+     * @throws Exception if any scan fails; the other scans are cancelled
+     */
+    public <A> A scan(List<Query> queries, RowAggregator<A> aggregator) throws Exception {
+        return await(scanAsync(queries, aggregator), "Range scan failed");
+    }
+
+    /**
+     * Issue queries of row keys only concurrently and wait for them, as {@link #scan}.
+     * They are read with {@link TableStore#lookupRowsAsync}, so they may be hedged.
+     * @param queries The queries, e.g. batches of point lookups
+     * @param aggregator How rows are aggregated
+     * @return The merged accumulator of all queries
+     * @throws Exception if any lookup fails; the others are cancelled
+     */
+    public <A> A lookup(List<Query> queries, RowAggregator<A> aggregator) throws Exception {
+        return await(lookupAsync(queries, aggregator), "Key lookup failed");
+    }
+
+    private static <A> A await(CompletableFuture<A> result, String failure) throws Exception {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new Exception(failure + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Issue all queries concurrently without waiting for them.
+     * @param queries The queries, typically one per station
+     * @param aggregator How rows are aggregated
+     * @return The merged accumulator of all queries; completes exceptionally as soon as
+     *         any scan fails, after cancelling the others
+     */
+    public <A> CompletableFuture<A> scanAsync(List<Query> queries, RowAggregator<A> aggregator) {
+        return start(queries, aggregator, false);
+    }
+
+    /**
+     * Issue queries of row keys only concurrently without waiting for them, as
+     * {@link #scanAsync}, with {@link TableStore#lookupRowsAsync}.
+     */
+    public <A> CompletableFuture<A> lookupAsync(List<Query> queries, RowAggregator<A> aggregator) {
+        return start(queries, aggregator, true);
+    }
+
+    private <A> CompletableFuture<A> start(List<Query> queries, RowAggregator<A> aggregator, boolean keysOnly) {
+        List<ScanObserver<A>> scans = new ArrayList<>(queries.size());
+        CompletableFuture<?>[] done = new CompletableFuture<?>[queries.size()];
+        for (Query query : queries) {
+            ScanObserver<A> scan = new ScanObserver<>(aggregator);
+            done[scans.size()] = scan.done;
+            scans.add(scan);
+            if (keysOnly) {
+                store.lookupRowsAsync(query, scan);
+            } else {
+                store.readRowsAsync(query, scan);
+            }
+        }
+
+        CompletableFuture<A> result = new CompletableFuture<>();
+        for (ScanObserver<A> scan : scans) {
+            scan.done.whenComplete((accumulator, error) -> {
+                if (error != null && result.completeExceptionally(error)) {
+                    for (ScanObserver<A> other : scans) {
+                        other.cancel();
+                    }
+                }
+            });
+        }
+        CompletableFuture.allOf(done).whenComplete((ignored, error) -> {
+            if (error != null) {
+                return;
+            }
+            try {
+                A merged = aggregator.create();
+                for (ScanObserver<A> scan : scans) {
+                    merged = aggregator.merge(merged, scan.done.join());
+                }
+                result.complete(merged);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Aggregates the rows of one scan and completes when the stream ends.
+     */
+    private static class ScanObserver<A> implements ResponseObserver<Row> {
+        private final RowAggregator<A> aggregator;
+        private final A accumulator;
+        private final CompletableFuture<A> done = new CompletableFuture<>();
+        private volatile StreamController controller;
+
+        ScanObserver(RowAggregator<A> aggregator) {
+            this.aggregator = aggregator;
+            this.accumulator = aggregator.create();
+        }
+
+        @Override
+        public void onStart(StreamController controller) {
+            this.controller = controller;
+        }
+
+        @Override
+        public void onResponse(Row row) {
+            try {
+                aggregator.accept(accumulator, row);
+            } catch (RuntimeException e) {
+                // Fail the scan rather than the client's callback thread
+                done.completeExceptionally(e);
+                cancel();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            done.completeExceptionally(t);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(accumulator);
+        }
+
+        void cancel() {
+            StreamController current = controller;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package in.anirbansinha.bigtableOps;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Worker counts and queue sizes for the ingestion pipeline, and the chunking of the
+ * memory-mapped load mode. A value of 0 for the reader or parser threads means one
+ * worker per station file; a parallelism of 0 means one thread per core.
+ * Also where the {@link LoadCheckpoints} of the station files are kept.
+ */
+public class PipelineSettings {
+
+    public static final int DEFAULT_WRITER_THREADS = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    public static final int DEFAULT_BLOCK_ROWS = 512;
+    public static final int DEFAULT_BLOCK_BYTES = 64 * 1024;
+    public static final int DEFAULT_CHUNK_BYTES = 4 * 1024 * 1024;
+    public static final String DEFAULT_CHECKPOINT_FILE = "";
+    public static final String DEFAULT_TAIL_CHECKPOINT_FILE = "load-checkpoints.properties";
+    public static final long DEFAULT_CHECKPOINT_INTERVAL_MS = 5000;
+
+    public static final String MODE_PIPELINE = "pipeline";
+    public static final String MODE_MMAP = "mmap";
+
+    /** How station files are read: {@link #MODE_PIPELINE} or {@link #MODE_MMAP}. */
+    public final String mode;
+
+    /** Threads reading station files; 0 means one per file. */
+    public final int readerThreads;
+    /** Threads parsing station files; 0 means one per file. A file is parsed by a single worker. */
+    public final int parserThreads;
+    /** Threads submitting mutations to the shared bulk loader. */
+    public final int writerThreads;
+    /** Capacity, in blocks, of each queue between stages. */
+    public final int queueCapacity;
+    /**
+     * Mutations handed from a parser to the writers at once, from LOAD_BLOCK_ROWS.
+     * LOAD_BLOCK_LINES, its earlier name, is still read when LOAD_BLOCK_ROWS is not set.
+     */
+    public final int blockRows;
+    /** Size of the blocks of file data handed from a reader to its parser. */
+    public final int blockBytes;
+    /** Size of the line-aligned chunks a memory-mapped file is split into. */
+    public final int chunkBytes;
+    /** Threads parsing the chunks of a memory-mapped file; 0 means one per core. */
+    public final int chunkParallelism;
+    /**
+     * File the load checkpoints are kept in; empty, the default, keeps them in memory only.
+     * Tailing loads need them to be kept, see {@link #checkpointFile(boolean)}.
+     */
+    public final String checkpointFile;
+    /** Milliseconds between saves of the checkpoints during a load; 0 saves only at the end. */
+    public final long checkpointIntervalMs;
+
+    public PipelineSettings(String mode, int readerThreads, int parserThreads, int writerThreads,
+                            int queueCapacity, int blockRows, int blockBytes,
+                            int chunkBytes, int chunkParallelism, String checkpointFile, long checkpointIntervalMs) {
+        this.mode = mode;
+        this.readerThreads = readerThreads;
+        this.parserThreads = parserThreads;
+        this.writerThreads = writerThreads;
+        this.queueCapacity = queueCapacity;
+        this.blockRows = blockRows;
+        this.blockBytes = blockBytes;
+        this.chunkBytes = chunkBytes;
+        this.chunkParallelism = chunkParallelism > 0 ? chunkParallelism : Runtime.getRuntime().availableProcessors();
+        this.checkpointFile = checkpointFile;
+        this.checkpointIntervalMs = checkpointIntervalMs;
+    }
+
+    /**
+     * Read the pipeline settings from the .env file.
+     * @param dotenv The loaded .env configuration
+     * @return The settings, with defaults for any key that is not set
+     */
+    public static PipelineSettings fromEnv(Dotenv dotenv) {
+        return new PipelineSettings(
+                dotenv.get("LOAD_MODE", MODE_PIPELINE),
+                Integer.parseInt(dotenv.get("LOAD_READER_THREADS", "0")),
+                Integer.parseInt(dotenv.get("LOAD_PARSER_THREADS", "0")),
+                Integer.parseInt(dotenv.get("LOAD_WRITER_THREADS", String.valueOf(DEFAULT_WRITER_THREADS))),
+                Integer.parseInt(dotenv.get("LOAD_QUEUE_CAPACITY", String.valueOf(DEFAULT_QUEUE_CAPACITY))),
+                Integer.parseInt(dotenv.get("LOAD_BLOCK_ROWS",
+                        dotenv.get("LOAD_BLOCK_LINES", String.valueOf(DEFAULT_BLOCK_ROWS)))),
+                Integer.parseInt(dotenv.get("LOAD_BLOCK_BYTES", String.valueOf(DEFAULT_BLOCK_BYTES))),
+                Integer.parseInt(dotenv.get("LOAD_CHUNK_BYTES", String.valueOf(DEFAULT_CHUNK_BYTES))),
+                Integer.parseInt(dotenv.get("LOAD_CHUNK_PARALLELISM", "0")),
+                dotenv.get("LOAD_CHECKPOINT_FILE", DEFAULT_CHECKPOINT_FILE).trim(),
+                Long.parseLong(dotenv.get("LOAD_CHECKPOINT_INTERVAL_MS", String.valueOf(DEFAULT_CHECKPOINT_INTERVAL_MS))));
+    }
+
+    /**
+     * @param tail Whether the load continues from the saved checkpoints
+     * @return The file the checkpoints of a load are kept in, or empty to keep them in memory;
+     *         a tailing load keeps them in {@value #DEFAULT_TAIL_CHECKPOINT_FILE} unless
+     *         LOAD_CHECKPOINT_FILE names another file
+     */
+    public String checkpointFile(boolean tail) {
+        return tail && checkpointFile.isEmpty() ? DEFAULT_TAIL_CHECKPOINT_FILE : checkpointFile;
+    }
+
+    /**
+     * @param configured The configured worker count
+     * @param files Number of station files being loaded
+     * @return The worker count to use for a per-file stage, at least 1
+     */
+    static int perFileWorkers(int configured, int files) {
+        return Math.max(1, configured > 0 ? Math.min(configured, files) : files);
+    }
+}
@@ -0,0 +1,151 @@
+package in.anirbansinha.bigtableOps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Combines point lookups made at about the same time into one multi-key read: the first
+ * lookup of a batch waits up to the batch window for others, and the batch is read as soon
+ * as it has maxBatchKeys keys. Lookups of the same key in a batch share its result.
+ * Many independent callers then cost a few requests instead of one each.
+ */
+public class PointBatcher implements AutoCloseable {
+
+    /**
+     * Reads a batch of keys.
+     */
+    public interface Reader {
+        /**
+         * @param keys The readings to read
+         * @return The readings found, by key; keys without a row are left out
+         */
+        CompletableFuture<Map<ReadingKey, HourlyReading>> read(Collection<ReadingKey> keys);
+    }
+
+    private final Reader reader;
+    private final long windowMicros;
+    private final int maxBatchKeys;
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private Map<ReadingKey, CompletableFuture<HourlyReading>> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> timer;
+
+    /**
+     * @param reader Reads the batches
+     * @param windowMicros How long the first lookup of a batch waits for others; 0 reads
+     *                     every lookup on its own
+     * @param maxBatchKeys Keys after which a batch is read without waiting
+     */
+    public PointBatcher(Reader reader, long windowMicros, int maxBatchKeys) {
+        this.reader = reader;
+        this.windowMicros = windowMicros;
+        this.maxBatchKeys = Math.max(1, maxBatchKeys);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "point-batcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param key The station, day and hour
+     * @return The reading, or null if there is none
+     */
+    public CompletableFuture<HourlyReading> get(ReadingKey key) {
+        lookups.increment();
+        CompletableFuture<HourlyReading> result;
+        Map<ReadingKey, CompletableFuture<HourlyReading>> full = null;
+        synchronized (this) {
+            result = pending.get(key);
+            if (result == null) {
+                result = new CompletableFuture<>();
+                pending.put(key, result);
+            }
+            if (pending.size() >= maxBatchKeys || windowMicros <= 0) {
+                full = take();
+            } else if (timer == null) {
+                timer = scheduler.schedule(this::flush, windowMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return result;
+    }
+
+    /**
+     * Read the pending lookups now.
+     */
+    public void flush() {
+        Map<ReadingKey, CompletableFuture<HourlyReading>> batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+    }
+
+    private Map<ReadingKey, CompletableFuture<HourlyReading>> take() {
+        Map<ReadingKey, CompletableFuture<HourlyReading>> batch = pending;
+        pending = new LinkedHashMap<>();
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        return batch;
+    }
+
+    private void send(Map<ReadingKey, CompletableFuture<HourlyReading>> batch) {
+        batches.increment();
+        CompletableFuture<Map<ReadingKey, HourlyReading>> read;
+        try {
+            read = reader.read(new ArrayList<>(batch.keySet()));
+        } catch (RuntimeException e) {
+            read = new CompletableFuture<>();
+            read.completeExceptionally(e);
+        }
+        read.whenComplete((found, error) -> {
+            for (Map.Entry<ReadingKey, CompletableFuture<HourlyReading>> lookup : batch.entrySet()) {
+                if (error != null) {
+                    lookup.getValue().completeExceptionally(error);
+                } else {
+                    lookup.getValue().complete(found.get(lookup.getKey()));
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Lookups made
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /**
+     * @return Batches read; lookups per batch is the saving
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * Read the pending lookups and stop the timer.
+     */
+    @Override
+    public void close() {
+        flush();
+        scheduler.shutdownNow();
+    }
+}
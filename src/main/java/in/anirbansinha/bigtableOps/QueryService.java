@@ -0,0 +1,435 @@
+package in.anirbansinha.bigtableOps;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A long-running HTTP endpoint for dashboard queries, answering in JSON:
+ * <ul>
+ * <li>{@code GET /reading?station=SEA&day=2022-10-02&hour=10}: one hourly reading. Point
+ * requests arriving together are read with one multi-key request, see {@link PointBatcher}.</li>
+ * <li>{@code GET /readings?stations=SEA,YVR&from=2022-10-01T10&to=2022-10-02}: the readings
+ * of a range of hours; {@code from} defaults to hour 0 and {@code to} to hour 23. Ranges
+ * longer than maxReadingsHours are answered with 400.</li>
+ * <li>{@code GET /aggregate?stations=SEA&from=2022-07-01&to=2022-07-31&metric=temperature&aggregate=p95}:
+ * an aggregate of a metric, see {@link Aggregate#forName}.</li>
+ * <li>{@code GET /metrics}: the metrics snapshot.</li>
+ * </ul>
+ * Identical range and aggregate requests in flight at the same time share one query. At
+ * most maxInFlight requests are served at once; more are answered with 503 and a
+ * Retry-After header right away, so an overload sheds requests instead of queueing them
+ * until every one times out. Stations default to every station.
+ */
+public class QueryService implements AutoCloseable {
+
+    /**
+     * The queries the service answers, e.g. those of {@link Bigtable}.
+     */
+    public interface Queries {
+        /**
+         * @return The readings found, by key; keys without a row are left out
+         */
+        CompletableFuture<Map<ReadingKey, HourlyReading>> readReadings(Collection<ReadingKey> keys);
+
+        /**
+         * @param stations The stations; empty for every station
+         * @return The readings of the hours, in row key order
+         */
+        CompletableFuture<List<HourlyReading>> readAll(Collection<String> stations, HourRange range);
+
+        /**
+         * @param stations The stations; empty for every station
+         * @return The aggregate, NaN without values
+         */
+        CompletableFuture<Double> aggregate(Collection<String> stations, HourRange range, Metric metric,
+                                            Aggregate aggregate);
+    }
+
+    /** A response, shared by the requests of a coalesced query. */
+    private static final class Response {
+        final int status;
+        final byte[] body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final Response OVERLOADED = error(503, "Too many requests in flight");
+
+    private final Queries queries;
+    private final Metrics metrics;
+    private final int maxInFlight;
+    private final int maxReadingsHours;
+    private final Semaphore permits;
+    private final PointBatcher points;
+    private final ExecutorService executor;
+    private final HttpServer server;
+    private final ConcurrentHashMap<String, CompletableFuture<Response>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Bind the endpoint; {@link #start()} starts serving.
+     * @param queries Answers the queries
+     * @param settings Address, threads, admission limit, point batching and the longest range
+     * @param metrics Served on /metrics
+     * @throws IOException if the address cannot be bound
+     */
+    public QueryService(Queries queries, ServiceSettings settings, Metrics metrics) throws IOException {
+        this.queries = queries;
+        this.metrics = metrics;
+        this.maxInFlight = Math.max(1, settings.maxInFlight);
+        this.permits = new Semaphore(maxInFlight);
+        this.maxReadingsHours = settings.maxReadingsHours;
+        this.points = new PointBatcher(queries::readReadings, settings.batchWindowMicros, settings.maxBatchKeys);
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, settings.threads), r -> {
+            Thread thread = new Thread(r, "query-service-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(settings.host, settings.port), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return The port the service listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return Requests received, including rejected ones
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return Requests answered with 503 because maxInFlight were being served
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return Requests that shared the query of an identical request in flight
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return Requests being served
+     */
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * @return The batcher of point requests, for its counters
+     */
+    public PointBatcher getPoints() {
+        return points;
+    }
+
+    /**
+     * Stop accepting requests, and give those in flight a second to complete.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        points.close();
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) {
+        requests.increment();
+        String path = exchange.getRequestURI().getPath();
+        if ("/metrics".equals(path)) {
+            // Not limited, so an overloaded service can still be looked at
+            send(exchange, new Response(200, json(metrics.snapshot())));
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            send(exchange, OVERLOADED);
+            return;
+        }
+
+        CompletableFuture<Response> response;
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                response = CompletableFuture.completedFuture(error(405, "Only GET is supported"));
+            } else {
+                response = route(path, params(exchange.getRequestURI().getRawQuery()));
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            response = CompletableFuture.completedFuture(error(400, e.getMessage()));
+        } catch (RuntimeException e) {
+            response = CompletableFuture.completedFuture(error(500, e.toString()));
+        }
+        response.whenCompleteAsync((value, failure) -> {
+            try {
+                send(exchange, failure == null ? value : error(500, cause(failure).toString()));
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    private CompletableFuture<Response> route(String path, TreeMap<String, String> params) {
+        switch (path) {
+            case "/reading": {
+                ReadingKey key = new ReadingKey(required(params, "station"),
+                        LocalDate.parse(required(params, "day")), Integer.parseInt(required(params, "hour")));
+                return points.get(key).thenApply(reading -> reading == null
+                        ? error(404, "No reading for " + key) : new Response(200, json(reading)));
+            }
+            case "/readings": {
+                List<String> stations = stations(params);
+                HourRange range = range(params);
+                if (maxReadingsHours > 0 && range.hours() > maxReadingsHours) {
+                    throw new IllegalArgumentException("Range of " + range.hours()
+                            + " hours is longer than the limit of " + maxReadingsHours);
+                }
+                return coalesce(path + params, () -> queries.readAll(stations, range)
+                        .thenApply(readings -> new Response(200, json(readings))));
+            }
+            case "/aggregate": {
+                List<String> stations = stations(params);
+                HourRange range = range(params);
+                Metric metric = metric(required(params, "metric"));
+                Aggregate aggregate = Aggregate.forName(required(params, "aggregate"));
+                return coalesce(path + params, () -> queries.aggregate(stations, range, metric, aggregate)
+                        .thenApply(value -> new Response(200, "{\"value\":" + number(value) + "}")));
+            }
+            default:
+                return CompletableFuture.completedFuture(error(404, "Unknown path: " + path));
+        }
+    }
+
+    /**
+     * Share the query of an identical request in flight, or start it.
+     * @param key The path and the sorted parameters of the request
+     */
+    private CompletableFuture<Response> coalesce(String key, Supplier<CompletableFuture<Response>> query) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        CompletableFuture<Response> running = inFlight.putIfAbsent(key, response);
+        if (running != null) {
+            coalesced.increment();
+            return running;
+        }
+        CompletableFuture<Response> started;
+        try {
+            started = query.get();
+        } catch (RuntimeException e) {
+            started = new CompletableFuture<>();
+            started.completeExceptionally(e);
+        }
+        started.whenComplete((value, failure) -> {
+            // Later requests start a new query, so they see newer data
+            inFlight.remove(key, response);
+            if (failure != null) {
+                response.completeExceptionally(failure);
+            } else {
+                response.complete(value);
+            }
+        });
+        return response;
+    }
+
+    private static void send(HttpExchange exchange, Response response) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(response.status, response.body.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(response.body);
+            }
+        } catch (IOException e) {
+            // The client went away
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Throwable cause(Throwable failure) {
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException)
+                && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    private static TreeMap<String, String> params(String rawQuery) {
+        TreeMap<String, String> params = new TreeMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            params.put(decode(name), decode(value));
+        }
+        return params;
+    }
+
+    private static String decode(String encoded) {
+        try {
+            return URLDecoder.decode(encoded, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String required(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static List<String> stations(Map<String, String> params) {
+        String stations = params.get("stations");
+        if (stations == null || stations.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(stations.split(","));
+    }
+
+    /**
+     * @return The hours from {@code from} to {@code to}, each a day with an optional hour, e.g. 2022-10-01T10
+     */
+    private static HourRange range(Map<String, String> params) {
+        String from = required(params, "from");
+        String to = params.getOrDefault("to", from);
+        return HourRange.of(day(from), hour(from, 0), day(to), hour(to, 23));
+    }
+
+    private static LocalDate day(String dayAndHour) {
+        int t = dayAndHour.indexOf('T');
+        return LocalDate.parse(t < 0 ? dayAndHour : dayAndHour.substring(0, t));
+    }
+
+    private static int hour(String dayAndHour, int defaultHour) {
+        int t = dayAndHour.indexOf('T');
+        return t < 0 ? defaultHour : Integer.parseInt(dayAndHour.substring(t + 1));
+    }
+
+    private static Metric metric(String name) {
+        for (Metric metric : Metric.values()) {
+            if (metric.qualifier.equalsIgnoreCase(name) || metric.name().equalsIgnoreCase(name)) {
+                return metric;
+            }
+        }
+        throw new IllegalArgumentException("Unknown metric: " + name);
+    }
+
+    private static Response error(int status, String message) {
+        return new Response(status, "{\"error\":" + quote(message) + "}");
+    }
+
+    private static String json(HourlyReading reading) {
+        StringBuilder json = new StringBuilder();
+        appendReading(json, reading);
+        return json.toString();
+    }
+
+    private static String json(List<HourlyReading> readings) {
+        StringBuilder json = new StringBuilder(readings.size() * 120).append('[');
+        for (int i = 0; i < readings.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendReading(json, readings.get(i));
+        }
+        return json.append(']').toString();
+    }
+
+    private static void appendReading(StringBuilder json, HourlyReading reading) {
+        ReadingKey key = reading.key();
+        json.append("{\"station\":").append(quote(key.stationId))
+                .append(",\"day\":\"").append(key.day)
+                .append("\",\"hour\":").append(key.hour);
+        for (Metric metric : Metric.values()) {
+            json.append(",\"").append(metric.qualifier).append("\":").append(reading.value(metric));
+        }
+        json.append('}');
+    }
+
+    private static String json(Map<String, Number> snapshot) {
+        StringBuilder json = new StringBuilder("{");
+        List<String> names = new ArrayList<>(snapshot.keySet());
+        for (int i = 0; i < names.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(quote(names.get(i))).append(':').append(number(snapshot.get(names.get(i)).doubleValue()));
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * @return The number in JSON: null if it is not finite, without a fraction if it has none
+     */
+    private static String number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "null";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
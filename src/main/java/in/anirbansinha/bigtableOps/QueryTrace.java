@@ -0,0 +1,92 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.Row;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One call of a query: counts the rows it reads and their bytes, possibly from several
+ * concurrent scans, and records them with the latency in the query's {@link Metrics.QueryStats}
+ * when it finishes.
+ */
+public class QueryTrace {
+
+    /** A trace that records nothing, for callers without metrics. */
+    public static final QueryTrace NONE = new QueryTrace(null);
+
+    private final Metrics.QueryStats stats;
+    private final long start = System.nanoTime();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicBoolean finished = new AtomicBoolean();
+
+    QueryTrace(Metrics.QueryStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Count a row read by the query.
+     */
+    public void row(Row row) {
+        if (stats != null) {
+            rows.increment();
+            bytes.add(Metrics.rowBytes(row));
+        }
+    }
+
+    /**
+     * @return An aggregator that counts every row before passing it on
+     */
+    public <A> ParallelScanner.RowAggregator<A> counting(ParallelScanner.RowAggregator<A> aggregator) {
+        if (stats == null) {
+            return aggregator;
+        }
+        return new ParallelScanner.RowAggregator<A>() {
+            @Override
+            public A create() {
+                return aggregator.create();
+            }
+
+            @Override
+            public void accept(A accumulator, Row row) {
+                row(row);
+                aggregator.accept(accumulator, row);
+            }
+
+            @Override
+            public A merge(A left, A right) {
+                return aggregator.merge(left, right);
+            }
+        };
+    }
+
+    /**
+     * Record the call; only the first call of finish counts.
+     * @param error The failure of the query, or null
+     */
+    public void finish(Throwable error) {
+        if (stats == null || !finished.compareAndSet(false, true)) {
+            return;
+        }
+        stats.calls.increment();
+        if (error != null) {
+            stats.errors.increment();
+        } else if (stats.firstQueryMillis.get() == 0) {
+            stats.firstQueryMillis.compareAndSet(0, System.currentTimeMillis());
+        }
+        stats.rows.add(rows.sum());
+        stats.bytes.add(bytes.sum());
+        stats.latency.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Finish the trace when an asynchronous query completes.
+     * @return The query's future
+     */
+    public <T> CompletableFuture<T> track(CompletableFuture<T> result) {
+        result.whenComplete((value, error) -> finish(error));
+        return result;
+    }
+}
@@ -0,0 +1,116 @@
+package in.anirbansinha.bigtableOps;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * SLF4J diagnostics for messages that can repeat for every line or row, e.g. skipped lines.
+ * Each kind of message is logged at most a few times per interval; the rest are counted and
+ * summarized with the next message of the kind that gets through. Suppressed and disabled
+ * messages are not formatted, so a noisy input costs little more than a quiet one; the
+ * counts of what was skipped are in {@link Metrics}.
+ */
+public class RateLimitedLogger {
+
+    public static final int DEFAULT_MESSAGES = 10;
+    public static final long DEFAULT_INTERVAL_MS = 10_000;
+
+    /** Messages of one kind in the current interval. */
+    private static final class Window {
+        long start;
+        int logged;
+        long suppressed;
+    }
+
+    private final Logger logger;
+    private final int messages;
+    private final long intervalNanos;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * Log at most {@value #DEFAULT_MESSAGES} messages of each kind every 10 seconds.
+     */
+    public RateLimitedLogger(Class<?> owner) {
+        this(LoggerFactory.getLogger(owner), DEFAULT_MESSAGES, DEFAULT_INTERVAL_MS, System::nanoTime);
+    }
+
+    RateLimitedLogger(Logger logger, int messages, long intervalMs, LongSupplier clock) {
+        this.logger = logger;
+        this.messages = messages;
+        this.intervalNanos = intervalMs * 1_000_000;
+        this.clock = clock;
+    }
+
+    public void warn(String kind, String format, Object... args) {
+        log(Level.WARN, kind, format, args);
+    }
+
+    public void info(String kind, String format, Object... args) {
+        log(Level.INFO, kind, format, args);
+    }
+
+    public void debug(String kind, String format, Object... args) {
+        log(Level.DEBUG, kind, format, args);
+    }
+
+    private void log(Level level, String kind, String format, Object[] args) {
+        if (permits(level, kind)) {
+            logger.atLevel(level).log(format, args);
+        }
+    }
+
+    /**
+     * Take the next message of a kind, for messages whose arguments cost something to
+     * build: only when this returns true are they built and logged with {@link #logger()}.
+     * @return false if the level is disabled or the message is suppressed
+     */
+    public boolean permits(Level level, String kind) {
+        if (!logger.isEnabledForLevel(level)) {
+            return false;
+        }
+        long suppressed = permit(kind);
+        if (suppressed < 0) {
+            return false;
+        }
+        if (suppressed > 0) {
+            logger.atLevel(level).log("Suppressed {} '{}' messages", suppressed, kind);
+        }
+        return true;
+    }
+
+    /**
+     * Count a message of a kind against its interval.
+     * @return -1 if the message is suppressed, otherwise the number of messages of the
+     *         kind suppressed since the last one logged
+     */
+    long permit(String kind) {
+        Window window = windows.computeIfAbsent(kind, k -> new Window());
+        long now = clock.getAsLong();
+        synchronized (window) {
+            if (window.logged == 0 || now - window.start >= intervalNanos) {
+                window.start = now;
+                window.logged = 0;
+            }
+            if (window.logged >= messages) {
+                window.suppressed++;
+                return -1;
+            }
+            window.logged++;
+            long suppressed = window.suppressed;
+            window.suppressed = 0;
+            return suppressed;
+        }
+    }
+
+    /**
+     * @return The underlying logger, for messages that are not rate limited
+     */
+    public Logger logger() {
+        return logger;
+    }
+}
@@ -0,0 +1,158 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
+import com.google.cloud.bigtable.data.v2.stub.EnhancedBigtableStubSettings;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import org.threeten.bp.Duration;
+
+/**
+ * Settings of the read path: batching, fan-out, timeouts and retries, and hedged reads.
+ * Values are read from the .env file, falling back to the defaults below.
+ */
+public class ReadSettings {
+
+    public static final int DEFAULT_BATCH_KEYS = 200;
+    public static final int DEFAULT_FAN_OUT_CONCURRENCY = 64;
+    public static final boolean DEFAULT_VIRTUAL_THREADS = true;
+    public static final long DEFAULT_ATTEMPT_TIMEOUT_MS = 2000;
+    public static final long DEFAULT_DEADLINE_MS = 10000;
+    public static final long DEFAULT_SCAN_DEADLINE_MS = 0;
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final long DEFAULT_RETRY_DELAY_MS = 10;
+    public static final long DEFAULT_MAX_RETRY_DELAY_MS = 1000;
+    public static final boolean DEFAULT_HEDGE = true;
+    public static final double DEFAULT_HEDGE_PERCENTILE = 95;
+    public static final long DEFAULT_HEDGE_MIN_DELAY_MS = 2;
+    public static final long DEFAULT_HEDGE_MAX_DELAY_MS = 500;
+    public static final double DEFAULT_HEDGE_BUDGET_PERCENT = 5;
+
+    /** Row keys per point read request; larger key sets are split into concurrent requests. */
+    public final int batchKeys;
+    /** Asynchronous queries in flight at once, see {@link FanOutExecutor}. */
+    public final int fanOutConcurrency;
+    /** Whether asynchronous queries run on virtual threads when the JVM has them. */
+    public final boolean virtualThreads;
+    /** Timeout of one attempt of a single row read or key lookup, before it is retried. */
+    public final long attemptTimeoutMs;
+    /** Time a single row read or key lookup may take over all its attempts. */
+    public final long deadlineMs;
+    /**
+     * Time a scan may take over all its attempts, or 0 for the client's default. Also bounds
+     * full table scans such as an encoding migration, so leave it unset for those.
+     */
+    public final long scanDeadlineMs;
+    /** Attempts of a read, including the first, while its deadline allows. */
+    public final int maxAttempts;
+    /** Wait before the first retry; doubled for every later one. */
+    public final long retryDelayMs;
+    /** Longest wait between retries. */
+    public final long maxRetryDelayMs;
+    /**
+     * Whether to hedge point reads and key lookups: a second copy of a request is sent if the
+     * first has not answered after the hedge delay, and the first response wins.
+     * Only used with Bigtable, see {@link HedgingTableStore}.
+     */
+    public final boolean hedge;
+    /** Percentile of recent read latencies used as the hedge delay. */
+    public final double hedgePercentile;
+    /** Shortest hedge delay, however fast recent reads were. */
+    public final long hedgeMinDelayMs;
+    /** Longest hedge delay; also used until enough reads have been timed. */
+    public final long hedgeMaxDelayMs;
+    /** Hedges sent at most, as a percentage of reads, so a slow cluster is not flooded. */
+    public final double hedgeBudgetPercent;
+
+    public ReadSettings(int batchKeys, int fanOutConcurrency, boolean virtualThreads, long attemptTimeoutMs,
+                        long deadlineMs, long scanDeadlineMs, int maxAttempts, long retryDelayMs,
+                        long maxRetryDelayMs, boolean hedge, double hedgePercentile, long hedgeMinDelayMs,
+                        long hedgeMaxDelayMs, double hedgeBudgetPercent) {
+        this.batchKeys = batchKeys;
+        this.fanOutConcurrency = fanOutConcurrency;
+        this.virtualThreads = virtualThreads;
+        this.attemptTimeoutMs = attemptTimeoutMs;
+        this.deadlineMs = deadlineMs;
+        this.scanDeadlineMs = scanDeadlineMs;
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMs = retryDelayMs;
+        this.maxRetryDelayMs = maxRetryDelayMs;
+        this.hedge = hedge;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+        this.hedgeMaxDelayMs = hedgeMaxDelayMs;
+        this.hedgeBudgetPercent = hedgeBudgetPercent;
+    }
+
+    /**
+     * Read the read path settings from the .env file.
+     * @param dotenv The loaded .env configuration
+     * @return The settings, with defaults for any key that is not set
+     */
+    public static ReadSettings fromEnv(Dotenv dotenv) {
+        return new ReadSettings(
+                Integer.parseInt(dotenv.get("READ_BATCH_KEYS", String.valueOf(DEFAULT_BATCH_KEYS))),
+                Integer.parseInt(dotenv.get("FAN_OUT_CONCURRENCY", String.valueOf(DEFAULT_FAN_OUT_CONCURRENCY))),
+                Boolean.parseBoolean(dotenv.get("FAN_OUT_VIRTUAL_THREADS", String.valueOf(DEFAULT_VIRTUAL_THREADS))),
+                Long.parseLong(dotenv.get("READ_ATTEMPT_TIMEOUT_MS", String.valueOf(DEFAULT_ATTEMPT_TIMEOUT_MS))),
+                Long.parseLong(dotenv.get("READ_DEADLINE_MS", String.valueOf(DEFAULT_DEADLINE_MS))),
+                Long.parseLong(dotenv.get("READ_SCAN_DEADLINE_MS", String.valueOf(DEFAULT_SCAN_DEADLINE_MS))),
+                Integer.parseInt(dotenv.get("READ_MAX_ATTEMPTS", String.valueOf(DEFAULT_MAX_ATTEMPTS))),
+                Long.parseLong(dotenv.get("READ_RETRY_DELAY_MS", String.valueOf(DEFAULT_RETRY_DELAY_MS))),
+                Long.parseLong(dotenv.get("READ_MAX_RETRY_DELAY_MS", String.valueOf(DEFAULT_MAX_RETRY_DELAY_MS))),
+                Boolean.parseBoolean(dotenv.get("READ_HEDGE", String.valueOf(DEFAULT_HEDGE))),
+                Double.parseDouble(dotenv.get("READ_HEDGE_PERCENTILE", String.valueOf(DEFAULT_HEDGE_PERCENTILE))),
+                Long.parseLong(dotenv.get("READ_HEDGE_MIN_DELAY_MS", String.valueOf(DEFAULT_HEDGE_MIN_DELAY_MS))),
+                Long.parseLong(dotenv.get("READ_HEDGE_MAX_DELAY_MS", String.valueOf(DEFAULT_HEDGE_MAX_DELAY_MS))),
+                Double.parseDouble(dotenv.get("READ_HEDGE_BUDGET_PERCENT",
+                        String.valueOf(DEFAULT_HEDGE_BUDGET_PERCENT))));
+    }
+
+    /**
+     * Apply the timeouts and retries to the settings of a data client: point reads get the
+     * attempt timeout and deadline, scans the scan deadline if one is set. Both retry with
+     * the same backoff and number of attempts. Key lookups share the client's scan settings,
+     * so they get the point read ones per call, see {@link #lookupRetrySettings}.
+     * @param builder The data client settings to modify
+     */
+    public void apply(BigtableDataSettings.Builder builder) {
+        EnhancedBigtableStubSettings.Builder stub = builder.stubSettings();
+        stub.readRowSettings().setRetrySettings(pointRead(stub.readRowSettings().getRetrySettings()));
+
+        RetrySettings.Builder readRows = stub.readRowsSettings().getRetrySettings().toBuilder()
+                .setMaxAttempts(maxAttempts)
+                .setInitialRetryDelay(Duration.ofMillis(retryDelayMs))
+                .setRetryDelayMultiplier(2.0)
+                .setMaxRetryDelay(Duration.ofMillis(maxRetryDelayMs));
+        if (scanDeadlineMs > 0) {
+            // A scan attempt may take as long as the whole scan
+            readRows.setInitialRpcTimeout(Duration.ofMillis(scanDeadlineMs))
+                    .setMaxRpcTimeout(Duration.ofMillis(scanDeadlineMs))
+                    .setTotalTimeout(Duration.ofMillis(scanDeadlineMs));
+        }
+        stub.readRowsSettings().setRetrySettings(readRows.build());
+    }
+
+    /**
+     * @param scans The retry settings of scans, once {@link #apply} has set them
+     * @return The retry settings of queries of row keys only: the attempt timeout and
+     *         deadline of point reads, see {@link BigtableTableStore#setLookupRetrySettings}
+     */
+    public RetrySettings lookupRetrySettings(RetrySettings scans) {
+        return pointRead(scans);
+    }
+
+    private RetrySettings pointRead(RetrySettings defaults) {
+        return defaults.toBuilder()
+                .setInitialRpcTimeout(Duration.ofMillis(attemptTimeoutMs))
+                .setMaxRpcTimeout(Duration.ofMillis(attemptTimeoutMs))
+                .setRpcTimeoutMultiplier(1.0)
+                .setTotalTimeout(Duration.ofMillis(deadlineMs))
+                .setMaxAttempts(maxAttempts)
+                .setInitialRetryDelay(Duration.ofMillis(retryDelayMs))
+                .setRetryDelayMultiplier(2.0)
+                .setMaxRetryDelay(Duration.ofMillis(maxRetryDelayMs))
+                .build();
+    }
+}
@@ -0,0 +1,58 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Read access to one hourly reading. Metric values are primitives; a metric that was
+ * missing or could not be decoded is {@link ReadingCodec#MISSING}.
+ * A reading handed out by a {@link ReadingStream} is a view that is reused for the next
+ * row; use {@link #copy()} to keep it.
+ */
+public interface Reading {
+
+    /**
+     * @return The row key, {@code station#yyyy-MM-dd#hour}; a streamed reading returns the key
+     *         as stored, including the bucket of a bucketed {@link KeyLayout}
+     */
+    ByteString rowKey();
+
+    /**
+     * @return The station, day and hour; allocates for a streamed reading
+     */
+    ReadingKey key();
+
+    /**
+     * @return The hour of the reading, or -1 if the row key has none
+     */
+    int hour();
+
+    /**
+     * @return The metric's value, or {@link ReadingCodec#MISSING}
+     */
+    int value(Metric metric);
+
+    /**
+     * @return An immutable copy of the reading
+     */
+    HourlyReading copy();
+
+    default int temperature() {
+        return value(Metric.TEMPERATURE);
+    }
+
+    default int dewPoint() {
+        return value(Metric.DEW_POINT);
+    }
+
+    default int humidity() {
+        return value(Metric.HUMIDITY);
+    }
+
+    default int windSpeed() {
+        return value(Metric.WIND_SPEED);
+    }
+
+    default int pressure() {
+        return value(Metric.PRESSURE);
+    }
+}
@@ -0,0 +1,332 @@
+package in.anirbansinha.bigtableOps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A read-through cache of hourly readings for point lookups.
+ * <ul>
+ * <li>Bounded by entry count and by estimated heap bytes; the least recently used
+ * readings are evicted first.</li>
+ * <li>Entries expire after a TTL, which bounds how stale a reading can be when the
+ * table is written by someone else.</li>
+ * <li>Rows that do not exist are cached too, so repeated lookups of a missing hour
+ * do not each cost a round trip.</li>
+ * <li>Concurrent misses for the same key wait for a single fetch.</li>
+ * </ul>
+ */
+public class ReadingCache {
+
+    /**
+     * Fetches a reading on a miss.
+     */
+    public interface Loader {
+        /**
+         * @return The reading, or null if there is none
+         * @throws Exception if the reading cannot be read
+         */
+        HourlyReading load(ReadingKey key) throws Exception;
+    }
+
+    /**
+     * Starts fetching a reading on a miss, without waiting for it.
+     */
+    public interface AsyncLoader {
+        /**
+         * @return The reading, or null if there is none
+         */
+        CompletableFuture<HourlyReading> load(ReadingKey key);
+    }
+
+    /** Estimated heap bytes of a cached reading: entry, key, date, station id and values. */
+    static final long ENTRY_OVERHEAD = 200;
+
+    private static final class Entry {
+        final HourlyReading reading;
+        final long expiresAt;
+        final long bytes;
+
+        Entry(HourlyReading reading, long expiresAt, long bytes) {
+            this.reading = reading;
+            this.expiresAt = expiresAt;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    // Access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<ReadingKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private final ConcurrentHashMap<ReadingKey, CompletableFuture<HourlyReading>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public ReadingCache(CacheSettings settings) {
+        this(settings.maxEntries, settings.maxBytes, settings.ttlMs, System::nanoTime);
+    }
+
+    ReadingCache(int maxEntries, long maxBytes, long ttlMs, LongSupplier clock) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttlMs <= 0 ? Long.MAX_VALUE : ttlMs * 1_000_000;
+        this.clock = clock;
+    }
+
+    /**
+     * Look up a reading, fetching it with the loader on a miss.
+     * @param key The reading's key
+     * @param loader Fetches the reading if it is not cached
+     * @return The reading, or null if there is none
+     * @throws Exception if the fetch fails; failures are not cached
+     */
+    public HourlyReading get(ReadingKey key, Loader loader) throws Exception {
+        Entry entry = lookup(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.reading;
+        }
+
+        CompletableFuture<HourlyReading> fetch = new CompletableFuture<>();
+        CompletableFuture<HourlyReading> running = inFlight.putIfAbsent(key, fetch);
+        if (running != null) {
+            // Someone else is fetching this key; wait for their result
+            collapsed.incrementAndGet();
+            return await(running);
+        }
+
+        try {
+            // The previous fetch may have completed between the lookup and putIfAbsent
+            entry = lookup(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                fetch.complete(entry.reading);
+                return entry.reading;
+            }
+            misses.incrementAndGet();
+            HourlyReading reading = loader.load(key);
+            put(key, reading);
+            fetch.complete(reading);
+            return reading;
+        } catch (Exception | Error e) {
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, fetch);
+        }
+    }
+
+    /**
+     * Look up a reading without blocking, starting a fetch with the loader on a miss.
+     * Concurrent misses for the same key share the fetch, as with {@link #get}.
+     * @param key The reading's key
+     * @param loader Starts fetching the reading if it is not cached
+     * @return The reading, or null if there is none; failed fetches are not cached
+     */
+    public CompletableFuture<HourlyReading> getAsync(ReadingKey key, AsyncLoader loader) {
+        Entry entry = lookup(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(entry.reading);
+        }
+
+        CompletableFuture<HourlyReading> fetch = new CompletableFuture<>();
+        CompletableFuture<HourlyReading> running = inFlight.putIfAbsent(key, fetch);
+        if (running != null) {
+            collapsed.incrementAndGet();
+            return running;
+        }
+
+        entry = lookup(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            inFlight.remove(key, fetch);
+            fetch.complete(entry.reading);
+            return fetch;
+        }
+        misses.incrementAndGet();
+        CompletableFuture<HourlyReading> loaded;
+        try {
+            loaded = loader.load(key);
+        } catch (RuntimeException e) {
+            inFlight.remove(key, fetch);
+            fetch.completeExceptionally(e);
+            return fetch;
+        }
+        loaded.whenComplete((reading, error) -> {
+            if (error == null) {
+                put(key, reading);
+            }
+            inFlight.remove(key, fetch);
+            if (error != null) {
+                fetch.completeExceptionally(error);
+            } else {
+                fetch.complete(reading);
+            }
+        });
+        return fetch;
+    }
+
+    /**
+     * @return The cached reading, or null if it is not cached (or cached as absent)
+     */
+    public HourlyReading getIfPresent(ReadingKey key) {
+        Entry entry = lookup(key);
+        return entry == null ? null : entry.reading;
+    }
+
+    /**
+     * Look up many readings at once. Keys cached as absent count as found but are not added.
+     * @param keys The readings' keys
+     * @param found Receives the cached readings
+     * @return The keys that are not cached; the caller fetches them and {@link #put}s the results
+     */
+    public List<ReadingKey> getAllPresent(Collection<ReadingKey> keys, Map<ReadingKey, HourlyReading> found) {
+        List<ReadingKey> missing = new ArrayList<>();
+        for (ReadingKey key : keys) {
+            Entry entry = lookup(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                missing.add(key);
+            } else {
+                hits.incrementAndGet();
+                if (entry.reading != null) {
+                    found.put(key, entry.reading);
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Cache a reading, e.g. one that was just written.
+     * @param key The reading's key
+     * @param reading The reading, or null to cache that there is none
+     */
+    public void put(ReadingKey key, HourlyReading reading) {
+        long size = ENTRY_OVERHEAD + key.stationId.length() * 2L;
+        Entry entry = new Entry(reading, expiry(), size);
+        synchronized (this) {
+            Entry old = entries.put(key, entry);
+            if (old != null) {
+                bytes -= old.bytes;
+            }
+            bytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Drop a reading, e.g. after it was changed.
+     */
+    public synchronized void invalidate(ReadingKey key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private synchronized Entry lookup(ReadingKey key) {
+        Entry entry = entries.get(key);
+        if (entry != null && clock.getAsLong() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            bytes -= entry.bytes;
+            expirations.incrementAndGet();
+            return null;
+        }
+        return entry;
+    }
+
+    private long expiry() {
+        return ttlNanos == Long.MAX_VALUE ? Long.MAX_VALUE : clock.getAsLong() + ttlNanos;
+    }
+
+    /**
+     * Remove least recently used entries until both limits hold. Caller holds the lock.
+     */
+    private void evict() {
+        Iterator<Map.Entry<ReadingKey, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static HourlyReading await(CompletableFuture<HourlyReading> fetch) throws Exception {
+        try {
+            return fetch.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new Exception("Reading fetch failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Estimated heap bytes of the cached readings
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Lookups that fetched the reading
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Lookups that waited for another caller's fetch of the same key
+     */
+    public long getCollapsed() {
+        return collapsed.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ReadingCache{size=" + size() + ", bytes=" + getBytes() + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", collapsed=" + getCollapsed() + ", evictions=" + getEvictions()
+                + ", expirations=" + getExpirations() + "}";
+    }
+}
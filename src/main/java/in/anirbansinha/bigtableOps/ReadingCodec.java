@@ -0,0 +1,56 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.util.List;
+
+/**
+ * Encodes the metrics of an hourly reading into cells and decodes them back.
+ * Every read and write of reading values goes through a codec, see {@link ReadingCodecs}
+ * for the available encodings.
+ */
+public interface ReadingCodec {
+
+    /** Returned by {@link #decode(Row, String, Metric)} when the metric is missing or undecodable. */
+    int MISSING = Integer.MIN_VALUE;
+
+    /**
+     * @return The name of the encoding, as used in the CELL_ENCODING setting
+     */
+    String name();
+
+    /**
+     * Add the cells of a reading to a mutation.
+     * @param entry The mutation of the reading's row
+     * @param family The column family
+     * @param values The metric values, indexed by {@link Metric#ordinal()}
+     * @return The bytes of the cells added: their qualifiers and values
+     */
+    int encode(RowMutationEntry entry, String family, int[] values);
+
+    /**
+     * Decode one metric of a row, using the latest version of its cell.
+     * @param row The row
+     * @param family The column family
+     * @param metric The metric to decode
+     * @return The value, or {@link #MISSING}
+     */
+    int decode(Row row, String family, Metric metric);
+
+    /**
+     * Decode every metric of a row.
+     * @param row The row
+     * @param family The column family
+     * @param values Receives the values, indexed by {@link Metric#ordinal()}; missing ones are left as they are
+     * @return A bit mask of the metrics found, bit {@code 1 << ordinal}
+     */
+    int decode(Row row, String family, int[] values);
+
+    /**
+     * @param metrics The metrics a query needs
+     * @return The column qualifiers holding those metrics
+     */
+    List<ByteString> qualifiers(Metric... metrics);
+}
@@ -0,0 +1,329 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The available reading encodings:
+ * <ul>
+ * <li>{@code string}: one column per metric holding the decimal text (the original format)</li>
+ * <li>{@code int}: one column per metric holding a 4-byte big-endian int</li>
+ * <li>{@code packed}: a single {@value #PACKED_QUALIFIER} column holding all five metrics as
+ * big-endian ints, in {@link Metric} order</li>
+ * </ul>
+ * With CELL_ENCODING_COMPAT enabled (the default), rows are written in the configured encoding
+ * but decoded from whichever of the encodings they were written in, so a table loaded with the
+ * string encoding keeps working while it is migrated.
+ */
+public final class ReadingCodecs {
+
+    public static final String STRING = "string";
+    public static final String INT = "int";
+    public static final String PACKED = "packed";
+
+    /** Column qualifier of the packed encoding. */
+    public static final String PACKED_QUALIFIER = "readings";
+    static final ByteString PACKED_QUALIFIER_BYTES = ByteString.copyFromUtf8(PACKED_QUALIFIER);
+
+    private ReadingCodecs() {
+    }
+
+    /**
+     * Create the codec configured by CELL_ENCODING and CELL_ENCODING_COMPAT in the .env file.
+     * @param dotenv The loaded .env configuration
+     * @return The codec
+     */
+    public static ReadingCodec fromEnv(Dotenv dotenv) {
+        ReadingCodec codec = forName(dotenv.get("CELL_ENCODING", STRING));
+        boolean compat = Boolean.parseBoolean(dotenv.get("CELL_ENCODING_COMPAT", "true"));
+        return compat ? new Compat(codec) : codec;
+    }
+
+    /**
+     * @param name string, int or packed
+     * @return The codec for the encoding
+     */
+    public static ReadingCodec forName(String name) {
+        switch (name.trim().toLowerCase()) {
+            case STRING:
+                return new StringCodec();
+            case INT:
+                return new IntCodec();
+            case PACKED:
+                return new PackedCodec();
+            default:
+                throw new IllegalArgumentException("Unknown cell encoding: " + name);
+        }
+    }
+
+    /**
+     * @return A codec that writes with {@code codec} and reads any encoding
+     */
+    public static ReadingCodec compat(ReadingCodec codec) {
+        return codec instanceof Compat ? codec : new Compat(codec);
+    }
+
+    /**
+     * Base for the encodings that store one column per metric.
+     */
+    private abstract static class PerColumnCodec implements ReadingCodec {
+
+        abstract ByteString encodeValue(int value);
+
+        abstract int decodeValue(ByteString value);
+
+        @Override
+        public int encode(RowMutationEntry entry, String family, int[] values) {
+            int bytes = 0;
+            for (Metric metric : Metric.values()) {
+                ByteString value = encodeValue(values[metric.ordinal()]);
+                entry.setCell(family, metric.qualifierBytes, value);
+                bytes += metric.qualifierBytes.size() + value.size();
+            }
+            return bytes;
+        }
+
+        @Override
+        public int decode(Row row, String family, Metric metric) {
+            List<RowCell> cells = row.getCells(family, metric.qualifierBytes);
+            return cells.isEmpty() ? MISSING : decodeValue(cells.get(0).getValue());
+        }
+
+        @Override
+        public int decode(Row row, String family, int[] values) {
+            int found = 0;
+            for (Metric metric : Metric.values()) {
+                int value = decode(row, family, metric);
+                if (value != MISSING) {
+                    values[metric.ordinal()] = value;
+                    found |= 1 << metric.ordinal();
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public List<ByteString> qualifiers(Metric... metrics) {
+            List<ByteString> qualifiers = new ArrayList<>(metrics.length);
+            for (Metric metric : metrics) {
+                qualifiers.add(metric.qualifierBytes);
+            }
+            return qualifiers;
+        }
+    }
+
+    static class StringCodec extends PerColumnCodec {
+        @Override
+        public String name() {
+            return STRING;
+        }
+
+        @Override
+        ByteString encodeValue(int value) {
+            return ByteString.copyFromUtf8(Integer.toString(value));
+        }
+
+        @Override
+        int decodeValue(ByteString value) {
+            return parseDecimal(value);
+        }
+    }
+
+    static class IntCodec extends PerColumnCodec {
+        @Override
+        public String name() {
+            return INT;
+        }
+
+        @Override
+        ByteString encodeValue(int value) {
+            byte[] bytes = new byte[4];
+            putInt(bytes, 0, value);
+            return ByteString.copyFrom(bytes);
+        }
+
+        @Override
+        int decodeValue(ByteString value) {
+            return value.size() == 4 ? getInt(value, 0) : MISSING;
+        }
+    }
+
+    static class PackedCodec implements ReadingCodec {
+        @Override
+        public String name() {
+            return PACKED;
+        }
+
+        @Override
+        public int encode(RowMutationEntry entry, String family, int[] values) {
+            byte[] bytes = new byte[4 * Metric.COUNT];
+            for (int i = 0; i < Metric.COUNT; i++) {
+                putInt(bytes, 4 * i, values[i]);
+            }
+            entry.setCell(family, PACKED_QUALIFIER_BYTES, ByteString.copyFrom(bytes));
+            return PACKED_QUALIFIER_BYTES.size() + bytes.length;
+        }
+
+        @Override
+        public int decode(Row row, String family, Metric metric) {
+            ByteString value = packedValue(row, family);
+            return value == null ? MISSING : getInt(value, 4 * metric.ordinal());
+        }
+
+        @Override
+        public int decode(Row row, String family, int[] values) {
+            ByteString value = packedValue(row, family);
+            if (value == null) {
+                return 0;
+            }
+            for (int i = 0; i < Metric.COUNT; i++) {
+                values[i] = getInt(value, 4 * i);
+            }
+            return (1 << Metric.COUNT) - 1;
+        }
+
+        @Override
+        public List<ByteString> qualifiers(Metric... metrics) {
+            List<ByteString> qualifiers = new ArrayList<>(1);
+            qualifiers.add(PACKED_QUALIFIER_BYTES);
+            return qualifiers;
+        }
+
+        private static ByteString packedValue(Row row, String family) {
+            List<RowCell> cells = row.getCells(family, PACKED_QUALIFIER_BYTES);
+            if (cells.isEmpty()) {
+                return null;
+            }
+            ByteString value = cells.get(0).getValue();
+            return value.size() == 4 * Metric.COUNT ? value : null;
+        }
+    }
+
+    /**
+     * Writes with the configured codec and reads every encoding: the packed column if the
+     * row has one, otherwise the per-metric columns. A per-metric value is an int if it is
+     * four bytes that do not start with a digit or '-' (sensor values are far below the
+     * 754,974,720 that such an int would need), and decimal text otherwise.
+     */
+    static class Compat implements ReadingCodec {
+        private final ReadingCodec writer;
+        private final PackedCodec packed = new PackedCodec();
+
+        Compat(ReadingCodec writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public String name() {
+            return writer.name();
+        }
+
+        @Override
+        public int encode(RowMutationEntry entry, String family, int[] values) {
+            return writer.encode(entry, family, values);
+        }
+
+        @Override
+        public int decode(Row row, String family, Metric metric) {
+            int value = packed.decode(row, family, metric);
+            if (value != MISSING) {
+                return value;
+            }
+            List<RowCell> cells = row.getCells(family, metric.qualifierBytes);
+            return cells.isEmpty() ? MISSING : decodeAny(cells.get(0).getValue());
+        }
+
+        @Override
+        public int decode(Row row, String family, int[] values) {
+            int found = packed.decode(row, family, values);
+            if (found != 0) {
+                return found;
+            }
+            for (Metric metric : Metric.values()) {
+                List<RowCell> cells = row.getCells(family, metric.qualifierBytes);
+                int value = cells.isEmpty() ? MISSING : decodeAny(cells.get(0).getValue());
+                if (value != MISSING) {
+                    values[metric.ordinal()] = value;
+                    found |= 1 << metric.ordinal();
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public List<ByteString> qualifiers(Metric... metrics) {
+            Set<ByteString> qualifiers = new LinkedHashSet<>();
+            qualifiers.add(PACKED_QUALIFIER_BYTES);
+            for (Metric metric : metrics) {
+                qualifiers.add(metric.qualifierBytes);
+            }
+            return new ArrayList<>(qualifiers);
+        }
+
+        private static int decodeAny(ByteString value) {
+            if (value.size() == 4) {
+                byte first = value.byteAt(0);
+                if (first != '-' && (first < '0' || first > '9')) {
+                    return getInt(value, 0);
+                }
+            }
+            return parseDecimal(value);
+        }
+    }
+
+    static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    static int getInt(ByteString bytes, int offset) {
+        return (bytes.byteAt(offset) & 0xff) << 24
+                | (bytes.byteAt(offset + 1) & 0xff) << 16
+                | (bytes.byteAt(offset + 2) & 0xff) << 8
+                | (bytes.byteAt(offset + 3) & 0xff);
+    }
+
+    /**
+     * Parse a decimal int written by the string encoding, ignoring surrounding whitespace.
+     * @return The value, or {@link ReadingCodec#MISSING} if it is not an int
+     */
+    static int parseDecimal(ByteString bytes) {
+        int start = 0;
+        int end = bytes.size();
+        while (start < end && (bytes.byteAt(start) & 0xff) <= ' ') {
+            start++;
+        }
+        while (end > start && (bytes.byteAt(end - 1) & 0xff) <= ' ') {
+            end--;
+        }
+        boolean negative = start < end && bytes.byteAt(start) == '-';
+        int i = negative || (start < end && bytes.byteAt(start) == '+') ? start + 1 : start;
+        if (i == end) {
+            return ReadingCodec.MISSING;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            byte b = bytes.byteAt(i);
+            if (b < '0' || b > '9') {
+                return ReadingCodec.MISSING;
+            }
+            value = value * 10 + (b - '0');
+            if (value > 1L + Integer.MAX_VALUE) {
+                return ReadingCodec.MISSING;
+            }
+        }
+        value = negative ? -value : value;
+        return value <= Integer.MIN_VALUE || value > Integer.MAX_VALUE ? ReadingCodec.MISSING : (int) value;
+    }
+}
@@ -0,0 +1,68 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.protobuf.ByteString;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Identifies one hourly reading: a station, a day and an hour.
+ */
+public final class ReadingKey {
+
+    public final String stationId;
+    public final LocalDate day;
+    public final int hour;
+
+    public ReadingKey(String stationId, LocalDate day, int hour) {
+        if (hour < 0 || hour > 23) {
+            throw new IllegalArgumentException("Hour must be between 0 and 23: " + hour);
+        }
+        this.stationId = stationId;
+        this.day = day;
+        this.hour = hour;
+    }
+
+    /**
+     * @return The key of a row, or null if the row key is not {@code station#yyyy-MM-dd#hour},
+     *         optionally after a bucket
+     */
+    public static ReadingKey fromRowKey(ByteString rowKey) {
+        String date = RowKeys.date(rowKey);
+        int hour = RowKeys.hour(rowKey);
+        if (date == null || hour < 0 || hour > 23) {
+            return null;
+        }
+        try {
+            return new ReadingKey(RowKeys.stationId(rowKey), LocalDate.parse(date), hour);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The row key of the reading in the plain layout, see {@link KeyLayout#rowKey(ReadingKey)}
+     */
+    public String rowKey() {
+        return RowKeys.rowKey(stationId, day, hour);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ReadingKey)) {
+            return false;
+        }
+        ReadingKey other = (ReadingKey) o;
+        return hour == other.hour && day.equals(other.day) && stationId.equals(other.stationId);
+    }
+
+    @Override
+    public int hashCode() {
+        return (stationId.hashCode() * 31 + day.hashCode()) * 31 + hour;
+    }
+
+    @Override
+    public String toString() {
+        return rowKey();
+    }
+}
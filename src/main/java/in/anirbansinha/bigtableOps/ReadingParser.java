@@ -0,0 +1,591 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.protobuf.ByteString;
+
+import org.slf4j.event.Level;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses station CSV lines straight from the bytes of the file.
+ * Fields are located in place and numbers are parsed from the bytes without creating
+ * Strings, split arrays or regular expressions; the only per-line allocation is the
+ * row key. Lines are accepted and rejected exactly as the former String based parser
+ * did ({@code String.split}, {@code trim}, {@code replaceAll} and
+ * {@code Integer.parseInt}/{@code Double.parseDouble}).
+ * An instance keeps the values of the last accepted line, so each thread needs its own.
+ */
+public class ReadingParser {
+
+    /** Returned by the field parsers for a missing or invalid value. */
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    // Skipped lines and values are reported a few times per interval, not for every line
+    private static final RateLimitedLogger LOG = new RateLimitedLogger(ReadingParser.class);
+
+    // CSV column of each field
+    private static final int DATE = 1;
+    private static final int TIME = 2;
+    private static final int TEMPERATURE = 3;
+    private static final int DEW_POINT = 4;
+    private static final int HUMIDITY = 5;
+    private static final int WIND_SPEED = 6;
+    private static final int PRESSURE = 8;
+    private static final int REQUIRED_FIELDS = 9;
+
+    // Field kinds for the numeric parser (range checks differ per field)
+    private static final int KIND_OTHER = 0;
+    private static final int KIND_HUMIDITY = 1;
+    private static final int KIND_PRESSURE = 2;
+
+    // Marker for the degree sign (UTF-8 C2 B0) in the cleaned value
+    private static final byte DEGREE = (byte) 0xB0;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // Trimmed bounds of the first REQUIRED_FIELDS fields of the current line
+    private final int[] fieldStart = new int[REQUIRED_FIELDS];
+    private final int[] fieldEnd = new int[REQUIRED_FIELDS];
+
+    // Reused buffers for the cleaned numeric value and the row key
+    private byte[] cleaned = new byte[32];
+    private byte[] key = new byte[64];
+
+    private byte[] line;
+    private int lineStart;
+    private int lineEnd;
+    private long lineNumber;
+
+    private int hourEnd;
+    private RejectReason rejectReason;
+    // Values of the last line, indexed by Metric ordinal
+    private final int[] values = new int[Metric.COUNT];
+
+    /**
+     * Parse one data line (without its line terminator).
+     * @param data Buffer holding the line
+     * @param start Offset of the first byte of the line
+     * @param end Offset just past the last byte of the line
+     * @param lineNumber The line number (for logging)
+     * @return true if the line holds a complete reading, false if it is skipped
+     */
+    public boolean parse(byte[] data, int start, int end, long lineNumber) {
+        this.line = data;
+        this.lineStart = start;
+        this.lineEnd = end;
+        this.lineNumber = lineNumber;
+
+        if (!tokenize()) {
+            if (LOG.permits(Level.WARN, "malformed line")) {
+                LOG.logger().warn("Skipping malformed line {}: {}", lineNumber, text(start, end));
+            }
+            rejectReason = RejectReason.MALFORMED_LINE;
+            return false;
+        }
+
+        // Hour is the part of the time before the first ':'
+        int timeStart = fieldStart[TIME];
+        int timeEnd = fieldEnd[TIME];
+        hourEnd = indexOf(data, timeStart, timeEnd, (byte) ':');
+        if (hourEnd < timeEnd && onlyColons(data, timeStart, timeEnd)) {
+            // Splitting "::" on ':' yields no parts at all
+            if (LOG.permits(Level.WARN, "bad time")) {
+                LOG.logger().warn("Skipping line {} due to parsing error: {}", lineNumber, text(start, end));
+            }
+            rejectReason = RejectReason.BAD_TIME;
+            return false;
+        }
+
+        // Parse numeric fields, handling 'M' for missing data
+        int temperature = parseTemperature(data, fieldStart[TEMPERATURE], fieldEnd[TEMPERATURE]);
+        int dewPoint = parseNumber(data, fieldStart[DEW_POINT], fieldEnd[DEW_POINT], "dewpoint", KIND_OTHER);
+        int humidity = parseNumber(data, fieldStart[HUMIDITY], fieldEnd[HUMIDITY], "humidity", KIND_HUMIDITY);
+        int windSpeed = parseNumber(data, fieldStart[WIND_SPEED], fieldEnd[WIND_SPEED], "wind speed", KIND_OTHER);
+        int pressure = parseNumber(data, fieldStart[PRESSURE], fieldEnd[PRESSURE], "pressure", KIND_PRESSURE);
+        values[Metric.TEMPERATURE.ordinal()] = temperature;
+        values[Metric.DEW_POINT.ordinal()] = dewPoint;
+        values[Metric.HUMIDITY.ordinal()] = humidity;
+        values[Metric.WIND_SPEED.ordinal()] = windSpeed;
+        values[Metric.PRESSURE.ordinal()] = pressure;
+
+        // Skip if any essential data is missing
+        if (temperature == MISSING || dewPoint == MISSING || humidity == MISSING
+                || windSpeed == MISSING || pressure == MISSING) {
+            LOG.info("missing data", "Skipping line {} due to missing data", lineNumber);
+            rejectReason = firstMissing();
+            return false;
+        }
+        rejectReason = null;
+        return true;
+    }
+
+    private RejectReason firstMissing() {
+        for (Metric metric : Metric.values()) {
+            if (values[metric.ordinal()] == MISSING) {
+                return RejectReason.invalid(metric);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Why the last line was rejected, or null if it was accepted
+     */
+    public RejectReason rejectReason() {
+        return rejectReason;
+    }
+
+    public int temperature() {
+        return values[Metric.TEMPERATURE.ordinal()];
+    }
+
+    public int dewPoint() {
+        return values[Metric.DEW_POINT.ordinal()];
+    }
+
+    public int humidity() {
+        return values[Metric.HUMIDITY.ordinal()];
+    }
+
+    public int windSpeed() {
+        return values[Metric.WIND_SPEED.ordinal()];
+    }
+
+    public int pressure() {
+        return values[Metric.PRESSURE.ordinal()];
+    }
+
+    /**
+     * @return The values of the last accepted line, indexed by {@link Metric#ordinal()}.
+     *         The array is reused by the next call to {@link #parse}.
+     */
+    public int[] values() {
+        return values;
+    }
+
+    /**
+     * Pack the date and hour of the last accepted line into {@code yyyymmddhh}.
+     * @return The packed hour, or -1 if the date is not yyyy-mm-dd or the hour is not 1-2 digits
+     */
+    public long hourKey() {
+        int key = dayKey();
+        if (key < 0) {
+            return -1;
+        }
+
+        int hourStart = fieldStart[TIME];
+        int hourLength = hourEnd - hourStart;
+        if (hourLength < 1 || hourLength > 2) {
+            return -1;
+        }
+        int hour = 0;
+        for (int i = hourStart; i < hourEnd; i++) {
+            byte b = line[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            hour = hour * 10 + (b - '0');
+        }
+        // "7" and "07" are different row keys, so only the canonical form is packed
+        if (hourLength == 2 && line[hourStart] == '0') {
+            return -1;
+        }
+        return key * 100L + hour;
+    }
+
+    /**
+     * Pack the date of the last accepted line into {@code yyyymmdd}.
+     * @return The packed day, or -1 if the date is not yyyy-mm-dd
+     */
+    public int dayKey() {
+        int d = fieldStart[DATE];
+        if (fieldEnd[DATE] - d != 10 || line[d + 4] != '-' || line[d + 7] != '-') {
+            return -1;
+        }
+        int key = 0;
+        for (int i = 0; i < 10; i++) {
+            if (i == 4 || i == 7) {
+                continue;
+            }
+            byte b = line[d + i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            key = key * 10 + (b - '0');
+        }
+        return key;
+    }
+
+    /**
+     * Build the row key {@code station#date#hour} of the last accepted line.
+     * @param stationPrefix The station ID followed by '#', as bytes, after the bucket in a
+     *                      bucketed {@link KeyLayout}
+     * @return The row key
+     */
+    public ByteString rowKey(byte[] stationPrefix) {
+        int dateStart = fieldStart[DATE];
+        int dateLength = fieldEnd[DATE] - dateStart;
+        int hourStart = fieldStart[TIME];
+        int hourLength = hourEnd - hourStart;
+        int length = stationPrefix.length + dateLength + 1 + hourLength;
+        if (key.length < length) {
+            key = new byte[length * 2];
+        }
+        System.arraycopy(stationPrefix, 0, key, 0, stationPrefix.length);
+        int pos = stationPrefix.length;
+        System.arraycopy(line, dateStart, key, pos, dateLength);
+        pos += dateLength;
+        key[pos++] = '#';
+        System.arraycopy(line, hourStart, key, pos, hourLength);
+        return ByteString.copyFrom(key, 0, length);
+    }
+
+    /**
+     * Find the end of the line starting at {@code pos}. Lines end with "\n", "\r\n" or "\r".
+     * @param data Buffer holding the lines
+     * @param pos Offset of the start of the line
+     * @param limit Offset just past the last byte of the buffer
+     * @return Offset of the line terminator, or limit if the line is not terminated
+     */
+    public static int lineEnd(byte[] data, int pos, int limit) {
+        while (pos < limit && data[pos] != '\n' && data[pos] != '\r') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * @param data Buffer holding the lines
+     * @param end Offset of a line terminator, as returned by {@link #lineEnd}
+     * @param limit Offset just past the last byte of the buffer
+     * @return Offset of the start of the next line
+     */
+    public static int nextLine(byte[] data, int end, int limit) {
+        if (end >= limit) {
+            return limit;
+        }
+        if (data[end] == '\r' && end + 1 < limit && data[end + 1] == '\n') {
+            return end + 2;
+        }
+        return end + 1;
+    }
+
+    /**
+     * Locate and trim the fields needed for a reading. Follows {@code String.split(",")},
+     * which drops trailing empty fields: the line is malformed unless a field at or after
+     * the last required column is non-empty.
+     */
+    private boolean tokenize() {
+        boolean complete = false;
+        int field = 0;
+        int start = lineStart;
+        for (int i = lineStart; i <= lineEnd; i++) {
+            if (i == lineEnd || line[i] == ',') {
+                if (field < REQUIRED_FIELDS) {
+                    int s = start;
+                    int e = i;
+                    while (s < e && (line[s] & 0xff) <= ' ') {
+                        s++;
+                    }
+                    while (e > s && (line[e - 1] & 0xff) <= ' ') {
+                        e--;
+                    }
+                    fieldStart[field] = s;
+                    fieldEnd[field] = e;
+                }
+                if (field >= REQUIRED_FIELDS - 1 && i > start) {
+                    complete = true;
+                }
+                field++;
+                start = i + 1;
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * Parse a temperature in Celsius, converting values marked with F from Fahrenheit.
+     */
+    private int parseTemperature(byte[] data, int start, int end) {
+        if (isMissing(data, start, end, "temperature")) {
+            return MISSING;
+        }
+
+        // Keep digits, '.', '-', '°' and the C/F unit letters
+        int length = 0;
+        boolean fahrenheit = false;
+        boolean celsiusMark = false;
+        ensureCleanedCapacity(end - start);
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            if ((b >= '0' && b <= '9') || b == '.' || b == '-') {
+                cleaned[length++] = b;
+            } else if (b == 'F' || b == 'f') {
+                fahrenheit = true;
+            } else if (b == 'C' || b == 'c') {
+                celsiusMark = true;
+            } else if (b == (byte) 0xC2 && i + 1 < end && data[i + 1] == DEGREE) {
+                celsiusMark = true;
+                i++;
+            }
+        }
+
+        if (fahrenheit) {
+            // The unit letters are stripped, but a leftover 'c' or '°' is not a number
+            double value = celsiusMark ? Double.NaN : parseDecimal(length);
+            if (Double.isNaN(value)) {
+                if (LOG.permits(Level.DEBUG, "unparseable value")) {
+                    LOG.logger().debug("Failed to parse Fahrenheit temperature: '{}' at line {}",
+                            text(start, end), lineNumber);
+                }
+                return MISSING;
+            }
+            // Convert Fahrenheit to Celsius
+            double celsius = (value - 32) * 5 / 9;
+            LOG.debug("fahrenheit", "Converted temperature from {}°F to {}°C at line {}", value, celsius, lineNumber);
+            return (int) Math.round(celsius);
+        }
+
+        if (!wellFormed(length)) {
+            if (LOG.permits(Level.DEBUG, "unparseable value")) {
+                LOG.logger().debug("Multiple decimal points or misplaced minus in temperature: '{}' at line {}",
+                        text(start, end), lineNumber);
+            }
+            return MISSING;
+        }
+
+        double value = parseCleaned(length);
+        if (Double.isNaN(value)) {
+            if (LOG.permits(Level.DEBUG, "unparseable value")) {
+                LOG.logger().debug("Failed to parse temperature: original='{}', cleaned='{}' at line {}",
+                        text(start, end), cleanedText(length), lineNumber);
+            }
+            return MISSING;
+        }
+
+        // Validate temperature range (-100°C to 60°C for more realistic range)
+        if (value < -100 || value > 60) {
+            LOG.debug("out of range", "Temperature out of realistic range [-100°C,60°C]: {}°C at line {}",
+                    value, lineNumber);
+            return MISSING;
+        }
+        return (int) Math.round(value);
+    }
+
+    /**
+     * Parse a numeric field other than the temperature.
+     */
+    private int parseNumber(byte[] data, int start, int end, String fieldName, int kind) {
+        if (isMissing(data, start, end, fieldName)) {
+            return MISSING;
+        }
+
+        // Keep digits, '.' and '-'
+        int length = 0;
+        ensureCleanedCapacity(end - start);
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            if ((b >= '0' && b <= '9') || b == '.' || b == '-') {
+                cleaned[length++] = b;
+            }
+        }
+
+        if (length == 0) {
+            if (LOG.permits(Level.DEBUG, "unparseable value")) {
+                LOG.logger().debug("Value became empty after cleaning: original='{}' for {} at line {}",
+                        text(start, end), fieldName, lineNumber);
+            }
+            return MISSING;
+        }
+        if (!wellFormed(length)) {
+            if (LOG.permits(Level.DEBUG, "unparseable value")) {
+                LOG.logger().debug("Multiple decimal points or misplaced minus in {}: '{}' at line {}",
+                        fieldName, text(start, end), lineNumber);
+            }
+            return MISSING;
+        }
+
+        double value = parseCleaned(length);
+        if (Double.isNaN(value)) {
+            if (LOG.permits(Level.DEBUG, "unparseable value")) {
+                LOG.logger().debug("Failed to parse {}: original='{}', cleaned='{}' at line {}",
+                        fieldName, text(start, end), cleanedText(length), lineNumber);
+            }
+            return MISSING;
+        }
+
+        // Check for reasonable value ranges for other fields
+        if (kind == KIND_HUMIDITY && (value < 0 || value > 100)) {
+            LOG.debug("out of range", "Humidity out of range [0,100]: {} at line {}", value, lineNumber);
+            return MISSING;
+        } else if (kind == KIND_PRESSURE && (value < 800 || value > 1100)) {
+            LOG.debug("out of range", "Pressure out of range [800,1100]: {} at line {}", value, lineNumber);
+            return MISSING;
+        }
+        return (int) Math.round(value);
+    }
+
+    /**
+     * Handle the markers for missing data: an empty value, 'M', or one of the
+     * special characters ; = ? @ B on its own.
+     */
+    private boolean isMissing(byte[] data, int start, int end, String fieldName) {
+        if (start == end) {
+            LOG.debug("missing value", "Missing {} value: empty at line {}", fieldName, lineNumber);
+            return true;
+        }
+        if (end - start == 1) {
+            byte b = data[start];
+            if (b == 'M') {
+                LOG.debug("missing value", "Missing {} value: M at line {}", fieldName, lineNumber);
+                return true;
+            }
+            if (b == ';' || b == '=' || b == '?' || b == '@' || b == 'B') {
+                LOG.debug("missing value", "Special character found in {} value: '{}' at line {}",
+                        fieldName, (char) b, lineNumber);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the cleaned value has several '.' or '-', or a '-' after the start
+     */
+    private boolean wellFormed(int length) {
+        int dots = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = cleaned[i];
+            if (b == '.') {
+                dots++;
+            } else if (b == '-' && i > 0) {
+                return false;
+            }
+        }
+        return dots <= 1;
+    }
+
+    /**
+     * Parse a well-formed cleaned value: as a double if it has a '.', otherwise as an int.
+     * @return The value, or NaN if it is not a number
+     */
+    private double parseCleaned(int length) {
+        for (int i = 0; i < length; i++) {
+            if (cleaned[i] == '.') {
+                return parseDecimal(length);
+            }
+        }
+        return parseInt(length);
+    }
+
+    /**
+     * Same result as {@code Integer.parseInt} on the cleaned value.
+     * @return The value, or NaN if it is empty, just a sign, or overflows an int
+     */
+    private double parseInt(int length) {
+        boolean negative = length > 0 && cleaned[0] == '-';
+        int i = negative ? 1 : 0;
+        if (i == length) {
+            return Double.NaN;
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            value = value * 10 + (cleaned[i] - '0');
+            if (value > 1L + Integer.MAX_VALUE) {
+                return Double.NaN;
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? Double.NaN : (double) value;
+    }
+
+    /**
+     * Same result as {@code Double.parseDouble} on a cleaned value made of digits, an
+     * optional leading '-' and an optional '.'. Values with up to 15 significant digits
+     * and 22 fraction digits are computed directly, which is exact because both the digits
+     * and the power of ten are representable doubles; longer ones fall back to the JDK.
+     * @return The value, or NaN if it is not a number
+     */
+    private double parseDecimal(int length) {
+        boolean negative = length > 0 && cleaned[0] == '-';
+        int i = negative ? 1 : 0;
+        long mantissa = 0;
+        int significantDigits = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+        for (; i < length; i++) {
+            byte b = cleaned[i];
+            if (b == '.') {
+                if (fraction) {
+                    return Double.NaN;
+                }
+                fraction = true;
+            } else if (b >= '0' && b <= '9') {
+                digits++;
+                if (fraction) {
+                    fractionDigits++;
+                }
+                if (mantissa != 0 || b != '0') {
+                    significantDigits++;
+                    if (significantDigits <= 18) {
+                        mantissa = mantissa * 10 + (b - '0');
+                    }
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (significantDigits > 15 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(new String(cleaned, 0, length, StandardCharsets.US_ASCII));
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private void ensureCleanedCapacity(int length) {
+        if (cleaned.length < length) {
+            cleaned = new byte[length * 2];
+        }
+    }
+
+    private static int indexOf(byte[] data, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean onlyColons(byte[] data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] != ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Part of the line for a log message, only decoded once the logger has let the message through.
+     */
+    private String text(int start, int end) {
+        return new String(line, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private String cleanedText(int length) {
+        return new String(cleaned, 0, length, StandardCharsets.US_ASCII);
+    }
+}
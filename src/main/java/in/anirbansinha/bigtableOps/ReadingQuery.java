@@ -0,0 +1,269 @@
+package in.anirbansinha.bigtableOps;
+
+import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
+
+import com.google.cloud.bigtable.data.v2.models.Filters;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Range.ByteStringRange;
+import com.google.protobuf.ByteString;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Builds the Bigtable {@link Query} for the readings of some stations over an hour range.
+ * Every query is narrowed on the server as far as the key layout allows:
+ * <ul>
+ * <li>whole days become one closed-open key range per station, partial days become point reads
+ * of their hours (hours are not zero padded, see {@link RowKeys}); in a bucketed
+ * {@link KeyLayout} the days of a station are one range per bucket;</li>
+ * <li>without stations the whole table is scanned with a row key regex on the dates;</li>
+ * <li>only the column family and the qualifiers holding the requested metrics are returned,
+ * and only the latest version of each cell.</li>
+ * </ul>
+ */
+public class ReadingQuery {
+
+    private final String tableId;
+    private final String family;
+    private final ReadingCodec codec;
+    private final KeyLayout layout;
+
+    private final List<String> stations = new ArrayList<>();
+    private Metric[] metrics = Metric.values();
+    private HourRange range;
+    private long limit;
+
+    /**
+     * @param tableId The readings table
+     * @param family The column family holding the readings
+     * @param codec The codec the rows are decoded with; decides which qualifiers are read
+     */
+    public ReadingQuery(String tableId, String family, ReadingCodec codec) {
+        this(tableId, family, codec, KeyLayout.plain());
+    }
+
+    /**
+     * @param layout The layout of the table's row keys
+     */
+    public ReadingQuery(String tableId, String family, ReadingCodec codec, KeyLayout layout) {
+        this.tableId = tableId;
+        this.family = family;
+        this.codec = codec;
+        this.layout = layout;
+    }
+
+    /**
+     * Restrict the query to the given stations. Without stations every station is read.
+     */
+    public ReadingQuery stations(String... stationIds) {
+        stations.addAll(Arrays.asList(stationIds));
+        return this;
+    }
+
+    /**
+     * Read only the given metrics. By default every metric is read.
+     */
+    public ReadingQuery metrics(Metric... metrics) {
+        if (metrics.length == 0) {
+            throw new IllegalArgumentException("No metrics");
+        }
+        this.metrics = EnumSet.copyOf(Arrays.asList(metrics)).toArray(new Metric[0]);
+        return this;
+    }
+
+    /**
+     * Read the hours of a range.
+     */
+    public ReadingQuery hours(HourRange range) {
+        this.range = range;
+        return this;
+    }
+
+    /**
+     * Read the hours from firstDay firstHour to lastDay lastHour, both inclusive.
+     */
+    public ReadingQuery hours(LocalDate firstDay, int firstHour, LocalDate lastDay, int lastHour) {
+        return hours(HourRange.of(firstDay, firstHour, lastDay, lastHour));
+    }
+
+    /**
+     * Read the hours of a single day, both inclusive.
+     */
+    public ReadingQuery hours(LocalDate day, int firstHour, int lastHour) {
+        return hours(HourRange.of(day, firstHour, day, lastHour));
+    }
+
+    /**
+     * Read every hour from firstDay to lastDay, both inclusive.
+     */
+    public ReadingQuery days(LocalDate firstDay, LocalDate lastDay) {
+        return hours(HourRange.days(firstDay, lastDay));
+    }
+
+    /**
+     * Return at most this many rows; 0 means no limit.
+     */
+    public ReadingQuery limit(long limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * @return The query
+     */
+    public Query build() {
+        return build(stations);
+    }
+
+    /**
+     * Build one query per station, to be scanned concurrently (see {@link ParallelScanner}).
+     * The limit applies to each query.
+     * @return The queries, in the order the stations were given
+     */
+    public List<Query> buildPerStation() {
+        if (stations.isEmpty()) {
+            throw new IllegalStateException("No stations set");
+        }
+        List<Query> queries = new ArrayList<>(stations.size());
+        for (String station : stations) {
+            queries.add(build(Collections.singletonList(station)));
+        }
+        return queries;
+    }
+
+    private Query build(List<String> stations) {
+        if (range == null) {
+            throw new IllegalStateException("No hour range set");
+        }
+        Query query = Query.create(tableId);
+        Filters.ChainFilter filter = FILTERS.chain();
+
+        if (stations.isEmpty()) {
+            // No station prefix to seek to: scan the table, matching the dates on the server
+            filter.filter(FILTERS.key().regex(dateRegex()));
+            query.range(ByteStringRange.unbounded());
+        } else {
+            for (String station : stations) {
+                addKeys(query, station);
+            }
+        }
+
+        query.filter(filter.filter(cellFilter()));
+
+        if (limit > 0) {
+            query.limit(limit);
+        }
+        return query;
+    }
+
+    /**
+     * @return The filter returning only the latest cell of the columns holding the requested
+     *         metrics; also usable on its own for single row reads
+     */
+    public Filters.Filter cellFilter() {
+        Filters.ChainFilter filter = FILTERS.chain().filter(FILTERS.family().exactMatch(family));
+        // Reading every metric needs every reading column; a qualifier filter would only cost time
+        if (metrics.length < Metric.COUNT) {
+            List<ByteString> columns = codec.qualifiers(metrics);
+            if (columns.size() == 1) {
+                filter.filter(FILTERS.qualifier().exactMatch(columns.get(0)));
+            } else {
+                Filters.InterleaveFilter qualifiers = FILTERS.interleave();
+                for (ByteString qualifier : columns) {
+                    qualifiers.filter(FILTERS.qualifier().exactMatch(qualifier));
+                }
+                filter.filter(qualifiers);
+            }
+        }
+        return filter.filter(FILTERS.limit().cellsPerColumn(1));
+    }
+
+    /**
+     * Add a station's rows: point reads for the hours of partial first and last days,
+     * one key range for the whole days in between.
+     */
+    private void addKeys(Query query, String station) {
+        LocalDate wholeFrom = range.firstDay;
+        LocalDate wholeTo = range.lastDay;
+
+        if (range.firstDay.equals(range.lastDay) && !range.isWholeDays()) {
+            addHours(query, station, range.firstDay, range.firstHour, range.lastHour);
+            return;
+        }
+        if (range.firstHour > 0) {
+            addHours(query, station, range.firstDay, range.firstHour, 23);
+            wholeFrom = range.firstDay.plusDays(1);
+        }
+        if (range.lastHour < 23) {
+            addHours(query, station, range.lastDay, 0, range.lastHour);
+            wholeTo = range.lastDay.minusDays(1);
+        }
+        if (!wholeTo.isBefore(wholeFrom)) {
+            for (ByteStringRange days : layout.dayRanges(station, wholeFrom, wholeTo)) {
+                query.range(days);
+            }
+        }
+    }
+
+    private void addHours(Query query, String station, LocalDate day, int from, int to) {
+        for (int hour = from; hour <= to; hour++) {
+            query.rowKey(layout.rowKey(station, day, hour));
+        }
+    }
+
+    /**
+     * @return A regex matching exactly the row keys of every station in the hour range:
+     *         the hours of partial first and last days, and whole days grouped by month
+     */
+    String dateRegex() {
+        List<String> parts = new ArrayList<>();
+        LocalDate wholeFrom = range.firstDay;
+        LocalDate wholeTo = range.lastDay;
+
+        if (range.firstDay.equals(range.lastDay) && !range.isWholeDays()) {
+            parts.add(range.firstDay + "#" + hourRegex(range.firstHour, range.lastHour));
+            wholeTo = wholeFrom.minusDays(1);
+        } else {
+            if (range.firstHour > 0) {
+                parts.add(range.firstDay + "#" + hourRegex(range.firstHour, 23));
+                wholeFrom = range.firstDay.plusDays(1);
+            }
+            if (range.lastHour < 23) {
+                parts.add(range.lastDay + "#" + hourRegex(0, range.lastHour));
+                wholeTo = range.lastDay.minusDays(1);
+            }
+        }
+
+        if (!wholeTo.isBefore(wholeFrom)) {
+            YearMonth lastMonth = YearMonth.from(wholeTo);
+            for (YearMonth month = YearMonth.from(wholeFrom); !month.isAfter(lastMonth); month = month.plusMonths(1)) {
+                int from = month.equals(YearMonth.from(wholeFrom)) ? wholeFrom.getDayOfMonth() : 1;
+                int to = month.equals(lastMonth) ? wholeTo.getDayOfMonth() : month.lengthOfMonth();
+                if (from == 1 && to == month.lengthOfMonth()) {
+                    parts.add(month + "-[0-9][0-9]#[0-9]+");
+                } else {
+                    List<String> days = new ArrayList<>();
+                    for (int day = from; day <= to; day++) {
+                        days.add(String.format("%02d", day));
+                    }
+                    parts.add(month + "-(" + String.join("|", days) + ")#[0-9]+");
+                }
+            }
+        }
+        return layout.regexPrefix() + "[^#]*#(" + String.join("|", parts) + ")";
+    }
+
+    private static String hourRegex(int from, int to) {
+        List<String> hours = new ArrayList<>();
+        for (int hour = from; hour <= to; hour++) {
+            hours.add(Integer.toString(hour));
+        }
+        return "(" + String.join("|", hours) + ")";
+    }
+}
@@ -0,0 +1,160 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.protobuf.ByteString;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the readings of a query as rows arrive, decoding each row into one reused
+ * {@link Reading} view, so a readout of any size runs in constant memory and without
+ * boxing. Rows are pulled from the server stream only as the caller consumes them, so a
+ * slow consumer holds back the server instead of buffering rows. Closing the stream
+ * before the end, e.g. after a {@code limit} or {@code findFirst}, cancels the read.
+ * <pre>
+ * try (ReadingStream readings = bigtable.streamReadings(query)) {
+ *     for (Reading reading : readings) { ... }
+ * }
+ * </pre>
+ */
+public class ReadingStream implements Iterable<Reading>, Iterator<Reading>, AutoCloseable {
+
+    /**
+     * The reused view of the current row.
+     */
+    private final class View implements Reading {
+        private final int[] values = new int[Metric.COUNT];
+        private ByteString rowKey;
+
+        @Override
+        public ByteString rowKey() {
+            return rowKey;
+        }
+
+        @Override
+        public ReadingKey key() {
+            return ReadingKey.fromRowKey(rowKey);
+        }
+
+        @Override
+        public int hour() {
+            return RowKeys.hour(rowKey);
+        }
+
+        @Override
+        public int value(Metric metric) {
+            return values[metric.ordinal()];
+        }
+
+        @Override
+        public HourlyReading copy() {
+            ReadingKey key = key();
+            return key == null ? null : new HourlyReading(key, values);
+        }
+
+        @Override
+        public String toString() {
+            return rowKey.toStringUtf8() + " " + Arrays.toString(values);
+        }
+    }
+
+    private final TableStore.Rows rows;
+    private final Iterator<Row> iterator;
+    private final String family;
+    private final ReadingCodec codec;
+    private final QueryTrace trace;
+    private final View view = new View();
+    private boolean closed;
+
+    /**
+     * @param rows The rows of a readings query
+     * @param family The column family holding the readings
+     * @param codec The codec the rows are decoded with
+     */
+    public ReadingStream(TableStore.Rows rows, String family, ReadingCodec codec) {
+        this(rows, family, codec, QueryTrace.NONE);
+    }
+
+    /**
+     * @param trace Counts the rows read; finished when the stream ends or is closed
+     */
+    public ReadingStream(TableStore.Rows rows, String family, ReadingCodec codec, QueryTrace trace) {
+        this.rows = rows;
+        this.iterator = rows.iterator();
+        this.family = family;
+        this.codec = codec;
+        this.trace = trace;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (iterator.hasNext()) {
+                return true;
+            }
+        } catch (RuntimeException e) {
+            trace.finish(e);
+            throw e;
+        }
+        trace.finish(null);
+        return false;
+    }
+
+    /**
+     * @return The next reading; the same view is returned for every row
+     */
+    @Override
+    public Reading next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Row row = iterator.next();
+        trace.row(row);
+        view.rowKey = row.getKey();
+        Arrays.fill(view.values, ReadingCodec.MISSING);
+        codec.decode(row, family, view.values);
+        return view;
+    }
+
+    /**
+     * @return This stream; it can be iterated once
+     */
+    @Override
+    public Iterator<Reading> iterator() {
+        return this;
+    }
+
+    @Override
+    public Spliterator<Reading> spliterator() {
+        return Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * @return A sequential stream of the readings that cancels the read when closed
+     */
+    public Stream<Reading> stream() {
+        return StreamSupport.stream(spliterator(), false).onClose(this::close);
+    }
+
+    /**
+     * Stop reading. Cancels the server stream if it has not been read to the end.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            // A no-op if the stream was read to the end
+            rows.cancel();
+            trace.finish(null);
+        }
+    }
+}
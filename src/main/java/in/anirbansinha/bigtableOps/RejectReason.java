@@ -0,0 +1,38 @@
+package in.anirbansinha.bigtableOps;
+
+/**
+ * Why a data line of a station file did not become a row.
+ */
+public enum RejectReason {
+    /** Fewer than the required fields. */
+    MALFORMED_LINE,
+    /** A time that is only colons. */
+    BAD_TIME,
+    INVALID_TEMPERATURE,
+    INVALID_DEW_POINT,
+    INVALID_HUMIDITY,
+    INVALID_WIND_SPEED,
+    INVALID_PRESSURE,
+    /** A later reading of an hour that already has one. */
+    DUPLICATE_HOUR;
+
+    public static final int COUNT = values().length;
+
+    /**
+     * @return The reason for a missing or invalid value of the metric
+     */
+    public static RejectReason invalid(Metric metric) {
+        switch (metric) {
+            case TEMPERATURE:
+                return INVALID_TEMPERATURE;
+            case DEW_POINT:
+                return INVALID_DEW_POINT;
+            case HUMIDITY:
+                return INVALID_HUMIDITY;
+            case WIND_SPEED:
+                return INVALID_WIND_SPEED;
+            default:
+                return INVALID_PRESSURE;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package in.anirbansinha.bigtableOps;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an hour range into the coarsest pieces the rollups can answer: whole months from
+ * the monthly table, remaining whole days from the daily table, and the hours of partial
+ * first and last days from the hourly rows.
+ */
+public final class RollupPlan {
+
+    /** Partial days, read from the hourly rows. */
+    public final List<HourRange> hours = new ArrayList<>();
+    /** Whole days outside whole months, read from the daily rollups. */
+    public final List<HourRange> days = new ArrayList<>();
+    /** Whole months, read from the monthly rollups; null if there are none. */
+    public final YearMonth firstMonth;
+    public final YearMonth lastMonth;
+
+    private RollupPlan(HourRange range) {
+        LocalDate wholeFrom = range.firstDay;
+        LocalDate wholeTo = range.lastDay;
+        if (range.firstDay.equals(range.lastDay) && !range.isWholeDays()) {
+            hours.add(range);
+            wholeTo = wholeFrom.minusDays(1);
+        } else {
+            if (range.firstHour > 0) {
+                hours.add(HourRange.of(range.firstDay, range.firstHour, range.firstDay, 23));
+                wholeFrom = range.firstDay.plusDays(1);
+            }
+            if (range.lastHour < 23) {
+                hours.add(HourRange.of(range.lastDay, 0, range.lastDay, range.lastHour));
+                wholeTo = range.lastDay.minusDays(1);
+            }
+        }
+
+        YearMonth first = null;
+        YearMonth last = null;
+        if (!wholeTo.isBefore(wholeFrom)) {
+            // The months that start and end inside [wholeFrom, wholeTo]
+            first = YearMonth.from(wholeFrom);
+            if (wholeFrom.getDayOfMonth() != 1) {
+                first = first.plusMonths(1);
+            }
+            last = YearMonth.from(wholeTo);
+            if (wholeTo.getDayOfMonth() != last.lengthOfMonth()) {
+                last = last.minusMonths(1);
+            }
+            if (last.isBefore(first)) {
+                days.add(HourRange.days(wholeFrom, wholeTo));
+                first = null;
+                last = null;
+            } else {
+                if (wholeFrom.isBefore(first.atDay(1))) {
+                    days.add(HourRange.days(wholeFrom, first.atDay(1).minusDays(1)));
+                }
+                if (wholeTo.isAfter(last.atEndOfMonth())) {
+                    days.add(HourRange.days(last.plusMonths(1).atDay(1), wholeTo));
+                }
+            }
+        }
+        this.firstMonth = first;
+        this.lastMonth = last;
+    }
+
+    /**
+     * @return The plan for reading a range
+     */
+    public static RollupPlan of(HourRange range) {
+        return new RollupPlan(range);
+    }
+}
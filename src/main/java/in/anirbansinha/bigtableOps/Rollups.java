@@ -0,0 +1,191 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Daily and monthly rollups of the hourly readings, built while loading and written to
+ * their own tables: {@code <table>_daily} keyed {@code station#yyyy-MM-dd} and
+ * {@code <table>_monthly} keyed {@code station#yyyy-MM}. Every rollup row has one cell per
+ * metric, in the readings' column family, holding the min and max (4-byte ints) and the sum
+ * and count (8-byte longs) of the metric's hourly values, big-endian.
+ */
+public class Rollups {
+
+    public static final String DAILY_SUFFIX = "_daily";
+    public static final String MONTHLY_SUFFIX = "_monthly";
+
+    /** Size of a rollup cell value. */
+    static final int CELL_BYTES = 24;
+
+    // Per metric: min, max, sum, count
+    private static final int STATS = 4;
+
+    /**
+     * @return The daily rollup table of a readings table
+     */
+    public static String dailyTable(String tableId) {
+        return tableId + DAILY_SUFFIX;
+    }
+
+    /**
+     * @return The monthly rollup table of a readings table
+     */
+    public static String monthlyTable(String tableId) {
+        return tableId + MONTHLY_SUFFIX;
+    }
+
+    /**
+     * The rollups of one station's file. Not thread safe: a file is parsed by one thread
+     * at a time, in line order.
+     */
+    public static class StationRollup {
+        private final String stationId;
+        private final Map<Integer, long[]> days = new HashMap<>();
+
+        StationRollup(String stationId) {
+            this.stationId = stationId;
+        }
+
+        /**
+         * Add a stored hourly reading.
+         * @param hourKey The reading's {@code yyyymmddhh}; readings without one are not rolled up
+         * @param values The reading's values, indexed by {@link Metric#ordinal()}
+         */
+        public void add(long hourKey, int[] values) {
+            add(hourKey, values, 0);
+        }
+
+        /**
+         * Add a stored hourly reading whose values start at {@code offset}.
+         */
+        public void add(long hourKey, int[] values, int offset) {
+            if (hourKey < 0) {
+                return;
+            }
+            long[] stats = days.computeIfAbsent((int) (hourKey / 100), day -> newStats());
+            for (int m = 0; m < Metric.COUNT; m++) {
+                int value = values[offset + m];
+                int i = m * STATS;
+                stats[i] = Math.min(stats[i], value);
+                stats[i + 1] = Math.max(stats[i + 1], value);
+                stats[i + 2] += value;
+                stats[i + 3]++;
+            }
+        }
+    }
+
+    private final ConcurrentLinkedQueue<StationRollup> files = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @return The rollup of a new station file
+     */
+    public StationRollup newStation(String stationId) {
+        StationRollup rollup = new StationRollup(stationId);
+        files.add(rollup);
+        return rollup;
+    }
+
+    /**
+     * Write the rollups of every file loaded so far. Files of the same station are combined.
+     * @param daily The loader of the daily table
+     * @param monthly The loader of the monthly table
+     * @param family The column family
+     * @return Number of daily rows written
+     */
+    public long write(BulkLoader daily, BulkLoader monthly, String family) {
+        Map<String, Map<Integer, long[]>> dayStats = new TreeMap<>();
+        for (StationRollup file : files) {
+            Map<Integer, long[]> stationDays = dayStats.computeIfAbsent(file.stationId, s -> new TreeMap<>());
+            for (Map.Entry<Integer, long[]> day : file.days.entrySet()) {
+                merge(stationDays.computeIfAbsent(day.getKey(), d -> newStats()), day.getValue());
+            }
+        }
+
+        long rows = 0;
+        for (Map.Entry<String, Map<Integer, long[]>> station : dayStats.entrySet()) {
+            Map<Integer, long[]> months = new TreeMap<>();
+            for (Map.Entry<Integer, long[]> day : station.getValue().entrySet()) {
+                int date = day.getKey();
+                add(daily, station.getKey() + RowKeys.SEPARATOR
+                        + String.format("%04d-%02d-%02d", date / 10000, date / 100 % 100, date % 100), family, day.getValue());
+                merge(months.computeIfAbsent(date / 100, m -> newStats()), day.getValue());
+                rows++;
+            }
+            for (Map.Entry<Integer, long[]> month : months.entrySet()) {
+                int yearMonth = month.getKey();
+                add(monthly, station.getKey() + RowKeys.SEPARATOR
+                        + String.format("%04d-%02d", yearMonth / 100, yearMonth % 100), family, month.getValue());
+            }
+        }
+        return rows;
+    }
+
+    private static void add(BulkLoader loader, String rowKey, String family, long[] stats) {
+        ByteString key = ByteString.copyFromUtf8(rowKey);
+        RowMutationEntry entry = RowMutationEntry.create(key);
+        long bytes = key.size();
+        for (Metric metric : Metric.values()) {
+            int i = metric.ordinal() * STATS;
+            ByteString value = encode(stats[i], stats[i + 1], stats[i + 2], stats[i + 3]);
+            entry.setCell(family, metric.qualifierBytes, value);
+            bytes += metric.qualifierBytes.size() + value.size();
+        }
+        loader.add(entry, bytes);
+    }
+
+    private static long[] newStats() {
+        long[] stats = new long[Metric.COUNT * STATS];
+        for (int m = 0; m < Metric.COUNT; m++) {
+            stats[m * STATS] = Integer.MAX_VALUE;
+            stats[m * STATS + 1] = Integer.MIN_VALUE;
+        }
+        return stats;
+    }
+
+    private static void merge(long[] into, long[] from) {
+        for (int i = 0; i < into.length; i += STATS) {
+            into[i] = Math.min(into[i], from[i]);
+            into[i + 1] = Math.max(into[i + 1], from[i + 1]);
+            into[i + 2] += from[i + 2];
+            into[i + 3] += from[i + 3];
+        }
+    }
+
+    static ByteString encode(long min, long max, long sum, long count) {
+        byte[] bytes = new byte[CELL_BYTES];
+        ReadingCodecs.putInt(bytes, 0, (int) min);
+        ReadingCodecs.putInt(bytes, 4, (int) max);
+        ReadingCodecs.putInt(bytes, 8, (int) (sum >>> 32));
+        ReadingCodecs.putInt(bytes, 12, (int) sum);
+        ReadingCodecs.putInt(bytes, 16, (int) (count >>> 32));
+        ReadingCodecs.putInt(bytes, 20, (int) count);
+        return ByteString.copyFrom(bytes);
+    }
+
+    /**
+     * Add a metric's rollup cell of a row to an accumulator.
+     * @return Whether the row had a valid cell for the metric
+     */
+    static boolean addTo(Row row, String family, Metric metric, MetricAccumulator values) {
+        List<RowCell> cells = row.getCells(family, metric.qualifierBytes);
+        if (cells.isEmpty() || cells.get(0).getValue().size() != CELL_BYTES) {
+            return false;
+        }
+        ByteString value = cells.get(0).getValue();
+        long sum = (long) ReadingCodecs.getInt(value, 8) << 32 | (ReadingCodecs.getInt(value, 12) & 0xffffffffL);
+        long count = (long) ReadingCodecs.getInt(value, 16) << 32 | (ReadingCodecs.getInt(value, 20) & 0xffffffffL);
+        if (count > 0) {
+            values.addSummary(ReadingCodecs.getInt(value, 0), ReadingCodecs.getInt(value, 4), sum, count);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,90 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.protobuf.ByteString;
+
+import java.time.LocalDate;
+
+/**
+ * Row keys of the readings table: {@code station#yyyy-MM-dd#hour}, one row per station and hour.
+ * Hours are written as in the source files, without zero padding ("0" to "23"), so the rows of a
+ * day sort as 0, 1, 10, 11, ..., 19, 2, 20, ..., 23, 3, ..., 9 and an hour range is not a key range.
+ * Whole days are, since every row of a day shares the {@code station#yyyy-MM-dd#} prefix.
+ * These are the logical keys; a {@link KeyLayout} may put a bucket in front of them, so keys
+ * are parsed from the end.
+ */
+public final class RowKeys {
+
+    public static final char SEPARATOR = '#';
+
+    private RowKeys() {
+    }
+
+    /**
+     * @return The key of a station's reading for one hour
+     */
+    public static String rowKey(String stationId, LocalDate day, int hour) {
+        return dayPrefix(stationId, day) + hour;
+    }
+
+    /**
+     * @return The prefix shared by every row of a station's day, including the trailing separator
+     */
+    public static String dayPrefix(String stationId, LocalDate day) {
+        return stationId + SEPARATOR + day + SEPARATOR;
+    }
+
+    /**
+     * @return The prefix shared by every row of a station, including the trailing separator
+     */
+    public static String stationPrefix(String stationId) {
+        return stationId + SEPARATOR;
+    }
+
+    /**
+     * @return The station of a row key
+     */
+    public static String stationId(ByteString rowKey) {
+        String key = rowKey.toStringUtf8();
+        int last = key.lastIndexOf(SEPARATOR);
+        int date = last <= 0 ? -1 : key.lastIndexOf(SEPARATOR, last - 1);
+        if (date < 0) {
+            int first = key.indexOf(SEPARATOR);
+            return first < 0 ? key : key.substring(0, first);
+        }
+        // Anything before the station is the bucket of the key layout
+        int bucket = date == 0 ? -1 : key.lastIndexOf(SEPARATOR, date - 1);
+        return key.substring(bucket + 1, date);
+    }
+
+    /**
+     * @return The date part of a row key, as written ("yyyy-MM-dd"), or null if the key is malformed
+     */
+    public static String date(ByteString rowKey) {
+        String key = rowKey.toStringUtf8();
+        int last = key.lastIndexOf(SEPARATOR);
+        int date = last <= 0 ? -1 : key.lastIndexOf(SEPARATOR, last - 1);
+        return date < 0 ? null : key.substring(date + 1, last);
+    }
+
+    /**
+     * @return The hour of a row key, or -1 if it is not a number
+     */
+    public static int hour(ByteString rowKey) {
+        int hour = 0;
+        int i = rowKey.size() - 1;
+        while (i >= 0 && rowKey.byteAt(i) != SEPARATOR) {
+            i--;
+        }
+        if (i < 0 || i == rowKey.size() - 1) {
+            return -1;
+        }
+        for (i++; i < rowKey.size(); i++) {
+            byte b = rowKey.byteAt(i);
+            if (b < '0' || b > '9' || hour > 100) {
+                return -1;
+            }
+            hour = hour * 10 + (b - '0');
+        }
+        return hour;
+    }
+}
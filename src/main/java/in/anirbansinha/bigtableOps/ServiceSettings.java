@@ -0,0 +1,69 @@
+package in.anirbansinha.bigtableOps;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Settings of the long-running {@link QueryService}.
+ * Values are read from the .env file, falling back to the defaults below.
+ */
+public class ServiceSettings {
+
+    public static final String DEFAULT_HOST = "127.0.0.1";
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 2048;
+    public static final long DEFAULT_BATCH_WINDOW_MICROS = 500;
+    public static final int DEFAULT_MAX_BATCH_KEYS = 200;
+    public static final int DEFAULT_MAX_READINGS_HOURS = 31 * 24;
+
+    /** Address the service listens on; the default only accepts local connections. */
+    public final String host;
+    /** Port the service listens on, or 0 for any free port. */
+    public final int port;
+    /**
+     * Threads that parse requests and write responses. Queries do not hold them while they
+     * wait for Bigtable, so a few are enough.
+     */
+    public final int threads;
+    /** Requests accepted at once; more are answered with 503 until some complete. */
+    public final int maxInFlight;
+    /**
+     * How long a point request waits for others to share its read, in microseconds;
+     * 0 reads every point request on its own.
+     */
+    public final long batchWindowMicros;
+    /** Keys after which a batch of point requests is read without waiting for the window. */
+    public final int maxBatchKeys;
+    /**
+     * Hours a /readings request may cover, so one request cannot hold a whole table in
+     * memory; longer ranges are answered with 400. 0 for no limit.
+     */
+    public final int maxReadingsHours;
+
+    public ServiceSettings(String host, int port, int threads, int maxInFlight, long batchWindowMicros,
+                           int maxBatchKeys, int maxReadingsHours) {
+        this.host = host;
+        this.port = port;
+        this.threads = threads;
+        this.maxInFlight = maxInFlight;
+        this.batchWindowMicros = batchWindowMicros;
+        this.maxBatchKeys = maxBatchKeys;
+        this.maxReadingsHours = maxReadingsHours;
+    }
+
+    /**
+     * Read the service settings from the .env file.
+     * @param dotenv The loaded .env configuration
+     * @return The settings, with defaults for any key that is not set
+     */
+    public static ServiceSettings fromEnv(Dotenv dotenv) {
+        return new ServiceSettings(
+                dotenv.get("SERVICE_HOST", DEFAULT_HOST),
+                Integer.parseInt(dotenv.get("SERVICE_PORT", String.valueOf(DEFAULT_PORT))),
+                Integer.parseInt(dotenv.get("SERVICE_THREADS", String.valueOf(DEFAULT_THREADS))),
+                Integer.parseInt(dotenv.get("SERVICE_MAX_IN_FLIGHT", String.valueOf(DEFAULT_MAX_IN_FLIGHT))),
+                Long.parseLong(dotenv.get("SERVICE_BATCH_WINDOW_US", String.valueOf(DEFAULT_BATCH_WINDOW_MICROS))),
+                Integer.parseInt(dotenv.get("SERVICE_MAX_BATCH_KEYS", String.valueOf(DEFAULT_MAX_BATCH_KEYS))),
+                Integer.parseInt(dotenv.get("SERVICE_MAX_READINGS_HOURS", String.valueOf(DEFAULT_MAX_READINGS_HOURS))));
+    }
+}
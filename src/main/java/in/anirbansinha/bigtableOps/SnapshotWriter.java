@@ -0,0 +1,196 @@
+package in.anirbansinha.bigtableOps;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects hourly readings and writes them as a {@link ColumnarSnapshot} file.
+ * Readings may be added in any order, e.g. as a bucketed table returns them; they are
+ * sorted by station and hour when written. Values are kept in primitive arrays, so the
+ * writer holds about as much memory as the file it writes. A later reading of an hour
+ * already added replaces it.
+ */
+public class SnapshotWriter {
+
+    /**
+     * The readings of one station, in the order they were added.
+     */
+    private static class StationColumns {
+        int rows;
+        int[] hours = new int[1024];
+        int[] values = new int[1024 * Metric.COUNT];
+
+        void add(int epochHour, Reading reading) {
+            if (rows == hours.length) {
+                hours = Arrays.copyOf(hours, rows * 2);
+                values = Arrays.copyOf(values, rows * 2 * Metric.COUNT);
+            }
+            hours[rows] = epochHour;
+            for (Metric metric : Metric.values()) {
+                values[rows * Metric.COUNT + metric.ordinal()] = reading.value(metric);
+            }
+            rows++;
+        }
+    }
+
+    private final Map<String, StationColumns> stations = new TreeMap<>();
+    private long skipped;
+
+    /**
+     * Add a reading.
+     * @param reading The reading; a streamed reading may be reused afterwards
+     * @return Whether it was added; readings whose row key has no station, day and hour are skipped
+     */
+    public boolean add(Reading reading) {
+        ReadingKey key = reading.key();
+        if (key == null) {
+            skipped++;
+            return false;
+        }
+        if (!stations.containsKey(key.stationId) && stations.size() == ColumnarSnapshot.MAX_STATIONS) {
+            throw new IllegalStateException("A snapshot holds at most " + ColumnarSnapshot.MAX_STATIONS
+                    + " stations");
+        }
+        long epochHour = key.day.toEpochDay() * 24 + key.hour;
+        stations.computeIfAbsent(key.stationId, s -> new StationColumns()).add(Math.toIntExact(epochHour), reading);
+        return true;
+    }
+
+    /**
+     * @return Number of readings skipped because of a malformed row key
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Write the snapshot, replacing the file if it exists.
+     * @param path The snapshot file
+     * @return Number of readings written
+     * @throws IOException if the file cannot be written
+     */
+    public int write(Path path) throws IOException {
+        // Sort every station's rows by hour, dropping all but the last reading of an hour
+        int[][] order = new int[stations.size()][];
+        int rows = 0;
+        int s = 0;
+        for (StationColumns station : stations.values()) {
+            order[s] = sortedRows(station);
+            rows += order[s].length;
+            s++;
+        }
+        int[] days = dayDictionary(order);
+        if (days.length > ColumnarSnapshot.MAX_DAYS) {
+            throw new IllegalStateException("A snapshot holds at most " + ColumnarSnapshot.MAX_DAYS + " days");
+        }
+
+        ColumnarSnapshot.Layout layout = new ColumnarSnapshot.Layout(stations.keySet(), days.length, rows);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, layout.size);
+            out.order(ByteOrder.LITTLE_ENDIAN);
+
+            out.put(ColumnarSnapshot.MAGIC);
+            out.putInt(ColumnarSnapshot.VERSION);
+            out.putInt(rows);
+            out.putInt(stations.size());
+            out.putInt(days.length);
+            out.putInt(Metric.COUNT);
+            for (Metric metric : Metric.values()) {
+                putString(out, metric.qualifier);
+            }
+            int rowStart = 0;
+            s = 0;
+            for (String stationId : stations.keySet()) {
+                putString(out, stationId);
+                out.putInt(rowStart);
+                out.putInt(order[s].length);
+                rowStart += order[s].length;
+                s++;
+            }
+            long[] missing = new long[Metric.COUNT];
+            for (StationColumns station : stations.values()) {
+                for (int i = 0; i < station.rows * Metric.COUNT; i++) {
+                    if (station.values[i] == ReadingCodec.MISSING) {
+                        missing[i % Metric.COUNT]++;
+                    }
+                }
+            }
+            for (long count : missing) {
+                out.putLong(count);
+            }
+            for (int day : days) {
+                out.putInt(day);
+            }
+
+            int row = 0;
+            s = 0;
+            for (StationColumns station : stations.values()) {
+                for (int i : order[s]) {
+                    int epochDay = Math.floorDiv(station.hours[i], 24);
+                    out.put(layout.stationColumn + row, (byte) s);
+                    out.putShort(layout.dayColumn + 2 * row, (short) Arrays.binarySearch(days, epochDay));
+                    out.put(layout.hourColumn + row, (byte) Math.floorMod(station.hours[i], 24));
+                    for (int m = 0; m < Metric.COUNT; m++) {
+                        out.putInt(layout.metricColumn(m) + 4 * row, station.values[i * Metric.COUNT + m]);
+                    }
+                    row++;
+                }
+                s++;
+            }
+            out.force();
+        }
+        return rows;
+    }
+
+    /**
+     * @return The station's row indexes sorted by hour, keeping the last row added of every hour
+     */
+    private static int[] sortedRows(StationColumns station) {
+        // Pack the hour above the index, so one primitive sort orders both
+        long[] keys = new long[station.rows];
+        for (int i = 0; i < station.rows; i++) {
+            keys[i] = (long) station.hours[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[station.rows];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i + 1 < keys.length && keys[i + 1] >>> 32 == keys[i] >>> 32) {
+                continue;
+            }
+            order[n++] = (int) keys[i];
+        }
+        return Arrays.copyOf(order, n);
+    }
+
+    private int[] dayDictionary(int[][] order) {
+        int[] days = new int[0];
+        int n = 0;
+        int s = 0;
+        for (StationColumns station : stations.values()) {
+            for (int i : order[s]) {
+                if (n == days.length) {
+                    days = Arrays.copyOf(days, Math.max(64, n * 2));
+                }
+                days[n++] = Math.floorDiv(station.hours[i], 24);
+            }
+            s++;
+        }
+        return Arrays.stream(days, 0, n).distinct().sorted().toArray();
+    }
+
+    private static void putString(MappedByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) bytes.length);
+        out.put(bytes);
+    }
+}
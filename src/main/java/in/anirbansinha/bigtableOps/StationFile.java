@@ -0,0 +1,19 @@
+package in.anirbansinha.bigtableOps;
+
+/**
+ * A station's CSV data file.
+ */
+public class StationFile {
+    public final String stationId;
+    public final String path;
+
+    public StationFile(String stationId, String path) {
+        this.stationId = stationId;
+        this.path = path;
+    }
+
+    @Override
+    public String toString() {
+        return stationId + " (" + path + ")";
+    }
+}
@@ -0,0 +1,69 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.protobuf.ByteString;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Row key layout of the readings table and how {@code createTable} pre-splits it.
+ * Values are read from the .env file, falling back to the defaults below.
+ */
+public class TableSettings {
+
+    public static final String DEFAULT_KEY_LAYOUT = KeyLayout.PLAIN;
+    public static final boolean DEFAULT_PRESPLIT = true;
+
+    /** Layout of the row keys, see {@link KeyLayout}. */
+    public final KeyLayout layout;
+    /** Whether a new readings table is pre-split at station (and month or bucket) boundaries. */
+    public final boolean presplit;
+    /** First month the plain layout is split at, or null to split at stations only. */
+    public final YearMonth splitFirstMonth;
+    /** Last month the plain layout is split at. */
+    public final YearMonth splitLastMonth;
+
+    public TableSettings(KeyLayout layout, boolean presplit, YearMonth splitFirstMonth, YearMonth splitLastMonth) {
+        if (splitFirstMonth != null && (splitLastMonth == null || splitLastMonth.isBefore(splitFirstMonth))) {
+            throw new IllegalArgumentException("Split months must be a range: "
+                    + splitFirstMonth + " to " + splitLastMonth);
+        }
+        this.layout = layout;
+        this.presplit = presplit;
+        this.splitFirstMonth = splitFirstMonth;
+        this.splitLastMonth = splitLastMonth;
+    }
+
+    /**
+     * Read the table settings from the .env file.
+     * @param dotenv The loaded .env configuration
+     * @return The settings, with defaults for any key that is not set
+     */
+    public static TableSettings fromEnv(Dotenv dotenv) {
+        return new TableSettings(
+                KeyLayout.forName(dotenv.get("KEY_LAYOUT", DEFAULT_KEY_LAYOUT),
+                        Integer.parseInt(dotenv.get("KEY_BUCKETS", String.valueOf(KeyLayout.DEFAULT_BUCKETS)))),
+                Boolean.parseBoolean(dotenv.get("TABLE_PRESPLIT", String.valueOf(DEFAULT_PRESPLIT))),
+                month(dotenv.get("TABLE_SPLIT_FIRST_MONTH", "")),
+                month(dotenv.get("TABLE_SPLIT_LAST_MONTH", "")));
+    }
+
+    private static YearMonth month(String value) {
+        return value.trim().isEmpty() ? null : YearMonth.parse(value.trim());
+    }
+
+    /**
+     * @param stations The stations the table will hold
+     * @return The keys to split a new readings table at; empty if pre-splitting is off
+     */
+    public List<ByteString> splits(Collection<String> stations) {
+        if (!presplit) {
+            return Collections.emptyList();
+        }
+        return layout.splits(stations, splitFirstMonth, splitLastMonth);
+    }
+}
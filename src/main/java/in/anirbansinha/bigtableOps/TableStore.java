@@ -0,0 +1,108 @@
+package in.anirbansinha.bigtableOps;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.cloud.bigtable.data.v2.models.Filters;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.util.List;
+
+/**
+ * The storage the loaders and queries run against: point reads, range scans, bulk
+ * mutations and table admin, in terms of the Bigtable client's models. Selected with
+ * STORAGE_BACKEND:
+ * <ul>
+ * <li>{@code bigtable}: a Bigtable instance or the emulator ({@link BigtableTableStore});</li>
+ * <li>{@code memory}: sorted maps in this process ({@link MemoryTableStore}), for tests,
+ * benchmarks without network noise, and as a local tier.</li>
+ * </ul>
+ * Implementations are thread safe.
+ */
+public interface TableStore extends AutoCloseable {
+
+    String BIGTABLE = "bigtable";
+    String MEMORY = "memory";
+
+    /**
+     * The rows of a scan, pulled as they are iterated.
+     */
+    interface Rows extends Iterable<Row> {
+        /**
+         * Stop the scan; a no-op if it was read to the end.
+         */
+        void cancel();
+    }
+
+    /**
+     * Writes row mutations in batches.
+     */
+    interface RowWriter {
+        /**
+         * Queue a mutation. May block while too many rows are in flight.
+         * @return Completes when the row is written, or fails with the row's error
+         */
+        ApiFuture<Void> add(RowMutationEntry entry);
+
+        /**
+         * Send all queued rows and wait until every outstanding row has completed.
+         */
+        void flush() throws InterruptedException;
+
+        /**
+         * Flush and release the writer. Failed rows do not throw here; they fail their futures.
+         */
+        void close() throws InterruptedException;
+    }
+
+    /**
+     * @return The row, with only the cells passing the filter, or null if there is none
+     */
+    Row readRow(String tableId, ByteString rowKey, Filters.Filter filter);
+
+    /**
+     * {@link #readRow} without blocking.
+     */
+    ApiFuture<Row> readRowAsync(String tableId, ByteString rowKey, Filters.Filter filter);
+
+    /**
+     * @return The rows of the query, in row key order
+     */
+    Rows readRows(Query query);
+
+    /**
+     * Stream the rows of a query, in row key order, to an observer.
+     */
+    void readRowsAsync(Query query, ResponseObserver<Row> observer);
+
+    /**
+     * Stream the rows of a query of row keys only, such as a batch of point lookups, as
+     * {@link #readRowsAsync}. Such a query is short, so a store may treat it like a point read.
+     */
+    default void lookupRowsAsync(Query query, ResponseObserver<Row> observer) {
+        readRowsAsync(query, observer);
+    }
+
+    /**
+     * @return A writer for a table; close it when done
+     */
+    RowWriter newBulkWriter(String tableId);
+
+    boolean exists(String tableId);
+
+    /**
+     * Create a table with one column family.
+     * @param splits Row keys to split the table at; a hint the store may ignore
+     */
+    void createTable(String tableId, String family, List<ByteString> splits);
+
+    /**
+     * @return Whether the table existed
+     */
+    boolean deleteTable(String tableId);
+
+    @Override
+    void close();
+}
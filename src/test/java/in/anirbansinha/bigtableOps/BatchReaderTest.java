@@ -0,0 +1,132 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.cloud.bigtable.data.v2.internal.RequestContext;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchReaderTest {
+
+    private static final RequestContext CONTEXT = RequestContext.create("p", "i", "");
+    private static final LocalDate DAY = LocalDate.of(2022, 10, 1);
+    private static final ReadingCodec CODEC = ReadingCodecs.forName(ReadingCodecs.INT);
+
+    /**
+     * Records the row keys of every lookup, and only starts them once {@code concurrent}
+     * lookups have been issued, so lookups issued one after another never complete.
+     */
+    private static class GatedStore extends MemoryTableStore {
+        final List<List<String>> lookups = new ArrayList<>();
+        final List<Runnable> held = new ArrayList<>();
+        volatile int concurrent;
+
+        @Override
+        public void lookupRowsAsync(Query query, ResponseObserver<Row> observer) {
+            List<String> keys = new ArrayList<>();
+            for (ByteString key : query.toProto(CONTEXT).getRows().getRowKeysList()) {
+                keys.add(key.toStringUtf8());
+            }
+            List<Runnable> ready = Collections.emptyList();
+            synchronized (this) {
+                lookups.add(keys);
+                held.add(() -> super.lookupRowsAsync(query, observer));
+                if (held.size() == concurrent) {
+                    ready = new ArrayList<>(held);
+                    held.clear();
+                }
+            }
+            ready.forEach(Runnable::run);
+        }
+    }
+
+    private final GatedStore store = new GatedStore();
+    private final Metrics metrics = new Metrics();
+
+    @Before
+    public void writeReadings() throws Exception {
+        store.createTable("weather", "sensor", Collections.emptyList());
+        TableStore.RowWriter writer = store.newBulkWriter("weather");
+        for (int hour = 0; hour < 7; hour++) {
+            RowMutationEntry entry = RowMutationEntry.create(KeyLayout.plain().rowKey(new ReadingKey("SEA", DAY, hour)));
+            CODEC.encode(entry, "sensor", new int[] { 10 + hour, 5, 80, 3, 1013 });
+            writer.add(entry);
+        }
+        writer.flush();
+    }
+
+    private BatchReader reader(int batchKeys) {
+        return new BatchReader(store, "weather", "sensor", CODEC, KeyLayout.plain(), batchKeys);
+    }
+
+    @Test
+    public void keysAreReadInConcurrentBatches() throws Exception {
+        List<ReadingKey> keys = new ArrayList<>();
+        // Hours 0 to 8 backwards, the last two without a row, and two of them twice
+        for (int hour = 8; hour >= 0; hour--) {
+            keys.add(new ReadingKey("SEA", DAY, hour));
+        }
+        keys.add(new ReadingKey("SEA", DAY, 3));
+        keys.add(new ReadingKey("SEA", DAY, 8));
+
+        store.concurrent = 3;
+        QueryTrace trace = metrics.query("batch").start();
+        Map<ReadingKey, HourlyReading> readings = reader(3).readAsync(keys, trace).get(10, TimeUnit.SECONDS);
+        trace.finish(null);
+
+        // Nine distinct keys in batches of three, in row key order
+        assertEquals(3, store.lookups.size());
+        List<String> looked = new ArrayList<>();
+        for (List<String> lookup : store.lookups) {
+            assertEquals(3, lookup.size());
+            looked.addAll(lookup);
+        }
+        assertEquals(9, looked.size());
+        assertEquals(sorted(looked), looked);
+
+        // Missing keys are left out
+        assertEquals(7, readings.size());
+        for (int hour = 0; hour < 7; hour++) {
+            assertEquals(10 + hour, readings.get(new ReadingKey("SEA", DAY, hour)).value(Metric.TEMPERATURE));
+        }
+        assertFalse(readings.containsKey(new ReadingKey("SEA", DAY, 7)));
+        assertEquals(7L, metrics.snapshot().get("query.batch.rowsScanned"));
+    }
+
+    @Test
+    public void blockingReadMatchesTheAsyncOne() throws Exception {
+        store.concurrent = 1;
+        List<ReadingKey> keys = Arrays.asList(new ReadingKey("SEA", DAY, 2), new ReadingKey("SEA", DAY, 2),
+                new ReadingKey("YVR", DAY, 2));
+        Map<ReadingKey, HourlyReading> readings = reader(100).read(keys, QueryTrace.NONE);
+        assertEquals(1, store.lookups.size());
+        assertEquals(2, store.lookups.get(0).size());
+        assertEquals(Collections.singleton(new ReadingKey("SEA", DAY, 2)), readings.keySet());
+
+        // No keys, no lookups
+        assertTrue(reader(100).read(Collections.emptyList(), QueryTrace.NONE).isEmpty());
+        assertEquals(1, store.lookups.size());
+    }
+
+    private static List<String> sorted(List<String> keys) {
+        List<String> sorted = new ArrayList<>(keys);
+        Collections.sort(sorted);
+        return sorted;
+    }
+}
@@ -0,0 +1,152 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ColumnarSnapshotTest {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2021, 1, 1);
+    private static final int DAYS = 800;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aggregatesLikeTheHourlyReadings() throws IOException {
+        List<HourlyReading> readings = readings();
+        List<HourlyReading> shuffled = new ArrayList<>(readings);
+        Collections.shuffle(shuffled, new Random(7));
+        SnapshotWriter writer = new SnapshotWriter();
+        for (HourlyReading reading : shuffled) {
+            assertTrue(writer.add(reading));
+        }
+        Path path = folder.getRoot().toPath().resolve("readings.snapshot");
+        assertEquals(readings.size(), writer.write(path));
+
+        ColumnarSnapshot snapshot = ColumnarSnapshot.open(path);
+        assertEquals(readings.size(), snapshot.rows());
+        assertEquals(Arrays.asList("PDX", "SEA", "YVR"), new ArrayList<>(snapshot.stations()));
+        assertEquals(FIRST_DAY, snapshot.firstDay());
+
+        List<HourRange> ranges = Arrays.asList(
+                HourRange.days(FIRST_DAY, FIRST_DAY.plusDays(DAYS)),
+                HourRange.days(LocalDate.of(2022, 9, 1), LocalDate.of(2022, 9, 30)),
+                HourRange.of(LocalDate.of(2021, 3, 4), 7, LocalDate.of(2021, 3, 4), 9),
+                // Starts and ends on days without readings
+                HourRange.of(LocalDate.of(2021, 2, 10), 5, LocalDate.of(2021, 2, 20), 3),
+                HourRange.days(LocalDate.of(2019, 1, 1), LocalDate.of(2019, 12, 31)));
+        List<Collection<String>> stations = Arrays.asList(
+                Collections.emptyList(), Collections.singletonList("SEA"), Arrays.asList("PDX", "YVR", "XXX"));
+        for (HourRange range : ranges) {
+            for (Collection<String> stationIds : stations) {
+                for (Metric metric : Metric.values()) {
+                    MetricAccumulator expected = expected(readings, stationIds, range, metric);
+                    String what = stationIds + " " + range.firstDay + " " + range.lastDay + " " + metric;
+                    for (Aggregate aggregate : Arrays.asList(Aggregate.MIN, Aggregate.MAX, Aggregate.SUM,
+                            Aggregate.COUNT, Aggregate.AVG, Aggregate.P95)) {
+                        assertEquals(what + " " + aggregate, aggregate.apply(expected),
+                                snapshot.aggregate(stationIds, range, metric, aggregate), 1e-9);
+                    }
+                    assertEquals(what, expected.missing(), snapshot.summarize(stationIds, range, metric).missing());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keepsTheLastReadingOfAnHour() throws IOException {
+        SnapshotWriter writer = new SnapshotWriter();
+        LocalDate day = LocalDate.of(2022, 10, 2);
+        writer.add(new HourlyReading(new ReadingKey("SEA", day, 10), new int[] { 50, 40, 60, 5, 1013 }));
+        writer.add(new HourlyReading(new ReadingKey("SEA", day, 10), new int[] { 52, 40, 60, 5, 1013 }));
+        writer.add(new HourlyReading(new ReadingKey("SEA", day, 9), new int[] { 48, 40, 60, 5, 1013 }));
+        Path path = folder.getRoot().toPath().resolve("readings.snapshot");
+        assertEquals(2, writer.write(path));
+
+        ColumnarSnapshot snapshot = ColumnarSnapshot.open(path);
+        assertEquals(52, snapshot.aggregate(Collections.emptyList(), HourRange.of(day, 10, day, 10),
+                Metric.TEMPERATURE, Aggregate.MAX), 0);
+        assertEquals(100, snapshot.aggregate(Collections.emptyList(), HourRange.days(day, day),
+                Metric.TEMPERATURE, Aggregate.SUM), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATruncatedFile() throws IOException {
+        SnapshotWriter writer = new SnapshotWriter();
+        for (HourlyReading reading : readings()) {
+            writer.add(reading);
+        }
+        File file = folder.newFile("readings.snapshot");
+        writer.write(file.toPath());
+        try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+            data.setLength(data.length() / 2);
+        }
+        ColumnarSnapshot.open(file.toPath());
+    }
+
+    @Test
+    public void emptySnapshot() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("empty.snapshot");
+        assertEquals(0, new SnapshotWriter().write(path));
+        ColumnarSnapshot snapshot = ColumnarSnapshot.open(path);
+        assertFalse(snapshot.stations().iterator().hasNext());
+        assertEquals(0, snapshot.aggregate(Collections.emptyList(), HourRange.days(FIRST_DAY, FIRST_DAY),
+                Metric.TEMPERATURE, Aggregate.COUNT), 0);
+    }
+
+    /**
+     * Hourly readings of three stations over {@value #DAYS} days, more than a scan chunk per
+     * station, leaving out some days and some humidity values.
+     */
+    private static List<HourlyReading> readings() {
+        Random random = new Random(42);
+        List<HourlyReading> readings = new ArrayList<>();
+        for (String station : Arrays.asList("SEA", "YVR", "PDX")) {
+            for (int d = 0; d < DAYS; d++) {
+                LocalDate day = FIRST_DAY.plusDays(d);
+                if (day.getMonthValue() == 2 && day.getDayOfMonth() >= 10 && day.getDayOfMonth() <= 20) {
+                    continue;
+                }
+                for (int hour = 0; hour < 24; hour++) {
+                    int humidity = random.nextInt(50) == 0 ? ReadingCodec.MISSING : 30 + random.nextInt(70);
+                    readings.add(new HourlyReading(new ReadingKey(station, day, hour), new int[] {
+                            random.nextInt(100) - 20, random.nextInt(60) - 10, humidity,
+                            random.nextInt(30), 980 + random.nextInt(60) }));
+                }
+            }
+        }
+        return readings;
+    }
+
+    private static MetricAccumulator expected(List<HourlyReading> readings, Collection<String> stations,
+                                              HourRange range, Metric metric) {
+        MetricAccumulator values = new MetricAccumulator();
+        for (HourlyReading reading : readings) {
+            ReadingKey key = reading.key();
+            long hour = key.day.toEpochDay() * 24 + key.hour;
+            if ((stations.isEmpty() || stations.contains(key.stationId))
+                    && hour >= range.firstDay.toEpochDay() * 24 + range.firstHour
+                    && hour <= range.lastDay.toEpochDay() * 24 + range.lastHour) {
+                values.add(reading.value(metric));
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,103 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class FanOutExecutorTest {
+
+    @Test
+    public void limitsBlockingTasks() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        try (FanOutExecutor fanOut = new FanOutExecutor(3, true)) {
+            List<CompletableFuture<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                int n = i;
+                results.add(fanOut.submit(() -> {
+                    peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return n;
+                }));
+            }
+            List<Integer> values = FanOutExecutor.allOf(results).get(10, TimeUnit.SECONDS);
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i, (int) values.get(i));
+            }
+        }
+        assertTrue("peak " + peak.get(), peak.get() <= 3);
+    }
+
+    @Test
+    public void asyncTasksHoldTheirPermitUntilDone() throws Exception {
+        try (FanOutExecutor fanOut = new FanOutExecutor(2, false)) {
+            List<CompletableFuture<String>> pending = new ArrayList<>();
+            List<FanOutExecutor.AsyncTask<String>> tasks = new ArrayList<>();
+            AtomicInteger started = new AtomicInteger();
+            for (int i = 0; i < 4; i++) {
+                CompletableFuture<String> future = new CompletableFuture<>();
+                pending.add(future);
+                tasks.add(() -> {
+                    started.incrementAndGet();
+                    return future;
+                });
+            }
+            CompletableFuture<List<String>> all = fanOut.submitAllAsync(tasks);
+
+            waitFor(() -> started.get() == 2);
+            Thread.sleep(20);
+            assertEquals(2, started.get());
+            assertEquals(2, fanOut.getActive());
+
+            for (int i = 0; i < 4; i++) {
+                int n = i;
+                waitFor(() -> started.get() > n);
+                pending.get(i).complete("r" + i);
+            }
+            assertEquals(List.of("r0", "r1", "r2", "r3"), all.get(10, TimeUnit.SECONDS));
+            waitFor(() -> fanOut.getActive() == 0);
+        }
+    }
+
+    @Test
+    public void failsWithTheFirstError() throws Exception {
+        IllegalStateException boom = new IllegalStateException("boom");
+        try (FanOutExecutor fanOut = new FanOutExecutor(4, true)) {
+            List<FanOutExecutor.AsyncTask<Integer>> tasks = new ArrayList<>();
+            tasks.add(() -> CompletableFuture.completedFuture(1));
+            tasks.add(() -> {
+                throw boom;
+            });
+            tasks.add(CompletableFuture::new);
+            try {
+                fanOut.submitAllAsync(tasks).get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertSame(boom, e.getCause());
+            }
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.holds()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.bigtable.data.v2.models.Filters;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class HedgingTableStoreTest {
+
+    /**
+     * Never answers the first {@code stallFirst} reads, and fails the first if {@code failFirst}.
+     */
+    private static class StallingStore extends MemoryTableStore {
+        final AtomicInteger reads = new AtomicInteger();
+        final List<SettableApiFuture<Row>> stalledReads = new ArrayList<>();
+        volatile int stallFirst;
+        volatile boolean failFirst;
+
+        @Override
+        public ApiFuture<Row> readRowAsync(String tableId, ByteString rowKey, Filters.Filter filter) {
+            int read = reads.incrementAndGet();
+            if (read == 1 && failFirst) {
+                return ApiFutures.immediateFailedFuture(new IllegalStateException("unavailable"));
+            }
+            if (read <= stallFirst) {
+                SettableApiFuture<Row> stalled = SettableApiFuture.create();
+                synchronized (stalledReads) {
+                    stalledReads.add(stalled);
+                }
+                return stalled;
+            }
+            return super.readRowAsync(tableId, rowKey, filter);
+        }
+
+        @Override
+        public void readRowsAsync(Query query, ResponseObserver<Row> observer) {
+            if (reads.incrementAndGet() <= stallFirst) {
+                observer.onStart(new StreamController() {
+                    @Override
+                    public void cancel() {
+                    }
+
+                    @Override
+                    public void disableAutoInboundFlowControl() {
+                    }
+
+                    @Override
+                    public void request(int count) {
+                    }
+                });
+                return;
+            }
+            super.readRowsAsync(query, observer);
+        }
+    }
+
+    private final StallingStore backend = new StallingStore();
+    private HedgingTableStore store;
+
+    private void open(long hedgeDelayMs, double budgetPercent) throws Exception {
+        backend.createTable("t", "f", Collections.emptyList());
+        TableStore.RowWriter writer = backend.newBulkWriter("t");
+        for (String key : new String[] { "a", "b", "c" }) {
+            writer.add(RowMutationEntry.create(key).setCell("f", "q", 1, key)).get();
+        }
+        ReadSettings settings = new ReadSettings(200, 64, false, 2000, 10000, 0, 4, 10, 1000,
+                true, 95, 1, hedgeDelayMs, budgetPercent);
+        store = new HedgingTableStore(backend, settings);
+    }
+
+    @After
+    public void close() {
+        store.close();
+    }
+
+    @Test
+    public void aStalledReadIsAnsweredByItsHedge() throws Exception {
+        open(20, 5);
+        backend.stallFirst = 1;
+
+        Row row = store.readRow("t", ByteString.copyFromUtf8("a"), null);
+        assertNotNull(row);
+        assertEquals(1, store.getHedges());
+        assertEquals(1, store.getHedgeWins());
+        // The stalled read is cancelled
+        assertTrue(backend.stalledReads.get(0).isCancelled());
+    }
+
+    @Test
+    public void hedgesAreLimitedByTheBudget() throws Exception {
+        open(5, 0);
+        backend.stallFirst = 100;
+
+        List<ApiFuture<Row>> reads = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            reads.add(store.readRowAsync("t", ByteString.copyFromUtf8("a"), null));
+        }
+        // The burst allows 10 hedges; they stall as well, the rest is throttled
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.getHedges() + store.getThrottled() < 15 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(10, store.getHedges());
+        assertEquals(5, store.getThrottled());
+        for (ApiFuture<Row> read : reads) {
+            read.cancel(true);
+        }
+    }
+
+    @Test
+    public void aFailedReadIsNotHedged() throws Exception {
+        open(20, 5);
+        backend.failFirst = true;
+
+        try {
+            store.readRow("t", ByteString.copyFromUtf8("a"), null);
+            fail("Expected the read to fail");
+        } catch (IllegalStateException e) {
+            assertEquals("unavailable", e.getMessage());
+        }
+        Thread.sleep(50);
+        assertEquals(0, store.getHedges());
+    }
+
+    @Test
+    public void keyLookupsAreHedged() throws Exception {
+        open(20, 5);
+        backend.stallFirst = 1;
+
+        Query lookup = Query.create("t").rowKey("a").rowKey("c");
+        assertEquals(2, new ParallelScanner(store).lookup(Collections.singletonList(lookup), new CountRows())[0]);
+        assertEquals(1, store.getReads());
+        assertEquals(1, store.getHedgeWins());
+
+        // The same query as a scan is passed through
+        assertEquals(2, new ParallelScanner(store).scan(Collections.singletonList(lookup), new CountRows())[0]);
+        assertEquals(1, store.getReads());
+    }
+
+    private static class CountRows implements ParallelScanner.RowAggregator<long[]> {
+        @Override
+        public long[] create() {
+            return new long[1];
+        }
+
+        @Override
+        public void accept(long[] count, Row row) {
+            count[0]++;
+        }
+
+        @Override
+        public long[] merge(long[] left, long[] right) {
+            left[0] += right[0];
+            return left;
+        }
+    }
+}
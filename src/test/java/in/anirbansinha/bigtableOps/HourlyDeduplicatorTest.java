@@ -0,0 +1,65 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class HourlyDeduplicatorTest {
+
+    @Test
+    public void keepsFirstReadingOfEachHour() {
+        HourlyDeduplicator hours = new HourlyDeduplicator();
+        assertTrue(hours.isFirst(2022100210L, null));
+        assertTrue(hours.isFirst(2022100211L, null));
+        assertFalse(hours.isFirst(2022100210L, null));
+        assertTrue(hours.isFirst(-1, ByteString.copyFromUtf8("SEA#02/10/2022#10")));
+        assertFalse(hours.isFirst(-1, ByteString.copyFromUtf8("SEA#02/10/2022#10")));
+        assertEquals(2, hours.getSuppressed());
+    }
+
+    @Test
+    public void suppressesHoursAlreadyLoaded() {
+        HourlyDeduplicator hours = new HourlyDeduplicator(2022100210L);
+        assertFalse(hours.isFirst(2022100209L, null));
+        assertFalse(hours.isFirst(2022100210L, null));
+        assertTrue(hours.isFirst(2022100211L, null));
+        assertTrue(hours.isFirst(-1, ByteString.copyFromUtf8("SEA#02/10/2022#10")));
+        assertEquals(2, hours.getSuppressed());
+    }
+
+    @Test
+    public void setGrowsPastInitialCapacity() {
+        LongHashSet set = new LongHashSet(4);
+        for (long i = 0; i < 100_000; i++) {
+            assertTrue(set.add(i * 31));
+        }
+        for (long i = 0; i < 100_000; i++) {
+            assertFalse(set.add(i * 31));
+            assertTrue(set.contains(i * 31));
+        }
+        assertFalse(set.contains(1));
+        assertEquals(100_000, set.size());
+    }
+
+    @Test
+    public void packsDateAndHour() {
+        assertEquals(2022100207L, hourKey("2459492.87,2022-10-02,7:53,60,49,66.9,6,M,1013.6"));
+        assertEquals(2022100223L, hourKey("2459492.87, 2022-10-02 ,23:00,60,49,66.9,6,M,1013.6"));
+        // Not packable: zero-padded hour, other date formats
+        assertEquals(-1, hourKey("2459492.87,2022-10-02,07:53,60,49,66.9,6,M,1013.6"));
+        assertEquals(-1, hourKey("2459492.87,10/02/2022,7:53,60,49,66.9,6,M,1013.6"));
+    }
+
+    private static long hourKey(String line) {
+        byte[] data = line.getBytes(StandardCharsets.UTF_8);
+        ReadingParser parser = new ReadingParser();
+        assertTrue(parser.parse(data, 0, data.length, 3));
+        return parser.hourKey();
+    }
+}
@@ -0,0 +1,107 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IngestPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final ReadingCodec CODEC = ReadingCodecs.forName(ReadingCodecs.INT);
+
+    private final MemoryTableStore store = new MemoryTableStore();
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * Run a pipeline over the files with tiny blocks and queues, so lines straddle reads and
+     * every stage waits on the next.
+     */
+    private IngestPipeline run(List<LoadCheckpoints.FileProgress> files) throws Exception {
+        PipelineSettings settings = new PipelineSettings(PipelineSettings.MODE_PIPELINE, 2, 2, 3, 2, 3, 16, 0, 0, "", 0);
+        BulkLoader loader = new BulkLoader(store, "t", 10, metrics);
+        IngestPipeline pipeline = new IngestPipeline(settings, KeyLayout.plain(),
+                (entry, reading) -> CODEC.encode(entry, "sensor", reading.values()), loader, new Rollups(), metrics);
+        try {
+            pipeline.run(files);
+        } finally {
+            loader.close();
+        }
+        return pipeline;
+    }
+
+    /**
+     * @param hours Readings of the first of October, by hour
+     * @return A station file with the two header rows, and lines ending in every kind of line end
+     */
+    private File stationFile(String name, int... hours) throws Exception {
+        String[] ends = { "\n", "\r\n", "\r" };
+        StringBuilder text = new StringBuilder("Station,,,,,,,,\n"
+                + " Pseudo-Julian-Date,Date,Time,Temperature,Dewpoint,Relhum,Speed,Gust,Pressure\r\n");
+        for (int i = 0; i < hours.length; i++) {
+            text.append(String.format("2459853.53,2022-10-01,%d:%02d,50,49,66.9,6,M,1013.6", hours[i], i))
+                    .append(ends[i % ends.length]);
+        }
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void loadsTheFirstReadingOfEveryHourOfEveryFile() throws Exception {
+        store.createTable("t", "sensor", Collections.emptyList());
+        LoadCheckpoints checkpoints = LoadCheckpoints.open(null);
+        List<LoadCheckpoints.FileProgress> files = new ArrayList<>();
+        files.add(checkpoints.start(new StationFile("SEA", stationFile("sea.csv", 0, 1, 1, 2, 3).getPath()), false));
+        files.add(checkpoints.start(new StationFile("PDX", stationFile("pdx.csv", 5, 6, 7, 8, 9, 9, 9).getPath()), false));
+        files.add(checkpoints.start(new StationFile("YVR", stationFile("yvr.csv", 0).getPath()), false));
+
+        IngestPipeline pipeline = run(files);
+        assertEquals(4 + 5 + 1, store.rowCount("t"));
+        assertEquals(13, metrics.getLinesParsed());
+        assertEquals(3, pipeline.getSuppressed());
+        assertEquals(3, metrics.getLinesRejected(RejectReason.DUPLICATE_HOUR));
+        assertEquals(10, metrics.getMutationsSent());
+
+        // Every file is done up to its last line
+        for (LoadCheckpoints.FileProgress file : files) {
+            LoadCheckpoints.Checkpoint done = file.durable();
+            assertEquals(file.file.toString(), new File(file.file.path).length(), done.offset);
+        }
+        assertEquals(2 + 7, files.get(1).durable().line);
+        assertEquals(2022100109L, files.get(1).durable().lastHour);
+    }
+
+    @Test
+    public void aFailingStageFailsTheRun() throws Exception {
+        store.createTable("t", "sensor", Collections.emptyList());
+        LoadCheckpoints checkpoints = LoadCheckpoints.open(null);
+        List<LoadCheckpoints.FileProgress> files = new ArrayList<>();
+        files.add(checkpoints.start(new StationFile("SEA", stationFile("sea.csv", 0, 1, 2).getPath()), false));
+        files.add(checkpoints.start(new StationFile("PDX", new File(folder.getRoot(), "missing.csv").getPath()), false));
+        try {
+            run(files);
+            fail("Loaded a missing file");
+        } catch (Exception e) {
+            assertEquals(FileNotFoundException.class, e.getCause().getClass());
+        }
+    }
+
+    @Test
+    public void nothingToLoad() throws Exception {
+        run(Collections.emptyList());
+        assertEquals(0, metrics.getLinesParsed());
+    }
+}
@@ -0,0 +1,106 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LoadCheckpointsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void advancesOverCompletedBlocksInOrder() throws Exception {
+        LoadCheckpoints checkpoints = LoadCheckpoints.open(null);
+        LoadCheckpoints.FileProgress progress = checkpoints.start(stationFile("a", "SEA"), false);
+        LoadCheckpoints.Block first = progress.block(100, 5, 2022100210L, 2);
+        LoadCheckpoints.Block second = progress.block(200, 9, 2022100214L, 1);
+        // A block without rows, e.g. rejected lines, is complete as soon as it is added
+        progress.block(250, 11, 2022100214L, 0);
+
+        // The second block completing first does not move the checkpoint past the first
+        second.done(true);
+        assertEquals(0, progress.durable().offset);
+        first.done(true);
+        assertEquals(0, progress.durable().offset);
+        first.done(true);
+        LoadCheckpoints.Checkpoint durable = progress.durable();
+        assertEquals(250, durable.offset);
+        assertEquals(11, durable.line);
+        assertEquals(2022100214L, durable.lastHour);
+    }
+
+    @Test
+    public void stopsAtAFailedBlock() throws Exception {
+        LoadCheckpoints checkpoints = LoadCheckpoints.open(null);
+        LoadCheckpoints.FileProgress progress = checkpoints.start(stationFile("a", "SEA"), false);
+        progress.block(100, 5, 2022100210L, 1).done(true);
+        progress.block(200, 9, 2022100214L, 1).done(false);
+        progress.block(300, 12, 2022100218L, 1).done(true);
+        assertEquals(100, progress.durable().offset);
+        assertEquals(100, progress.durable().offset);
+    }
+
+    @Test
+    public void tracksDaysWhoseRollupsArePending() throws Exception {
+        LoadCheckpoints checkpoints = LoadCheckpoints.open(null);
+        LoadCheckpoints.FileProgress progress = checkpoints.start(stationFile("a", "SEA"), false);
+        progress.loaded(2022100223L);
+        progress.loaded(-1);
+        progress.loaded(2022100301L);
+        progress.block(100, 5, 2022100301L, 2);
+        assertEquals(20221002, progress.pendingDay());
+        assertEquals(2022100301L, progress.lastLoadedHour());
+
+        progress.rollupsWritten();
+        assertEquals(-1, progress.pendingDay());
+        assertEquals(-1, progress.durable().pendingDay);
+    }
+
+    @Test
+    public void savesAndResumes() throws Exception {
+        File path = new File(folder.getRoot(), "checkpoints.properties");
+        StationFile sea = stationFile("sea.csv", "SEA");
+        StationFile pdx = stationFile("pdx.csv", "PDX");
+        try (LoadCheckpoints checkpoints = LoadCheckpoints.open(path.getPath())) {
+            checkpoints.start(sea, true).block(10, 3, 2022100210L, 0);
+            checkpoints.start(pdx, true);
+        }
+
+        LoadCheckpoints reopened = LoadCheckpoints.open(path.getPath());
+        LoadCheckpoints.Checkpoint saved = reopened.get(sea);
+        assertEquals(10, saved.offset);
+        assertEquals(3, saved.line);
+        assertEquals(2022100210L, saved.lastHour);
+        assertEquals(-1, saved.pendingDay);
+        assertEquals(10, reopened.start(sea, true).start.offset);
+        assertEquals(0, reopened.start(sea, false).start.offset);
+        assertEquals(0, reopened.get(pdx).offset);
+        assertEquals(0, reopened.get(stationFile("yvr.csv", "YVR")).offset);
+    }
+
+    @Test
+    public void restartsAFileShorterThanItsCheckpoint() throws Exception {
+        File path = new File(folder.getRoot(), "checkpoints.properties");
+        StationFile sea = stationFile("sea.csv", "SEA");
+        try (LoadCheckpoints checkpoints = LoadCheckpoints.open(path.getPath())) {
+            checkpoints.start(sea, true).block(1000, 30, 2022100210L, 0);
+        }
+        LoadCheckpoints.Checkpoint start = LoadCheckpoints.open(path.getPath()).start(sea, true).start;
+        assertEquals(0, start.offset);
+        assertEquals(-1, start.lastHour);
+    }
+
+    private StationFile stationFile(String name, String stationId) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), "header\nheader\n2459492.87,2022-10-02,7:53,60,49,66.9,6,M,1013.6\n"
+                .getBytes(StandardCharsets.UTF_8));
+        return new StationFile(stationId, file.getPath());
+    }
+}
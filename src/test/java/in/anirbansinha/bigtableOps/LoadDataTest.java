@@ -0,0 +1,173 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LoadDataTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Bigtable> opened = new ArrayList<>();
+
+    @After
+    public void close() {
+        for (Bigtable bigtable : opened) {
+            bigtable.close();
+        }
+    }
+
+    /**
+     * Connect to an in-memory table store configured with the given .env lines, which
+     * override the defaults of the tests.
+     */
+    private Bigtable open(String... settings) throws Exception {
+        File dir = folder.newFolder();
+        List<String> lines = new ArrayList<>(Arrays.asList(settings));
+        for (String line : Arrays.asList("STORAGE_BACKEND=memory", "TABLE_ID=weather", "COLUMN_FAMILY=sensor",
+                "CACHE_ENABLED=false")) {
+            String key = line.substring(0, line.indexOf('=') + 1);
+            if (lines.stream().noneMatch(setting -> setting.startsWith(key))) {
+                lines.add(line);
+            }
+        }
+        Files.write(new File(dir, ".env").toPath(), lines, StandardCharsets.UTF_8);
+        Bigtable bigtable = new Bigtable(Dotenv.configure().directory(dir.getPath()).load());
+        opened.add(bigtable);
+        bigtable.connect();
+        bigtable.createTable();
+        return bigtable;
+    }
+
+    /** @return The rows of a table, without their cell timestamps */
+    private static List<String> rows(Bigtable bigtable, String tableId) {
+        List<String> rows = new ArrayList<>();
+        for (Row row : bigtable.getStore().readRows(Query.create(tableId))) {
+            StringBuilder text = new StringBuilder(row.getKey().toStringUtf8());
+            for (RowCell cell : row.getCells()) {
+                text.append(' ').append(cell.getFamily()).append(':').append(cell.getQualifier().toStringUtf8())
+                        .append('=').append(Base64.getEncoder().encodeToString(cell.getValue().toByteArray()));
+            }
+            rows.add(text.toString());
+        }
+        return rows;
+    }
+
+    @Test
+    public void mappedChunksLoadTheSameRowsAsThePipeline() throws Exception {
+        Bigtable pipeline = open("LOAD_MODE=pipeline");
+        pipeline.loadData();
+        // Chunks of a line or two, parsed on several threads
+        Bigtable mapped = open("LOAD_MODE=mmap", "LOAD_CHUNK_BYTES=64", "LOAD_CHUNK_PARALLELISM=4");
+        mapped.loadData();
+
+        String tableId = pipeline.tableId;
+        for (String table : Arrays.asList(tableId, Rollups.dailyTable(tableId), Rollups.monthlyTable(tableId))) {
+            List<String> rows = rows(pipeline, table);
+            assertFalse(table, rows.isEmpty());
+            assertEquals(table, rows, rows(mapped, table));
+        }
+        assertEquals(pipeline.getMetrics().getLinesParsed(), mapped.getMetrics().getLinesParsed());
+        assertTrue(pipeline.getMetrics().getBytesSent() > 0);
+        assertEquals(pipeline.getMetrics().getBytesSent(), mapped.getMetrics().getBytesSent());
+
+        // Nothing to load is not an error
+        pipeline.loadData(Collections.emptyList());
+        mapped.loadData(Collections.emptyList());
+    }
+
+    @Test
+    public void tailingLoadsOnlyTheAppendedLines() throws Exception {
+        File data = folder.newFile("sea.csv");
+        Files.write(data.toPath(), Arrays.asList(
+                "SeaTac Airport,,,,,,,,",
+                " Pseudo-Julian-Date,Date,Time,Temperature,Dewpoint,Relhum,Speed,Gust,Pressure",
+                "2459853.53,2022-10-01,0:53,50,49,66.9,6,M,1013.6",
+                "2459853.57,2022-10-01,1:53,51,49,66.9,6,M,1013.6",
+                "2459853.62,2022-10-01,2:53,52,49,66.9,6,M,1013.6"), StandardCharsets.UTF_8);
+        List<StationFile> files = Collections.singletonList(new StationFile("SEA", data.getPath()));
+        Bigtable bigtable = open("LOAD_CHECKPOINT_FILE=" + new File(folder.getRoot(), "checkpoints.properties"));
+        String tableId = bigtable.tableId;
+        MemoryTableStore store = (MemoryTableStore) bigtable.getStore();
+        LocalDate first = LocalDate.of(2022, 10, 1);
+
+        // Without a checkpoint the whole file is loaded
+        bigtable.tailData(files);
+        assertEquals(3, store.rowCount(tableId));
+        assertEquals(3, bigtable.getMetrics().getLinesParsed());
+        assertEquals(52, bigtable.aggregate(Collections.singletonList("SEA"), HourRange.days(first, first),
+                Metric.TEMPERATURE, Aggregate.MAX), 0);
+
+        Files.write(data.toPath(), Arrays.asList(
+                // An hour that was already loaded
+                "2459853.59,2022-10-01,2:10,20,49,66.9,6,M,1013.6",
+                "2459854.49,2022-10-01,23:53,57,49,66.9,6,M,1013.6",
+                "2459854.53,2022-10-02,0:53,3,49,66.9,6,M,1013.6"), StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+        bigtable.tailData(files);
+
+        // Only the appended lines are parsed, and only the new hours written
+        assertEquals(6, bigtable.getMetrics().getLinesParsed());
+        assertEquals(1, bigtable.getMetrics().getLinesRejected(RejectReason.DUPLICATE_HOUR));
+        assertEquals(5, store.rowCount(tableId));
+        assertEquals(52, bigtable.readReading(new ReadingKey("SEA", first, 2)).value(Metric.TEMPERATURE));
+
+        // The rollups of the month are rebuilt with the new readings
+        assertEquals(2, store.rowCount(Rollups.dailyTable(tableId)));
+        assertEquals(1, store.rowCount(Rollups.monthlyTable(tableId)));
+        assertEquals(57, bigtable.aggregate(Collections.singletonList("SEA"), HourRange.days(first, first),
+                Metric.TEMPERATURE, Aggregate.MAX), 0);
+        HourRange october = HourRange.days(first, LocalDate.of(2022, 10, 31));
+        assertEquals(3, bigtable.aggregate(Collections.singletonList("SEA"), october,
+                Metric.TEMPERATURE, Aggregate.MIN), 0);
+        assertEquals(5, bigtable.aggregate(Collections.singletonList("SEA"), october,
+                Metric.TEMPERATURE, Aggregate.COUNT), 0);
+    }
+
+    @Test
+    public void onlyTailingLoadsWarmTheCache() throws Exception {
+        File data = folder.newFile("sea.csv");
+        Files.write(data.toPath(), Arrays.asList(
+                "SeaTac Airport,,,,,,,,",
+                " Pseudo-Julian-Date,Date,Time,Temperature,Dewpoint,Relhum,Speed,Gust,Pressure",
+                "2459853.53,2022-10-01,0:53,50,49,66.9,6,M,1013.6",
+                "2459853.57,2022-10-01,1:53,51,49,66.9,6,M,1013.6"), StandardCharsets.UTF_8);
+        List<StationFile> files = Collections.singletonList(new StationFile("SEA", data.getPath()));
+        Bigtable bigtable = open("CACHE_ENABLED=true",
+                "LOAD_CHECKPOINT_FILE=" + new File(folder.getRoot(), "checkpoints.properties"));
+
+        bigtable.loadData(files);
+        assertEquals(0L, bigtable.getMetrics().snapshot().get("cache.size").longValue());
+
+        Files.write(data.toPath(), Collections.singletonList("2459853.62,2022-10-01,2:53,52,49,66.9,6,M,1013.6"),
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        bigtable.tailData(files);
+        assertEquals(1L, bigtable.getMetrics().snapshot().get("cache.size").longValue());
+        assertEquals(52, bigtable.readReading(new ReadingKey("SEA", LocalDate.of(2022, 10, 1), 2))
+                .value(Metric.TEMPERATURE));
+        assertEquals(1L, bigtable.getMetrics().snapshot().get("cache.hits").longValue());
+    }
+}
@@ -0,0 +1,157 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFileLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final ReadingCodec CODEC = ReadingCodecs.forName(ReadingCodecs.INT);
+
+    private final MemoryTableStore store = new MemoryTableStore();
+    private final LoadCheckpoints checkpoints;
+    private Metrics metrics;
+
+    public MappedFileLoaderTest() throws Exception {
+        checkpoints = LoadCheckpoints.open(null);
+    }
+
+    private static PipelineSettings settings(int chunkBytes) {
+        return new PipelineSettings(PipelineSettings.MODE_MMAP, 0, 0, 1, 4, 16, 1024, chunkBytes, 3, "", 0);
+    }
+
+    /**
+     * Load a file into a table, creating it if needed.
+     * @param resume Whether to continue from where the last load of the file got to
+     * @return Where the file's checkpoint got to
+     */
+    private LoadCheckpoints.Checkpoint load(int chunkBytes, String tableId, File file, boolean resume)
+            throws Exception {
+        if (!store.exists(tableId)) {
+            store.createTable(tableId, "sensor", Collections.emptyList());
+        }
+        metrics = new Metrics();
+        LoadCheckpoints.FileProgress progress = checkpoints.start(new StationFile("SEA", file.getPath()), resume);
+        BulkLoader loader = new BulkLoader(store, tableId, 10, metrics);
+        new MappedFileLoader(settings(chunkBytes), KeyLayout.plain(),
+                (entry, reading) -> CODEC.encode(entry, "sensor", reading.values()), loader, null, metrics)
+                .run(Collections.singletonList(progress));
+        loader.close();
+        checkpoints.save();
+        return progress.durable();
+    }
+
+    /** @return The rows of a table, as their keys and cell values */
+    private List<String> rows(String tableId) {
+        List<String> rows = new ArrayList<>();
+        for (Row row : store.readRows(Query.create(tableId))) {
+            StringBuilder text = new StringBuilder(row.getKey().toStringUtf8());
+            for (RowCell cell : row.getCells()) {
+                text.append(' ').append(cell.getQualifier().toStringUtf8()).append('=')
+                        .append(cell.getValue().toStringUtf8());
+            }
+            rows.add(text.toString());
+        }
+        return rows;
+    }
+
+    /** @return A reading of the given hour, whose temperature is the day */
+    private static String reading(int day, int hour) {
+        return String.format("2459853.53,2022-10-%02d,%d:53,%d,49,66.9,6,M,1013.6", day, hour, day);
+    }
+
+    private static final String HEADER = "SeaTac Airport,,,,,,,,\n"
+            + " Pseudo-Julian-Date,Date,Time,Temperature,Dewpoint,Relhum,Speed,Gust,Pressure\n";
+
+    @Test
+    public void chunksSplitNoLineAndSkipNone() throws Exception {
+        // Every kind of line end, a line longer than a chunk's slack and no line end at the end
+        String[] ends = { "\n", "\r\n", "\r" };
+        StringBuilder text = new StringBuilder(HEADER);
+        int lines = 2;
+        for (int i = 0; i < 72; i++) {
+            if (i == 40) {
+                char[] junk = new char[10_000];
+                Arrays.fill(junk, 'x');
+                text.append(junk).append('\n');
+                lines++;
+            }
+            text.append(reading(1 + i / 24, i % 24)).append(i == 71 ? "" : ends[i % ends.length]);
+            lines++;
+        }
+        File file = folder.newFile("sea.csv");
+        Files.write(file.toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+
+        List<String> expected = null;
+        for (int chunkBytes : new int[] { 1, 2, 3, 7, 64, 4097, 1 << 20 }) {
+            String table = "t" + chunkBytes;
+            LoadCheckpoints.Checkpoint done = load(chunkBytes, table, file, false);
+            List<String> rows = rows(table);
+            if (expected == null) {
+                expected = rows;
+                assertEquals(72, rows.size());
+            }
+            assertEquals("chunk of " + chunkBytes, expected, rows);
+            assertEquals(lines - 2, metrics.getLinesParsed());
+            assertEquals(1, metrics.getLinesRejected(RejectReason.MALFORMED_LINE));
+            // The last line has no line end, so it is loaded again by a later load
+            assertEquals(lines - 1, done.line);
+            assertEquals(text.length() - reading(3, 23).length(), done.offset);
+        }
+    }
+
+    @Test
+    public void resumesAfterTheLastCompleteLine() throws Exception {
+        File file = folder.newFile("sea.csv");
+        Files.write(file.toPath(), (HEADER + reading(1, 0) + "\n" + reading(1, 1) + "\r\n" + reading(1, 2))
+                .getBytes(StandardCharsets.UTF_8));
+        LoadCheckpoints.Checkpoint first = load(16, "t", file, false);
+        assertEquals(3, store.rowCount("t"));
+        assertEquals(4, first.line);
+
+        Files.write(file.toPath(), ("\n" + reading(2, 0) + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        LoadCheckpoints.Checkpoint second = load(16, "t", file, true);
+        // The unfinished line is parsed again, and written over its row
+        assertEquals(2, metrics.getLinesParsed());
+        assertEquals(4, store.rowCount("t"));
+        assertEquals(6, second.line);
+        assertEquals(file.length(), second.offset);
+
+        // Nothing appended
+        LoadCheckpoints.Checkpoint third = load(16, "t", file, true);
+        assertEquals(0, metrics.getLinesParsed());
+        assertEquals(second.offset, third.offset);
+        assertEquals(6, third.line);
+    }
+
+    @Test
+    public void headerOnly() throws Exception {
+        File file = folder.newFile("sea.csv");
+        Files.write(file.toPath(), HEADER.getBytes(StandardCharsets.UTF_8));
+        LoadCheckpoints.Checkpoint done = load(8, "t", file, false);
+        assertEquals(0, metrics.getLinesParsed());
+        assertEquals(2, done.line);
+        assertEquals(file.length(), done.offset);
+        assertFalse(store.readRows(Query.create("t")).iterator().hasNext());
+    }
+}
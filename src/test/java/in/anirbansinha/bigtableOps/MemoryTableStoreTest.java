@@ -0,0 +1,186 @@
+package in.anirbansinha.bigtableOps;
+
+import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Range.ByteStringRange;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemoryTableStoreTest {
+
+    private MemoryTableStore store;
+
+    @Before
+    public void createTable() {
+        store = new MemoryTableStore();
+        store.createTable("t", "f", Collections.emptyList());
+    }
+
+    @After
+    public void close() {
+        store.close();
+    }
+
+    @Test
+    public void keepsTheLatestCellOfAColumn() throws Exception {
+        write(RowMutationEntry.create("r").setCell("f", "b", 10, "old").setCell("f", "a", 10, "x"));
+        write(RowMutationEntry.create("r").setCell("f", "b", 20, "new"));
+        // An earlier timestamp does not replace a later cell
+        write(RowMutationEntry.create("r").setCell("f", "b", 15, "stale"));
+
+        Row row = store.readRow("t", ByteString.copyFromUtf8("r"), null);
+        assertEquals(2, row.getCells().size());
+        assertEquals("a", row.getCells().get(0).getQualifier().toStringUtf8());
+        RowCell b = row.getCells().get(1);
+        assertEquals("new", b.getValue().toStringUtf8());
+        assertEquals(20, b.getTimestamp());
+    }
+
+    @Test
+    public void deletesCellsAndEmptyRows() throws Exception {
+        write(RowMutationEntry.create("r").setCell("f", "a", 10, "x").setCell("f", "b", 10, "y"));
+        write(RowMutationEntry.create("r").deleteCells("f", ByteString.copyFromUtf8("a")));
+        assertEquals(1, store.readRow("t", ByteString.copyFromUtf8("r"), null).getCells().size());
+
+        write(RowMutationEntry.create("r").deleteRow());
+        assertNull(store.readRow("t", ByteString.copyFromUtf8("r"), null));
+        assertEquals(0, store.rowCount("t"));
+    }
+
+    @Test
+    public void failsRowsOfAnUnknownFamily() throws Exception {
+        TableStore.RowWriter writer = store.newBulkWriter("t");
+        try {
+            writer.add(RowMutationEntry.create("r").setCell("f", "a", 10, "x").setCell("g", "a", 10, "y")).get();
+        } catch (Exception e) {
+            // The row is left as it was
+            assertNull(store.readRow("t", ByteString.copyFromUtf8("r"), null));
+            return;
+        }
+        throw new AssertionError("Expected the row to fail");
+    }
+
+    @Test
+    public void scansRangesAndKeysInOrderOnce() throws Exception {
+        for (String key : Arrays.asList("a", "b", "c", "d", "e", "f")) {
+            write(RowMutationEntry.create(key).setCell("f", "q", 10, key));
+        }
+        Query query = Query.create("t")
+                .range(ByteStringRange.unbounded().startClosed("b").endOpen("d"))
+                .range(ByteStringRange.unbounded().startOpen("a").endClosed("c"))
+                .rowKey("e")
+                .rowKey("a");
+        assertEquals(Arrays.asList("a", "b", "c", "e"), keys(store.readRows(query)));
+        assertEquals(Arrays.asList("a", "b"), keys(store.readRows(query.limit(2))));
+        assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f"), keys(store.readRows(Query.create("t"))));
+    }
+
+    @Test
+    public void evaluatesTheQueryFilters() throws Exception {
+        ReadingCodec codec = ReadingCodecs.forName(ReadingCodecs.STRING);
+        String[] keys = { "SEA#2022-10-01#5", "SEA#2022-10-01#6", "SEA#2022-10-02#5", "PDX#2022-10-01#6" };
+        for (String key : keys) {
+            RowMutationEntry entry = RowMutationEntry.create(key);
+            int[] values = new int[Metric.COUNT];
+            Arrays.fill(values, key.length());
+            codec.encode(entry, "f", values);
+            write(entry);
+        }
+
+        // Without stations, the row key regex of the hour range; and the qualifier filter of one metric
+        ReadingQuery readings = new ReadingQuery("t", "f", codec)
+                .hours(LocalDate.of(2022, 10, 1), 6, LocalDate.of(2022, 10, 2), 5)
+                .metrics(Metric.TEMPERATURE);
+        List<String> found = new ArrayList<>();
+        for (Row row : store.readRows(readings.build())) {
+            found.add(row.getKey().toStringUtf8());
+            assertEquals(1, row.getCells().size());
+            assertEquals(Metric.TEMPERATURE.qualifierBytes, row.getCells().get(0).getQualifier());
+        }
+        assertEquals(Arrays.asList("PDX#2022-10-01#6", "SEA#2022-10-01#6", "SEA#2022-10-02#5"), found);
+        assertEquals(Arrays.asList("SEA#2022-10-01#6", "SEA#2022-10-02#5"),
+                keys(store.readRows(readings.stations("SEA").build())));
+
+        // Rows without a cell passing the filter are left out
+        Query none = Query.create("t").filter(FILTERS.qualifier().exactMatch("missing"));
+        assertTrue(keys(store.readRows(none)).isEmpty());
+        Query values = Query.create("t").filter(FILTERS.chain()
+                .filter(FILTERS.value().regex("1[0-9]"))
+                .filter(FILTERS.limit().cellsPerRow(2)));
+        int rows = 0;
+        for (Row row : store.readRows(values)) {
+            assertEquals(2, row.getCells().size());
+            rows++;
+        }
+        assertEquals(keys.length, rows);
+    }
+
+    @Test
+    public void scansConcurrentlyWithTheParallelScanner() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            write(RowMutationEntry.create(String.format("k%04d", i)).setCell("f", "q", 10, "v"));
+        }
+        List<Query> queries = new ArrayList<>();
+        for (int i = 0; i < 1000; i += 100) {
+            queries.add(Query.create("t").range(String.format("k%04d", i), String.format("k%04d", i + 100)));
+        }
+        long rows = new ParallelScanner(store).scan(queries, new ParallelScanner.RowAggregator<long[]>() {
+            @Override
+            public long[] create() {
+                return new long[1];
+            }
+
+            @Override
+            public void accept(long[] count, Row row) {
+                count[0]++;
+            }
+
+            @Override
+            public long[] merge(long[] left, long[] right) {
+                left[0] += right[0];
+                return left;
+            }
+        })[0];
+        assertEquals(1000, rows);
+    }
+
+    @Test
+    public void managesTables() {
+        assertTrue(store.exists("t"));
+        assertFalse(store.exists("u"));
+        assertTrue(store.deleteTable("t"));
+        assertFalse(store.deleteTable("t"));
+        assertFalse(store.exists("t"));
+    }
+
+    private void write(RowMutationEntry entry) throws Exception {
+        TableStore.RowWriter writer = store.newBulkWriter("t");
+        writer.add(entry).get();
+        writer.close();
+    }
+
+    private static List<String> keys(Iterable<Row> rows) {
+        List<String> keys = new ArrayList<>();
+        for (Row row : rows) {
+            keys.add(row.getKey().toStringUtf8());
+        }
+        return keys;
+    }
+}
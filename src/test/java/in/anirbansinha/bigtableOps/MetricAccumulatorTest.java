@@ -0,0 +1,96 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MetricAccumulatorTest {
+
+    @Test
+    public void summarisesValues() {
+        MetricAccumulator values = new MetricAccumulator();
+        for (int value : new int[] { 5, -3, 12, 7 }) {
+            values.add(value);
+        }
+        values.add(ReadingCodec.MISSING);
+
+        assertEquals(4, values.count());
+        assertEquals(1, values.missing());
+        assertEquals(-3, values.min());
+        assertEquals(12, values.max());
+        assertEquals(21, values.sum());
+        assertEquals(5.25, Aggregate.AVG.apply(values), 0);
+        assertEquals(5, Aggregate.P50.apply(values), 0);
+        assertEquals(12, Aggregate.forName("p100").apply(values), 0);
+        assertEquals(-3, Aggregate.forName("p0").apply(values), 0);
+    }
+
+    @Test
+    public void emptyAggregates() {
+        MetricAccumulator values = new MetricAccumulator();
+        assertTrue(Double.isNaN(Aggregate.MAX.apply(values)));
+        assertTrue(Double.isNaN(Aggregate.P95.apply(values)));
+        assertEquals(0, Aggregate.COUNT.apply(values), 0);
+        assertEquals(0, Aggregate.SUM.apply(values), 0);
+    }
+
+    @Test
+    public void percentilesAreExactForSensorRanges() {
+        Random random = new Random(7);
+        int[] all = new int[10000];
+        MetricAccumulator values = new MetricAccumulator();
+        for (int i = 0; i < all.length; i++) {
+            all[i] = 800 + random.nextInt(300);
+            values.add(all[i]);
+        }
+        Arrays.sort(all);
+        for (double q : new double[] { 0.01, 0.25, 0.5, 0.9, 0.95, 0.99 }) {
+            assertEquals(all[(int) Math.ceil(q * all.length) - 1], values.percentile(q), 0);
+        }
+    }
+
+    @Test
+    public void percentilesStayCloseForWideRanges() {
+        Random random = new Random(11);
+        int[] all = new int[10000];
+        MetricAccumulator values = new MetricAccumulator();
+        for (int i = 0; i < all.length; i++) {
+            all[i] = random.nextInt(1_000_000) - 500_000;
+            values.add(all[i]);
+        }
+        Arrays.sort(all);
+        double bucket = 1_000_000.0 / (MetricAccumulator.MAX_BUCKETS / 2);
+        for (double q : new double[] { 0.01, 0.5, 0.99 }) {
+            assertEquals(all[(int) Math.ceil(q * all.length) - 1], values.percentile(q), bucket);
+        }
+        assertEquals(all[0], values.min());
+        assertEquals(all[all.length - 1], values.max());
+    }
+
+    @Test
+    public void mergeMatchesOneAccumulator() {
+        Random random = new Random(3);
+        MetricAccumulator whole = new MetricAccumulator();
+        MetricAccumulator[] parts = { new MetricAccumulator(), new MetricAccumulator(), new MetricAccumulator() };
+        for (int i = 0; i < 3000; i++) {
+            // Give every part a different range, one of them wide enough to widen its buckets
+            int part = i % 3;
+            int value = part == 0 ? random.nextInt(100) : part == 1 ? -50 - random.nextInt(40) : random.nextInt(20000);
+            whole.add(value);
+            parts[part].add(value);
+        }
+        MetricAccumulator merged = new MetricAccumulator().merge(parts[0]).merge(parts[1]).merge(parts[2]);
+
+        assertEquals(whole.count(), merged.count());
+        assertEquals(whole.sum(), merged.sum());
+        assertEquals(whole.min(), merged.min());
+        assertEquals(whole.max(), merged.max());
+        for (double q : new double[] { 0.1, 0.5, 0.9 }) {
+            assertEquals(whole.percentile(q), merged.percentile(q), 20000.0 / (MetricAccumulator.MAX_BUCKETS / 2));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.protobuf.ByteString;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+
+public class MetricsTest {
+
+    @Test
+    public void histogramPercentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(ms));
+        }
+        assertEquals(1000, histogram.count());
+        assertEquals(1_000_000, histogram.maxMicros());
+        assertEquals(500_500, histogram.meanMicros(), 0.5);
+        // 8 buckets per power of two: a bucket's middle is within 1/16 of its values
+        assertEquals(500_000, histogram.percentileMicros(0.50), 500_000 / 16.0);
+        assertEquals(950_000, histogram.percentileMicros(0.95), 950_000 / 16.0);
+        assertEquals(990_000, histogram.percentileMicros(0.99), 990_000 / 16.0);
+        assertEquals(1_000_000, histogram.percentileMicros(1.0));
+        assertEquals(0, new LatencyHistogram().percentileMicros(0.5));
+    }
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        for (long micros = 0; micros < 100_000; micros++) {
+            int bucket = LatencyHistogram.bucket(micros);
+            assertTrue(LatencyHistogram.bucket(micros + 1) >= bucket);
+            long middle = LatencyHistogram.bucketValue(bucket);
+            assertTrue(micros + " -> " + middle, Math.abs(middle - micros) <= micros / 8);
+        }
+    }
+
+    @Test
+    public void countsParsedAndRejectedLines() {
+        Metrics metrics = new Metrics();
+        Metrics.ParseCounts counts = new Metrics.ParseCounts();
+        counts.parsed(true, null);
+        counts.parsed(true, null);
+        counts.parsed(false, RejectReason.INVALID_TEMPERATURE);
+        counts.parsed(false, RejectReason.MALFORMED_LINE);
+        metrics.add(counts);
+        // Counts are reset when added, so a parser can add them again after every block
+        counts.rejected(RejectReason.DUPLICATE_HOUR, 5);
+        metrics.add(counts);
+        metrics.add(counts);
+
+        assertEquals(4, metrics.getLinesParsed());
+        assertEquals(1, metrics.getLinesRejected(RejectReason.INVALID_TEMPERATURE));
+        assertEquals(5, metrics.getLinesRejected(RejectReason.DUPLICATE_HOUR));
+        Map<String, Number> snapshot = metrics.snapshot();
+        assertEquals(7L, snapshot.get("load.rejected"));
+        assertEquals(1L, snapshot.get("load.rejected.MALFORMED_LINE"));
+        assertEquals(0L, snapshot.get("load.rejected.BAD_TIME"));
+    }
+
+    @Test
+    public void tracesQueries() {
+        Metrics metrics = new Metrics();
+        Row row = Row.create(ByteString.copyFromUtf8("SEA#2022-10-02#10"), Collections.singletonList(
+                RowCell.create("sensor", ByteString.copyFromUtf8("temperature"), 0, Collections.emptyList(),
+                        ByteString.copyFromUtf8("52"))));
+        assertEquals(17 + 11 + 2, Metrics.rowBytes(row));
+
+        QueryTrace trace = metrics.query("query3").start();
+        trace.row(row);
+        trace.row(row);
+        trace.finish(null);
+        // Only the first finish counts
+        trace.finish(new RuntimeException());
+
+        CompletableFuture<Integer> failed = new CompletableFuture<>();
+        metrics.query("query3").start().track(failed);
+        failed.completeExceptionally(new RuntimeException());
+
+        QueryTrace.NONE.row(row);
+        QueryTrace.NONE.finish(null);
+
+        Map<String, Number> snapshot = metrics.snapshot();
+        assertEquals(2L, snapshot.get("query.query3.calls"));
+        assertEquals(1L, snapshot.get("query.query3.errors"));
+        assertEquals(2L, snapshot.get("query.query3.rowsScanned"));
+        assertEquals(60L, snapshot.get("query.query3.bytesReturned"));
+        assertEquals(2L, snapshot.get("query.query3.latency.count"));
+    }
+
+    @Test
+    public void recordsTheFirstSuccessfulQuery() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.query("query1").start().finish(new RuntimeException());
+        assertEquals(0, metrics.getFirstQueryMillis());
+
+        long before = System.currentTimeMillis();
+        metrics.query("query2").start().finish(null);
+        long first = metrics.getFirstQueryMillis();
+        assertTrue(first >= before);
+        // Later queries of any name leave it unchanged
+        Thread.sleep(5);
+        metrics.query("query1").start().finish(null);
+        assertEquals(first, metrics.getFirstQueryMillis());
+    }
+
+    @Test
+    public void reportsGauges() {
+        Metrics metrics = new Metrics();
+        AtomicLong size = new AtomicLong(3);
+        metrics.gauge("cache.size", size::get);
+        size.set(4);
+        assertEquals(4L, metrics.snapshot().get("cache.size"));
+    }
+
+    @Test
+    public void limitsMessagesPerKindAndInterval() {
+        AtomicLong now = new AtomicLong();
+        RateLimitedLogger log = new RateLimitedLogger(LoggerFactory.getLogger(MetricsTest.class), 2, 1000, now::get);
+
+        assertEquals(Arrays.asList(0L, 0L, -1L, -1L), Arrays.asList(
+                log.permit("bad time"), log.permit("bad time"), log.permit("bad time"), log.permit("bad time")));
+        // Other kinds have their own limit
+        assertEquals(0, log.permit("malformed"));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertEquals(-1, log.permit("bad time"));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        // The first message of the next interval reports what was suppressed
+        assertEquals(3, log.permit("bad time"));
+        assertEquals(0, log.permit("bad time"));
+        assertEquals(-1, log.permit("bad time"));
+    }
+
+    @Test
+    public void permitsOnlyMessagesThatAreLogged() {
+        RateLimitedLogger log = new RateLimitedLogger(LoggerFactory.getLogger(MetricsTest.class), 1, 1000, () -> 0);
+        // Debug is off, so the message is neither built nor counted
+        assertFalse(log.permits(Level.DEBUG, "bad time"));
+        assertTrue(log.permits(Level.WARN, "bad time"));
+        assertFalse(log.permits(Level.WARN, "bad time"));
+    }
+}
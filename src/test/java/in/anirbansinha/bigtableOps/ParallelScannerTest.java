@@ -0,0 +1,167 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.bigtable.data.v2.internal.RequestContext;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelScannerTest {
+
+    private static final RequestContext CONTEXT = RequestContext.create("p", "i", "");
+    private static final LocalDate DAY = LocalDate.of(2022, 10, 1);
+    private static final String[] STATIONS = { "PDX", "SEA", "YVR" };
+
+    /**
+     * Fails the scans of the failing table, and never answers those of the stalling table
+     * until they are cancelled.
+     */
+    private static class FailingStore extends MemoryTableStore {
+        final AtomicInteger cancelled = new AtomicInteger();
+        final List<ResponseObserver<Row>> failing = new ArrayList<>();
+
+        @Override
+        public void readRowsAsync(Query query, ResponseObserver<Row> observer) {
+            String table = query.toProto(CONTEXT).getTableName();
+            if (table.endsWith("/stalling")) {
+                observer.onStart(new StreamController() {
+                    @Override
+                    public void cancel() {
+                        cancelled.incrementAndGet();
+                        observer.onError(new CancellationException("Scan cancelled"));
+                    }
+
+                    @Override
+                    public void disableAutoInboundFlowControl() {
+                    }
+
+                    @Override
+                    public void request(int count) {
+                    }
+                });
+            } else if (table.endsWith("/failing")) {
+                failing.add(observer);
+            } else {
+                super.readRowsAsync(query, observer);
+            }
+        }
+    }
+
+    /** Collects the row keys of a scan. */
+    private static class Keys implements ParallelScanner.RowAggregator<List<String>> {
+        final AtomicInteger merges = new AtomicInteger();
+
+        @Override
+        public List<String> create() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void accept(List<String> keys, Row row) {
+            keys.add(row.getKey().toStringUtf8());
+        }
+
+        @Override
+        public List<String> merge(List<String> left, List<String> right) {
+            merges.incrementAndGet();
+            left.addAll(right);
+            return left;
+        }
+    }
+
+    private final FailingStore store = new FailingStore();
+
+    @Before
+    public void writeReadings() throws Exception {
+        store.createTable("weather", "sensor", Collections.emptyList());
+        TableStore.RowWriter writer = store.newBulkWriter("weather");
+        for (String station : STATIONS) {
+            for (int hour = 0; hour < 4; hour++) {
+                RowMutationEntry entry = RowMutationEntry.create(KeyLayout.plain().rowKey(new ReadingKey(station, DAY, hour)));
+                entry.setCell("sensor", "temperature", "10");
+                writer.add(entry);
+            }
+        }
+        writer.flush();
+    }
+
+    private static List<Query> perStation(String tableId) {
+        List<Query> queries = new ArrayList<>();
+        for (String station : STATIONS) {
+            queries.add(Query.create(tableId).prefix(station + RowKeys.SEPARATOR));
+        }
+        return queries;
+    }
+
+    @Test
+    public void everyScanIsMerged() throws Exception {
+        Keys keys = new Keys();
+        List<String> rows = new ParallelScanner(store).scan(perStation("weather"), keys);
+        assertEquals(STATIONS.length, keys.merges.get());
+        Collections.sort(rows);
+        assertEquals(STATIONS.length * 4, rows.size());
+        assertEquals("PDX#2022-10-01#0", rows.get(0));
+        assertEquals("YVR#2022-10-01#3", rows.get(rows.size() - 1));
+
+        // Lookups of keys only merge the same way
+        Query lookup = Query.create("weather").rowKey(KeyLayout.plain().rowKey(new ReadingKey("SEA", DAY, 1)))
+                .rowKey(KeyLayout.plain().rowKey(new ReadingKey("SEA", DAY, 9)));
+        Query other = Query.create("weather").rowKey(KeyLayout.plain().rowKey(new ReadingKey("YVR", DAY, 2)));
+        assertEquals(Arrays.asList("SEA#2022-10-01#1", "YVR#2022-10-01#2"),
+                new ParallelScanner(store).lookup(Arrays.asList(lookup, other), new Keys()));
+    }
+
+    @Test
+    public void aFailedScanCancelsTheOthers() throws Exception {
+        List<Query> queries = new ArrayList<>(perStation("stalling"));
+        queries.add(1, Query.create("failing"));
+        Keys keys = new Keys();
+        CompletableFuture<List<String>> result = new ParallelScanner(store).scanAsync(queries, keys);
+        assertFalse(result.isDone());
+
+        IllegalStateException error = new IllegalStateException("unavailable");
+        store.failing.get(0).onError(error);
+        try {
+            result.get(10, TimeUnit.SECONDS);
+            fail("A scan failed");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        assertEquals(STATIONS.length, store.cancelled.get());
+        // Nothing is merged from a failed query
+        assertEquals(0, keys.merges.get());
+    }
+
+    @Test
+    public void aFailedScanFailsTheBlockingCall() {
+        ParallelScanner scanner = new ParallelScanner(store);
+        List<Query> queries = Arrays.asList(Query.create("weather").prefix("SEA#"), Query.create("missing"));
+        try {
+            scanner.scan(queries, new Keys());
+            fail("Scanned a missing table");
+        } catch (Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Range scan failed"));
+        }
+    }
+}
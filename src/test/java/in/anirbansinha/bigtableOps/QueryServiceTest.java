@@ -0,0 +1,191 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class QueryServiceTest {
+
+    /**
+     * Answers point reads at once and aggregates when the test completes them.
+     */
+    private static class FakeQueries implements QueryService.Queries {
+        final AtomicInteger pointReads = new AtomicInteger();
+        final AtomicInteger aggregates = new AtomicInteger();
+        final CompletableFuture<Double> aggregate = new CompletableFuture<>();
+
+        @Override
+        public CompletableFuture<Map<ReadingKey, HourlyReading>> readReadings(Collection<ReadingKey> keys) {
+            pointReads.incrementAndGet();
+            Map<ReadingKey, HourlyReading> found = new HashMap<>();
+            for (ReadingKey key : keys) {
+                if (!"NONE".equals(key.stationId)) {
+                    found.put(key, new HourlyReading(key, new int[] { key.hour, 1, 2, 3, 4 }));
+                }
+            }
+            return CompletableFuture.completedFuture(found);
+        }
+
+        @Override
+        public CompletableFuture<List<HourlyReading>> readAll(Collection<String> stations, HourRange range) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+
+        @Override
+        public CompletableFuture<Double> aggregate(Collection<String> stations, HourRange range, Metric metric,
+                                                   Aggregate aggregate) {
+            aggregates.incrementAndGet();
+            return this.aggregate;
+        }
+    }
+
+    private final FakeQueries queries = new FakeQueries();
+    private final ExecutorService clients = Executors.newFixedThreadPool(20);
+    private QueryService service;
+
+    private void start(int maxInFlight, long batchWindowMicros) throws IOException {
+        service = new QueryService(queries, new ServiceSettings("127.0.0.1", 0, 4, maxInFlight,
+                batchWindowMicros, 200, 48), new Metrics());
+        service.start();
+    }
+
+    @After
+    public void stop() {
+        queries.aggregate.complete(0.0);
+        clients.shutdownNow();
+        service.close();
+    }
+
+    /** @return The status and the body of a GET */
+    private String get(String pathAndQuery) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + service.getPort() + pathAndQuery).openConnection();
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            body.write(buffer, 0, n);
+        }
+        in.close();
+        return status + " " + new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void awaitCoalesced(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getCoalesced() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    /** Permits are released once a response is written, which may be after the client read it. */
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getInFlight() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void pointRequestsAreBatched() throws Exception {
+        // A long window, so every request joins the first batch
+        start(100, 200_000);
+        List<Future<String>> responses = new ArrayList<>();
+        for (int hour = 0; hour < 20; hour++) {
+            String path = "/reading?station=SEA&day=2022-10-02&hour=" + hour;
+            responses.add(clients.submit(() -> get(path)));
+        }
+        for (int hour = 0; hour < 20; hour++) {
+            assertEquals("200 {\"station\":\"SEA\",\"day\":\"2022-10-02\",\"hour\":" + hour
+                    + ",\"temperature\":" + hour + ",\"dew_point\":1,\"humidity\":2,\"wind_speed\":3,\"pressure\":4}",
+                    responses.get(hour).get());
+        }
+        assertEquals(20, service.getPoints().getLookups());
+        assertTrue(queries.pointReads.get() + " reads", queries.pointReads.get() < 20);
+        assertEquals(404, Integer.parseInt(get("/reading?station=NONE&day=2022-10-02&hour=1").substring(0, 3)));
+    }
+
+    @Test
+    public void identicalRangeQueriesAreCoalesced() throws Exception {
+        start(100, 0);
+        String path = "/aggregate?stations=SEA&from=2022-07-01&to=2022-07-31&metric=temperature&aggregate=max";
+        List<Future<String>> responses = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            responses.add(clients.submit(() -> get(path)));
+        }
+        // The parameters are compared sorted, so their order does not matter
+        responses.add(clients.submit(() -> get(
+                "/aggregate?aggregate=max&metric=temperature&from=2022-07-01&to=2022-07-31&stations=SEA")));
+        awaitCoalesced(5);
+        queries.aggregate.complete(71.0);
+        for (Future<String> response : responses) {
+            assertEquals("200 {\"value\":71}", response.get());
+        }
+        assertEquals(1, queries.aggregates.get());
+
+        // A request after the query completed starts a new one
+        get(path);
+        assertEquals(2, queries.aggregates.get());
+    }
+
+    @Test
+    public void requestsOverTheLimitAreRejected() throws Exception {
+        start(2, 0);
+        String path = "/aggregate?stations=SEA&from=2022-07-01&metric=temperature&aggregate=avg";
+        List<Future<String>> stalled = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            stalled.add(clients.submit(() -> get(path)));
+        }
+        awaitCoalesced(1);
+
+        assertTrue(get("/reading?station=SEA&day=2022-10-02&hour=10").startsWith("503 "));
+        assertEquals(1, service.getRejected());
+        // Metrics are served regardless
+        assertTrue(get("/metrics").startsWith("200 "));
+
+        queries.aggregate.complete(Double.NaN);
+        for (Future<String> response : stalled) {
+            assertEquals("200 {\"value\":null}", response.get());
+        }
+        awaitIdle();
+        assertEquals(0, service.getInFlight());
+        assertTrue(get("/reading?station=SEA&day=2022-10-02&hour=10").startsWith("200 "));
+    }
+
+    @Test
+    public void badRequestsAreReported() throws Exception {
+        start(100, 0);
+        assertEquals("400 {\"error\":\"Missing parameter: hour\"}", get("/reading?station=SEA&day=2022-10-02"));
+        assertTrue(get("/aggregate?from=2022-07-01&metric=rain&aggregate=max").startsWith("400 "));
+        assertTrue(get("/readings?from=2022-07-02&to=2022-07-01").startsWith("400 "));
+        assertTrue(get("/readings?from=2022-07-01T25").startsWith("400 "));
+        assertEquals("200 []", get("/readings?stations=SEA&from=" + LocalDate.of(2022, 7, 1) + "T10"));
+        // At most two days of readings
+        assertEquals("200 []", get("/readings?from=2022-07-01&to=2022-07-02"));
+        assertEquals("400 {\"error\":\"Range of 49 hours is longer than the limit of 48\"}",
+                get("/readings?from=2022-07-01&to=2022-07-03T00"));
+        assertTrue(get("/other").startsWith("404 "));
+        awaitIdle();
+        assertEquals(0, service.getInFlight());
+    }
+}
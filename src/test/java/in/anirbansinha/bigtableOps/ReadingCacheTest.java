@@ -0,0 +1,204 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class ReadingCacheTest {
+
+    private static final LocalDate DAY = LocalDate.of(2022, 10, 1);
+
+    private static ReadingKey key(int hour) {
+        return new ReadingKey("YVR", DAY, hour);
+    }
+
+    private static HourlyReading reading(int hour) {
+        return new HourlyReading(key(hour), new int[] { hour, 2, 3, 4, 1013 });
+    }
+
+    @Test
+    public void readsThroughOnce() throws Exception {
+        ReadingCache cache = new ReadingCache(100, Long.MAX_VALUE, 0, System::nanoTime);
+        AtomicInteger fetches = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(reading(10), cache.get(key(10), k -> {
+                fetches.incrementAndGet();
+                return reading(k.hour);
+            }));
+        }
+        assertEquals(1, fetches.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void cachesAbsentReadings() throws Exception {
+        ReadingCache cache = new ReadingCache(100, Long.MAX_VALUE, 0, System::nanoTime);
+        AtomicInteger fetches = new AtomicInteger();
+        ReadingCache.Loader none = k -> {
+            fetches.incrementAndGet();
+            return null;
+        };
+        assertNull(cache.get(key(3), none));
+        assertNull(cache.get(key(3), none));
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void expiresAfterTtl() throws Exception {
+        AtomicLong now = new AtomicLong();
+        ReadingCache cache = new ReadingCache(100, Long.MAX_VALUE, 1000, now::get);
+        cache.put(key(1), reading(1));
+        now.addAndGet(999_000_000L);
+        assertEquals(reading(1), cache.getIfPresent(key(1)));
+        now.addAndGet(1_000_000L);
+        assertNull(cache.getIfPresent(key(1)));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ReadingCache cache = new ReadingCache(3, Long.MAX_VALUE, 0, System::nanoTime);
+        cache.put(key(1), reading(1));
+        cache.put(key(2), reading(2));
+        cache.put(key(3), reading(3));
+        cache.getIfPresent(key(1));
+        cache.put(key(4), reading(4));
+
+        assertNull(cache.getIfPresent(key(2)));
+        assertEquals(reading(1), cache.getIfPresent(key(1)));
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void evictsBySize() {
+        long entry = ReadingCache.ENTRY_OVERHEAD + 6;
+        ReadingCache cache = new ReadingCache(100, entry * 5, 0, System::nanoTime);
+        for (int hour = 0; hour < 8; hour++) {
+            cache.put(key(hour), reading(hour));
+        }
+        assertEquals(5, cache.size());
+        assertEquals(entry * 5, cache.getBytes());
+        assertEquals(3, cache.getEvictions());
+    }
+
+    @Test
+    public void collapsesConcurrentMisses() throws Exception {
+        ReadingCache cache = new ReadingCache(100, Long.MAX_VALUE, 0, System::nanoTime);
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ReadingCache.Loader slow = k -> {
+            fetches.incrementAndGet();
+            release.await();
+            return reading(k.hour);
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<HourlyReading>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> cache.get(key(5), slow)));
+            }
+            // Wait until every caller is either fetching or waiting for the fetch
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.getMisses() + cache.getCollapsed() < 8 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            HourlyReading first = results.get(0).get();
+            for (Future<HourlyReading> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, fetches.get());
+        assertEquals(7, cache.getCollapsed());
+    }
+
+    @Test
+    public void collapsesConcurrentAsyncMisses() throws Exception {
+        ReadingCache cache = new ReadingCache(100, Long.MAX_VALUE, 0, System::nanoTime);
+        AtomicInteger fetches = new AtomicInteger();
+        CompletableFuture<HourlyReading> fetch = new CompletableFuture<>();
+        ReadingCache.AsyncLoader pending = k -> {
+            fetches.incrementAndGet();
+            return fetch;
+        };
+
+        CompletableFuture<HourlyReading> first = cache.getAsync(key(6), pending);
+        CompletableFuture<HourlyReading> second = cache.getAsync(key(6), pending);
+        assertFalse(first.isDone());
+        fetch.complete(reading(6));
+        assertEquals(reading(6), first.get());
+        assertEquals(reading(6), second.get());
+        assertEquals(reading(6), cache.getAsync(key(6), pending).get());
+        assertEquals(1, fetches.get());
+        assertEquals(1, cache.getCollapsed());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void looksUpManyKeys() {
+        ReadingCache cache = new ReadingCache(100, Long.MAX_VALUE, 0, System::nanoTime);
+        cache.put(key(1), reading(1));
+        cache.put(key(2), null);
+
+        Map<ReadingKey, HourlyReading> found = new HashMap<>();
+        List<ReadingKey> missing = cache.getAllPresent(Arrays.asList(key(1), key(2), key(3)), found);
+        assertEquals(Collections.singletonList(key(3)), missing);
+        assertEquals(Collections.singletonMap(key(1), reading(1)), found);
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        ReadingCache cache = new ReadingCache(100, Long.MAX_VALUE, 0, System::nanoTime);
+        try {
+            cache.get(key(7), k -> {
+                throw new IllegalStateException("unavailable");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("unavailable", e.getMessage());
+        }
+        assertEquals(reading(7), cache.get(key(7), k -> reading(k.hour)));
+    }
+
+    @Test
+    public void decodesWrittenMutations() {
+        RowMutationEntry entry = RowMutationEntry.create(key(10).rowKey());
+        ReadingCodec codec = ReadingCodecs.forName(ReadingCodecs.PACKED);
+        codec.encode(entry, "sensor", new int[] { 10, 2, 3, 4, 1013 });
+        HourlyReading reading = HourlyReading.fromMutation(entry, "sensor", codec);
+        assertEquals(reading(10), reading);
+        assertTrue(reading.key().equals(ReadingKey.fromRowKey(ByteString.copyFromUtf8("YVR#2022-10-01#10"))));
+    }
+}
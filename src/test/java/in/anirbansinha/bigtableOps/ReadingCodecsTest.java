@@ -0,0 +1,93 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.google.bigtable.v2.Mutation;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReadingCodecsTest {
+
+    private static final String FAMILY = "sensor";
+    private static final ByteString KEY = ByteString.copyFromUtf8("SEA#2022-10-02#7");
+    private static final int[] VALUES = { -12, 3, 87, 0, 1013 };
+
+    @Test
+    public void everyEncodingRoundTrips() {
+        for (String name : new String[] { ReadingCodecs.STRING, ReadingCodecs.INT, ReadingCodecs.PACKED }) {
+            ReadingCodec codec = ReadingCodecs.forName(name);
+            Row row = written(codec, VALUES);
+
+            int[] values = new int[Metric.COUNT];
+            assertEquals(name, (1 << Metric.COUNT) - 1, codec.decode(row, FAMILY, values));
+            assertArrayEquals(name, VALUES, values);
+            for (Metric metric : Metric.values()) {
+                assertEquals(name, VALUES[metric.ordinal()], codec.decode(row, FAMILY, metric));
+            }
+        }
+    }
+
+    @Test
+    public void compatReadsEveryEncoding() {
+        ReadingCodec compat = ReadingCodecs.compat(ReadingCodecs.forName(ReadingCodecs.PACKED));
+        for (String name : new String[] { ReadingCodecs.STRING, ReadingCodecs.INT, ReadingCodecs.PACKED }) {
+            Row row = written(ReadingCodecs.forName(name), VALUES);
+            int[] values = new int[Metric.COUNT];
+            compat.decode(row, FAMILY, values);
+            assertArrayEquals(name, VALUES, values);
+        }
+    }
+
+    @Test
+    public void missingAndInvalidCellsDecodeAsMissing() {
+        Row empty = Row.create(KEY, Collections.<RowCell>emptyList());
+        assertEquals(0, ReadingCodecs.compat(ReadingCodecs.forName(ReadingCodecs.STRING))
+                .decode(empty, FAMILY, new int[Metric.COUNT]));
+        assertEquals(ReadingCodec.MISSING, ReadingCodecs.forName(ReadingCodecs.PACKED)
+                .decode(empty, FAMILY, Metric.PRESSURE));
+
+        Row text = Row.create(KEY, Collections.singletonList(cell(Metric.HUMIDITY.qualifierBytes, "abc")));
+        assertEquals(ReadingCodec.MISSING, ReadingCodecs.forName(ReadingCodecs.STRING)
+                .decode(text, FAMILY, Metric.HUMIDITY));
+    }
+
+    @Test
+    public void parsesDecimalText() {
+        assertEquals(42, ReadingCodecs.parseDecimal(ByteString.copyFromUtf8(" 42 ")));
+        assertEquals(-7, ReadingCodecs.parseDecimal(ByteString.copyFromUtf8("-7")));
+        assertEquals(Integer.MAX_VALUE, ReadingCodecs.parseDecimal(ByteString.copyFromUtf8("2147483647")));
+        assertEquals(ReadingCodec.MISSING, ReadingCodecs.parseDecimal(ByteString.copyFromUtf8("2147483648")));
+        assertEquals(ReadingCodec.MISSING, ReadingCodecs.parseDecimal(ByteString.copyFromUtf8("-")));
+        assertEquals(ReadingCodec.MISSING, ReadingCodecs.parseDecimal(ByteString.copyFromUtf8("1.5")));
+    }
+
+    /**
+     * @return The row as it would be read back after writing the codec's mutation
+     */
+    private static Row written(ReadingCodec codec, int[] values) {
+        RowMutationEntry entry = RowMutationEntry.create(KEY);
+        codec.encode(entry, FAMILY, values);
+        List<RowCell> cells = new ArrayList<>();
+        for (Mutation mutation : entry.toProto().getMutationsList()) {
+            Mutation.SetCell set = mutation.getSetCell();
+            cells.add(RowCell.create(set.getFamilyName(), set.getColumnQualifier(), 0,
+                    Collections.<String>emptyList(), set.getValue()));
+        }
+        // Rows come back from the server with their cells sorted by column
+        cells.sort(RowCell.compareByNative());
+        return Row.create(KEY, cells);
+    }
+
+    private static RowCell cell(ByteString qualifier, String value) {
+        return RowCell.create(FAMILY, qualifier, 0, Collections.<String>emptyList(), ByteString.copyFromUtf8(value));
+    }
+}
@@ -0,0 +1,206 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that {@link ReadingParser} accepts and rejects exactly the same lines, with the
+ * same values, as the String based parser it replaced (kept below as the reference).
+ */
+public class ReadingParserTest {
+
+    private static final byte[] STATION = "SEA#".getBytes(StandardCharsets.UTF_8);
+
+    private PrintStream out;
+    private PrintStream err;
+
+    @Before
+    public void silenceDiagnostics() {
+        out = System.out;
+        err = System.err;
+        PrintStream sink = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        });
+        System.setOut(sink);
+        System.setErr(sink);
+    }
+
+    @After
+    public void restoreDiagnostics() {
+        System.setOut(out);
+        System.setErr(err);
+    }
+
+    @Test
+    public void matchesReferenceOnBundledData() throws IOException {
+        for (String file : new String[] { "data/seatac.csv", "data/vancouver.csv", "data/portland.csv" }) {
+            List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+            for (int i = 2; i < lines.size(); i++) {
+                assertSameResult(lines.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void matchesReferenceOnEdgeCases() {
+        String[] values = { "", " ", "M", "B", "?", "@", ";", "=", "MM", "5B", "60", "61", "-100", "-101",
+                "60.4", "60.5", "-0.5", ".5", "5.", ".", "-", "--5", "5-", "1.2.3", "72F", "72f", "72°F",
+                "72 F", "20C", "20°C", "20 °c", "-40F", "F", "c", "°", "2147483647", "2147483648",
+                "-2147483648", "99999999999", "1013.6", "1100.4", "1100.5", "799.5", "799.4", "100.4",
+                "100.5", "0000012", "12.000000000000000000000001", "123456789012345678.5", "1e5", "+5",
+                "1,5", " 42 ", "\t7" };
+        for (String value : values) {
+            for (int column = 3; column <= 8; column++) {
+                String[] fields = { "2459492.87", "2021-10-04", "20:53", "60", "49", "66.9", "6", "M", "1013.6" };
+                fields[column] = value;
+                assertSameResult(String.join(",", fields));
+            }
+        }
+
+        String[] lines = {
+            "", ",,,,,,,,", "a,b,c,d,e,f,g,h", "2459492.87,2021-10-04,20:53,60,49,66.9,6,M,",
+            "2459492.87,2021-10-04,20:53,60,49,66.9,6,M, ", "2459492.87,2021-10-04,20:53,60,49,66.9,6,M,1013.6,,,",
+            "2459492.87,2021-10-04,::,60,49,66.9,6,M,1013.6", "2459492.87,2021-10-04,:30,60,49,66.9,6,M,1013.6",
+            "2459492.87,2021-10-04,,60,49,66.9,6,M,1013.6", "2459492.87, 2021-10-04 , 7:05 ,60,49,66.9,6,M,1013.6",
+            "x,y,z,1,2,3,4,5,900,extra",
+        };
+        for (String line : lines) {
+            assertSameResult(line);
+        }
+    }
+
+    @Test
+    public void matchesReferenceOnRandomFields() {
+        String alphabet = "0123456789.-MBFfCc°; =?@x,:";
+        Random random = new Random(42);
+        for (int n = 0; n < 20000; n++) {
+            String[] fields = { "2459492.87", "2021-10-04", "20:53", "60", "49", "66.9", "6", "M", "1013.6" };
+            int column = 2 + random.nextInt(7);
+            StringBuilder value = new StringBuilder();
+            int length = random.nextInt(7);
+            for (int i = 0; i < length; i++) {
+                value.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            fields[column] = value.toString();
+            assertSameResult(String.join(",", fields));
+        }
+    }
+
+    private static void assertSameResult(String line) {
+        byte[] data = ("#" + line + "#").getBytes(StandardCharsets.UTF_8);
+        ReadingParser parser = new ReadingParser();
+        boolean accepted = parser.parse(data, 1, data.length - 1, 3);
+        String actual = accepted
+                ? parser.rowKey(STATION).toStringUtf8() + " " + parser.temperature() + " " + parser.dewPoint()
+                        + " " + parser.humidity() + " " + parser.windSpeed() + " " + parser.pressure()
+                : null;
+        assertEquals("Line: " + line, referenceParse(line), actual);
+    }
+
+    // Reference implementation: the String based parser formerly in Bigtable.loadData
+
+    private static String referenceParse(String line) {
+        String[] fields = line.split(",");
+        if (fields.length < 9) {
+            return null;
+        }
+        try {
+            String date = fields[1].trim();
+            String timeStr = fields[2].trim();
+            String hour = timeStr.split(":")[0];
+            int temperature = parseFieldWithMissing(fields[3].trim(), "temperature");
+            int dewPoint = parseFieldWithMissing(fields[4].trim(), "dewpoint");
+            int humidity = parseFieldWithMissing(fields[5].trim(), "humidity");
+            int windSpeed = parseFieldWithMissing(fields[6].trim(), "wind speed");
+            int pressure = parseFieldWithMissing(fields[8].trim(), "pressure");
+            if (temperature == Integer.MIN_VALUE || dewPoint == Integer.MIN_VALUE
+                    || humidity == Integer.MIN_VALUE || windSpeed == Integer.MIN_VALUE
+                    || pressure == Integer.MIN_VALUE) {
+                return null;
+            }
+            return "SEA#" + date + "#" + hour + " " + temperature + " " + dewPoint + " " + humidity + " "
+                    + windSpeed + " " + pressure;
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static int parseFieldWithMissing(String value, String fieldName) {
+        value = value.trim();
+        if (value.isEmpty() || value.equals("M") || value.matches("[;=?@B]")) {
+            return Integer.MIN_VALUE;
+        }
+        if (fieldName.equals("temperature")) {
+            String cleanedValue = value.replaceAll("[^0-9.\\-°CFcf]", "").trim().toLowerCase();
+            if (cleanedValue.contains("f")) {
+                cleanedValue = cleanedValue.replace("f", "");
+                try {
+                    double fahrenheit = Double.parseDouble(cleanedValue);
+                    double celsius = (fahrenheit - 32) * 5 / 9;
+                    return (int) Math.round(celsius);
+                } catch (NumberFormatException e) {
+                    return Integer.MIN_VALUE;
+                }
+            }
+            cleanedValue = cleanedValue.replace("c", "").replace("°", "");
+            if (cleanedValue.indexOf('.') != cleanedValue.lastIndexOf('.')
+                    || cleanedValue.indexOf('-') != cleanedValue.lastIndexOf('-')
+                    || (cleanedValue.contains("-") && cleanedValue.indexOf("-") > 0)) {
+                return Integer.MIN_VALUE;
+            }
+            try {
+                double temperature = cleanedValue.contains(".")
+                        ? Double.parseDouble(cleanedValue) : Integer.parseInt(cleanedValue);
+                if (temperature < -100 || temperature > 60) {
+                    return Integer.MIN_VALUE;
+                }
+                return (int) Math.round(temperature);
+            } catch (NumberFormatException e) {
+                return Integer.MIN_VALUE;
+            }
+        }
+        String cleanedValue = value.replaceAll("[^0-9.\\-]", "").trim();
+        if (cleanedValue.isEmpty()) {
+            return Integer.MIN_VALUE;
+        }
+        if (cleanedValue.indexOf('.') != cleanedValue.lastIndexOf('.')
+                || cleanedValue.indexOf('-') != cleanedValue.lastIndexOf('-')
+                || (cleanedValue.contains("-") && cleanedValue.indexOf("-") > 0)) {
+            return Integer.MIN_VALUE;
+        }
+        try {
+            double numericValue = cleanedValue.contains(".")
+                    ? Double.parseDouble(cleanedValue) : Integer.parseInt(cleanedValue);
+            if (fieldName.equals("wind_speed")) {
+                if (numericValue < 0 || numericValue > 200) {
+                    return Integer.MIN_VALUE;
+                }
+            } else if (fieldName.equals("humidity")) {
+                if (numericValue < 0 || numericValue > 100) {
+                    return Integer.MIN_VALUE;
+                }
+            } else if (fieldName.equals("pressure")) {
+                if (numericValue < 800 || numericValue > 1100) {
+                    return Integer.MIN_VALUE;
+                }
+            }
+            return (int) Math.round(numericValue);
+        } catch (NumberFormatException e) {
+            return Integer.MIN_VALUE;
+        }
+    }
+}
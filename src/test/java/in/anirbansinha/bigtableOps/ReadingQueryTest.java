@@ -0,0 +1,191 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.bigtable.v2.ReadRowsRequest;
+import com.google.bigtable.v2.RowRange;
+import com.google.cloud.bigtable.data.v2.internal.RequestContext;
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.protobuf.ByteString;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class ReadingQueryTest {
+
+    private static final RequestContext CONTEXT = RequestContext.create("p", "i", "");
+
+    private static ReadingQuery readings() {
+        return new ReadingQuery("weather", "sensor", ReadingCodecs.forName(ReadingCodecs.STRING));
+    }
+
+    @Test
+    public void wholeDaysAreOneRangePerStation() {
+        ReadRowsRequest request = readings().stations("PDX", "SEA")
+                .days(LocalDate.of(2022, 9, 1), LocalDate.of(2022, 9, 30))
+                .build().toProto(CONTEXT);
+
+        List<RowRange> ranges = request.getRows().getRowRangesList();
+        assertEquals(2, ranges.size());
+        assertEquals("PDX#2022-09-01#", ranges.get(0).getStartKeyClosed().toStringUtf8());
+        assertEquals("PDX#2022-10-01#", ranges.get(0).getEndKeyOpen().toStringUtf8());
+        assertEquals(0, request.getRows().getRowKeysCount());
+
+        // Every hour of the range is inside it, including the unpadded ones at the end of the month
+        assertTrue(contains(ranges.get(0), "PDX#2022-09-30#9"));
+        assertTrue(contains(ranges.get(0), "PDX#2022-09-30#23"));
+        assertFalse(contains(ranges.get(0), "PDX#2022-08-31#23"));
+    }
+
+    @Test
+    public void perStationQueriesSplitTheRanges() {
+        List<Query> queries = readings().stations("SEA", "YVR", "PDX")
+                .days(LocalDate.of(2022, 7, 1), LocalDate.of(2022, 8, 31)).buildPerStation();
+        assertEquals(3, queries.size());
+        RowRange range = queries.get(1).toProto(CONTEXT).getRows().getRowRanges(0);
+        assertEquals("YVR#2022-07-01#", range.getStartKeyClosed().toStringUtf8());
+        assertEquals("YVR#2022-09-01#", range.getEndKeyOpen().toStringUtf8());
+        assertEquals(1, queries.get(1).toProto(CONTEXT).getRows().getRowRangesCount());
+    }
+
+    @Test
+    public void partialDaysArePointReads() {
+        ReadRowsRequest request = readings().stations("SEA")
+                .hours(LocalDate.of(2022, 10, 1), 22, LocalDate.of(2022, 10, 3), 1)
+                .build().toProto(CONTEXT);
+
+        List<String> keys = new ArrayList<>();
+        for (ByteString key : request.getRows().getRowKeysList()) {
+            keys.add(key.toStringUtf8());
+        }
+        assertEquals(4, keys.size());
+        assertTrue(keys.contains("SEA#2022-10-01#22"));
+        assertTrue(keys.contains("SEA#2022-10-03#0"));
+        assertEquals(1, request.getRows().getRowRangesCount());
+        assertEquals("SEA#2022-10-02#", request.getRows().getRowRanges(0).getStartKeyClosed().toStringUtf8());
+        assertEquals("SEA#2022-10-03#", request.getRows().getRowRanges(0).getEndKeyOpen().toStringUtf8());
+    }
+
+    @Test
+    public void dateRegexMatchesOnlyTheRange() {
+        Pattern summer = Pattern.compile(readings().days(LocalDate.of(2022, 7, 1), LocalDate.of(2022, 8, 31)).dateRegex());
+        assertTrue(summer.matcher("YVR#2022-07-01#0").matches());
+        assertTrue(summer.matcher("SEA#2022-08-31#23").matches());
+        assertFalse(summer.matcher("SEA#2022-09-01#0").matches());
+        assertFalse(summer.matcher("SEA#2021-07-04#12").matches());
+
+        Pattern partial = Pattern.compile(readings().days(LocalDate.of(2022, 6, 29), LocalDate.of(2022, 7, 2)).dateRegex());
+        assertTrue(partial.matcher("PDX#2022-06-30#5").matches());
+        assertTrue(partial.matcher("PDX#2022-07-02#5").matches());
+        assertFalse(partial.matcher("PDX#2022-06-28#5").matches());
+        assertFalse(partial.matcher("PDX#2022-07-03#5").matches());
+
+        Pattern hours = Pattern.compile(readings().hours(LocalDate.of(2022, 9, 30), 22, LocalDate.of(2022, 10, 1), 2).dateRegex());
+        assertTrue(hours.matcher("SEA#2022-09-30#23").matches());
+        assertTrue(hours.matcher("SEA#2022-10-01#2").matches());
+        assertFalse(hours.matcher("SEA#2022-09-30#2").matches());
+        assertFalse(hours.matcher("SEA#2022-10-01#20").matches());
+    }
+
+    @Test
+    public void readsOnlyTheLatestCellOfTheRequestedColumns() {
+        String filter = readings().stations("SEA").days(LocalDate.of(2022, 10, 2), LocalDate.of(2022, 10, 2))
+                .metrics(Metric.TEMPERATURE).build().toProto(CONTEXT).getFilter().toString();
+        assertTrue(filter.contains("temperature"));
+        assertFalse(filter.contains("pressure"));
+        assertTrue(filter.contains("cells_per_column_limit_filter: 1"));
+    }
+
+    @Test
+    public void parsesRowKeys() {
+        ByteString key = ByteString.copyFromUtf8(RowKeys.rowKey("SEA", LocalDate.of(2022, 10, 2), 7));
+        assertEquals("SEA#2022-10-02#7", key.toStringUtf8());
+        assertEquals("SEA", RowKeys.stationId(key));
+        assertEquals("2022-10-02", RowKeys.date(key));
+        assertEquals(7, RowKeys.hour(key));
+        assertEquals(-1, RowKeys.hour(ByteString.copyFromUtf8("SEA#2022-10-02#")));
+    }
+
+    @Test
+    public void bucketedRangesHoldEveryDayOnce() {
+        KeyLayout layout = KeyLayout.bucketed(8);
+        for (int days : new int[] { 3, 8, 62 }) {
+            LocalDate first = LocalDate.of(2022, 7, 1);
+            LocalDate last = first.plusDays(days - 1);
+            List<RowRange> ranges = new ReadingQuery("weather", "sensor", ReadingCodecs.forName(ReadingCodecs.STRING),
+                    layout).stations("SEA").days(first, last).build().toProto(CONTEXT).getRows().getRowRangesList();
+            assertEquals(Math.min(days, 8), ranges.size());
+
+            for (LocalDate day = first.minusDays(1); !day.isAfter(last.plusDays(1)); day = day.plusDays(1)) {
+                boolean inRange = !day.isBefore(first) && !day.isAfter(last);
+                for (int hour : new int[] { 0, 9, 23 }) {
+                    int matches = 0;
+                    for (RowRange range : ranges) {
+                        matches += contains(range, layout.rowKey("SEA", day, hour)) ? 1 : 0;
+                    }
+                    assertEquals(day + " " + hour, inRange ? 1 : 0, matches);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bucketedLayoutSpreadsDaysAndParses() {
+        KeyLayout layout = KeyLayout.bucketed(8);
+        Set<String> buckets = new HashSet<>();
+        for (int day = 1; day <= 8; day++) {
+            buckets.add(layout.rowKey("PDX", LocalDate.of(2022, 9, day), 10).substring(0, 3));
+        }
+        assertEquals(8, buckets.size());
+
+        String rowKey = layout.rowKey("PDX", LocalDate.of(2022, 9, 30), 23);
+        assertTrue(rowKey, rowKey.matches("[0-9][0-9]#PDX#2022-09-30#23"));
+        ByteString key = ByteString.copyFromUtf8(rowKey);
+        assertEquals("PDX", RowKeys.stationId(key));
+        assertEquals("2022-09-30", RowKeys.date(key));
+        assertEquals(new ReadingKey("PDX", LocalDate.of(2022, 9, 30), 23), ReadingKey.fromRowKey(key));
+
+        Pattern all = Pattern.compile(new ReadingQuery("weather", "sensor", ReadingCodecs.forName(ReadingCodecs.STRING),
+                layout).days(LocalDate.of(2022, 9, 1), LocalDate.of(2022, 9, 30)).dateRegex());
+        assertTrue(all.matcher(rowKey).matches());
+        assertFalse(all.matcher("PDX#2022-09-30#23").matches());
+    }
+
+    @Test
+    public void splitsAtStationsAndDates() {
+        List<String> plain = strings(KeyLayout.plain().splits(Arrays.asList("SEA", "PDX"),
+                YearMonth.of(2022, 1), YearMonth.of(2022, 3)));
+        assertEquals(Arrays.asList("PDX#", "PDX#2022-01", "PDX#2022-02", "PDX#2022-03",
+                "SEA#", "SEA#2022-01", "SEA#2022-02", "SEA#2022-03"), plain);
+        assertEquals(Arrays.asList("PDX#", "SEA#"), strings(KeyLayout.plain().splits(Arrays.asList("SEA", "PDX"),
+                null, null)));
+
+        List<String> bucketed = strings(KeyLayout.bucketed(4).splits(Arrays.asList("SEA", "PDX"), null, null));
+        assertEquals(Arrays.asList("00#PDX#", "00#SEA#", "01#PDX#", "01#SEA#", "02#PDX#", "02#SEA#",
+                "03#PDX#", "03#SEA#"), bucketed);
+    }
+
+    private static List<String> strings(List<ByteString> keys) {
+        List<String> strings = new ArrayList<>();
+        for (ByteString key : keys) {
+            strings.add(key.toStringUtf8());
+        }
+        return strings;
+    }
+
+    private static boolean contains(RowRange range, String key) {
+        ByteString k = ByteString.copyFromUtf8(key);
+        return ByteString.unsignedLexicographicalComparator().compare(range.getStartKeyClosed(), k) <= 0
+                && ByteString.unsignedLexicographicalComparator().compare(k, range.getEndKeyOpen()) < 0;
+    }
+}
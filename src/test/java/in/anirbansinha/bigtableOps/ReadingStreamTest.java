@@ -0,0 +1,145 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.bigtable.data.v2.models.Query;
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReadingStreamTest {
+
+    private static final LocalDate DAY = LocalDate.of(2022, 10, 1);
+    private static final ReadingCodec CODEC = ReadingCodecs.forName(ReadingCodecs.INT);
+
+    /**
+     * The rows of a scan, counting the rows taken and whether the scan was cancelled.
+     */
+    private static class CountingRows implements TableStore.Rows {
+        final TableStore.Rows rows;
+        int read;
+        int cancels;
+
+        CountingRows(TableStore.Rows rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public Iterator<Row> iterator() {
+            Iterator<Row> iterator = rows.iterator();
+            return new Iterator<Row>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Row next() {
+                    read++;
+                    return iterator.next();
+                }
+            };
+        }
+
+        @Override
+        public void cancel() {
+            cancels++;
+            rows.cancel();
+        }
+    }
+
+    private final MemoryTableStore store = new MemoryTableStore();
+    private final Metrics metrics = new Metrics();
+    private CountingRows rows;
+
+    @Before
+    public void writeReadings() throws Exception {
+        store.createTable("weather", "sensor", Collections.emptyList());
+        TableStore.RowWriter writer = store.newBulkWriter("weather");
+        for (int hour = 0; hour < 5; hour++) {
+            RowMutationEntry entry = RowMutationEntry.create(KeyLayout.plain().rowKey(new ReadingKey("SEA", DAY, hour)));
+            CODEC.encode(entry, "sensor", new int[] { 10 + hour, 5, 80, 3, 1013 });
+            writer.add(entry);
+        }
+        writer.flush();
+    }
+
+    private ReadingStream open() {
+        rows = new CountingRows(store.readRows(Query.create("weather")));
+        return new ReadingStream(rows, "sensor", CODEC, metrics.query("stream").start());
+    }
+
+    private long stat(String name) {
+        return metrics.snapshot().get("query.stream." + name).longValue();
+    }
+
+    @Test
+    public void everyRowIsDecodedIntoTheSameView() {
+        List<HourlyReading> copies = new ArrayList<>();
+        Reading first = null;
+        try (ReadingStream readings = open()) {
+            for (Reading reading : readings) {
+                if (first == null) {
+                    first = reading;
+                }
+                assertSame(first, reading);
+                HourlyReading copy = reading.copy();
+                assertNotSame(reading, copy);
+                copies.add(copy);
+            }
+            // Read to the end: finished once, whether or not it is closed later
+            assertEquals(1, stat("calls"));
+        }
+        assertEquals(1, stat("calls"));
+        assertEquals(5, stat("rowsScanned"));
+
+        assertEquals(5, copies.size());
+        for (int hour = 0; hour < 5; hour++) {
+            // The copies keep their values after the view has moved on
+            assertEquals(new ReadingKey("SEA", DAY, hour), copies.get(hour).key());
+            assertEquals(10 + hour, copies.get(hour).value(Metric.TEMPERATURE));
+        }
+    }
+
+    @Test
+    public void closingBeforeTheEndCancelsTheScan() {
+        ReadingStream readings = open();
+        assertTrue(readings.hasNext());
+        assertEquals(10, readings.next().value(Metric.TEMPERATURE));
+        readings.close();
+        assertEquals(1, rows.cancels);
+        assertFalse(readings.hasNext());
+
+        readings.close();
+        assertEquals(1, rows.cancels);
+        assertEquals(1, stat("calls"));
+        assertEquals(1, stat("rowsScanned"));
+    }
+
+    @Test
+    public void aLimitedStreamStopsTheScan() {
+        ReadingStream readings = open();
+        long count;
+        try (Stream<Reading> stream = readings.stream()) {
+            count = stream.limit(2).count();
+        }
+        assertEquals(2, count);
+        assertEquals(2, rows.read);
+        assertEquals(1, rows.cancels);
+        assertEquals(1, stat("calls"));
+        assertEquals(0, stat("errors"));
+    }
+}
@@ -0,0 +1,150 @@
+package in.anirbansinha.bigtableOps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.cloud.bigtable.data.v2.models.Row;
+import com.google.cloud.bigtable.data.v2.models.RowCell;
+import com.google.cloud.bigtable.data.v2.models.RowMutationEntry;
+import com.google.protobuf.ByteString;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class RollupsTest {
+
+    @Test
+    public void wholeMonthsComeFromMonthlyRollups() {
+        RollupPlan plan = RollupPlan.of(HourRange.days(LocalDate.of(2022, 7, 1), LocalDate.of(2022, 8, 31)));
+        assertEquals(YearMonth.of(2022, 7), plan.firstMonth);
+        assertEquals(YearMonth.of(2022, 8), plan.lastMonth);
+        assertTrue(plan.days.isEmpty());
+        assertTrue(plan.hours.isEmpty());
+    }
+
+    @Test
+    public void rangesSplitIntoMonthsDaysAndHours() {
+        RollupPlan plan = RollupPlan.of(HourRange.of(LocalDate.of(2022, 6, 17), 5, LocalDate.of(2022, 9, 3), 13));
+        assertEquals(YearMonth.of(2022, 7), plan.firstMonth);
+        assertEquals(YearMonth.of(2022, 8), plan.lastMonth);
+        assertEquals(2, plan.days.size());
+        assertEquals(HourRange.days(LocalDate.of(2022, 6, 18), LocalDate.of(2022, 6, 30)), plan.days.get(0));
+        assertEquals(HourRange.days(LocalDate.of(2022, 9, 1), LocalDate.of(2022, 9, 2)), plan.days.get(1));
+        assertEquals(2, plan.hours.size());
+        assertEquals(HourRange.of(LocalDate.of(2022, 6, 17), 5, LocalDate.of(2022, 6, 17), 23), plan.hours.get(0));
+        assertEquals(HourRange.of(LocalDate.of(2022, 9, 3), 0, LocalDate.of(2022, 9, 3), 13), plan.hours.get(1));
+    }
+
+    @Test
+    public void shortRangesUseDaysOrHours() {
+        RollupPlan days = RollupPlan.of(HourRange.days(LocalDate.of(2022, 9, 1), LocalDate.of(2022, 9, 29)));
+        assertNull(days.firstMonth);
+        assertEquals(1, days.days.size());
+
+        RollupPlan hours = RollupPlan.of(HourRange.of(LocalDate.of(2022, 9, 10), 3, LocalDate.of(2022, 9, 10), 20));
+        assertNull(hours.firstMonth);
+        assertTrue(hours.days.isEmpty());
+        assertEquals(1, hours.hours.size());
+
+        RollupPlan twoPartialDays = RollupPlan.of(HourRange.of(LocalDate.of(2022, 9, 10), 20, LocalDate.of(2022, 9, 11), 2));
+        assertTrue(twoPartialDays.days.isEmpty());
+        assertEquals(2, twoPartialDays.hours.size());
+    }
+
+    @Test
+    public void rollupCellsRoundTrip() {
+        ByteString value = Rollups.encode(-40, 60, 5_000_000_000L, 123_456);
+        Row row = Row.create(ByteString.copyFromUtf8("SEA#2022-07"), Collections.singletonList(
+                RowCell.create("sensor", Metric.TEMPERATURE.qualifierBytes, 0, Collections.<String>emptyList(), value)));
+
+        MetricAccumulator values = new MetricAccumulator();
+        assertTrue(Rollups.addTo(row, "sensor", Metric.TEMPERATURE, values));
+        assertFalse(Rollups.addTo(row, "sensor", Metric.PRESSURE, values));
+        assertEquals(-40, values.min());
+        assertEquals(60, values.max());
+        assertEquals(5_000_000_000L, values.sum());
+        assertEquals(123_456, values.count());
+        assertFalse(values.hasPercentiles());
+    }
+
+    /**
+     * Aggregates with rollups match the hourly rows whether the rollup tables are missing,
+     * partly written or complete.
+     */
+    @Test
+    public void daysAndMonthsWithoutRollupsAreReadHourly() throws Exception {
+        MemoryTableStore store = new MemoryTableStore();
+        ReadingCodec codec = ReadingCodecs.forName(ReadingCodecs.INT);
+        KeyLayout layout = KeyLayout.plain();
+        Metrics metrics = new Metrics();
+        store.createTable("t", "sensor", Collections.emptyList());
+        BulkLoader hourly = new BulkLoader(store, "t", 10, metrics);
+        Rollups all = new Rollups();
+        Rollups firstDay = new Rollups();
+        Rollups.StationRollup allRollup = all.newStation("SEA");
+        Rollups.StationRollup firstDayRollup = firstDay.newStation("SEA");
+        for (LocalDate day = LocalDate.of(2022, 7, 30); day.isBefore(LocalDate.of(2022, 8, 3)); day = day.plusDays(1)) {
+            for (int hour = 0; hour < 24; hour++) {
+                int[] values = { day.getDayOfMonth() * 100 + hour, 1, 2, 3, 4 };
+                ByteString key = ByteString.copyFromUtf8(layout.rowKey(new ReadingKey("SEA", day, hour)));
+                RowMutationEntry entry = RowMutationEntry.create(key);
+                hourly.add(entry, key.size() + codec.encode(entry, "sensor", values));
+                long hourKey = KeyLayout.dayKey(day) * 100L + hour;
+                allRollup.add(hourKey, values);
+                if (day.getDayOfMonth() == 30) {
+                    firstDayRollup.add(hourKey, values);
+                }
+            }
+        }
+        hourly.flush();
+        hourly.close();
+
+        HourRange range = HourRange.days(LocalDate.of(2022, 7, 30), LocalDate.of(2022, 8, 31));
+        AggregationEngine withoutRollups = new AggregationEngine(store, "t", "sensor", codec, layout, false);
+        MetricAccumulator expected = withoutRollups.summarize(Collections.singletonList("SEA"), range,
+                Metric.TEMPERATURE, QueryTrace.NONE);
+        assertEquals(96, expected.count());
+
+        AggregationEngine engine = new AggregationEngine(store, "t", "sensor", codec, layout, true);
+        // No rollup tables
+        assertSameSummary(expected, engine.summarize(Collections.singletonList("SEA"), range,
+                Metric.TEMPERATURE, QueryTrace.NONE));
+
+        // Only the first day rolled up
+        store.createTable(Rollups.dailyTable("t"), "sensor", Collections.emptyList());
+        store.createTable(Rollups.monthlyTable("t"), "sensor", Collections.emptyList());
+        writeRollups(store, firstDay, metrics);
+        assertSameSummary(expected, engine.summarize(Collections.singletonList("SEA"), range,
+                Metric.TEMPERATURE, QueryTrace.NONE));
+
+        // Every day and month rolled up: 2 daily rows and a monthly one are read
+        writeRollups(store, all, metrics);
+        QueryTrace trace = metrics.query("summarize").start();
+        assertSameSummary(expected, engine.summarize(Collections.singletonList("SEA"), range,
+                Metric.TEMPERATURE, trace));
+        trace.finish(null);
+        assertEquals(3L, metrics.snapshot().get("query.summarize.rowsScanned"));
+    }
+
+    private static void writeRollups(TableStore store, Rollups rollups, Metrics metrics) throws Exception {
+        BulkLoader daily = new BulkLoader(store, Rollups.dailyTable("t"), 10, metrics);
+        BulkLoader monthly = new BulkLoader(store, Rollups.monthlyTable("t"), 10, metrics);
+        rollups.write(daily, monthly, "sensor");
+        daily.flush();
+        monthly.flush();
+        daily.close();
+        monthly.close();
+    }
+
+    private static void assertSameSummary(MetricAccumulator expected, MetricAccumulator actual) {
+        assertEquals(expected.count(), actual.count());
+        assertEquals(expected.sum(), actual.sum());
+        assertEquals(expected.min(), actual.min());
+        assertEquals(expected.max(), actual.max());
+    }
+}